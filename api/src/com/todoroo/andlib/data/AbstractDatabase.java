@@ -7,14 +7,21 @@ package com.todoroo.andlib.data;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.todoroo.andlib.data.Property.PropertyVisitor;
@@ -35,6 +42,11 @@ import com.todoroo.andlib.utility.AndroidUtilities;
  * <p>
  * Direct querying is not recommended for type safety reasons. Instead, use one
  * of the service classes to issue the request and return a {@link TodorooCursor}.
+ * <p>
+ * Writes are serialized by a single writer lock, see {@link #lockForWriting()}.
+ * Reads don't take that lock: on Honeycomb and later the database is opened
+ * in write-ahead-log mode, so queries run on their own connections while a
+ * write is in progress.
  *
  * @author Tim Su <tim@todoroo.com>
  *
@@ -110,13 +122,158 @@ abstract public class AbstractDatabase {
         }
     }
 
+    // --- writer lock
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Acquire the writer lock. Hold it across every statement of a write
+     * transaction, and release it with {@link #unlockForWriting()} in a
+     * finally block. The lock is reentrant
+     */
+    public final void lockForWriting() {
+        long start = System.nanoTime();
+        writeLock.lock();
+        writerWait.record(System.nanoTime() - start);
+    }
+
+    public final void unlockForWriting() {
+        writeLock.unlock();
+    }
+
+    // --- metrics
+
+    /**
+     * Running count, total and maximum of a duration
+     */
+    public static class WaitStatistics {
+
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        public synchronized void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            if(nanos > maxNanos)
+                maxNanos = nanos;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /** @return mean duration in milliseconds */
+        public synchronized double getAverageMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        /** @return longest duration in milliseconds */
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        public synchronized void reset() {
+            count = totalNanos = maxNanos = 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("n=%d avg=%.2fms max=%.2fms", count,
+                    getAverageMillis(), getMaxMillis());
+        }
+    }
+
+    private final WaitStatistics readerWait = new WaitStatistics();
+
+    private final WaitStatistics writerWait = new WaitStatistics();
+
+    /**
+     * @return time from issuing a query until its first rows are available,
+     *         recorded while profiling
+     */
+    public WaitStatistics getReaderWait() {
+        return readerWait;
+    }
+
+    /**
+     * @return time writers spend waiting for the writer lock
+     */
+    public WaitStatistics getWriterWait() {
+        return writerWait;
+    }
+
+    private final QueryPlanRecorder queryPlans = new QueryPlanRecorder();
+
+    private final QueryStatistics statistics = new QueryStatistics();
+
+    /**
+     * @return latency of every query and write on this database, recorded
+     *         while profiling
+     */
+    public QueryStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return plans of queries run through {@link DatabaseDao}, recorded in
+     *         debug mode
+     */
+    public QueryPlanRecorder getQueryPlans() {
+        return queryPlans;
+    }
+
+    // --- compiled statements
+
+    private final ArrayList<CompiledStatementCache> statementCaches = new ArrayList<CompiledStatementCache>();
+
+    /**
+     * Create a compiled statement cache for the given table. Statements are
+     * released when this database is closed or upgraded.
+     */
+    public synchronized CompiledStatementCache newStatementCache(Table table) {
+        CompiledStatementCache cache = new CompiledStatementCache(table.name,
+                CompiledStatementCache.DEFAULT_SIZE);
+        statementCaches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Close the statements of all caches. They are compiled against the
+     * schema and the connection they were created with
+     */
+    private synchronized void clearStatementCaches() {
+        for(CompiledStatementCache cache : statementCaches)
+            cache.clear();
+    }
+
 	// --- internal implementation
 
     @Autowired
     private ExceptionService exceptionService;
 
+    @Autowired
+    private Boolean debug;
+
+    /** whether reads and writes are timed */
+    private volatile boolean profiling;
+
     public AbstractDatabase() {
         DependencyInjectionService.getInstance().inject(this);
+        profiling = debug != null && debug;
+    }
+
+    /**
+     * Turn timing of reads and writes on or off. Timing a read fills the
+     * cursor's first window as soon as the query is issued, so this is
+     * off unless in debug mode
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    public boolean isProfiling() {
+        return profiling;
     }
 
     /**
@@ -169,6 +326,7 @@ abstract public class AbstractDatabase {
 
         try {
             database = helper.getWritableDatabase();
+            enableWriteAheadLogging();
         } catch (NullPointerException e) {
             // don't know why this happens
             throw new IllegalStateException(e);
@@ -187,6 +345,22 @@ abstract public class AbstractDatabase {
         }
     }
 
+    /**
+     * Switch the open database to write-ahead logging, so that readers get
+     * their own connections instead of waiting for writers. Only available
+     * on Honeycomb and later
+     */
+    private void enableWriteAheadLogging() {
+        if(AndroidUtilities.getSdkVersion() < 11 || database.isReadOnly())
+            return;
+        try {
+            if(!database.enableWriteAheadLogging())
+                Log.w("database-" + getName(), "Write-ahead logging not available");
+        } catch (IllegalStateException e) {
+            Log.w("database-" + getName(), "Error enabling write-ahead logging", e);
+        }
+    }
+
     /**
      * Open the database for reading. Must be closed afterwards
      */
@@ -200,20 +374,34 @@ abstract public class AbstractDatabase {
     /**
      * Close the database if it has been opened previously
      */
-    public synchronized final void close() {
-        if(database != null) {
-            database.close();
+    public final void close() {
+        // writer lock first, so we don't deadlock with writers opening the db
+        lockForWriting();
+        try {
+            synchronized(this) {
+                clearStatementCaches();
+                if(database != null) {
+                    database.close();
+                }
+                database = null;
+            }
+        } finally {
+            unlockForWriting();
         }
-        database = null;
     }
 
     /**
      * Clear all data in database. Warning: this does what it says. Any open
      * database resources will be abruptly closed.
      */
-    public synchronized final void clear() {
-        close();
-        ContextManager.getContext().deleteDatabase(getName());
+    public final void clear() {
+        lockForWriting();
+        try {
+            close();
+            ContextManager.getContext().deleteDatabase(getName());
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -240,15 +428,48 @@ abstract public class AbstractDatabase {
     /*
      * @see android.database.sqlite.SQLiteDatabase#rawQuery(String  sql, String[] selectionArgs)
      */
-    public synchronized Cursor rawQuery(String sql, String[] selectionArgs) {
-        return getDatabase().rawQuery(sql, selectionArgs);
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        long start = System.nanoTime();
+        return recordRead(sql, getDatabase().rawQuery(sql, selectionArgs), start);
+    }
+
+    /**
+     * Run a query with typed bind arguments. Unlike
+     * {@link #rawQuery(String, String[])}, numbers are bound as numbers, so
+     * comparisons behave exactly as if the values had been inlined.
+     *
+     * @param sql sql with "?" placeholders
+     * @param bindArgs String, Long, Integer or Double values, or null
+     */
+    public Cursor rawQuery(String sql, Object[] bindArgs) {
+        long start = System.nanoTime();
+        if(bindArgs == null || bindArgs.length == 0)
+            return recordRead(sql, getDatabase().rawQuery(sql, null), start);
+        return recordRead(sql, getDatabase().rawQueryWithFactory(new BindingCursorFactory(bindArgs),
+                sql, null, null), start);
+    }
+
+    /**
+     * When profiling, run the query by filling the cursor's first window,
+     * and record how long the reader had to wait for it
+     */
+    private Cursor recordRead(String sql, Cursor cursor, long start) {
+        if(!profiling)
+            return cursor;
+        cursor.getCount();
+        long elapsed = System.nanoTime() - start;
+        readerWait.record(elapsed);
+        statistics.record(QueryStatistics.tableOf(sql), sql, elapsed);
+        return cursor;
     }
 
     /*
      * @see android.database.sqlite.SQLiteDatabase#insert(String  table, String  nullColumnHack, ContentValues  values)
      */
-    public synchronized long insert(String table, String nullColumnHack, ContentValues values) {
+    public long insert(String table, String nullColumnHack, ContentValues values) {
         long result = -1;
+        long start = System.nanoTime();
+        lockForWriting();
         try {
             result = getDatabase().insertOrThrow(table, nullColumnHack, values);
         } catch (SQLiteConstraintException e) { // Throw these exceptions
@@ -256,7 +477,10 @@ abstract public class AbstractDatabase {
         } catch (Exception e) { // Suppress others
             Log.e("SQLiteDatabase", "Error inserting " + values, e);
             result = -1;
+        } finally {
+            unlockForWriting();
         }
+        recordWrite(table, "INSERT", null, start);
         onDatabaseUpdated();
         return result;
     }
@@ -264,8 +488,16 @@ abstract public class AbstractDatabase {
     /*
      * @see android.database.sqlite.SQLiteDatabase#delete(String  table, String  whereClause, String[] whereArgs)
      */
-    public synchronized int delete(String table, String whereClause, String[] whereArgs) {
-        int result = getDatabase().delete(table, whereClause, whereArgs);
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        int result;
+        long start = System.nanoTime();
+        lockForWriting();
+        try {
+            result = getDatabase().delete(table, whereClause, whereArgs);
+        } finally {
+            unlockForWriting();
+        }
+        recordWrite(table, "DELETE", whereClause, start);
         onDatabaseUpdated();
         return result;
     }
@@ -273,14 +505,179 @@ abstract public class AbstractDatabase {
     /*
      * @see android.database.sqlite.SQLiteDatabase#update(String  table, ContentValues  values, String  whereClause, String[] whereArgs)
      */
-    public synchronized int update(String  table, ContentValues  values, String  whereClause, String[] whereArgs) {
-        int result = getDatabase().update(table, values, whereClause, whereArgs);
+    public int update(String  table, ContentValues  values, String  whereClause, String[] whereArgs) {
+        int result;
+        long start = System.nanoTime();
+        lockForWriting();
+        try {
+            result = getDatabase().update(table, values, whereClause, whereArgs);
+        } finally {
+            unlockForWriting();
+        }
+        recordWrite(table, "UPDATE", whereClause, start);
+        onDatabaseUpdated();
+        return result;
+    }
+
+    /**
+     * Run a statement that changes rows but doesn't return any, e.g.
+     * INSERT ... SELECT
+     *
+     * @param table table written to
+     * @param sql sql with "?" placeholders
+     * @param bindArgs String, Long, Integer or Double values, or null
+     * @see SQLiteDatabase#execSQL(String, Object[])
+     */
+    public void execSQL(String table, String sql, Object[] bindArgs) {
+        long start = System.nanoTime();
+        lockForWriting();
+        try {
+            if(bindArgs == null || bindArgs.length == 0)
+                getDatabase().execSQL(sql);
+            else
+                getDatabase().execSQL(sql, bindArgs);
+        } finally {
+            unlockForWriting();
+        }
+        recordWrite(table, sql, null, start);
+        onDatabaseUpdated();
+    }
+
+    /**
+     * Insert using a statement compiled for this set of columns
+     *
+     * @see #insert(String, String, ContentValues)
+     */
+    public long insert(CompiledStatementCache statements, String table, ContentValues values) {
+        if(values.size() == 0)
+            return insert(table, AbstractModel.ID_PROPERTY.name, values);
+
+        long result = -1;
+        long start = System.nanoTime();
+        lockForWriting();
+        try {
+            String[] columns = CompiledStatementCache.columnsOf(values);
+            SQLiteStatement statement = statements.insert(getDatabase(), columns);
+            CompiledStatementCache.bindValues(statement, columns, values);
+            result = statement.executeInsert();
+        } catch (SQLiteConstraintException e) { // Throw these exceptions
+            throw e;
+        } catch (Exception e) { // Suppress others
+            Log.e("SQLiteDatabase", "Error inserting " + values, e);
+            result = -1;
+        } finally {
+            unlockForWriting();
+        }
+        recordWrite(table, "INSERT", null, start);
         onDatabaseUpdated();
         return result;
     }
 
+    /**
+     * Update a single row using a statement compiled for this set of columns
+     *
+     * @see #update(String, ContentValues, String, String[])
+     */
+    public int update(CompiledStatementCache statements, String table, ContentValues values, long id) {
+        if(!supportsCompiledUpdates())
+            return update(table, values, AbstractModel.ID_PROPERTY.eq(id).toString(), null);
+
+        int result;
+        long start = System.nanoTime();
+        lockForWriting();
+        try {
+            String[] columns = CompiledStatementCache.columnsOf(values);
+            SQLiteStatement statement = statements.updateById(getDatabase(), columns);
+            int index = CompiledStatementCache.bindValues(statement, columns, values);
+            statement.bindLong(index, id);
+            result = statement.executeUpdateDelete();
+        } finally {
+            unlockForWriting();
+        }
+        recordWrite(table, "UPDATE", BY_ID, start);
+        onDatabaseUpdated();
+        return result;
+    }
+
+    /**
+     * Delete a single row using a compiled statement
+     *
+     * @see #delete(String, String, String[])
+     */
+    public int delete(CompiledStatementCache statements, String table, long id) {
+        if(!supportsCompiledUpdates())
+            return delete(table, AbstractModel.ID_PROPERTY.eq(id).toString(), null);
+
+        int result;
+        long start = System.nanoTime();
+        lockForWriting();
+        try {
+            SQLiteStatement statement = statements.deleteById(getDatabase());
+            statement.clearBindings();
+            statement.bindLong(1, id);
+            result = statement.executeUpdateDelete();
+        } finally {
+            unlockForWriting();
+        }
+        recordWrite(table, "DELETE", BY_ID, start);
+        onDatabaseUpdated();
+        return result;
+    }
+
+    private static final String BY_ID = AbstractModel.ID_PROPERTY.name + "=?";
+
+    private void recordWrite(String table, String operation, String whereClause, long start) {
+        if(!profiling)
+            return;
+        statistics.record(table, whereClause == null ? operation :
+            operation + " WHERE " + whereClause, System.nanoTime() - start);
+    }
+
+    /**
+     * @return true if compiled statements can report the number of rows
+     *         changed (Honeycomb and later)
+     */
+    private static boolean supportsCompiledUpdates() {
+        if(compiledUpdates == null)
+            compiledUpdates = AndroidUtilities.getSdkVersion() >= 11;
+        return compiledUpdates;
+    }
+
+    private static Boolean compiledUpdates = null;
+
     // --- helper classes
 
+    /**
+     * Bind the given values to a compiled statement or query
+     *
+     * @param program
+     * @param bindArgs values, bound to placeholders 1..n in order
+     */
+    public static void bindArguments(SQLiteProgram program, Object[] bindArgs) {
+        for(int i = 0; i < bindArgs.length; i++)
+            DatabaseUtils.bindObjectToProgram(program, i + 1, bindArgs[i]);
+    }
+
+    /**
+     * Cursor factory that binds typed arguments to the query before the
+     * cursor is created
+     */
+    private static class BindingCursorFactory implements CursorFactory {
+
+        private final Object[] bindArgs;
+
+        public BindingCursorFactory(Object[] bindArgs) {
+            this.bindArgs = bindArgs;
+        }
+
+        @SuppressWarnings("deprecation")
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                String editTable, SQLiteQuery query) {
+            bindArguments(query, bindArgs);
+            return new SQLiteCursor(db, masterQuery, editTable, query);
+        }
+    }
+
     /**
      * Default implementation of Astrid database helper
      */
@@ -326,6 +723,7 @@ abstract public class AbstractDatabase {
             Log.w("database-" + getName(), String.format("Upgrading database from version %d to %d.",
                     oldVersion, newVersion));
 
+            clearStatementCaches();
             database = db;
             try {
                 if(!AbstractDatabase.this.onUpgrade(oldVersion, newVersion)) {
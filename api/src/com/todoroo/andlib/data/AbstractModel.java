@@ -13,6 +13,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.content.ContentValues;
 import android.os.Parcel;
@@ -21,7 +22,6 @@ import android.os.Parcelable;
 import com.todoroo.andlib.data.Property.DoubleProperty;
 import com.todoroo.andlib.data.Property.IntegerProperty;
 import com.todoroo.andlib.data.Property.LongProperty;
-import com.todoroo.andlib.data.Property.PropertyVisitor;
 import com.todoroo.andlib.utility.AndroidUtilities;
 
 /**
@@ -36,10 +36,6 @@ import com.todoroo.andlib.utility.AndroidUtilities;
  */
 public abstract class AbstractModel implements Parcelable, Cloneable {
 
-    // --- static variables
-
-    private static final ContentValuesSavingVisitor saver = new ContentValuesSavingVisitor();
-
     // --- constants
 
     /** id property common to all models */
@@ -71,15 +67,47 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     /** User set values */
     protected ContentValues setValues = null;
 
-    /** Values from database */
-    protected ContentValues values = null;
+    /* Values from database are kept in typed arrays indexed by the slot
+     * layout of this model class (see PropertySlots). A bit in
+     * presentValues is set for each slot that holds a value. Columns that
+     * aren't part of the layout (joined or aliased columns, or values of an
+     * unexpected type) are kept in extraValues */
+
+    /** Slot layout of this model class, or null if not yet resolved */
+    private PropertySlots slots = null;
+
+    /** Numeric values from database (doubles stored as raw bits) */
+    private long[] numberValues = null;
+
+    /** String values from database */
+    private String[] stringValues = null;
+
+    /** Bitset of slots holding a value from database */
+    private long[] presentValues = null;
+
+    /** Values from database that don't fit in a slot */
+    private ContentValues extraValues = null;
 
     /** Transitory Metadata (not saved in database) */
     protected HashMap<String, Object> transitoryData = null;
 
-    /** Get database-read values for this object */
+    /**
+     * Get database-read values for this object. This creates a new
+     * {@link ContentValues} on every call.
+     */
     public ContentValues getDatabaseValues() {
-        return values;
+        if(presentValues == null && extraValues == null)
+            return null;
+        ContentValues result = new ContentValues();
+        if(presentValues != null) {
+            for(int i = 0; i < slots.size(); i++) {
+                if(isPresent(i))
+                    AndroidUtilities.putInto(result, slots.properties[i].name, slotValue(i), false);
+            }
+        }
+        if(extraValues != null)
+            result.putAll(extraValues);
+        return result;
     }
 
     /** Get the user-set values for this object */
@@ -94,6 +122,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         ContentValues defaultValues = getDefaultValues();
         if(defaultValues != null)
             mergedValues.putAll(defaultValues);
+        ContentValues values = getDatabaseValues();
         if(values != null)
             mergedValues.putAll(values);
         if(setValues != null)
@@ -106,7 +135,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * Clear all data on this model
      */
     public void clear() {
-        values = null;
+        clearDatabaseValues();
         setValues = null;
     }
 
@@ -115,10 +144,8 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * saved - future saves will not need to write all the data as before.
      */
     public void markSaved() {
-        if(values == null)
-            values = setValues;
-        else if(setValues != null)
-            values.putAll(setValues);
+        if(setValues != null)
+            putDatabaseValues(setValues);
         setValues = null;
     }
 
@@ -147,7 +174,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         .append("set values:\n")
         .append(setValues).append("\n")
         .append("values:\n")
-        .append(values).append("\n");
+        .append(getDatabaseValues()).append("\n");
         return builder.toString();
     }
 
@@ -161,8 +188,13 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         }
         if(setValues != null)
             clone.setValues = new ContentValues(setValues);
-        if(values != null)
-            clone.values = new ContentValues(values);
+        if(presentValues != null) {
+            clone.numberValues = numberValues.clone();
+            clone.stringValues = stringValues.clone();
+            clone.presentValues = presentValues.clone();
+        }
+        if(extraValues != null)
+            clone.extraValues = new ContentValues(extraValues);
         return clone;
     }
 
@@ -176,17 +208,22 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     /**
      * Reads all properties from the supplied cursor and store
      */
-    public synchronized void readPropertiesFromCursor(TodorooCursor<? extends AbstractModel> cursor) {
-        if (values == null)
-            values = new ContentValues();
+    public void readPropertiesFromCursor(TodorooCursor<? extends AbstractModel> cursor) {
+        initializeSlots();
 
         // clears user-set values
         setValues = null;
         transitoryData = null;
 
-        for (Property<?> property : cursor.getProperties()) {
+        Property<?>[] properties = cursor.getProperties();
+        for (int i = 0; i < properties.length; i++) {
+            Property<?> property = properties[i];
             try {
-                saver.save(property, values, cursor.get(property));
+                int ordinal = slots == null ? -1 : slots.ordinalOf(property);
+                if(ordinal >= 0 && slots.kinds[ordinal] == PropertySlots.kindOf(property))
+                    readSlotFromCursor(cursor, cursor.getPropertyColumn(i), property, ordinal);
+                else
+                    putDatabaseValue(property.getColumnName(), cursor.get(property));
             } catch (IllegalArgumentException e) {
                 // underlying cursor may have changed, suppress
             }
@@ -194,22 +231,58 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     }
 
     /**
-     * Reads the given property. Make sure this model has this property!
+     * Reads a property into its slot without boxing the value
      */
-    public synchronized <TYPE> TYPE getValue(Property<TYPE> property) {
-        Object value;
-        if(setValues != null && setValues.containsKey(property.getColumnName()))
-            value = setValues.get(property.getColumnName());
-
-        else if(values != null && values.containsKey(property.getColumnName()))
-            value = values.get(property.getColumnName());
+    private void readSlotFromCursor(TodorooCursor<?> cursor, int column, Property<?> property, int ordinal) {
+        if(property.checkFlag(Property.PROP_FLAG_NULLABLE) && cursor.isNull(column))
+            return;
 
-        else if(getDefaultValues().containsKey(property.getColumnName()))
-            value = getDefaultValues().get(property.getColumnName());
+        int index = slots.indices[ordinal];
+        switch(slots.kinds[ordinal]) {
+        case PropertySlots.KIND_INT:
+            numberValues[index] = cursor.getInt(column);
+            break;
+        case PropertySlots.KIND_LONG:
+            numberValues[index] = cursor.getLong(column);
+            break;
+        case PropertySlots.KIND_DOUBLE:
+            numberValues[index] = Double.doubleToRawLongBits(cursor.getDouble(column));
+            break;
+        default:
+            String value = cursor.getString(column);
+            if(value == null)
+                return;
+            stringValues[index] = value;
+        }
+        setPresent(ordinal, true);
+        if(extraValues != null)
+            extraValues.remove(property.getColumnName());
+    }
 
-        else
-            throw new UnsupportedOperationException(
-                "Model Error: Did not read property " + property.name); //$NON-NLS-1$
+    /**
+     * Reads the given property. Make sure this model has this property!
+     */
+    public <TYPE> TYPE getValue(Property<TYPE> property) {
+        Object value;
+        String columnName = property.getColumnName();
+        int ordinal;
+        if(setValues != null && setValues.containsKey(columnName))
+            value = setValues.get(columnName);
+
+        else if((ordinal = presentOrdinal(property)) >= 0)
+            value = slotValue(ordinal);
+
+        else if(extraValues != null && extraValues.containsKey(columnName))
+            value = extraValues.get(columnName);
+
+        else {
+            ContentValues defaultValues = getDefaultValues();
+            if(defaultValues.containsKey(columnName))
+                value = defaultValues.get(columnName);
+            else
+                throw new UnsupportedOperationException(
+                    "Model Error: Did not read property " + property.name); //$NON-NLS-1$
+        }
 
         // resolve properties that were retrieved with a different type than accessed
         try {
@@ -237,9 +310,12 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     protected long getIdHelper(LongProperty id) {
         if(setValues != null && setValues.containsKey(id.name))
             return setValues.getAsLong(id.name);
-        else if(values != null && values.containsKey(id.name))
-            return values.getAsLong(id.name);
-        else
+        else if(containsDatabaseValue(id)) {
+            Object value = getDatabaseValue(id);
+            if(value instanceof Number)
+                return ((Number) value).longValue();
+            return Long.valueOf(value.toString());
+        } else
             return NO_ID;
     }
 
@@ -267,9 +343,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     public boolean containsValue(Property<?> property) {
         if(setValues != null && setValues.containsKey(property.getColumnName()))
             return true;
-        if(values != null && values.containsKey(property.getColumnName()))
-            return true;
-        return false;
+        return containsDatabaseValue(property);
     }
 
     /**
@@ -280,9 +354,166 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     public boolean containsNonNullValue(Property<?> property) {
         if(setValues != null && setValues.containsKey(property.getColumnName()))
             return setValues.get(property.getColumnName()) != null;
-        if(values != null && values.containsKey(property.getColumnName()))
-            return values.get(property.getColumnName()) != null;
-        return false;
+        return getDatabaseValue(property) != null;
+    }
+
+    // --- database value slots
+
+    /**
+     * @param property
+     * @return true if a value for this property was read from the database
+     */
+    protected boolean containsDatabaseValue(Property<?> property) {
+        if(presentOrdinal(property) >= 0)
+            return true;
+        return extraValues != null && extraValues.containsKey(property.getColumnName());
+    }
+
+    /**
+     * @param property
+     * @return value read from the database for this property, or null
+     */
+    protected Object getDatabaseValue(Property<?> property) {
+        int ordinal = presentOrdinal(property);
+        if(ordinal >= 0)
+            return slotValue(ordinal);
+        if(extraValues != null)
+            return extraValues.get(property.getColumnName());
+        return null;
+    }
+
+    /**
+     * Resolve the slot layout for this class and allocate value arrays
+     */
+    private void initializeSlots() {
+        if(presentValues != null)
+            return;
+        if(slots == null)
+            slots = PropertySlots.forClass(getClass());
+        if(slots == null)
+            return;
+        numberValues = new long[slots.numberCount];
+        stringValues = new String[slots.stringCount];
+        presentValues = new long[(slots.size() + 63) >> 6];
+    }
+
+    private void clearDatabaseValues() {
+        if(presentValues != null) {
+            for(int i = 0; i < presentValues.length; i++)
+                presentValues[i] = 0;
+            for(int i = 0; i < stringValues.length; i++)
+                stringValues[i] = null;
+        }
+        extraValues = null;
+    }
+
+    private boolean isPresent(int ordinal) {
+        return (presentValues[ordinal >> 6] & (1L << ordinal)) != 0;
+    }
+
+    private void setPresent(int ordinal, boolean present) {
+        if(present)
+            presentValues[ordinal >> 6] |= 1L << ordinal;
+        else
+            presentValues[ordinal >> 6] &= ~(1L << ordinal);
+    }
+
+    /**
+     * @return ordinal of the slot holding a database value for this
+     *         property, or -1 if there is none
+     */
+    private int presentOrdinal(Property<?> property) {
+        if(presentValues == null)
+            return -1;
+        int ordinal = slots.ordinalOf(property);
+        if(ordinal < 0 || !isPresent(ordinal))
+            return -1;
+        return ordinal;
+    }
+
+    /**
+     * @return boxed value of the given slot, in its declared type
+     */
+    private Object slotValue(int ordinal) {
+        int index = slots.indices[ordinal];
+        switch(slots.kinds[ordinal]) {
+        case PropertySlots.KIND_INT:
+            return Integer.valueOf((int) numberValues[index]);
+        case PropertySlots.KIND_LONG:
+            return Long.valueOf(numberValues[index]);
+        case PropertySlots.KIND_DOUBLE:
+            return Double.valueOf(Double.longBitsToDouble(numberValues[index]));
+        default:
+            return stringValues[index];
+        }
+    }
+
+    /**
+     * Store a value as if it had been read from the database. Values of
+     * the declared type go into their slot, anything else is kept as-is
+     * so that {@link #getValue(Property)} converts it the same way
+     */
+    private void putDatabaseValue(String columnName, Object value) {
+        if(value == null)
+            return;
+        initializeSlots();
+        int ordinal = presentValues == null ? -1 : slots.ordinalOf(columnName);
+        if(ordinal >= 0) {
+            int index = slots.indices[ordinal];
+            boolean stored = true;
+            switch(slots.kinds[ordinal]) {
+            case PropertySlots.KIND_INT:
+                if(stored = value instanceof Integer)
+                    numberValues[index] = (Integer) value;
+                break;
+            case PropertySlots.KIND_LONG:
+                if(stored = value instanceof Long)
+                    numberValues[index] = (Long) value;
+                break;
+            case PropertySlots.KIND_DOUBLE:
+                if(stored = value instanceof Double)
+                    numberValues[index] = Double.doubleToRawLongBits((Double) value);
+                break;
+            default:
+                if(stored = value instanceof String)
+                    stringValues[index] = (String) value;
+            }
+            setPresent(ordinal, stored);
+            if(stored) {
+                if(extraValues != null)
+                    extraValues.remove(columnName);
+                return;
+            }
+        }
+        if(extraValues == null)
+            extraValues = new ContentValues();
+        AndroidUtilities.putInto(extraValues, columnName, value, false);
+    }
+
+    /**
+     * Store all given values as database values
+     */
+    private void putDatabaseValues(ContentValues source) {
+        for(Entry<String, Object> entry : source.valueSet()) {
+            if(entry.getValue() == null) {
+                // keep explicit nulls, as setValues would have
+                removeDatabaseValue(entry.getKey());
+                if(extraValues == null)
+                    extraValues = new ContentValues();
+                extraValues.putNull(entry.getKey());
+            } else
+                putDatabaseValue(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void removeDatabaseValue(String columnName) {
+        if(presentValues != null) {
+            int ordinal = slots.ordinalOf(columnName);
+            if(ordinal >= 0)
+                setPresent(ordinal, false);
+        }
+        if(extraValues != null)
+            extraValues.remove(columnName);
     }
 
     // --- data storage
@@ -291,7 +522,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * Check whether the user has changed this property value and it should be
      * stored for saving in the database
      */
-    protected synchronized <TYPE> boolean shouldSaveValue(
+    protected <TYPE> boolean shouldSaveValue(
             Property<TYPE> property, TYPE newValue) {
 
     	// we've already decided to save it, so overwrite old value
@@ -299,7 +530,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         	return true;
 
         // values contains this key, we should check it out
-        if(values != null && values.containsKey(property.getColumnName())) {
+        if(containsDatabaseValue(property)) {
             TYPE value = getValue(property);
             if (value == null) {
                 if (newValue == null)
@@ -315,20 +546,20 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     /**
      * Sets the given property. Make sure this model has this property!
      */
-    public synchronized <TYPE> void setValue(Property<TYPE> property,
+    public <TYPE> void setValue(Property<TYPE> property,
             TYPE value) {
         if (setValues == null)
             setValues = new ContentValues();
         if (!shouldSaveValue(property, value))
             return;
 
-        saver.save(property, setValues, value);
+        saveValue(property, setValues, value);
     }
 
     /**
      * Merges content values with those coming from another source
      */
-    public synchronized <TYPE> void mergeWith(ContentValues other) {
+    public <TYPE> void mergeWith(ContentValues other) {
         if (setValues == null)
             setValues = new ContentValues();
         setValues.putAll(other);
@@ -338,7 +569,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * Merges set values with those coming from another source,
      * keeping the existing value if one already exists
      */
-    public synchronized <TYPE> void mergeWithoutReplacement(ContentValues other) {
+    public <TYPE> void mergeWithoutReplacement(ContentValues other) {
         if (setValues == null)
             setValues = new ContentValues();
         for (Entry<String, Object> item : other.valueSet()) {
@@ -352,11 +583,10 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * Clear the key for the given property
      * @param property
      */
-    public synchronized void clearValue(Property<?> property) {
+    public void clearValue(Property<?> property) {
         if(setValues != null && setValues.containsKey(property.getColumnName()))
             setValues.remove(property.getColumnName());
-        if(values != null && values.containsKey(property.getColumnName()))
-            values.remove(property.getColumnName());
+        removeDatabaseValue(property.getColumnName());
     }
 
     /**
@@ -385,7 +615,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
 
     // --- setting and retrieving flags
 
-    public synchronized void putTransitory(String key, Object value) {
+    public void putTransitory(String key, Object value) {
         if(transitoryData == null)
             transitoryData = new HashMap<String, Object>();
         transitoryData.put(key, value);
@@ -448,47 +678,72 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
             }
         }
 
-        return properties.toArray(new Property<?>[properties.size()]);
+        Property<?>[] result = properties.toArray(new Property<?>[properties.size()]);
+        PropertySlots.register(cls, result);
+        return result;
     }
 
+    // --- model factories
+
     /**
-     * Visitor that saves a value into a content values store
-     *
-     * @author Tim Su <tim@todoroo.com>
-     *
+     * Creates empty instances of a model class. Databases register one for
+     * each of their tables so that DAOs can create models without reflection
      */
-    public static class ContentValuesSavingVisitor implements PropertyVisitor<Void, Object> {
-
-        private ContentValues store;
+    public interface ModelFactory<TYPE extends AbstractModel> {
+        public TYPE newInstance();
+    }
 
-        public synchronized void save(Property<?> property, ContentValues newStore, Object value) {
-            this.store = newStore;
+    private static final ConcurrentHashMap<Class<?>, ModelFactory<?>> factories =
+        new ConcurrentHashMap<Class<?>, ModelFactory<?>>();
 
-            // we don't allow null values, as they indicate unset properties
-            // when the database was written
+    /**
+     * Register the factory for the given model class
+     */
+    public static <TYPE extends AbstractModel> void registerFactory(Class<TYPE> cls,
+            ModelFactory<TYPE> factory) {
+        factories.put(cls, factory);
+    }
 
-            if(value != null)
-                property.accept(this, value);
+    /**
+     * Create an empty model of the given class, through its registered
+     * factory if it has one
+     */
+    public static <TYPE extends AbstractModel> TYPE newInstance(Class<TYPE> cls) {
+        ModelFactory<?> factory = factories.get(cls);
+        if(factory != null)
+            return (TYPE) factory.newInstance();
+        try {
+            return cls.newInstance();
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
         }
+    }
 
-        public Void visitDouble(Property<Double> property, Object value) {
-            store.put(property.getColumnName(), (Double) value);
-            return null;
-        }
+    /**
+     * Saves a value into a content values store, typed by the property.
+     * This keeps no state, so models on different threads never contend
+     * for it.
+     */
+    public static void saveValue(Property<?> property, ContentValues store, Object value) {
+        // we don't allow null values, as they indicate unset properties
+        // when the database was written
+        if(value == null)
+            return;
 
-        public Void visitInteger(Property<Integer> property, Object value) {
+        switch(PropertySlots.kindOf(property)) {
+        case PropertySlots.KIND_INT:
             store.put(property.getColumnName(), (Integer) value);
-            return null;
-        }
-
-        public Void visitLong(Property<Long> property, Object value) {
+            break;
+        case PropertySlots.KIND_LONG:
             store.put(property.getColumnName(), (Long) value);
-            return null;
-        }
-
-        public Void visitString(Property<String> property, Object value) {
+            break;
+        case PropertySlots.KIND_DOUBLE:
+            store.put(property.getColumnName(), (Double) value);
+            break;
+        default:
             store.put(property.getColumnName(), (String) value);
-            return null;
         }
     }
 
@@ -506,7 +761,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      */
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeParcelable(setValues, 0);
-        dest.writeParcelable(values, 0);
+        dest.writeParcelable(getDatabaseValues(), 0);
     }
 
     /**
@@ -533,16 +788,11 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
          * {@inheritDoc}
          */
         public TYPE createFromParcel(Parcel source) {
-            TYPE model;
-            try {
-                model = cls.newInstance();
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e);
-            } catch (InstantiationException e) {
-                throw new RuntimeException(e);
-            }
+            TYPE model = newInstance(cls);
             model.setValues = source.readParcelable(ContentValues.class.getClassLoader());
-            model.values = source.readParcelable(ContentValues.class.getClassLoader());
+            ContentValues values = source.readParcelable(ContentValues.class.getClassLoader());
+            if(values != null)
+                ((AbstractModel) model).putDatabaseValues(values);
             return model;
         }
 
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Ids of rows changed through a {@link DatabaseDao}, so that views can
+ * re-read only the rows that changed since they last queried instead of
+ * re-running their whole query.
+ * <p>
+ * Readers remember {@link #getGeneration()} when they query, and later ask
+ * for {@link #changesSince(long)}. Only the most recent {@link #CAPACITY}
+ * changes are kept. Changes that can't be tied to an id (e.g. an update
+ * with a where clause) invalidate the log, and readers have to fall back
+ * to a full query.
+ */
+public class ChangeLog {
+
+    /** number of changes kept */
+    public static final int CAPACITY = 256;
+
+    private final long[] ids = new long[CAPACITY];
+
+    /** number of changes published so far */
+    private long generation = 0;
+
+    /** generation after the most recent invalidation */
+    private long invalidated = 0;
+
+    /**
+     * @return current generation. Pass it to {@link #changesSince(long)}
+     *         to find out what changed after this point
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Publish a change to the row with the given id
+     */
+    public synchronized void changed(long id) {
+        ids[(int) (generation % CAPACITY)] = id;
+        generation++;
+    }
+
+    /**
+     * Publish a change that affected unknown rows
+     */
+    public synchronized void invalidate() {
+        ids[(int) (generation % CAPACITY)] = AbstractModel.NO_ID;
+        generation++;
+        invalidated = generation;
+    }
+
+    /**
+     * @param since generation read before the caller last queried
+     * @return ids changed since that generation, or null if they are not
+     *         known because the log was invalidated or has overflowed
+     */
+    public synchronized Set<Long> changesSince(long since) {
+        if(since < invalidated || generation - since > CAPACITY)
+            return null;
+        HashSet<Long> result = new HashSet<Long>();
+        for(long i = since; i < generation; i++)
+            result.add(ids[(int) (i % CAPACITY)]);
+        return result;
+    }
+
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Cache of compiled INSERT, UPDATE and DELETE statements for a single
+ * table, keyed on the set of columns written. Writes that touch the same
+ * columns reuse the compiled statement and only need to bind new values.
+ * <p>
+ * When the cache is full, the least recently used statement is closed.
+ * Statements belong to the {@link SQLiteDatabase} they were compiled
+ * against, so the cache empties itself when the database changes. Callers
+ * must hold the writer lock of the owning {@link AbstractDatabase}.
+ */
+@SuppressWarnings("nls")
+public class CompiledStatementCache {
+
+    /** default number of statements kept per table */
+    public static final int DEFAULT_SIZE = 12;
+
+    private final String table;
+
+    private final LinkedHashMap<String, SQLiteStatement> statements;
+
+    /** database the cached statements were compiled against */
+    private SQLiteDatabase compiledFor = null;
+
+    public CompiledStatementCache(String table, final int maxSize) {
+        this.table = table;
+        this.statements = new LinkedHashMap<String, SQLiteStatement>(maxSize, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, SQLiteStatement> eldest) {
+                if(size() <= maxSize)
+                    return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return column names of the given values, in a stable order
+     */
+    public static String[] columnsOf(ContentValues values) {
+        Set<Entry<String, Object>> entries = values.valueSet();
+        String[] columns = new String[entries.size()];
+        int i = 0;
+        for(Entry<String, Object> entry : entries)
+            columns[i++] = entry.getKey();
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    /**
+     * Bind values to a compiled statement in column order
+     *
+     * @param statement
+     * @param columns columns to read from values
+     * @param values
+     * @return next unbound argument index
+     */
+    public static int bindValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+        statement.clearBindings();
+        for(int i = 0; i < columns.length; i++)
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+        return columns.length + 1;
+    }
+
+    /**
+     * @return compiled INSERT INTO table (columns) VALUES (?, ...)
+     */
+    public SQLiteStatement insert(SQLiteDatabase db, String[] columns) {
+        String key = key('I', columns);
+        SQLiteStatement statement = get(db, key);
+        if(statement == null) {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+            appendList(sql, columns, "");
+            sql.append(") VALUES (");
+            for(int i = 0; i < columns.length; i++)
+                sql.append(i > 0 ? ",?" : "?");
+            sql.append(')');
+            statement = put(db, key, sql.toString());
+        }
+        return statement;
+    }
+
+    /**
+     * @return compiled UPDATE table SET column = ?, ... WHERE _id = ?
+     */
+    public SQLiteStatement updateById(SQLiteDatabase db, String[] columns) {
+        String key = key('U', columns);
+        SQLiteStatement statement = get(db, key);
+        if(statement == null) {
+            StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+            appendList(sql, columns, "=?");
+            sql.append(" WHERE ").append(AbstractModel.ID_PROPERTY.name).append("=?");
+            statement = put(db, key, sql.toString());
+        }
+        return statement;
+    }
+
+    /**
+     * @return compiled DELETE FROM table WHERE _id = ?
+     */
+    public SQLiteStatement deleteById(SQLiteDatabase db) {
+        String key = "D";
+        SQLiteStatement statement = get(db, key);
+        if(statement == null)
+            statement = put(db, key, "DELETE FROM " + table + " WHERE " +
+                    AbstractModel.ID_PROPERTY.name + "=?");
+        return statement;
+    }
+
+    /**
+     * Close all cached statements
+     */
+    public void clear() {
+        for(Iterator<SQLiteStatement> i = statements.values().iterator(); i.hasNext(); ) {
+            closeQuietly(i.next());
+            i.remove();
+        }
+        compiledFor = null;
+    }
+
+    /**
+     * @return number of cached statements
+     */
+    public int size() {
+        return statements.size();
+    }
+
+    // --- helpers
+
+    private SQLiteStatement get(SQLiteDatabase db, String key) {
+        if(db != compiledFor) {
+            clear();
+            compiledFor = db;
+        }
+        return statements.get(key);
+    }
+
+    private SQLiteStatement put(SQLiteDatabase db, String key, String sql) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        statements.put(key, statement);
+        return statement;
+    }
+
+    private static String key(char type, String[] columns) {
+        StringBuilder key = new StringBuilder().append(type);
+        for(String column : columns)
+            key.append(',').append(column);
+        return key.toString();
+    }
+
+    private static void appendList(StringBuilder sql, String[] columns, String suffix) {
+        for(int i = 0; i < columns.length; i++) {
+            if(i > 0)
+                sql.append(',');
+            sql.append(columns[i]).append(suffix);
+        }
+    }
+
+    private static void closeQuietly(SQLiteStatement statement) {
+        try {
+            statement.close();
+        } catch (Exception e) {
+            Log.w("statement-cache", "Error closing statement", e);
+        }
+    }
+
+}
@@ -5,8 +5,6 @@
  */
 package com.todoroo.andlib.data;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.Set;
 
 import android.content.ContentResolver;
@@ -145,20 +143,9 @@ public class ContentResolverDao<TYPE extends AbstractModel> {
             if (cursor.getCount() == 0)
                 return null;
             cursor.moveToFirst();
-            Constructor<TYPE> constructor = modelClass.getConstructor(TodorooCursor.class);
-            return constructor.newInstance(cursor);
-        } catch (SecurityException e) {
-            throw new RuntimeException(e);
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalArgumentException e) {
-            throw new RuntimeException(e);
-        } catch (InstantiationException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-        } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
+            TYPE model = AbstractModel.newInstance(modelClass);
+            model.readPropertiesFromCursor(cursor);
+            return model;
         } finally {
             try {
                 cursor.close();
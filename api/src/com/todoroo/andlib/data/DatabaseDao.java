@@ -5,9 +5,11 @@
  */
 package com.todoroo.andlib.data;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -15,12 +17,16 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteTransactionListener;
 import android.util.Log;
 
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.DependencyInjectionService;
 import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Field;
+import com.todoroo.andlib.sql.Join;
+import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.data.OutstandingEntry;
@@ -40,6 +46,9 @@ public class DatabaseDao<TYPE extends AbstractModel> {
 
     private static final String ERROR_TAG = "database-dao"; //$NON-NLS-1$
 
+    /** SQLite's default limit on the number of bind arguments per statement */
+    private static final int MAX_BIND_ARGS = 999;
+
     private final Class<TYPE> modelClass;
 
     private Table table;
@@ -48,6 +57,12 @@ public class DatabaseDao<TYPE extends AbstractModel> {
 
     private AbstractDatabase database;
 
+    /** compiled insert / update / delete statements for this table */
+    private CompiledStatementCache statements;
+
+    /** compiled inserts for the outstanding table */
+    private CompiledStatementCache outstandingStatements;
+
     @Autowired
     protected Boolean debug;
 
@@ -84,6 +99,9 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         this.database = database;
         table = database.getTable(modelClass);
         outstandingTable = database.getOutstandingTable(modelClass);
+        statements = database.newStatementCache(table);
+        if(outstandingTable != null)
+            outstandingStatements = database.newStatementCache(outstandingTable);
     }
 
     // --- listeners
@@ -92,6 +110,15 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         public void onModelUpdated(MTYPE model, boolean outstandingEntries);
     }
 
+    /**
+     * Listener that is told about all models saved by one call to
+     * {@link DatabaseDao#persistAll(Collection)} at once, instead of
+     * one model at a time
+     */
+    public interface ModelBatchUpdateListener<MTYPE> extends ModelUpdateListener<MTYPE> {
+        public void onModelsUpdated(List<MTYPE> models, boolean[] outstandingEntries);
+    }
+
     private final ArrayList<ModelUpdateListener<TYPE>> listeners =
         new ArrayList<ModelUpdateListener<TYPE>>();
 
@@ -106,6 +133,141 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         }
     }
 
+    protected void onModelsUpdated(List<TYPE> models, boolean[] outstandingEntries) {
+        if(listeners.isEmpty())
+            return;
+        ArrayList<TYPE> modelCopies = new ArrayList<TYPE>(models.size());
+        for(TYPE model : models)
+            modelCopies.add((TYPE) model.clone());
+        for(ModelUpdateListener<TYPE> listener : listeners) {
+            if(listener instanceof ModelBatchUpdateListener) {
+                ((ModelBatchUpdateListener<TYPE>) listener).onModelsUpdated(modelCopies,
+                        outstandingEntries);
+            } else {
+                for(int i = 0; i < modelCopies.size(); i++)
+                    listener.onModelUpdated(modelCopies.get(i), outstandingEntries[i]);
+            }
+        }
+    }
+
+    // --- change log
+
+    private final ChangeLog changeLog = new ChangeLog();
+
+    /**
+     * @return ids of rows changed through this dao
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * Publish a change to the row with the given id. Subclasses whose
+     * change log is keyed by something other than the row id override this
+     */
+    protected void publishChange(long id) {
+        changeLog.changed(id);
+    }
+
+    /**
+     * Publish a change to the given model
+     */
+    protected void publishChange(TYPE item) {
+        publishChange(item.getId());
+    }
+
+    // --- derived tables
+
+    /**
+     * @return true if writing the given values changes tables derived from
+     *         this one, see {@link #updateDerivedTables(Collection, ContentValues)}.
+     *         Such writes run in a transaction
+     */
+    protected boolean hasDerivedTables(ContentValues setValues) {
+        return false;
+    }
+
+    /**
+     * Bring tables derived from this one up to date after rows were
+     * written. Runs under the writer lock, in the transaction of the write,
+     * so readers never see the rows without their derived data
+     *
+     * @param ids rows that were written
+     * @param setValues values written to them
+     */
+    protected void updateDerivedTables(Collection<Long> ids, ContentValues setValues) {
+        // nothing to do
+    }
+
+    /**
+     * @return columns that tables derived from this one are keyed on (e.g.
+     *         the task a row belongs to), or null if deleting rows doesn't
+     *         change derived tables. Deletes, and updates by criterion
+     *         that change derived tables, read these columns first and
+     *         hand the rows to {@link #updateDerivedTables(List)}
+     */
+    protected Property<?>[] getDerivedTableProperties() {
+        return null;
+    }
+
+    /**
+     * Bring tables derived from this one up to date after rows were deleted
+     * or updated by criterion. Runs in the transaction of the write, like
+     * {@link #updateDerivedTables(Collection, ContentValues)}
+     *
+     * @param previous the rows as they were before the write, with the
+     *        columns of {@link #getDerivedTableProperties()}
+     */
+    protected void updateDerivedTables(List<TYPE> previous) {
+        // nothing to do
+    }
+
+    /**
+     * @return rows matching the given criterion, with the given columns
+     */
+    private ArrayList<TYPE> readRows(Criterion where, Property<?>[] properties) {
+        ArrayList<TYPE> rows = new ArrayList<TYPE>();
+        TodorooCursor<TYPE> cursor = query(Query.select(properties).where(where));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                TYPE row = AbstractModel.newInstance(modelClass);
+                row.readPropertiesFromCursor(cursor);
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Delete matching rows and update derived tables in one transaction
+     *
+     * @return # of deleted rows
+     */
+    private int deleteWithDerivedTables(Criterion where, Property<?>[] derived) {
+        int result;
+        database.lockForWriting();
+        try {
+            SQLiteDatabase db = database.getDatabase();
+            db.beginTransaction();
+            try {
+                ArrayList<TYPE> previous = readRows(where, derived);
+                if(previous.isEmpty())
+                    return 0;
+                result = database.delete(table.name, where.toString(), null);
+                if(result > 0)
+                    updateDerivedTables(previous);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            database.unlockForWriting();
+        }
+        return result;
+    }
+
     // --- dao methods
 
     /**
@@ -118,10 +280,54 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         query.from(table);
         if(debug)
             Log.i("SQL-" + modelClass.getSimpleName(), query.toString()); //$NON-NLS-1$
-        Cursor cursor = database.rawQuery(query.toString(), null);
+
+        // bind literals as arguments so that SQLite sees the same statement
+        // text for every id / uuid and can reuse the compiled statement
+        ArrayList<Object> bindArgs = new ArrayList<Object>();
+        String sql = query.toParameterizedString(bindArgs);
+        Cursor cursor;
+        if(bindArgs.size() > MAX_BIND_ARGS)
+            cursor = database.rawQuery(query.toString(), (String[]) null);
+        else {
+            Object[] args = bindArgs.toArray();
+            if(debug)
+                database.getQueryPlans().record(database, sql, args);
+            cursor = database.rawQuery(sql, args);
+        }
         return new TodorooCursor<TYPE>(cursor, query.getFields());
     }
 
+    /**
+     * Construct a query that reads its result a page at a time, see
+     * {@link PagedCursor}
+     *
+     * @param properties properties to read
+     * @param filter where clause, without grouping, order or limit
+     * @param order order of the result
+     * @param pageSize rows per page
+     * @return
+     */
+    public TodorooCursor<TYPE> queryPaged(Property<?>[] properties, String filter,
+            Order order, int pageSize) {
+        return queryPaged(properties, new Join[0], filter, null, new Field[0], order, pageSize);
+    }
+
+    /**
+     * Like {@link #queryPaged(Property[], String, Order, int)}, for a
+     * query that joins or groups
+     *
+     * @param joins tables to join
+     * @param filterArgs values of "?" parameters in the filter
+     * @param groupBy fields to group by
+     */
+    public TodorooCursor<TYPE> queryPaged(Property<?>[] properties, Join[] joins, String filter,
+            Object[] filterArgs, Field[] groupBy, Order order, int pageSize) {
+        if(debug)
+            Log.i("SQL-" + modelClass.getSimpleName(), filter + " ORDER BY " + order); //$NON-NLS-1$ //$NON-NLS-2$
+        return new TodorooCursor<TYPE>(new PagedCursor(database, table, properties,
+                joins, filter, filterArgs, groupBy, order, pageSize), properties);
+    }
+
     /**
      * Construct a query with raw SQL
      *
@@ -134,9 +340,15 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         String[] fields = new String[properties.length];
         for(int i = 0; i < properties.length; i++)
             fields[i] = properties[i].name;
-        return new TodorooCursor<TYPE>(database.getDatabase().query(table.name,
-                fields, selection, selectionArgs, null, null, null),
-                properties);
+        long start = System.nanoTime();
+        Cursor cursor = database.getDatabase().query(table.name,
+                fields, selection, selectionArgs, null, null, null);
+        if(database.isProfiling()) {
+            cursor.getCount();
+            database.getStatistics().record(table.name, "SELECT WHERE " + selection, //$NON-NLS-1$
+                    System.nanoTime() - start);
+        }
+        return new TodorooCursor<TYPE>(cursor, properties);
     }
 
     /**
@@ -160,20 +372,9 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         try {
             if (cursor.getCount() == 0)
                 return null;
-            Constructor<TYPE> constructor = modelClass.getConstructor(TodorooCursor.class);
-            return constructor.newInstance(cursor);
-        } catch (SecurityException e) {
-            throw new RuntimeException(e);
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalArgumentException e) {
-            throw new RuntimeException(e);
-        } catch (InstantiationException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-        } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
+            TYPE model = AbstractModel.newInstance(modelClass);
+            model.readPropertiesFromCursor(cursor);
+            return model;
         } finally {
             cursor.close();
         }
@@ -187,8 +388,15 @@ public class DatabaseDao<TYPE extends AbstractModel> {
      * @return true if delete was successful
      */
     public boolean delete(long id) {
-        return database.delete(table.name,
-                AbstractModel.ID_PROPERTY.eq(id).toString(), null) > 0;
+        Property<?>[] derived = getDerivedTableProperties();
+        boolean result;
+        if(derived == null)
+            result = database.delete(statements, table.name, id) > 0;
+        else
+            result = deleteWithDerivedTables(AbstractModel.ID_PROPERTY.eq(id), derived) > 0;
+        if(result)
+            publishChange(id);
+        return result;
     }
 
     /**
@@ -197,8 +405,15 @@ public class DatabaseDao<TYPE extends AbstractModel> {
      * @return # of deleted items
      */
     public int deleteWhere(Criterion where) {
-        return database.delete(table.name,
-                where.toString(), null);
+        Property<?>[] derived = getDerivedTableProperties();
+        int result;
+        if(derived == null)
+            result = database.delete(table.name, where.toString(), null);
+        else
+            result = deleteWithDerivedTables(where, derived);
+        if(result > 0)
+            changeLog.invalidate();
+        return result;
     }
 
     /**
@@ -216,25 +431,26 @@ public class DatabaseDao<TYPE extends AbstractModel> {
      */
     public int update(Criterion where, TYPE template) {
         boolean recordOutstanding = shouldRecordOutstanding(template);
+        boolean derivedTables = hasDerivedTables(template.getSetValues());
         final AtomicInteger result = new AtomicInteger(0);
 
-        if (recordOutstanding) {
-            TodorooCursor<TYPE> toUpdate = query(Query.select(AbstractModel.ID_PROPERTY).where(where));
-            Long[] ids = null;
-            try {
-                ids = new Long[toUpdate.getCount()];
-                for (int i = 0; i < toUpdate.getCount(); i++) {
-                    toUpdate.moveToNext();
-                    ids[i] = toUpdate.get(AbstractModel.ID_PROPERTY);
-                }
-            } finally {
-                toUpdate.close();
+        if (recordOutstanding || derivedTables) {
+            Property<?>[] derived = derivedTables ? getDerivedTableProperties() : null;
+            Property<?>[] columns = { AbstractModel.ID_PROPERTY };
+            if (derived != null) {
+                columns = new Property<?>[derived.length + 1];
+                columns[0] = AbstractModel.ID_PROPERTY;
+                System.arraycopy(derived, 0, columns, 1, derived.length);
             }
-
-            if (toUpdate.getCount() == 0)
+            ArrayList<TYPE> previous = readRows(where, columns);
+            if (previous.isEmpty())
                 return 0;
+            Long[] ids = new Long[previous.size()];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = previous.get(i).getId();
 
-            synchronized (database) {
+            database.lockForWriting();
+            try {
                 database.getDatabase().beginTransactionWithListener(new SQLiteTransactionListener() {
                     @Override
                     public void onRollback() {
@@ -251,19 +467,34 @@ public class DatabaseDao<TYPE extends AbstractModel> {
                     result.set(database.update(table.name, template.getSetValues(),
                             where.toString(), null));
                     if (result.get() > 0) {
-                        for (Long id : ids) {
-                            createOutstandingEntries(id, template.getSetValues());
+                        if (recordOutstanding) {
+                            for (Long id : ids) {
+                                createOutstandingEntries(id, template.getSetValues());
+                            }
                         }
+                        if (derived != null)
+                            updateDerivedTables(previous);
+                        else if (derivedTables)
+                            updateDerivedTables(Arrays.asList(ids), template.getSetValues());
                     }
                     database.getDatabase().setTransactionSuccessful();
                 } finally {
                     database.getDatabase().endTransaction();
                 }
+            } finally {
+                database.unlockForWriting();
+            }
+            if (result.get() > 0) {
+                for (Long id : ids)
+                    publishChange(id);
             }
             return result.get();
         } else {
-            return database.update(table.name, template.getSetValues(),
+            int updated = database.update(table.name, template.getSetValues(),
                     where.toString(), null);
+            if (updated > 0)
+                changeLog.invalidate();
+            return updated;
         }
     }
 
@@ -286,6 +517,90 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         }
     }
 
+    /**
+     * Save all of the given objects to the database in a single transaction,
+     * together with their outstanding entries. Listeners are notified once
+     * the whole batch has been committed.
+     * <p>
+     * The batch is all or nothing: if any item fails to save, the
+     * transaction is rolled back and items that were new get their id
+     * cleared.
+     *
+     * @return true on success.
+     */
+    public boolean persistAll(Collection<TYPE> items) {
+        if(items.isEmpty())
+            return true;
+
+        database.lockForWriting();
+        try {
+            if(batch != null) { // already inside a batch on this dao
+                boolean result = true;
+                for(TYPE item : items)
+                    result &= persist(item);
+                return result;
+            }
+
+            Batch<TYPE> completed = new Batch<TYPE>(items.size());
+            ArrayList<TYPE> created = new ArrayList<TYPE>();
+            SQLiteDatabase db = database.getDatabase();
+            batch = completed;
+            db.beginTransaction();
+            try {
+                for(TYPE item : items) {
+                    if(item.getId() == AbstractModel.NO_ID)
+                        created.add(item);
+                    if(!persist(item) || completed.failed) {
+                        completed.failed = true;
+                        break;
+                    }
+                }
+                if(!completed.failed)
+                    db.setTransactionSuccessful();
+            } finally {
+                batch = null;
+                db.endTransaction();
+            }
+
+            if(completed.failed) {
+                Log.e(ERROR_TAG, "Error persisting batch of " + items.size() + //$NON-NLS-1$
+                        " items, rolled back", new Throwable()); //$NON-NLS-1$
+                for(TYPE item : created)
+                    item.clearValue(AbstractModel.ID_PROPERTY);
+                return false;
+            }
+
+            boolean[] outstanding = new boolean[completed.items.size()];
+            for(int i = 0; i < outstanding.length; i++)
+                outstanding[i] = completed.outstanding.get(i);
+            for(TYPE item : completed.items)
+                publishChange(item);
+            onModelsUpdated(completed.items, outstanding);
+            for(TYPE item : completed.items)
+                item.markSaved();
+        } finally {
+            database.unlockForWriting();
+        }
+        return true;
+    }
+
+    /**
+     * Items changed so far by {@link DatabaseDao#persistAll(Collection)}
+     */
+    private static class Batch<TYPE> {
+        final ArrayList<TYPE> items;
+        final ArrayList<Boolean> outstanding;
+        boolean failed = false;
+
+        public Batch(int size) {
+            items = new ArrayList<TYPE>(size);
+            outstanding = new ArrayList<Boolean>(size);
+        }
+    }
+
+    /** batch being persisted, guarded by the database writer lock */
+    private Batch<TYPE> batch = null;
+
     private interface DatabaseChangeOp {
         public boolean makeChange();
     }
@@ -297,10 +612,17 @@ public class DatabaseDao<TYPE extends AbstractModel> {
 
     private boolean insertOrUpdateAndRecordChanges(TYPE item, ContentValues values, DatabaseChangeOp op) {
         boolean recordOutstanding = shouldRecordOutstanding(item);
+        ContentValues setValues = item.getSetValues();
+        boolean derivedTables = hasDerivedTables(setValues);
         final AtomicBoolean result = new AtomicBoolean(false);
 
-        synchronized(database) {
-            if (recordOutstanding) { // begin transaction
+        database.lockForWriting();
+        try {
+            if (batch != null)
+                return batchChange(item, values, setValues, op, recordOutstanding, derivedTables);
+
+            boolean transaction = recordOutstanding || derivedTables;
+            if (transaction) { // begin transaction
                 database.getDatabase().beginTransactionWithListener(new SQLiteTransactionListener() {
                     @Override
                     public void onRollback() {
@@ -317,21 +639,48 @@ public class DatabaseDao<TYPE extends AbstractModel> {
             try {
                 result.set(op.makeChange());
                 if(result.get()) {
-                    if (recordOutstanding && ((numOutstanding = createOutstandingEntries(item.getId(), values)) != -1)) // Create entries for setValues in outstanding table
-                        database.getDatabase().setTransactionSuccessful();
+                    if (!recordOutstanding || ((numOutstanding = createOutstandingEntries(item.getId(), values)) != -1)) { // Create entries for setValues in outstanding table
+                        if (derivedTables)
+                            updateDerivedTables(Collections.singletonList(item.getId()), setValues);
+                        if (transaction)
+                            database.getDatabase().setTransactionSuccessful();
+                    }
                 }
             } finally {
-                if (recordOutstanding) // commit transaction
+                if (transaction) // commit transaction
                     database.getDatabase().endTransaction();
             }
             if (result.get()) {
+                publishChange(item);
                 onModelUpdated(item, recordOutstanding && numOutstanding > 0);
                 item.markSaved();
             }
+        } finally {
+            database.unlockForWriting();
         }
         return result.get();
     }
 
+    /**
+     * Make a change as part of the current batch. The enclosing transaction
+     * is owned by {@link #persistAll(Collection)}, and listeners are only
+     * notified once it commits
+     */
+    private boolean batchChange(TYPE item, ContentValues values, ContentValues setValues,
+            DatabaseChangeOp op, boolean recordOutstanding, boolean derivedTables) {
+        int numOutstanding = 0;
+        if(!op.makeChange() || (recordOutstanding &&
+                (numOutstanding = createOutstandingEntries(item.getId(), values)) == -1)) {
+            batch.failed = true;
+            return false;
+        }
+        if(derivedTables)
+            updateDerivedTables(Collections.singletonList(item.getId()), setValues);
+        batch.items.add(item);
+        batch.outstanding.add(recordOutstanding && numOutstanding > 0);
+        return true;
+    }
+
     /**
      * Creates the given item.
      *
@@ -348,8 +697,8 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         DatabaseChangeOp insert = new DatabaseChangeOp() {
             @Override
             public boolean makeChange() {
-                long newRow = database.insert(table.name,
-                        AbstractModel.ID_PROPERTY.name, item.getMergedValues());
+                long newRow = database.insert(statements, table.name,
+                        item.getMergedValues());
                 boolean result = newRow >= 0;
                 if (result)
                     item.setId(newRow);
@@ -376,38 +725,62 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         DatabaseChangeOp update = new DatabaseChangeOp() {
             @Override
             public boolean makeChange() {
-                return database.update(table.name, values,
-                        AbstractModel.ID_PROPERTY.eq(item.getId()).toString(), null) > 0;
+                return database.update(statements, table.name, values,
+                        item.getId()) > 0;
             }
         };
         return insertOrUpdateAndRecordChanges(item, values, update);
     }
 
+    /**
+     * Record the set values of a model in the outstanding table. Entries
+     * still pending for the same columns are replaced, so each column only
+     * keeps its latest value. Append-style entries (e.g. tags added) are
+     * written by subclasses directly and are never replaced
+     *
+     * @return number of entries recorded, or -1 on error
+     */
     protected int createOutstandingEntries(long modelId, ContentValues modelSetValues) {
         Set<Entry<String, Object>> entries = modelSetValues.valueSet();
         long now = DateUtilities.now();
         int count = 0;
+        ContentValues outstanding = new ContentValues(4);
+        ArrayList<String> columns = new ArrayList<String>(entries.size());
         for (Entry<String, Object> entry : entries) {
-            if (entry.getValue() != null && shouldRecordOutstandingEntry(entry.getKey(), entry.getValue())) {
-                AbstractModel m;
-                try {
-                    m = outstandingTable.modelClass.newInstance();
-                } catch (IllegalAccessException e) {
-                    return -1;
-                } catch (InstantiationException e2) {
-                    return -1;
-                }
-                m.setValue(OutstandingEntry.ENTITY_ID_PROPERTY, modelId);
-                m.setValue(OutstandingEntry.COLUMN_STRING_PROPERTY, entry.getKey());
-                m.setValue(OutstandingEntry.VALUE_STRING_PROPERTY, entry.getValue().toString());
-                m.setValue(OutstandingEntry.CREATED_AT_PROPERTY, now);
-                database.insert(outstandingTable.name, null, m.getSetValues());
-                count++;
-            }
+            if (entry.getValue() != null && shouldRecordOutstandingEntry(entry.getKey(), entry.getValue()))
+                columns.add(entry.getKey());
+        }
+        deleteOutstandingEntries(modelId, columns);
+
+        for (String column : columns) {
+            outstanding.put(OutstandingEntry.ENTITY_ID_PROPERTY_NAME, modelId);
+            outstanding.put(OutstandingEntry.COLUMN_STRING_PROPERTY_NAME, column);
+            outstanding.put(OutstandingEntry.VALUE_STRING_PROPERTY_NAME, modelSetValues.get(column).toString());
+            outstanding.put(OutstandingEntry.CREATED_AT_PROPERTY_NAME, now);
+            database.insert(outstandingStatements, outstandingTable.name, outstanding);
+            count++;
         }
         return count;
     }
 
+    /**
+     * Delete the pending outstanding entries of the given columns of a model
+     */
+    private void deleteOutstandingEntries(long modelId, List<String> columns) {
+        if(columns.isEmpty())
+            return;
+        StringBuilder where = new StringBuilder(OutstandingEntry.ENTITY_ID_PROPERTY_NAME).
+            append("=? AND ").append(OutstandingEntry.COLUMN_STRING_PROPERTY_NAME).append(" IN ("); //$NON-NLS-1$ //$NON-NLS-2$
+        String[] args = new String[columns.size() + 1];
+        args[0] = Long.toString(modelId);
+        for(int i = 0; i < columns.size(); i++) {
+            where.append(i == 0 ? "?" : ",?"); //$NON-NLS-1$ //$NON-NLS-2$
+            args[i + 1] = columns.get(i);
+        }
+        where.append(')');
+        database.delete(outstandingTable.name, where.toString(), args);
+    }
+
     /**
      * Returns true if an entry in the outstanding table should be recorded for this
      * column. Subclasses can override to return false for insignificant columns
@@ -0,0 +1,552 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import com.todoroo.andlib.data.Property.StringFunctionProperty;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Field;
+import com.todoroo.andlib.sql.Functions;
+import com.todoroo.andlib.sql.Join;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.OrderType;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.DateUtilities;
+
+/**
+ * Cursor over a large query result that only ever holds a few fixed-size
+ * pages of it. Each page continues after the sort key and id of the last
+ * row of the page before it, so reading a page costs the same wherever it
+ * is in the result. A page is read with an offset only if the page before
+ * it has never been read.
+ * <p>
+ * Pages are loaded when the cursor moves onto them, or ahead of time on a
+ * background thread when {@link #setViewport(int, int)} reports that the
+ * user is scrolling towards them. Pages far from the viewport are closed.
+ * Open pages are only ever touched by the thread that moves the cursor;
+ * prefetched pages are handed over to it.
+ * <p>
+ * The count is read when the cursor is queried. If rows were deleted
+ * since, the positions past the end of the result have all their columns
+ * null. Content observers are notified when such a row is read, so that
+ * the owner of the cursor can re-query it.
+ */
+@SuppressWarnings("nls")
+public class PagedCursor extends AbstractCursor {
+
+    /** rows per page */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /** pages kept open at most */
+    static final int MAX_PAGES = 4;
+
+    /** load the next page once the viewport is this close to its start */
+    static final int PREFETCH_DISTANCE = 15;
+
+    private static final String KEY_COLUMN = "pageKey";
+    private static final String TYPE_COLUMN = "pageKeyType";
+    private static final String ROWS_ALIAS = "pageRows";
+
+    /** reads pages ahead of the viewport, for all paged cursors */
+    private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+
+    /** an open page, and the sort key of each of its rows */
+    private static class Page {
+        final Cursor cursor;
+        final Object[][] keys;
+
+        Page(Cursor cursor, Object[][] keys) {
+            this.cursor = cursor;
+            this.keys = keys;
+        }
+    }
+
+    private final AbstractDatabase database;
+    private final Table table;
+    private final Property<?>[] properties;
+    private final int pageSize;
+
+    /** structure of the query: joins, filter template and grouping */
+    private final Join[] joins;
+    private final String filter;
+    private final Object[] filterArgs;
+    private final Field[] groupBy;
+
+    /** sort terms, followed by the id as tie-breaker */
+    private final String[] terms;
+    private final boolean[] ascending;
+    private final String orderBy;
+
+    private final Field idField;
+
+    private int count;
+
+    /** open pages by page number, least recently used first */
+    private final LinkedHashMap<Integer, Page> pages =
+        new LinkedHashMap<Integer, Page>(MAX_PAGES + 1, 0.75f, true);
+
+    /** sort key of the last row of each full page read so far */
+    private final HashMap<Integer, Object[]> boundaries = new HashMap<Integer, Object[]>();
+
+    /** pages read by the prefetcher and not taken over yet. Guarded by this */
+    private final HashMap<Integer, Page> prefetched = new HashMap<Integer, Page>();
+    private int prefetching = -1;
+    private int generation = 0;
+    private boolean closed = false;
+
+    private String[] columnNames;
+    private Cursor current;
+    private boolean rowsMissing = false;
+
+    /**
+     * @param database database to read from
+     * @param table table to select from
+     * @param properties properties to read
+     * @param joins tables to join, also when reading pages
+     * @param filter where clause (possibly with further joins) of the
+     *          query, without grouping, order or limit
+     * @param filterArgs values of "?" parameters in the filter, or null
+     * @param groupBy fields to group by, or an empty array
+     * @param order order of the rows
+     * @param pageSize rows per page
+     */
+    public PagedCursor(AbstractDatabase database, Table table, Property<?>[] properties,
+            Join[] joins, String filter, Object[] filterArgs, Field[] groupBy,
+            Order order, int pageSize) {
+        this.database = database;
+        this.table = table;
+        this.properties = properties;
+        this.pageSize = pageSize;
+        this.joins = joins;
+        this.filterArgs = filterArgs;
+        this.groupBy = groupBy;
+        this.idField = Field.field(table.name + "." + AbstractModel.ID_PROPERTY_NAME);
+
+        // the current time has to stay the same between pages, or rows
+        // ordered by due date would shift between them
+        String now = Long.toString(DateUtilities.now());
+        this.filter = filter.replace(Functions.now().toString(), now);
+        ArrayList<Order> orders = new ArrayList<Order>();
+        flatten(order, orders);
+        terms = new String[orders.size() + 1];
+        ascending = new boolean[terms.length];
+        StringBuilder orderByBuilder = new StringBuilder();
+        for(int i = 0; i < orders.size(); i++) {
+            terms[i] = "(" + orders.get(i).getExpression().toString().replace(
+                    Functions.now().toString(), now) + ")";
+            ascending[i] = orders.get(i).getOrderType() == OrderType.ASC;
+            orderByBuilder.append(terms[i]).append(ascending[i] ? " ASC, " : " DESC, ");
+        }
+        terms[orders.size()] = idField.toString();
+        ascending[orders.size()] = true;
+        orderBy = orderByBuilder.append(idField).append(" ASC").toString();
+
+        count = queryCount();
+        columnNames = loadPage(0).cursor.getColumnNames();
+    }
+
+    private static void flatten(Order order, List<Order> result) {
+        result.add(order);
+        for(Order secondary : order.getSecondaryExpressions())
+            flatten(secondary, result);
+    }
+
+    // --- row lookup
+
+    /**
+     * @return position of the row with the given id, or -1 if it is not
+     *         on one of the open pages. Doesn't read from the database
+     */
+    public int getPosition(long id) {
+        int idTerm = terms.length - 1;
+        for(Entry<Integer, Page> page : pages.entrySet()) {
+            Object[][] keys = page.getValue().keys;
+            for(int i = 0; i < keys.length; i++) {
+                if(keys[i] != null && keys[i][idTerm] instanceof Long &&
+                        (Long) keys[i][idTerm] == id)
+                    return page.getKey() * pageSize + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read the sort keys of the given rows again and compare them with the
+     * keys they were read with
+     *
+     * @return true if all rows are on open pages, are still part of the
+     *         result and still sort into the positions they hold
+     */
+    public boolean isInPlace(Collection<Long> rowIds) {
+        HashMap<Long, Object[]> held = new HashMap<Long, Object[]>();
+        for(Long id : rowIds) {
+            int position = getPosition(id);
+            if(position < 0)
+                return false;
+            held.put(id, pages.get(position / pageSize).keys[position % pageSize]);
+        }
+        if(rowIds.isEmpty())
+            return true;
+
+        Field rowId = Field.field(ROWS_ALIAS + "." + AbstractModel.ID_PROPERTY_NAME);
+        Join restrict = Join.inner(table.as(ROWS_ALIAS), Criterion.and(idField.eq(rowId),
+                rowId.in(rowIds.toArray(new Long[rowIds.size()]))));
+        ArrayList<Object> bindArgs = new ArrayList<Object>();
+        String sql = query(keyFields(), restrict, null, bindArgs);
+        int found = 0;
+        Cursor cursor = database.rawQuery(sql, bindArgs.toArray());
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                Object[] key = readKey(cursor, 0);
+                if(key == null || !Arrays.equals(key, held.get(key[terms.length - 1])))
+                    return false;
+                found++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return found == rowIds.size();
+    }
+
+    /**
+     * Count the rows of the result again
+     *
+     * @return true if the result still has as many rows as when the cursor
+     *         was queried
+     */
+    public boolean isCountCurrent() {
+        return queryCount() == count;
+    }
+
+    /** @return value and type of each sort term */
+    private Field[] keyFields() {
+        Field[] fields = new Field[terms.length * 2];
+        for(int i = 0; i < terms.length; i++) {
+            fields[2 * i] = new StringFunctionProperty(terms[i], KEY_COLUMN + i);
+            fields[2 * i + 1] = new StringFunctionProperty("typeof(" + terms[i] + ")", TYPE_COLUMN + i);
+        }
+        return fields;
+    }
+
+    /**
+     * @param first index of the first key column in the cursor
+     * @return sort key of the cursor's current row, or null if one of its
+     *         values can't be bound
+     */
+    private Object[] readKey(Cursor cursor, int first) {
+        Object[] key = new Object[terms.length];
+        for(int i = 0; i < terms.length; i++) {
+            int column = first + 2 * i;
+            String type = cursor.getString(column + 1);
+            if("integer".equals(type))
+                key[i] = cursor.getLong(column);
+            else if("real".equals(type))
+                key[i] = cursor.getDouble(column);
+            else if("text".equals(type))
+                key[i] = cursor.getString(column);
+            else if(!"null".equals(type))
+                return null;
+        }
+        return key;
+    }
+
+    /**
+     * @return rows sorted after the given key, starting at term i. Nulls
+     *         sort first, as SQLite does
+     */
+    private Criterion after(Object[] key, int i) {
+        Field term = Field.field(terms[i]);
+        Criterion beyond;
+        if(ascending[i])
+            beyond = key[i] == null ? term.isNotNull() : term.gt(key[i]);
+        else
+            beyond = key[i] == null ? Criterion.none : Criterion.or(term.lt(key[i]), term.isNull());
+        if(i == terms.length - 1)
+            return beyond;
+        return Criterion.or(beyond, Criterion.and(term.eq(key[i]), after(key, i + 1)));
+    }
+
+    /**
+     * Build the query with the given fields. Rows are restricted by an
+     * inner join of the table with itself, so the filter is used as is
+     *
+     * @param restrict join restricting the rows, or null
+     * @param tail order and limit clauses, or null
+     */
+    private String query(Field[] fields, Join restrict, String tail, List<Object> bindArgs) {
+        Join[] allJoins = joins;
+        if(restrict != null) {
+            allJoins = new Join[joins.length + 1];
+            System.arraycopy(joins, 0, allJoins, 0, joins.length);
+            allJoins[joins.length] = restrict;
+        }
+        StringBuilder template = new StringBuilder(filter);
+        for(int i = 0; i < groupBy.length; i++)
+            template.append(i == 0 ? " GROUP BY " : ", ").append(groupBy[i]);
+        if(tail != null)
+            template.append(tail);
+        return Query.select(fields).from(table).join(allJoins).
+            withQueryTemplate(template.toString(), filterArgs).toParameterizedString(bindArgs);
+    }
+
+    private int queryCount() {
+        ArrayList<Object> bindArgs = new ArrayList<Object>();
+        String sql = "SELECT COUNT(*) FROM (" + query(new Field[] { idField }, null, null, bindArgs) + ")";
+        Cursor cursor = database.rawQuery(sql, bindArgs.toArray());
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // --- paging
+
+    /**
+     * Report which rows are visible, so pages ahead can be loaded before
+     * they are needed and pages far away can be closed. Must be called on
+     * the thread that moves the cursor
+     *
+     * @param first first visible position
+     * @param visible number of visible rows
+     */
+    public void setViewport(int first, int visible) {
+        int firstPage = first / pageSize;
+        int lastPage = (first + visible) / pageSize;
+
+        Iterator<Entry<Integer, Page>> iterator = pages.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Entry<Integer, Page> page = iterator.next();
+            if((page.getKey() < firstPage - 1 || page.getKey() > lastPage + 1) &&
+                    page.getValue().cursor != current) {
+                page.getValue().cursor.close();
+                iterator.remove();
+            }
+        }
+
+        final int next = lastPage + 1;
+        final Object[] after = boundaries.get(lastPage);
+        final int queued;
+        synchronized(this) {
+            iterator = prefetched.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Entry<Integer, Page> page = iterator.next();
+                if(page.getKey() < firstPage - 1 || page.getKey() > next ||
+                        pages.containsKey(page.getKey())) {
+                    page.getValue().cursor.close();
+                    iterator.remove();
+                }
+            }
+
+            if((next * pageSize) - (first + visible) > PREFETCH_DISTANCE ||
+                    next * pageSize >= count || pages.containsKey(next) ||
+                    prefetched.containsKey(next) || prefetching == next || closed)
+                return;
+            prefetching = next;
+            queued = generation;
+        }
+
+        prefetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(PagedCursor.this) {
+                    if(queued != generation || closed) {
+                        if(prefetching == next)
+                            prefetching = -1;
+                        return;
+                    }
+                }
+                Page page = readPage(next, after);
+                synchronized(PagedCursor.this) {
+                    if(prefetching == next)
+                        prefetching = -1;
+                    if(queued == generation && !closed && !prefetched.containsKey(next)) {
+                        prefetched.put(next, page);
+                        return;
+                    }
+                }
+                page.cursor.close();
+            }
+        });
+    }
+
+    /**
+     * Get a page, from the open pages, the prefetched ones or the database.
+     * Closes the least recently used page if too many are open, but never
+     * the one the cursor is on
+     */
+    private Page loadPage(int number) {
+        Page page = pages.get(number);
+        if(page != null)
+            return page;
+
+        synchronized(this) {
+            page = prefetched.remove(number);
+        }
+        if(page == null)
+            page = readPage(number, number == 0 ? null : boundaries.get(number - 1));
+        pages.put(number, page);
+        if(page.keys.length == pageSize && page.keys[pageSize - 1] != null)
+            boundaries.put(number, page.keys[pageSize - 1]);
+
+        while(pages.size() > MAX_PAGES) {
+            Iterator<Entry<Integer, Page>> iterator = pages.entrySet().iterator();
+            Entry<Integer, Page> eldest = iterator.next();
+            if(eldest.getValue().cursor == current)
+                eldest = iterator.next();
+            eldest.getValue().cursor.close();
+            pages.remove(eldest.getKey());
+        }
+        return page;
+    }
+
+    /**
+     * Read the rows of a page, continuing after the given key, or at an
+     * offset if it is null. Fills the cursor window, so this is where the
+     * work is when called from the prefetcher
+     */
+    private Page readPage(int number, Object[] after) {
+        Field[] keyFields = keyFields();
+        Field[] fields = new Field[properties.length + keyFields.length];
+        System.arraycopy(properties, 0, fields, 0, properties.length);
+        System.arraycopy(keyFields, 0, fields, properties.length, keyFields.length);
+
+        Join restrict = null;
+        StringBuilder tail = new StringBuilder(" ORDER BY ").append(orderBy).
+            append(" LIMIT ").append(pageSize);
+        if(after != null) {
+            Field rowId = Field.field(ROWS_ALIAS + "." + AbstractModel.ID_PROPERTY_NAME);
+            restrict = Join.inner(table.as(ROWS_ALIAS), Criterion.and(idField.eq(rowId),
+                    after(after, 0)));
+        } else if(number > 0) {
+            tail.append(" OFFSET ").append(number * pageSize);
+        }
+        ArrayList<Object> bindArgs = new ArrayList<Object>();
+        String sql = query(fields, restrict, tail.toString(), bindArgs);
+        Cursor cursor = database.rawQuery(sql, bindArgs.toArray());
+
+        Object[][] keys = new Object[cursor.getCount()][];
+        for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+            keys[cursor.getPosition()] = readKey(cursor, properties.length);
+        return new Page(cursor, keys);
+    }
+
+    // --- cursor implementation
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        Page page = loadPage(newPosition / pageSize);
+        int row = newPosition % pageSize;
+        if(row >= page.keys.length) {
+            // rows were deleted since the count was read
+            current = null;
+            if(!rowsMissing) {
+                rowsMissing = true;
+                onChange(true);
+            }
+            return true;
+        }
+        current = page.cursor;
+        return current.moveToPosition(row);
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return current == null ? null : current.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return current == null ? 0 : current.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return current == null ? 0 : current.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return current == null ? 0 : current.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return current == null ? 0 : current.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return current == null ? 0 : current.getDouble(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return current == null || current.isNull(column);
+    }
+
+    @Override
+    public boolean requery() {
+        synchronized(this) {
+            generation++;
+            closePrefetched();
+        }
+        current = null;
+        closePages();
+        rowsMissing = false;
+        boundaries.clear();
+        count = queryCount();
+        loadPage(0);
+        return super.requery();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized(this) {
+            closed = true;
+            closePrefetched();
+        }
+        closePages();
+    }
+
+    private void closePages() {
+        for(Page page : pages.values())
+            page.cursor.close();
+        pages.clear();
+    }
+
+    private void closePrefetched() {
+        for(Page page : prefetched.values())
+            page.cursor.close();
+        prefetched.clear();
+        prefetching = -1;
+    }
+
+}
@@ -9,6 +9,9 @@ import static com.todoroo.andlib.sql.SqlConstants.COMMA;
 import static com.todoroo.andlib.sql.SqlConstants.LEFT_PARENTHESIS;
 import static com.todoroo.andlib.sql.SqlConstants.RIGHT_PARENTHESIS;
 import static com.todoroo.andlib.sql.SqlConstants.SPACE;
+
+import java.util.List;
+
 import android.text.TextUtils;
 
 import com.todoroo.andlib.sql.Criterion;
@@ -52,6 +55,9 @@ public abstract class Property<TYPE> extends Field implements Cloneable {
 
     public int flags = 0;
 
+    /** Ordinal in the owning model's {@link PropertySlots}, or -1 */
+    int slot = -1;
+
     /**
      * Create a property by table and column name. Uses the default property
      * expression which is derived from default table name
@@ -220,6 +226,16 @@ public abstract class Property<TYPE> extends Field implements Cloneable {
                     }
                     sb.deleteCharAt(sb.length() - 1).append(RIGHT_PARENTHESIS);
                 }
+
+                @Override
+                protected void populate(StringBuilder sb, List<Object> bindArgs) {
+                    sb.append(field).append(SPACE).append(Operator.in).append(SPACE).append(LEFT_PARENTHESIS).append(SPACE);
+                    for (String s : value) {
+                        sb.append('?').append(COMMA);
+                        bindArgs.add(s);
+                    }
+                    sb.deleteCharAt(sb.length() - 1).append(RIGHT_PARENTHESIS);
+                }
             };
         }
     }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.todoroo.andlib.data.Property.DoubleProperty;
+import com.todoroo.andlib.data.Property.IntegerProperty;
+import com.todoroo.andlib.data.Property.LongProperty;
+
+/**
+ * Slot layout for the properties of one model class. Every property the
+ * model declares gets a stable ordinal when the model calls
+ * {@link AbstractModel#generateProperties(Class)}. {@link AbstractModel}
+ * keeps values read from the database in typed arrays indexed through this
+ * layout instead of in a {@link android.content.ContentValues}.
+ * <p>
+ * Layouts are immutable once registered, so they can be read from any
+ * thread without locking.
+ */
+final class PropertySlots {
+
+    static final int KIND_INT = 0;
+    static final int KIND_LONG = 1;
+    static final int KIND_DOUBLE = 2;
+    static final int KIND_STRING = 3;
+
+    /** registered layouts by model class */
+    private static final ConcurrentHashMap<Class<?>, PropertySlots> layouts =
+        new ConcurrentHashMap<Class<?>, PropertySlots>();
+
+    /** properties by ordinal */
+    final Property<?>[] properties;
+
+    /** property kind by ordinal */
+    final int[] kinds;
+
+    /** ordinal to index into the numeric or string value array */
+    final int[] indices;
+
+    /** number of numeric slots */
+    final int numberCount;
+
+    /** number of string slots */
+    final int stringCount;
+
+    /** column name to ordinal */
+    private final HashMap<String, Integer> ordinals;
+
+    private PropertySlots(Property<?>[] declared) {
+        ArrayList<Property<?>> unique = new ArrayList<Property<?>>(declared.length);
+        ordinals = new HashMap<String, Integer>(declared.length * 2);
+        for(Property<?> property : declared) {
+            if(ordinals.containsKey(property.name))
+                continue;
+            ordinals.put(property.name, unique.size());
+            unique.add(property);
+        }
+
+        properties = unique.toArray(new Property<?>[unique.size()]);
+        kinds = new int[properties.length];
+        indices = new int[properties.length];
+        int numbers = 0, strings = 0;
+        for(int i = 0; i < properties.length; i++) {
+            kinds[i] = kindOf(properties[i]);
+            indices[i] = kinds[i] == KIND_STRING ? strings++ : numbers++;
+            if(properties[i].slot == -1)
+                properties[i].slot = i;
+        }
+        numberCount = numbers;
+        stringCount = strings;
+    }
+
+    /**
+     * Register the layout for a model class
+     */
+    static void register(Class<? extends AbstractModel> cls, Property<?>[] properties) {
+        layouts.put(cls, new PropertySlots(properties));
+    }
+
+    /**
+     * @return layout for the given class, or null if it has none
+     */
+    static PropertySlots forClass(Class<?> cls) {
+        return layouts.get(cls);
+    }
+
+    /**
+     * @return ordinal of the given property, or -1 if it is not part of
+     *         this layout (e.g. a column from a joined table)
+     */
+    int ordinalOf(Property<?> property) {
+        int slot = property.slot;
+        if(slot >= 0 && slot < properties.length && properties[slot] == property)
+            return slot;
+        return ordinalOf(property.getColumnName());
+    }
+
+    /**
+     * @return ordinal of the given column, or -1
+     */
+    int ordinalOf(String column) {
+        Integer ordinal = ordinals.get(column);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * @return number of ordinals in this layout
+     */
+    int size() {
+        return properties.length;
+    }
+
+    static int kindOf(Property<?> property) {
+        if(property instanceof LongProperty)
+            return KIND_LONG;
+        else if(property instanceof IntegerProperty)
+            return KIND_INT;
+        else if(property instanceof DoubleProperty)
+            return KIND_DOUBLE;
+        return KIND_STRING;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Records the query plan SQLite picks for each distinct query shape, and
+ * flags plans that scan a whole table. Shapes are parameterized SQL, so
+ * queries that only differ in their literals are counted together.
+ * <p>
+ * Plans are only captured in debug mode, see {@link DatabaseDao#query}.
+ */
+@SuppressWarnings("nls")
+public class QueryPlanRecorder {
+
+    private static final String TAG = "query-plan";
+
+    /**
+     * Plan of a single query shape
+     */
+    public static class Plan {
+        public final String sql;
+        public final String[] steps;
+        public final boolean fullScan;
+        int count = 0;
+
+        Plan(String sql, String[] steps) {
+            this.sql = sql;
+            this.steps = steps;
+            boolean scan = false;
+            for(String step : steps)
+                scan |= isFullScan(step);
+            this.fullScan = scan;
+        }
+
+        /** @return number of times this shape was queried */
+        public synchronized int getCount() {
+            return count;
+        }
+    }
+
+    private final HashMap<String, Plan> plans = new HashMap<String, Plan>();
+
+    /**
+     * Count a query, explaining it the first time its shape is seen
+     */
+    public void record(AbstractDatabase database, String sql, Object[] bindArgs) {
+        Plan plan;
+        synchronized(this) {
+            plan = plans.get(sql);
+        }
+        if(plan == null) {
+            plan = explain(database, sql, bindArgs);
+            synchronized(this) {
+                if(plans.containsKey(sql))
+                    plan = plans.get(sql);
+                else {
+                    plans.put(sql, plan);
+                    if(plan.fullScan)
+                        Log.w(TAG, "Full table scan: " + sql);
+                }
+            }
+        }
+        synchronized(plan) {
+            plan.count++;
+        }
+    }
+
+    /**
+     * Run EXPLAIN QUERY PLAN for the given query
+     */
+    public static Plan explain(AbstractDatabase database, String sql, Object[] bindArgs) {
+        ArrayList<String> steps = new ArrayList<String>();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, bindArgs);
+        try {
+            int detail = cursor.getColumnCount() - 1;
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                steps.add(cursor.getString(detail));
+        } finally {
+            cursor.close();
+        }
+        return new Plan(sql, steps.toArray(new String[steps.size()]));
+    }
+
+    /**
+     * @param step row detail of EXPLAIN QUERY PLAN, in either the newer
+     *        ("SCAN TABLE x", "SEARCH TABLE x USING INDEX i") or older
+     *        ("TABLE x", "TABLE x WITH INDEX i") format
+     * @return true if the step visits every row of a table
+     */
+    public static boolean isFullScan(String step) {
+        if(step == null)
+            return false;
+        if(step.startsWith("SCAN TABLE"))
+            return !step.contains(" USING ");
+        if(step.startsWith("TABLE "))
+            return !step.contains(" WITH INDEX") && !step.contains(" USING PRIMARY KEY");
+        return false;
+    }
+
+    /**
+     * @return recorded plans, most frequent first
+     */
+    public synchronized ArrayList<Plan> getPlans() {
+        ArrayList<Plan> result = new ArrayList<Plan>(plans.values());
+        Collections.sort(result, new Comparator<Plan>() {
+            @Override
+            public int compare(Plan lhs, Plan rhs) {
+                return rhs.getCount() - lhs.getCount();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return human-readable report of all recorded shapes. Full scans are
+     *         listed first, as they are candidates for a new index
+     */
+    public String getReport() {
+        ArrayList<Plan> plans = getPlans();
+        StringBuilder scans = new StringBuilder();
+        StringBuilder others = new StringBuilder();
+        int scanCount = 0;
+        for(Plan plan : plans) {
+            StringBuilder report = plan.fullScan ? scans : others;
+            if(plan.fullScan)
+                scanCount++;
+            report.append(plan.getCount()).append("x ").append(plan.sql).append('\n');
+            for(String step : plan.steps) {
+                report.append(isFullScan(step) ? "  ! " : "    ").append(step).append('\n');
+            }
+        }
+        return plans.size() + " query shapes, " + scanCount + " with full table scans\n" +
+                scans + others;
+    }
+
+    public synchronized void clear() {
+        plans.clear();
+    }
+
+}
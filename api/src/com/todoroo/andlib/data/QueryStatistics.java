@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * Latency histograms for database operations, grouped by table and query
+ * shape, plus a log of the most recent slow operations.
+ * <p>
+ * The shape of a statement is its SQL with literals replaced by "?" and
+ * lists of values collapsed, so that e.g. every fetch of a task by id is
+ * counted together.
+ */
+@SuppressWarnings("nls")
+public class QueryStatistics {
+
+    /** operations slower than this are added to the slow query log */
+    public static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 100;
+
+    /** number of slow operations kept */
+    public static final int SLOW_QUERY_LOG_SIZE = 50;
+
+    /**
+     * Histogram with logarithmic buckets. Bucket i counts durations below
+     * 2^i * 16 microseconds
+     */
+    public static class Histogram {
+
+        private static final int BUCKETS = 24;
+        private static final long FIRST_BUCKET_MICROS = 16;
+
+        private final int[] buckets = new int[BUCKETS];
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        public synchronized void record(long nanos) {
+            buckets[bucketOf(nanos)]++;
+            count++;
+            totalNanos += nanos;
+            if(nanos > maxNanos)
+                maxNanos = nanos;
+        }
+
+        private static int bucketOf(long nanos) {
+            long micros = nanos / 1000;
+            long limit = FIRST_BUCKET_MICROS;
+            int bucket = 0;
+            while(micros >= limit && bucket < BUCKETS - 1) {
+                limit <<= 1;
+                bucket++;
+            }
+            return bucket;
+        }
+
+        /**
+         * @param fraction between 0 and 1, e.g. 0.95
+         * @return upper bound of the bucket containing the given percentile,
+         *         in milliseconds
+         */
+        public synchronized double getPercentileMillis(double fraction) {
+            if(count == 0)
+                return 0;
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for(int i = 0; i < BUCKETS - 1; i++) {
+                seen += buckets[i];
+                if(seen >= rank)
+                    return Math.min(FIRST_BUCKET_MICROS << i, maxNanos / 1000) / 1000.0;
+            }
+            return maxNanos / 1e6;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized double getTotalMillis() {
+            return totalNanos / 1e6;
+        }
+
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("n=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms total=%.0fms",
+                    count, getPercentileMillis(0.5), getPercentileMillis(0.95),
+                    getPercentileMillis(0.99), getMaxMillis(), getTotalMillis());
+        }
+    }
+
+    /**
+     * An operation that took longer than the threshold
+     */
+    public static class SlowQuery {
+        public final long timestamp;
+        public final String table;
+        public final String sql;
+        public final long nanos;
+
+        SlowQuery(long timestamp, String table, String sql, long nanos) {
+            this.timestamp = timestamp;
+            this.table = table;
+            this.sql = sql;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.1fms %s: %s", new Date(timestamp), nanos / 1e6,
+                    table, sql);
+        }
+    }
+
+    private final HashMap<String, Histogram> histograms = new HashMap<String, Histogram>();
+
+    private final SlowQuery[] slowQueries = new SlowQuery[SLOW_QUERY_LOG_SIZE];
+
+    private int nextSlowQuery = 0;
+
+    private volatile long slowThresholdNanos = DEFAULT_SLOW_THRESHOLD_MILLIS * 1000000L;
+
+    /**
+     * Record the duration of an operation
+     *
+     * @param table table operated on
+     * @param sql statement or description of the operation
+     * @param nanos elapsed time
+     */
+    public void record(String table, String sql, long nanos) {
+        String key = table + " | " + normalize(sql);
+        Histogram histogram;
+        synchronized(histograms) {
+            histogram = histograms.get(key);
+            if(histogram == null) {
+                histogram = new Histogram();
+                histograms.put(key, histogram);
+            }
+        }
+        histogram.record(nanos);
+
+        if(nanos >= slowThresholdNanos) {
+            SlowQuery slowQuery = new SlowQuery(System.currentTimeMillis(), table, sql, nanos);
+            synchronized(slowQueries) {
+                slowQueries[nextSlowQuery] = slowQuery;
+                nextSlowQuery = (nextSlowQuery + 1) % slowQueries.length;
+            }
+        }
+    }
+
+    public void setSlowThresholdMillis(long millis) {
+        slowThresholdNanos = millis * 1000000L;
+    }
+
+    public long getSlowThresholdMillis() {
+        return slowThresholdNanos / 1000000L;
+    }
+
+    /**
+     * @return histograms by "table | shape"
+     */
+    public HashMap<String, Histogram> getHistograms() {
+        synchronized(histograms) {
+            return new HashMap<String, Histogram>(histograms);
+        }
+    }
+
+    /**
+     * @return slow operations, most recent first
+     */
+    public ArrayList<SlowQuery> getSlowQueries() {
+        ArrayList<SlowQuery> result = new ArrayList<SlowQuery>(slowQueries.length);
+        synchronized(slowQueries) {
+            for(int i = 1; i <= slowQueries.length; i++) {
+                SlowQuery slowQuery = slowQueries[(nextSlowQuery - i + slowQueries.length) % slowQueries.length];
+                if(slowQuery != null)
+                    result.add(slowQuery);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return human-readable report, shapes with the most total time first
+     */
+    public String getReport() {
+        ArrayList<Entry<String, Histogram>> entries =
+            new ArrayList<Entry<String, Histogram>>(getHistograms().entrySet());
+        Collections.sort(entries, new Comparator<Entry<String, Histogram>>() {
+            @Override
+            public int compare(Entry<String, Histogram> lhs, Entry<String, Histogram> rhs) {
+                return Double.compare(rhs.getValue().getTotalMillis(), lhs.getValue().getTotalMillis());
+            }
+        });
+
+        StringBuilder report = new StringBuilder();
+        for(Entry<String, Histogram> entry : entries)
+            report.append(entry.getValue()).append("  ").append(entry.getKey()).append('\n');
+        ArrayList<SlowQuery> slow = getSlowQueries();
+        report.append(slow.size()).append(" operations over ").
+            append(getSlowThresholdMillis()).append("ms\n");
+        for(SlowQuery slowQuery : slow)
+            report.append(slowQuery).append('\n');
+        return report.toString();
+    }
+
+    public void clear() {
+        synchronized(histograms) {
+            histograms.clear();
+        }
+        synchronized(slowQueries) {
+            for(int i = 0; i < slowQueries.length; i++)
+                slowQueries[i] = null;
+            nextSlowQuery = 0;
+        }
+    }
+
+    // --- shapes
+
+    /**
+     * Replace string and number literals with "?", and collapse lists like
+     * "(?, ?, ?)" into "(?)"
+     */
+    public static String normalize(String sql) {
+        if(sql == null)
+            return "";
+        int length = sql.length();
+        StringBuilder shape = new StringBuilder(length);
+        for(int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if(c == '\'') {
+                // skip to the closing quote, '' is an escaped quote
+                for(i++; i < length; i++) {
+                    if(sql.charAt(i) == '\'') {
+                        if(i + 1 < length && sql.charAt(i + 1) == '\'')
+                            i++;
+                        else
+                            break;
+                    }
+                }
+                appendPlaceholder(shape);
+            } else if(Character.isDigit(c) && !endsWithIdentifier(shape)) {
+                while(i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.'))
+                    i++;
+                appendPlaceholder(shape);
+            } else if(c == '?') {
+                appendPlaceholder(shape);
+            } else
+                shape.append(c);
+        }
+        return shape.toString();
+    }
+
+    private static boolean endsWithIdentifier(StringBuilder shape) {
+        if(shape.length() == 0)
+            return false;
+        char last = shape.charAt(shape.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_';
+    }
+
+    /** append "?", unless it continues a list of placeholders */
+    private static void appendPlaceholder(StringBuilder shape) {
+        int comma = lastNonSpace(shape, shape.length() - 1);
+        if(comma >= 0 && shape.charAt(comma) == ',') {
+            int previous = lastNonSpace(shape, comma - 1);
+            if(previous >= 0 && shape.charAt(previous) == '?') {
+                shape.setLength(previous + 1);
+                return;
+            }
+        }
+        shape.append('?');
+    }
+
+    private static int lastNonSpace(StringBuilder shape, int from) {
+        int i = from;
+        while(i >= 0 && shape.charAt(i) == ' ')
+            i--;
+        return i;
+    }
+
+    /**
+     * @return name of the first table in the FROM clause of a query, or
+     *         "?" if there is none
+     */
+    public static String tableOf(String sql) {
+        int from = indexOfIgnoreCase(sql, " FROM ");
+        if(from == -1)
+            return "?";
+        int start = from + 6;
+        while(start < sql.length() && sql.charAt(start) == ' ')
+            start++;
+        int end = start;
+        while(end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_'))
+            end++;
+        return end > start ? sql.substring(start, end) : "?";
+    }
+
+    private static int indexOfIgnoreCase(String string, String search) {
+        int max = string.length() - search.length();
+        for(int i = 0; i <= max; i++) {
+            if(string.regionMatches(true, i, search, 0, search.length()))
+                return i;
+        }
+        return -1;
+    }
+
+}
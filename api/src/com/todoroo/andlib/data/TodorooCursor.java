@@ -5,12 +5,12 @@
  */
 package com.todoroo.andlib.data;
 
-import java.util.WeakHashMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 import android.database.Cursor;
 import android.database.CursorWrapper;
 
-import com.todoroo.andlib.data.Property.PropertyVisitor;
 
 /**
  * AstridCursor wraps a cursor and allows users to query for individual
@@ -26,12 +26,14 @@ public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
     /** Properties read by this cursor */
     private final Property<?>[] properties;
 
-    /** Weakly cache field name to column id references for this cursor.
-     * Because it's a weak hash map, entire keys can be discarded by GC */
-    private final WeakHashMap<String, Integer> columnIndexCache;
+    /** Column index of each property, resolved once. -1 if missing */
+    private final int[] columns;
 
-    /** Property reading visitor */
-    private static final CursorReadingVisitor reader = new CursorReadingVisitor();
+    /** Position of each property in {@link #properties} */
+    private final IdentityHashMap<Property<?>, Integer> positions;
+
+    /** Column index of each resolved property, by column name */
+    private final HashMap<String, Integer> columnsByName;
 
     /** Wrapped cursor */
     private final Cursor cursor;
@@ -48,7 +50,17 @@ public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
 
         this.cursor = cursor;
         this.properties = properties;
-        columnIndexCache = new WeakHashMap<String, Integer>();
+        columns = new int[properties.length];
+        positions = new IdentityHashMap<Property<?>, Integer>(properties.length);
+        columnsByName = new HashMap<String, Integer>(properties.length);
+        for(int i = 0; i < properties.length; i++) {
+            String name = properties[i].getColumnName();
+            columns[i] = cursor.getColumnIndex(name);
+            if(!positions.containsKey(properties[i]))
+                positions.put(properties[i], i);
+            if(columns[i] != -1 && !columnsByName.containsKey(name))
+                columnsByName.put(name, columns[i]);
+        }
     }
 
     /**
@@ -59,7 +71,25 @@ public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
      * @return
      */
     public <PROPERTY_TYPE> PROPERTY_TYPE get(Property<PROPERTY_TYPE> property) {
-        return (PROPERTY_TYPE)property.accept(reader, this);
+        int column = getColumnIndex(property);
+        if(property.checkFlag(Property.PROP_FLAG_NULLABLE) && isNull(column))
+            return null;
+
+        Object value;
+        switch(PropertySlots.kindOf(property)) {
+        case PropertySlots.KIND_INT:
+            value = getInt(column);
+            break;
+        case PropertySlots.KIND_LONG:
+            value = getLong(column);
+            break;
+        case PropertySlots.KIND_DOUBLE:
+            value = getDouble(column);
+            break;
+        default:
+            value = getString(column);
+        }
+        return (PROPERTY_TYPE) value;
     }
 
     /**
@@ -78,61 +108,62 @@ public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
     }
 
     /**
-     * Use cache to get the column index for the given field name
+     * Get the column index for the given field name, using the columns
+     * resolved for this cursor's properties where possible
      */
-    public synchronized int getColumnIndexFromCache(String field) {
-        Integer index = columnIndexCache.get(field);
-        if(index == null) {
-            index = getColumnIndexOrThrow(field);
-            columnIndexCache.put(field, index);
-        }
-
-        return index;
+    public int getColumnIndexFromCache(String field) {
+        Integer column = columnsByName.get(field);
+        if(column != null)
+            return column;
+        return getColumnIndexOrThrow(field);
     }
 
     /**
-     * Visitor that reads the given property from a cursor
+     * Get the column index for the given property
      *
-     * @author Tim Su <tim@todoroo.com>
+     * @throws IllegalArgumentException if the column doesn't exist
+     */
+    public int getColumnIndex(Property<?> property) {
+        Integer position = positions.get(property);
+        if(position != null)
+            return checkColumn(position);
+        return getColumnIndexFromCache(property.getColumnName());
+    }
+
+    /**
+     * Get the column index of the property at the given position of
+     * {@link #getProperties()}
      *
+     * @throws IllegalArgumentException if the column doesn't exist
      */
-    public static class CursorReadingVisitor implements PropertyVisitor<Object, TodorooCursor<?>> {
-
-        public Object visitDouble(Property<Double> property,
-                TodorooCursor<?> cursor) {
-            int column = columnIndex(property, cursor);
-            if(property.checkFlag(Property.PROP_FLAG_NULLABLE) && cursor.isNull(column))
-                return null;
-            return cursor.getDouble(column);
-        }
+    public int getPropertyColumn(int position) {
+        return checkColumn(position);
+    }
 
-        public Object visitInteger(Property<Integer> property,
-                TodorooCursor<?> cursor) {
-            int column = columnIndex(property, cursor);
-            if(property.checkFlag(Property.PROP_FLAG_NULLABLE) && cursor.isNull(column))
-                return null;
-            return cursor.getInt(column);
-        }
+    private int checkColumn(int position) {
+        int column = columns[position];
+        if(column == -1)
+            throw new IllegalArgumentException("column '" + //$NON-NLS-1$
+                    properties[position].getColumnName() + "' does not exist"); //$NON-NLS-1$
+        return column;
+    }
 
-        public Object visitLong(Property<Long> property, TodorooCursor<?> cursor) {
-            int column = columnIndex(property, cursor);
-            if(property.checkFlag(Property.PROP_FLAG_NULLABLE) && cursor.isNull(column))
-                return null;
-            return cursor.getLong(column);
-        }
+    // --- typed accessors that don't box. null values are returned as 0
 
-        public Object visitString(Property<String> property,
-                TodorooCursor<?> cursor) {
-            int column = columnIndex(property, cursor);
-            if(property.checkFlag(Property.PROP_FLAG_NULLABLE) && cursor.isNull(column))
-                return null;
-            return cursor.getString(column);
-        }
+    public int getIntValue(Property<Integer> property) {
+        return getInt(getColumnIndex(property));
+    }
 
-        private int columnIndex(Property<?> property, TodorooCursor<?> cursor) {
-            return cursor.getColumnIndexFromCache(property.getColumnName());
-        }
+    public long getLongValue(Property<Long> property) {
+        return getLong(getColumnIndex(property));
+    }
+
+    public double getDoubleValue(Property<Double> property) {
+        return getDouble(getColumnIndex(property));
+    }
 
+    public String getStringValue(Property<String> property) {
+        return getString(getColumnIndex(property));
     }
 
 }
@@ -13,6 +13,8 @@ import static com.todoroo.andlib.sql.SqlConstants.OR;
 import static com.todoroo.andlib.sql.SqlConstants.RIGHT_PARENTHESIS;
 import static com.todoroo.andlib.sql.SqlConstants.SPACE;
 
+import java.util.List;
+
 public abstract class Criterion {
     protected final Operator operator;
 
@@ -44,6 +46,15 @@ public abstract class Criterion {
                     sb.append(SPACE).append(AND).append(SPACE).append(c);
                 }
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> bindArgs) {
+                criterion.appendTo(sb, bindArgs);
+                for (Criterion c : criterions) {
+                    sb.append(SPACE).append(AND).append(SPACE);
+                    c.appendTo(sb, bindArgs);
+                }
+            }
         };
     }
 
@@ -57,6 +68,15 @@ public abstract class Criterion {
                     sb.append(SPACE).append(OR).append(SPACE).append(c.toString());
                 }
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> bindArgs) {
+                criterion.appendTo(sb, bindArgs);
+                for (Criterion c : criterions) {
+                    sb.append(SPACE).append(OR).append(SPACE);
+                    c.appendTo(sb, bindArgs);
+                }
+            }
         };
     }
 
@@ -67,6 +87,13 @@ public abstract class Criterion {
             protected void populate(StringBuilder sb) {
                 sb.append(EXISTS).append(SPACE).append(LEFT_PARENTHESIS).append(query).append(RIGHT_PARENTHESIS);
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> bindArgs) {
+                sb.append(EXISTS).append(SPACE).append(LEFT_PARENTHESIS);
+                query.appendTo(sb, bindArgs);
+                sb.append(RIGHT_PARENTHESIS);
+            }
         };
     }
 
@@ -78,11 +105,57 @@ public abstract class Criterion {
                 sb.append(NOT).append(SPACE);
                 criterion.populate(sb);
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> bindArgs) {
+                sb.append(NOT).append(SPACE);
+                criterion.populate(sb, bindArgs);
+            }
         };
     }
 
     protected abstract void populate(StringBuilder sb);
 
+    /**
+     * Populate this criterion using "?" placeholders for literal values,
+     * adding each value to bindArgs in placeholder order. Criteria that
+     * don't carry literal values can rely on this default, which renders
+     * the same SQL as {@link #populate(StringBuilder)}.
+     *
+     * @param sb
+     * @param bindArgs values to bind, or null to render literals inline
+     */
+    protected void populate(StringBuilder sb, List<Object> bindArgs) {
+        populate(sb);
+    }
+
+    /**
+     * Append this criterion in parameterized form. See
+     * {@link Query#toParameterizedString(List)}
+     *
+     * @param sb
+     * @param bindArgs values to bind, or null to render literals inline
+     */
+    public void appendTo(StringBuilder sb, List<Object> bindArgs) {
+        if(bindArgs == null) {
+            sb.append(this);
+            return;
+        }
+        sb.append(LEFT_PARENTHESIS);
+        populate(sb, bindArgs);
+        sb.append(RIGHT_PARENTHESIS);
+    }
+
+    /**
+     * @param value
+     * @return true if the given literal value can be passed to SQLite as a
+     *         bind argument without changing the meaning of the statement
+     */
+    protected static boolean isBindable(Object value) {
+        return value instanceof String || value instanceof Long ||
+            value instanceof Integer || value instanceof Double;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder(LEFT_PARENTHESIS);
@@ -12,6 +12,8 @@ import static com.todoroo.andlib.sql.SqlConstants.LEFT_PARENTHESIS;
 import static com.todoroo.andlib.sql.SqlConstants.RIGHT_PARENTHESIS;
 import static com.todoroo.andlib.sql.SqlConstants.SPACE;
 
+import java.util.List;
+
 public class Field extends DBObject<Field> {
 
     protected Field(String expression) {
@@ -106,6 +108,22 @@ public class Field extends DBObject<Field> {
                 }
                 sb.deleteCharAt(sb.length() - 1).append(RIGHT_PARENTHESIS);
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> bindArgs) {
+                sb.append(field).append(SPACE).append(Operator.in).append(SPACE).append(LEFT_PARENTHESIS).append(SPACE);
+                for (T t : value) {
+                    // strings are rendered unquoted here, so only numbers can be bound
+                    if (t instanceof Number && isBindable(t)) {
+                        sb.append('?');
+                        bindArgs.add(t);
+                    } else {
+                        sb.append(t.toString());
+                    }
+                    sb.append(COMMA);
+                }
+                sb.deleteCharAt(sb.length() - 1).append(RIGHT_PARENTHESIS);
+            }
         };
     }
 
@@ -118,6 +136,13 @@ public class Field extends DBObject<Field> {
                 sb.append(field).append(SPACE).append(Operator.in).append(SPACE).append(LEFT_PARENTHESIS).append(query)
                         .append(RIGHT_PARENTHESIS);
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> bindArgs) {
+                sb.append(field).append(SPACE).append(Operator.in).append(SPACE).append(LEFT_PARENTHESIS);
+                query.appendTo(sb, bindArgs);
+                sb.append(RIGHT_PARENTHESIS);
+            }
         };
     }
 }
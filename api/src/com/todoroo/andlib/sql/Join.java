@@ -10,6 +10,8 @@ import static com.todoroo.andlib.sql.SqlConstants.JOIN;
 import static com.todoroo.andlib.sql.SqlConstants.ON;
 import static com.todoroo.andlib.sql.SqlConstants.SPACE;
 
+import java.util.List;
+
 public class Join {
     private final SqlTable joinTable;
     private final JoinType joinType;
@@ -38,16 +40,24 @@ public class Join {
     }
 
     @Override
-    @SuppressWarnings("nls")
     public String toString() {
         StringBuilder sb = new StringBuilder();
+        appendTo(sb, null);
+        return sb.toString();
+    }
+
+    /**
+     * Append this join, using bind placeholders in its criteria if
+     * bindArgs is not null. See {@link Query#toParameterizedString(List)}
+     */
+    @SuppressWarnings("nls")
+    public void appendTo(StringBuilder sb, List<Object> bindArgs) {
         sb.append(joinType).append(SPACE).append(JOIN).append(SPACE).append(joinTable).append(SPACE).append(ON).append(SPACE).append("(");
         for (int i = 0; i < criterions.length; i++) {
-            sb.append(criterions[i]);
+            criterions[i].appendTo(sb, bindArgs);
             if (i < criterions.length - 1)
                 sb.append(SPACE).append(AND).append(SPACE);
         }
         sb.append(")");
-        return sb.toString();
     }
 }
@@ -33,6 +33,18 @@ public class Order {
         return new Order(expression, OrderType.DESC);
     }
 
+    public Object getExpression() {
+        return expression;
+    }
+
+    public OrderType getOrderType() {
+        return orderType;
+    }
+
+    public List<Order> getSecondaryExpressions() {
+        return secondaryExpressions;
+    }
+
     public void addSecondaryExpression(Order secondary) {
         secondaryExpressions.add(secondary);
     }
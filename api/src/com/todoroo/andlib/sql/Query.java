@@ -22,6 +22,7 @@ import static com.todoroo.andlib.sql.SqlTable.table;
 import static java.util.Arrays.asList;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,6 +37,7 @@ public final class Query {
 
     private SqlTable table;
     private String queryTemplate = null;
+    private Object[] templateArgs = null;
     private final ArrayList<Criterion> criterions = new ArrayList<Criterion>();
     private final ArrayList<Field> fields = new ArrayList<Field>();
     private final ArrayList<Join> joins = new ArrayList<Join>();
@@ -113,24 +115,54 @@ public final class Query {
     @Override
     public String toString() {
         StringBuilder sql = new StringBuilder();
+        appendTo(sql, null);
+        return sql.toString();
+    }
+
+    /**
+     * Build the SQL for this query with "?" placeholders in place of the
+     * literal values in its criteria. The values are added to bindArgs in
+     * placeholder order. Because the SQL text no longer depends on the
+     * values, SQLite can reuse the compiled statement across calls.
+     *
+     * @param bindArgs list to receive the values to bind
+     * @return sql text
+     */
+    public String toParameterizedString(List<Object> bindArgs) {
+        StringBuilder sql = new StringBuilder();
+        appendTo(sql, bindArgs);
+        return sql.toString();
+    }
+
+    /**
+     * Append this query to the given builder
+     * @param sql
+     * @param bindArgs values to bind, or null to render literals inline
+     */
+    void appendTo(StringBuilder sql, List<Object> bindArgs) {
         visitSelectClause(sql);
         visitFromClause(sql);
 
-        visitJoinClause(sql);
+        visitJoinClause(sql, bindArgs);
         if(queryTemplate == null) {
-            visitWhereClause(sql);
-            visitGroupByClause(sql);
-            visitUnionClause(sql);
+            visitWhereClause(sql, bindArgs);
+            visitGroupByClause(sql, bindArgs);
+            visitUnionClause(sql, bindArgs);
             visitOrderByClause(sql);
             visitLimitClause(sql);
         } else {
             if(groupBies.size() > 0 || orders.size() > 0 ||
                     havings.size() > 0)
                 throw new IllegalStateException("Can't have extras AND query template"); //$NON-NLS-1$
-            sql.append(queryTemplate);
+            if(templateArgs == null)
+                sql.append(queryTemplate);
+            else if(bindArgs == null)
+                sql.append(inlineParameters(queryTemplate, templateArgs));
+            else {
+                sql.append(queryTemplate);
+                bindArgs.addAll(asList(templateArgs));
+            }
         }
-
-        return sql.toString();
     }
 
     private void visitOrderByClause(StringBuilder sql) {
@@ -145,7 +177,7 @@ public final class Query {
     }
 
     @SuppressWarnings("nls")
-    private void visitGroupByClause(StringBuilder sql) {
+    private void visitGroupByClause(StringBuilder sql, List<Object> bindArgs) {
         if (groupBies.isEmpty()) {
             return;
         }
@@ -159,33 +191,40 @@ public final class Query {
         }
         sql.append("HAVING");
         for (Criterion havingCriterion : havings) {
-            sql.append(SPACE).append(havingCriterion).append(COMMA);
+            sql.append(SPACE);
+            havingCriterion.appendTo(sql, bindArgs);
+            sql.append(COMMA);
         }
         sql.deleteCharAt(sql.length() - 1).append(SPACE);
     }
 
-    private void visitUnionClause(StringBuilder sql) {
+    private void visitUnionClause(StringBuilder sql, List<Object> bindArgs) {
         if (unions.isEmpty()) {
             return;
         }
         for (Query query : unions) {
-            sql.append(UNION).append(SPACE).append(query).append(SPACE);
+            sql.append(UNION).append(SPACE);
+            query.appendTo(sql, bindArgs);
+            sql.append(SPACE);
         }
     }
 
-    private void visitWhereClause(StringBuilder sql) {
+    private void visitWhereClause(StringBuilder sql, List<Object> bindArgs) {
         if (criterions.isEmpty()) {
             return;
         }
         sql.append(WHERE);
         for (Criterion criterion : criterions) {
-            sql.append(SPACE).append(criterion).append(SPACE);
+            sql.append(SPACE);
+            criterion.appendTo(sql, bindArgs);
+            sql.append(SPACE);
         }
     }
 
-    private void visitJoinClause(StringBuilder sql) {
+    private void visitJoinClause(StringBuilder sql, List<Object> bindArgs) {
         for (Join join : joins) {
-            sql.append(join).append(SPACE);
+            join.appendTo(sql, bindArgs);
+            sql.append(SPACE);
         }
     }
 
@@ -242,6 +281,64 @@ public final class Query {
         return this;
     }
 
+    /**
+     * Add an SQL query template with "?" parameters. The arguments are
+     * bound when the query is built with {@link #toParameterizedString(List)},
+     * and inlined by {@link #toString()}
+     * @param template
+     * @param args one value per parameter
+     * @return query
+     */
+    public Query withQueryTemplate(String template, Object[] args) {
+        queryTemplate = template;
+        templateArgs = args == null || args.length == 0 ? null : args;
+        return this;
+    }
+
+    /**
+     * @return number of "?" parameters in the given sql, outside of string
+     *         literals
+     */
+    public static int countParameters(String sql) {
+        int count = 0;
+        boolean quoted = false;
+        for(int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if(c == '\'')
+                quoted = !quoted;
+            else if(c == '?' && !quoted)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the given sql with its "?" parameters replaced by literals
+     */
+    @SuppressWarnings("nls")
+    public static String inlineParameters(String sql, Object[] args) {
+        StringBuilder result = new StringBuilder(sql.length());
+        boolean quoted = false;
+        int arg = 0;
+        for(int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if(c == '\'')
+                quoted = !quoted;
+            if(c != '?' || quoted || arg >= args.length) {
+                result.append(c);
+                continue;
+            }
+            Object value = args[arg++];
+            if(value == null)
+                result.append("NULL");
+            else if(value instanceof String)
+                result.append("'").append(UnaryCriterion.sanitize((String) value)).append("'");
+            else
+                result.append(value);
+        }
+        return result.toString();
+    }
+
     /**
      * Parse out properties and run query
      * @param cr
@@ -262,7 +359,9 @@ public final class Query {
         StringBuilder selectionClause = new StringBuilder();
         StringBuilder orderClause = new StringBuilder();
         if(queryTemplate != null) {
-            QueryTemplateHelper.queryForContentResolver(queryTemplate,
+            // content providers take string arguments only, so values are inlined
+            QueryTemplateHelper.queryForContentResolver(templateArgs == null ? queryTemplate :
+                    inlineParameters(queryTemplate, templateArgs),
                     selectionClause, orderClause, groupByClause);
         } else {
             if(groupBies.size() > 0) {
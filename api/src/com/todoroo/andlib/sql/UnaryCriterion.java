@@ -7,6 +7,8 @@ package com.todoroo.andlib.sql;
 
 import static com.todoroo.andlib.sql.SqlConstants.SPACE;
 
+import java.util.List;
+
 public class UnaryCriterion extends Criterion {
     protected final Field expression;
     protected final Object value;
@@ -19,9 +21,14 @@ public class UnaryCriterion extends Criterion {
 
     @Override
     protected void populate(StringBuilder sb) {
+        populate(sb, null);
+    }
+
+    @Override
+    protected void populate(StringBuilder sb, List<Object> bindArgs) {
         beforePopulateOperator(sb);
         populateOperator(sb);
-        afterPopulateOperator(sb);
+        afterPopulateOperator(sb, bindArgs);
     }
 
     public static Criterion eq(Field expression, Object value) {
@@ -36,11 +43,19 @@ public class UnaryCriterion extends Criterion {
         sb.append(operator);
     }
 
+    /**
+     * Append the value side of this criterion. If bindArgs is not null and
+     * the value is a plain literal, a placeholder is appended instead and
+     * the value is added to bindArgs
+     */
     @SuppressWarnings("nls")
-    protected void afterPopulateOperator(StringBuilder sb) {
+    protected void afterPopulateOperator(StringBuilder sb, List<Object> bindArgs) {
         if(value == null)
             return;
-        else if(value instanceof String)
+        else if(bindArgs != null && isBindable(value)) {
+            sb.append('?');
+            bindArgs.add(value);
+        } else if(value instanceof String)
             sb.append("'").append(sanitize((String) value)).append("'");
         else
             sb.append(value);
@@ -111,8 +126,8 @@ public class UnaryCriterion extends Criterion {
             }
             @SuppressWarnings("nls")
             @Override
-            protected void afterPopulateOperator(StringBuilder sb) {
-                super.afterPopulateOperator(sb);
+            protected void afterPopulateOperator(StringBuilder sb, List<Object> bindArgs) {
+                super.afterPopulateOperator(sb, bindArgs);
                 sb.append(SPACE).append("ESCAPE").append(" '").append(sanitize(escape)).append("'");
             }
         };
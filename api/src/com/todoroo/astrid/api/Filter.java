@@ -72,6 +72,9 @@ public class Filter extends FilterListItem {
      */
     public ContentValues valuesForNewTasks = null;
 
+    /** {@link #getSqlQuery()} compiled by {@link PermaSql#compile(String)} */
+    private PermaSql.Template compiledSql = null;
+
     /**
      * Utility constructor for creating a Filter object
      * @param listingTitle
@@ -117,6 +120,19 @@ public class Filter extends FilterListItem {
         return sqlQuery;
     }
 
+    /**
+     * @return the query of this filter compiled into a template with
+     *         parameters in place of placeholders. Compiled once per query
+     */
+    public PermaSql.Template getCompiledSql() {
+        String sql = getSqlQuery();
+        if (sql == null)
+            return null;
+        if (compiledSql == null || !sql.equals(compiledSql.getSource()))
+            compiledSql = PermaSql.compile(sql);
+        return compiledSql;
+    }
+
     public void setSqlQuery(String sqlQuery) {
         this.sqlQuery = sqlQuery;
     }
@@ -5,7 +5,10 @@
  */
 package com.todoroo.astrid.api;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
 
 import com.todoroo.andlib.utility.DateUtilities;
 
@@ -13,6 +16,10 @@ import com.todoroo.andlib.utility.DateUtilities;
  * PermaSql allows for creating SQL statements that can be saved and used
  * later without dates getting stale. It also allows these values to be
  * used in
+ * <p>
+ * Queries are best run through {@link #compile(String)}, which turns the
+ * placeholders into parameters, so the same filter always produces the
+ * same SQL text and SQLite can reuse its compiled statement.
  *
  * @author Tim Su <tim@todoroo.com>
  *
@@ -60,6 +67,149 @@ public final class PermaSql {
     /** value to be replaced by approximate noon next month as long */
     public static final String VALUE_NOON_NEXT_MONTH = "NOONM()"; //$NON-NLS-1$
 
+    /** all placeholders */
+    private static final String[] PLACEHOLDERS = new String[] {
+        VALUE_NOW,
+        VALUE_EOD, VALUE_EOD_YESTERDAY, VALUE_EOD_TOMORROW, VALUE_EOD_DAY_AFTER,
+        VALUE_EOD_NEXT_WEEK, VALUE_EOD_NEXT_MONTH,
+        VALUE_NOON, VALUE_NOON_YESTERDAY, VALUE_NOON_TOMORROW, VALUE_NOON_DAY_AFTER,
+        VALUE_NOON_NEXT_WEEK, VALUE_NOON_NEXT_MONTH
+    };
+
+    /**
+     * A query whose placeholders were replaced by "?" parameters, see
+     * {@link PermaSql#compile(String)}
+     */
+    public static final class Template {
+
+        private final String source;
+        private final String sql;
+        private final String[] slots;
+
+        private Template(String source, String sql, String[] slots) {
+            this.source = source;
+            this.sql = sql;
+            this.slots = slots;
+        }
+
+        /** @return the query this template was compiled from */
+        public String getSource() {
+            return source;
+        }
+
+        /** @return query with a "?" in place of each placeholder */
+        public String getSql() {
+            return sql;
+        }
+
+        /** @return true if the query has placeholders to bind */
+        public boolean hasSlots() {
+            return slots.length > 0;
+        }
+
+        /** @return current values of the placeholders, one per "?" */
+        public Object[] bindArgs() {
+            Object[] args = new Object[slots.length];
+            if(slots.length == 0)
+                return args;
+            long now = DateUtilities.now();
+            long eod = endOfDay();
+            long noon = noon();
+            for(int i = 0; i < slots.length; i++)
+                args[i] = valueOf(slots[i], now, eod, noon);
+            return args;
+        }
+
+    }
+
+    /**
+     * Compile a query with placeholders into a template with a parameter
+     * for each placeholder. Placeholders inside string literals are left
+     * alone
+     */
+    public static Template compile(String value) {
+        StringBuilder sql = new StringBuilder(value.length());
+        ArrayList<String> slots = new ArrayList<String>();
+        boolean quoted = false;
+        int i = 0;
+        scan: while(i < value.length()) {
+            char c = value.charAt(i);
+            if(c == '\'')
+                quoted = !quoted;
+            else if(!quoted) {
+                for(String placeholder : PLACEHOLDERS) {
+                    if(value.startsWith(placeholder, i)) {
+                        sql.append('?');
+                        slots.add(placeholder);
+                        i += placeholder.length();
+                        continue scan;
+                    }
+                }
+            }
+            sql.append(c);
+            i++;
+        }
+        return new Template(value, sql.toString(), slots.toArray(new String[slots.size()]));
+    }
+
+    /** number of compiled templates kept by {@link #getCompiled(String)} */
+    private static final int CACHE_SIZE = 16;
+
+    private static final LinkedHashMap<String, Template> compiled =
+        new LinkedHashMap<String, Template>(CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, Template> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    /**
+     * Like {@link #compile(String)}, but reuses the template of recently
+     * compiled queries. Templates don't hold any values, so they can be
+     * shared
+     */
+    public static Template getCompiled(String value) {
+        synchronized(compiled) {
+            Template template = compiled.get(value);
+            if(template == null) {
+                template = compile(value);
+                compiled.put(value, template);
+            }
+            return template;
+        }
+    }
+
+    private static long valueOf(String placeholder, long now, long eod, long noon) {
+        if(VALUE_NOW.equals(placeholder))
+            return now;
+        else if(VALUE_EOD.equals(placeholder))
+            return eod;
+        else if(VALUE_EOD_YESTERDAY.equals(placeholder))
+            return eod - DateUtilities.ONE_DAY;
+        else if(VALUE_EOD_TOMORROW.equals(placeholder))
+            return eod + DateUtilities.ONE_DAY;
+        else if(VALUE_EOD_DAY_AFTER.equals(placeholder))
+            return eod + 2 * DateUtilities.ONE_DAY;
+        else if(VALUE_EOD_NEXT_WEEK.equals(placeholder))
+            return eod + 7 * DateUtilities.ONE_DAY;
+        else if(VALUE_EOD_NEXT_MONTH.equals(placeholder))
+            return eod + 30 * DateUtilities.ONE_DAY;
+        else if(VALUE_NOON.equals(placeholder))
+            return noon;
+        else if(VALUE_NOON_YESTERDAY.equals(placeholder))
+            return noon - DateUtilities.ONE_DAY;
+        else if(VALUE_NOON_TOMORROW.equals(placeholder))
+            return noon + DateUtilities.ONE_DAY;
+        else if(VALUE_NOON_DAY_AFTER.equals(placeholder))
+            return noon + 2 * DateUtilities.ONE_DAY;
+        else if(VALUE_NOON_NEXT_WEEK.equals(placeholder))
+            return noon + 7 * DateUtilities.ONE_DAY;
+        else
+            return noon + 30 * DateUtilities.ONE_DAY;
+    }
+
     /** Replace placeholder strings with actual */
     public static String replacePlaceholders(String value) {
         if(value.contains(VALUE_NOW))
@@ -78,11 +228,7 @@ public final class PermaSql {
     }
 
     private static String replaceEodValues(String value) {
-        Date date = new Date();
-        date.setHours(23);
-        date.setMinutes(59);
-        date.setSeconds(59);
-        long time = date.getTime() / 1000l * 1000l; // chop milliseconds off
+        long time = endOfDay();
         value = value.replace(VALUE_EOD_YESTERDAY, Long.toString(time - DateUtilities.ONE_DAY));
         value = value.replace(VALUE_EOD, Long.toString(time));
         value = value.replace(VALUE_EOD_TOMORROW, Long.toString(time + DateUtilities.ONE_DAY));
@@ -93,11 +239,7 @@ public final class PermaSql {
     }
 
     private static String replaceNoonValues(String value) {
-        Date date = new Date();
-        date.setHours(12);
-        date.setMinutes(0);
-        date.setSeconds(0);
-        long time = date.getTime() / 1000l * 1000l; // chop milliseconds off
+        long time = noon();
         value = value.replace(VALUE_NOON_YESTERDAY, Long.toString(time - DateUtilities.ONE_DAY));
         value = value.replace(VALUE_NOON, Long.toString(time));
         value = value.replace(VALUE_NOON_TOMORROW, Long.toString(time + DateUtilities.ONE_DAY));
@@ -107,4 +249,20 @@ public final class PermaSql {
         return value;
     }
 
+    private static long endOfDay() {
+        Date date = new Date();
+        date.setHours(23);
+        date.setMinutes(59);
+        date.setSeconds(59);
+        return date.getTime() / 1000l * 1000l; // chop milliseconds off
+    }
+
+    private static long noon() {
+        Date date = new Date();
+        date.setHours(12);
+        date.setMinutes(0);
+        date.setSeconds(0);
+        return date.getTime() / 1000l * 1000l; // chop milliseconds off
+    }
+
 }
@@ -9,6 +9,7 @@ import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Functions;
 import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.andlib.utility.Preferences;
 import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.TaskApiDao.TaskCriteria;
 
@@ -38,6 +39,9 @@ public class SortHelper {
     /** preference key for sort sort. stored in public prefs */
     public static final String PREF_SORT_SORT = "sort_sort"; //$NON-NLS-1$
 
+    /** preference key for the time sort keys are computed against */
+    public static final String PREF_SORT_KEY_BASE = "sort_key_base"; //$NON-NLS-1$
+
     /**
      * Takes a SQL query, and if there isn't already an order, creates an order.
      * @param originalSql
@@ -50,15 +54,23 @@ public class SortHelper {
         // sort
         if(originalSql == null)
             originalSql = "";
-        if(!originalSql.toUpperCase().contains("ORDER BY")) {
-            Order order = orderForSortType(sort);
-
-            if((flags & FLAG_REVERSE_SORT) > 0)
-                order = order.reverse();
+        Order order = orderForFlagsAndSort(originalSql, flags, sort);
+        if(order != null)
             originalSql += " ORDER BY " + order;
-        }
 
-        // flags
+        return adjustQueryForFlags(originalSql, flags);
+    }
+
+    /**
+     * Takes a SQL query and shows completed, hidden or deleted tasks as the
+     * flags ask for
+     * @param originalSql
+     * @param flags
+     * @return
+     */
+    public static String adjustQueryForFlags(String originalSql, int flags) {
+        if(originalSql == null)
+            originalSql = ""; //$NON-NLS-1$
         if((flags & FLAG_SHOW_COMPLETED) > 0)
             originalSql = originalSql.replace(Task.COMPLETION_DATE.eq(0).toString(),
                     Criterion.all.toString());
@@ -72,6 +84,20 @@ public class SortHelper {
         return originalSql;
     }
 
+    /**
+     * @return the order {@link #adjustQueryForFlagsAndSort(String, int, int)}
+     *         adds to the given query, or null if it has its own order
+     */
+    @SuppressWarnings("nls")
+    public static Order orderForFlagsAndSort(String originalSql, int flags, int sort) {
+        if(originalSql != null && originalSql.toUpperCase().contains("ORDER BY"))
+            return null;
+        Order order = orderForSortType(sort);
+        if((flags & FLAG_REVERSE_SORT) > 0)
+            order = order.reverse();
+        return order;
+    }
+
     public static boolean isManualSort(int flags) {
         return (flags & FLAG_DRAG_DROP) > 0;
     }
@@ -91,15 +117,10 @@ public class SortHelper {
             order = Order.asc(Functions.upper(Task.TITLE));
             break;
         case SORT_DUE:
-            order = Order.asc(Functions.caseStatement(Task.DUE_DATE.eq(0),
-                    Functions.now()  + "*2", adjustedDueDateFunction()) + "+" + Task.IMPORTANCE +
-                    "+3*" + Task.COMPLETION_DATE);
+            order = Order.asc(Task.SORT_DUE);
             break;
         case SORT_IMPORTANCE:
-            order = Order.asc(Task.IMPORTANCE + "*" + (2*DateUtilities.now()) + //$NON-NLS-1$
-                    "+" + Functions.caseStatement(Task.DUE_DATE.eq(0), //$NON-NLS-1$
-                            2 * DateUtilities.now(),
-                            Task.DUE_DATE) + "+8*" + Task.COMPLETION_DATE);
+            order = Order.asc(Task.SORT_IMPORTANCE);
             break;
         case SORT_MODIFIED:
             order = Order.desc(Task.MODIFICATION_DATE);
@@ -117,12 +138,80 @@ public class SortHelper {
      * Returns SQL task ordering that is astrid's default algorithm
      * @return
      */
-    @SuppressWarnings("nls")
     public static Order defaultTaskOrder() {
-        return Order.asc(Functions.caseStatement(Task.DUE_DATE.eq(0),
-                Functions.now() + "*2",
-                adjustedDueDateFunction()) + " + " + (2 * DateUtilities.ONE_DAY) + " * " +
-                Task.IMPORTANCE + " + 2*" + Task.COMPLETION_DATE);
+        return Order.asc(Task.SORT_AUTO);
+    }
+
+    // --- sort keys
+
+    /**
+     * Sort keys are computed against a base time instead of the current
+     * time, so they can be stored. The base is moved forward now and then,
+     * see TaskDao.rebaseSortKeys()
+     */
+    public static long getSortKeyBase() {
+        long base = Preferences.getLong(PREF_SORT_KEY_BASE, 0);
+        if(base == 0) {
+            base = DateUtilities.now();
+            setSortKeyBase(base);
+        }
+        return base;
+    }
+
+    /**
+     * Store a new sort key base. Must only be called once all stored sort
+     * keys have been recomputed against it
+     */
+    public static void setSortKeyBase(long base) {
+        Preferences.setLong(PREF_SORT_KEY_BASE, base);
+    }
+
+    /**
+     * Set the sort keys of the given task. The task needs to have values
+     * for due date, importance and completion date
+     */
+    public static void setSortKeys(Task task, long base) {
+        long dueDate = task.getValue(Task.DUE_DATE);
+        int importance = task.getValue(Task.IMPORTANCE);
+        long completionDate = task.getValue(Task.COMPLETION_DATE);
+
+        long dueOrLater = dueDate == 0 ? 2 * base : adjustedDueDate(dueDate);
+        task.setValue(Task.SORT_AUTO, dueOrLater + 2 * DateUtilities.ONE_DAY * importance +
+                2 * completionDate);
+        task.setValue(Task.SORT_DUE, dueOrLater + importance + 3 * completionDate);
+        task.setValue(Task.SORT_IMPORTANCE, importance * 2 * base +
+                (dueDate == 0 ? 2 * base : dueDate) + 8 * completionDate);
+    }
+
+    /**
+     * Tasks due at midnight are all-day tasks, and come after tasks due at
+     * a specific time on that day
+     */
+    private static long adjustedDueDate(long dueDate) {
+        if((dueDate / 1000) % 60 > 0)
+            return dueDate;
+        return dueDate + DateUtilities.ONE_HOUR * 11 + DateUtilities.ONE_MINUTE * 59;
+    }
+
+    /**
+     * @return statement that recomputes the sort keys of the matching tasks
+     *         the same way {@link #setSortKeys(Task, long)} does
+     */
+    @SuppressWarnings("nls")
+    public static String updateSortKeysSql(Criterion tasks, long base) {
+        String dueOrLater = Functions.caseStatement(Task.DUE_DATE.eq(0),
+                2 * base, adjustedDueDateFunction());
+        return new StringBuilder("UPDATE ").append(Task.TABLE.name).append(" SET ").
+            append(Task.SORT_AUTO.name).append(" = ").append(dueOrLater).append(" + ").
+                append(2 * DateUtilities.ONE_DAY).append(" * ").append(Task.IMPORTANCE.name).
+                append(" + 2 * ").append(Task.COMPLETION_DATE.name).append(", ").
+            append(Task.SORT_DUE.name).append(" = ").append(dueOrLater).append(" + ").
+                append(Task.IMPORTANCE.name).append(" + 3 * ").append(Task.COMPLETION_DATE.name).append(", ").
+            append(Task.SORT_IMPORTANCE.name).append(" = ").append(Task.IMPORTANCE.name).
+                append(" * ").append(2 * base).append(" + ").append(Functions.caseStatement(
+                        Task.DUE_DATE.eq(0), 2 * base, Task.DUE_DATE.name)).append(" + 8 * ").
+                append(Task.COMPLETION_DATE.name).
+            append(" WHERE ").append(tasks).toString();
     }
 
     @SuppressWarnings("nls")
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.data;
+
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.data.AbstractModel;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.Property.IntegerProperty;
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.data.TodorooCursor;
+
+/**
+ * Data Model for the number of tasks linked to a tag, so tag lists can
+ * show counts without aggregating over all tag metadata
+ */
+@SuppressWarnings("nls")
+public class TagCount extends AbstractModel {
+
+    // --- table
+
+    /** table for this model */
+    public static final Table TABLE = new Table("tag_counts", TagCount.class);
+
+    // --- properties
+
+    /** ID */
+    public static final LongProperty ID = new LongProperty(
+            TABLE, ID_PROPERTY_NAME);
+
+    /** Uuid of the tag */
+    public static final StringProperty TAG_UUID = new StringProperty(
+            TABLE, "tag_uuid");
+
+    /** Number of tasks that are neither completed nor deleted */
+    public static final IntegerProperty ACTIVE = new IntegerProperty(
+            TABLE, "active");
+
+    /** Number of completed tasks that are not deleted */
+    public static final IntegerProperty COMPLETED = new IntegerProperty(
+            TABLE, "completed");
+
+    /** Number of deleted tasks */
+    public static final IntegerProperty DELETED = new IntegerProperty(
+            TABLE, "deleted");
+
+    /** List of all properties for this model */
+    public static final Property<?>[] PROPERTIES = generateProperties(TagCount.class);
+
+    // --- defaults
+
+    /** Default values container */
+    private static final ContentValues defaultValues = new ContentValues();
+
+    static {
+        defaultValues.put(ACTIVE.name, 0);
+        defaultValues.put(COMPLETED.name, 0);
+        defaultValues.put(DELETED.name, 0);
+    }
+
+    @Override
+    public ContentValues getDefaultValues() {
+        return defaultValues;
+    }
+
+    // --- data access boilerplate
+
+    public TagCount() {
+        super();
+    }
+
+    public TagCount(TodorooCursor<TagCount> cursor) {
+        this();
+        readPropertiesFromCursor(cursor);
+    }
+
+    public void readFromCursor(TodorooCursor<TagCount> cursor) {
+        super.readPropertiesFromCursor(cursor);
+    }
+
+    @Override
+    public long getId() {
+        return getIdHelper(ID);
+    };
+
+    // --- parcelable helpers
+
+    private static final Creator<TagCount> CREATOR = new ModelCreator<TagCount>(TagCount.class);
+
+    @Override
+    protected Creator<? extends AbstractModel> getCreator() {
+        return CREATOR;
+    }
+
+}
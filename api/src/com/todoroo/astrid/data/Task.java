@@ -190,6 +190,18 @@ public final class Task extends RemoteModel {
     public static final LongProperty HISTORY_FETCH_DATE = new LongProperty(
             TABLE, "historyFetch");
 
+    /** Sort key for astrid's default order, see {@link com.todoroo.astrid.core.SortHelper} */
+    public static final LongProperty SORT_AUTO = new LongProperty(
+            TABLE, "sortAuto");
+
+    /** Sort key for ordering by due date, see {@link com.todoroo.astrid.core.SortHelper} */
+    public static final LongProperty SORT_DUE = new LongProperty(
+            TABLE, "sortDue");
+
+    /** Sort key for ordering by importance, see {@link com.todoroo.astrid.core.SortHelper} */
+    public static final LongProperty SORT_IMPORTANCE = new LongProperty(
+            TABLE, "sortImportance");
+
     /** List of all properties for this model */
     public static final Property<?>[] PROPERTIES = generateProperties(Task.class);
 
@@ -311,6 +323,9 @@ public final class Task extends RemoteModel {
         defaultValues.put(IS_READONLY.name, 0);
         defaultValues.put(CLASSIFICATION.name, "");
         defaultValues.put(HISTORY_FETCH_DATE.name, 0);
+        defaultValues.put(SORT_AUTO.name, 0L);
+        defaultValues.put(SORT_DUE.name, 0L);
+        defaultValues.put(SORT_IMPORTANCE.name, 0L);
 
         defaultValues.put(LAST_SYNC.name, 0);
         defaultValues.put(UUID.name, NO_UUID);
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.data;
+
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.data.AbstractModel;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.Property.IntegerProperty;
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.data.TodorooCursor;
+
+/**
+ * Data Model for a change to a manually ordered list that hasn't been
+ * folded into the list's stored tree yet. Changes are replayed on top of
+ * the tree when the list is loaded, and compacted into it from time to time.
+ */
+@SuppressWarnings("nls")
+public class TaskListOperation extends AbstractModel {
+
+    // --- table
+
+    /** table for this model */
+    public static final Table TABLE = new Table("task_list_ops", TaskListOperation.class);
+
+    // --- properties
+
+    /** ID */
+    public static final LongProperty ID = new LongProperty(
+            TABLE, ID_PROPERTY_NAME);
+
+    /** Tag uuid or filter id of the list, see {@link TaskListMetadata} */
+    public static final StringProperty LIST_ID = new StringProperty(
+            TABLE, "list_id");
+
+    /** Kind of change, one of the TYPE_ constants */
+    public static final StringProperty TYPE = new StringProperty(
+            TABLE, "type");
+
+    /** Uuid of the task that was changed */
+    public static final StringProperty TASK_UUID = new StringProperty(
+            TABLE, "task_uuid");
+
+    /** Uuid of the task it was moved before or under, if any */
+    public static final StringProperty OTHER_UUID = new StringProperty(
+            TABLE, "other_uuid");
+
+    /** Indent change */
+    public static final IntegerProperty DELTA = new IntegerProperty(
+            TABLE, "delta");
+
+    /** Creation Date */
+    public static final LongProperty CREATION_DATE = new LongProperty(
+            TABLE, "created");
+
+    /** List of all properties for this model */
+    public static final Property<?>[] PROPERTIES = generateProperties(TaskListOperation.class);
+
+    // --- constants
+
+    /** task was added to the top of the list */
+    public static final String TYPE_CREATE = "create";
+
+    /** task was removed, its children moved up to its place */
+    public static final String TYPE_DELETE = "delete";
+
+    /** task was moved before the other task, or to the end of the list */
+    public static final String TYPE_MOVE = "move";
+
+    /** task was indented or deindented by delta */
+    public static final String TYPE_INDENT = "indent";
+
+    /** task was moved to the end of the other task's parent */
+    public static final String TYPE_PARENT = "parent";
+
+    // --- defaults
+
+    /** Default values container */
+    private static final ContentValues defaultValues = new ContentValues();
+
+    static {
+        defaultValues.put(OTHER_UUID.name, RemoteModel.NO_UUID);
+        defaultValues.put(DELTA.name, 0);
+        defaultValues.put(CREATION_DATE.name, 0);
+    }
+
+    @Override
+    public ContentValues getDefaultValues() {
+        return defaultValues;
+    }
+
+    // --- data access boilerplate
+
+    public TaskListOperation() {
+        super();
+    }
+
+    public TaskListOperation(TodorooCursor<TaskListOperation> cursor) {
+        this();
+        readPropertiesFromCursor(cursor);
+    }
+
+    public void readFromCursor(TodorooCursor<TaskListOperation> cursor) {
+        super.readPropertiesFromCursor(cursor);
+    }
+
+    @Override
+    public long getId() {
+        return getIdHelper(ID);
+    };
+
+    // --- parcelable helpers
+
+    private static final Creator<TaskListOperation> CREATOR = new ModelCreator<TaskListOperation>(TaskListOperation.class);
+
+    @Override
+    protected Creator<? extends AbstractModel> getCreator() {
+        return CREATOR;
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.data;
+
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.data.AbstractModel;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.Property.DoubleProperty;
+import com.todoroo.andlib.data.Property.IntegerProperty;
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.data.TodorooCursor;
+
+/**
+ * Data Model for the position of a task in a manually ordered list. Ranks
+ * are fractional, so a task can be moved between two others by changing
+ * only its own row.
+ */
+@SuppressWarnings("nls")
+public class TaskListOrder extends AbstractModel {
+
+    // --- table
+
+    /** table for this model */
+    public static final Table TABLE = new Table("task_list_order", TaskListOrder.class);
+
+    // --- properties
+
+    /** ID */
+    public static final LongProperty ID = new LongProperty(
+            TABLE, ID_PROPERTY_NAME);
+
+    /** Tag uuid or filter id of the list, see {@link TaskListMetadata} */
+    public static final StringProperty LIST_ID = new StringProperty(
+            TABLE, "list_id");
+
+    /** Uuid of the task */
+    public static final StringProperty TASK_UUID = new StringProperty(
+            TABLE, "task_uuid");
+
+    /** Position of the task in the list, in ascending order */
+    public static final DoubleProperty RANK = new DoubleProperty(
+            TABLE, "rank");
+
+    /** Subtask level of the task */
+    public static final IntegerProperty INDENT = new IntegerProperty(
+            TABLE, "indent");
+
+    /** List of all properties for this model */
+    public static final Property<?>[] PROPERTIES = generateProperties(TaskListOrder.class);
+
+    // --- defaults
+
+    /** Default values container */
+    private static final ContentValues defaultValues = new ContentValues();
+
+    static {
+        defaultValues.put(RANK.name, 0.0);
+        defaultValues.put(INDENT.name, 0);
+    }
+
+    @Override
+    public ContentValues getDefaultValues() {
+        return defaultValues;
+    }
+
+    // --- data access boilerplate
+
+    public TaskListOrder() {
+        super();
+    }
+
+    public TaskListOrder(TodorooCursor<TaskListOrder> cursor) {
+        this();
+        readPropertiesFromCursor(cursor);
+    }
+
+    public void readFromCursor(TodorooCursor<TaskListOrder> cursor) {
+        super.readPropertiesFromCursor(cursor);
+    }
+
+    @Override
+    public long getId() {
+        return getIdHelper(ID);
+    };
+
+    // --- parcelable helpers
+
+    private static final Creator<TaskListOrder> CREATOR = new ModelCreator<TaskListOrder>(TaskListOrder.class);
+
+    @Override
+    protected Creator<? extends AbstractModel> getCreator() {
+        return CREATOR;
+    }
+
+}
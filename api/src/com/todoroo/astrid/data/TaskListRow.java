@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.data;
+
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.data.AbstractModel;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.Property.IntegerProperty;
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.data.TodorooCursor;
+
+/**
+ * Data Model for the values a task list row shows that don't come from the
+ * task itself: tags, assignee picture, attachments and so on. Rows are
+ * derived from other tables and kept up to date by their daos, so that
+ * task lists can join a single row per task.
+ */
+@SuppressWarnings("nls")
+public class TaskListRow extends AbstractModel {
+
+    // --- table
+
+    /** table for this model */
+    public static final Table TABLE = new Table("task_list_rows", TaskListRow.class);
+
+    // --- properties
+
+    /** ID */
+    public static final LongProperty ID = new LongProperty(
+            TABLE, ID_PROPERTY_NAME);
+
+    /** Associated Task */
+    public static final LongProperty TASK = new LongProperty(
+            TABLE, "task");
+
+    /** Names of the task's tags, separated by "  |  ", or null */
+    public static final StringProperty TAGS = new StringProperty(
+            TABLE, "tags", Property.PROP_FLAG_NULLABLE);
+
+    /** Picture of the user the task is assigned to, or null */
+    public static final StringProperty PICTURE = new StringProperty(
+            TABLE, "picture", Property.PROP_FLAG_NULLABLE);
+
+    /** Id of an attachment of the task, or 0 */
+    public static final LongProperty FILE_ID = new LongProperty(
+            TABLE, "fileId");
+
+    /** Id of the task's TaskRabbit metadata, or 0 */
+    public static final LongProperty TASK_RABBIT_ID = new LongProperty(
+            TABLE, "taskRabId");
+
+    /** Whether the task has notes */
+    public static final IntegerProperty HAS_NOTES = new IntegerProperty(
+            TABLE, "hasNotes", Property.PROP_FLAG_BOOLEAN);
+
+    /** List of all properties for this model */
+    public static final Property<?>[] PROPERTIES = generateProperties(TaskListRow.class);
+
+    // --- defaults
+
+    /** Default values container */
+    private static final ContentValues defaultValues = new ContentValues();
+
+    static {
+        defaultValues.put(FILE_ID.name, 0L);
+        defaultValues.put(TASK_RABBIT_ID.name, 0L);
+        defaultValues.put(HAS_NOTES.name, 0);
+    }
+
+    @Override
+    public ContentValues getDefaultValues() {
+        return defaultValues;
+    }
+
+    // --- data access boilerplate
+
+    public TaskListRow() {
+        super();
+    }
+
+    public TaskListRow(TodorooCursor<TaskListRow> cursor) {
+        this();
+        readPropertiesFromCursor(cursor);
+    }
+
+    public void readFromCursor(TodorooCursor<TaskListRow> cursor) {
+        super.readPropertiesFromCursor(cursor);
+    }
+
+    @Override
+    public long getId() {
+        return getIdHelper(ID);
+    };
+
+    // --- parcelable helpers
+
+    private static final Creator<TaskListRow> CREATOR = new ModelCreator<TaskListRow>(TaskListRow.class);
+
+    @Override
+    protected Creator<? extends AbstractModel> getCreator() {
+        return CREATOR;
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.todoroo.astrid.actfm.sync;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Keeps several sync batches in flight at once. Batches are posted on
+ * worker threads but handed back strictly in the order they were sent, so
+ * their responses can be applied one after another just like before.
+ * <p>
+ * A message is only sent if no in-flight batch holds a message for the same
+ * entity (messages are equal when they are for the same entity), so changes
+ * to one entity never overtake each other.
+ *
+ * @param <M> type of message
+ */
+public class ActFmSyncPipeline<M> {
+
+    /** posts a payload to the server */
+    public interface Sender {
+        public JSONObject send(JSONArray payload) throws IOException;
+    }
+
+    /** a batch of messages and, once finished, its outcome */
+    public static class Batch<M> {
+        public final List<M> messages;
+        private Future<JSONObject> future;
+        private JSONObject response;
+        private IOException error;
+
+        private Batch(List<M> messages) {
+            this.messages = messages;
+        }
+
+        /** @return server response, or null if the post failed */
+        public JSONObject getResponse() {
+            return response;
+        }
+
+        /** @return why the post failed, or null */
+        public IOException getError() {
+            return error;
+        }
+    }
+
+    private final Sender sender;
+    private final int maxInFlight;
+    private final ExecutorService threadPool;
+
+    private final LinkedList<Batch<M>> inFlight = new LinkedList<Batch<M>>();
+    private final Set<M> inFlightMessages = new HashSet<M>();
+
+    public ActFmSyncPipeline(Sender sender, int maxInFlight) {
+        this.sender = sender;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.threadPool = Executors.newFixedThreadPool(this.maxInFlight);
+    }
+
+    /** @return true if another batch can be sent */
+    public synchronized boolean hasCapacity() {
+        return inFlight.size() < maxInFlight;
+    }
+
+    /** @return true if no batches are in flight */
+    public synchronized boolean isEmpty() {
+        return inFlight.isEmpty();
+    }
+
+    /** @return true if the message may be sent now, i.e. its entity isn't in flight */
+    public synchronized boolean canSend(M message) {
+        return !inFlightMessages.contains(message);
+    }
+
+    /**
+     * Post a batch on a worker thread
+     */
+    public synchronized void send(List<M> messages, final JSONArray payload) {
+        Batch<M> batch = new Batch<M>(messages);
+        inFlightMessages.addAll(messages);
+        batch.future = threadPool.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                return sender.send(payload);
+            }
+        });
+        inFlight.add(batch);
+    }
+
+    /**
+     * Wait for the oldest batch in flight to finish and hand it back. Its
+     * messages' entities may be sent again afterwards
+     *
+     * @return finished batch, or null if none are in flight
+     */
+    public Batch<M> awaitOldest() throws InterruptedException {
+        Batch<M> batch;
+        synchronized(this) {
+            batch = inFlight.peek();
+        }
+        if (batch == null)
+            return null;
+
+        try {
+            batch.response = batch.future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                batch.error = (IOException) cause;
+            else if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else
+                throw new RuntimeException(cause);
+        } finally {
+            synchronized(this) {
+                inFlight.remove(batch);
+                inFlightMessages.removeAll(batch.messages);
+            }
+        }
+        return batch;
+    }
+
+}
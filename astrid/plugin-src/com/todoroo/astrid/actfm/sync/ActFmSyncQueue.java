@@ -0,0 +1,154 @@
+package com.todoroo.astrid.actfm.sync;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.todoroo.astrid.actfm.sync.messages.ClientToServerMessage;
+
+/**
+ * Outbound queue of the sync thread. Pending messages are indexed by their
+ * queue key (message type, table and entity), so enqueueing a message for an
+ * entity that already has one pending merges the two instead of scanning the
+ * queue: repeated saves of a task leave a single ChangesHappened, which
+ * reads all outstanding changes when it is sent.
+ * <p>
+ * Entries are equal when their messages are about the same entity, whatever
+ * their type, so that the sync pipeline holds back every message for an
+ * entity that is in flight.
+ * <p>
+ * Producers only touch concurrent structures and never block the sync
+ * thread. {@link #drain(int, ActFmSyncPipeline)} must only be called from
+ * the sync thread.
+ */
+public class ActFmSyncQueue {
+
+    /** a pending message and the callbacks to run once it was sent */
+    public static class Entry {
+        public final ClientToServerMessage<?> message;
+        private final String key;
+        private final String entity;
+        private Runnable callback;
+
+        private Entry(ClientToServerMessage<?> message, Runnable callback) {
+            this.message = message;
+            this.key = message.getQueueKey();
+            this.entity = message.getEntityKey();
+            this.callback = callback;
+        }
+
+        private synchronized void addCallback(final Runnable other) {
+            if (other == null || other == callback)
+                return;
+            if (callback == null) {
+                callback = other;
+                return;
+            }
+            final Runnable first = callback;
+            callback = new Runnable() {
+                @Override
+                public void run() {
+                    first.run();
+                    other.run();
+                }
+            };
+        }
+
+        /** @return callback to run once the message was sent, or null */
+        public synchronized Runnable getCallback() {
+            return callback;
+        }
+
+        @Override
+        public int hashCode() {
+            return entity.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Entry))
+                return false;
+            return entity.equals(((Entry) obj).entity);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> pending = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<Entry>();
+
+    /** entries skipped by drain because their entity was in flight, in order */
+    private final LinkedList<Entry> heldBack = new LinkedList<Entry>();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Add a message, or merge it into the pending message for its entity
+     *
+     * @param callback run after the message was sent, may be null
+     * @return true if the message was added, false if it was merged
+     */
+    public boolean enqueue(ClientToServerMessage<?> message, Runnable callback) {
+        enqueued.incrementAndGet();
+        Entry entry = new Entry(message, callback);
+        Entry existing = pending.putIfAbsent(entry.key, entry);
+        if (existing == null) {
+            order.add(entry);
+            return true;
+        }
+        coalesced.incrementAndGet();
+        existing.addCallback(callback);
+        return false;
+    }
+
+    /**
+     * Take up to batchSize entries in queue order, skipping those whose
+     * entity is in flight. Skipped entries stay pending and keep their place
+     */
+    public List<Entry> drain(int batchSize, ActFmSyncPipeline<Entry> pipeline) {
+        List<Entry> batch = new LinkedList<Entry>();
+        LinkedList<Entry> stillHeld = new LinkedList<Entry>();
+        while (batch.size() < batchSize) {
+            Entry entry = heldBack.isEmpty() ? order.poll() : heldBack.removeFirst();
+            if (entry == null)
+                break;
+            if (!pipeline.canSend(entry)) {
+                stillHeld.add(entry);
+                continue;
+            }
+            pending.remove(entry.key, entry);
+            batch.add(entry);
+        }
+        heldBack.addAll(0, stillHeld);
+        return batch;
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /** @return number of pending messages */
+    public int getDepth() {
+        return pending.size();
+    }
+
+    /** @return number of messages enqueued so far */
+    public long getEnqueueCount() {
+        return enqueued.get();
+    }
+
+    /** @return number of messages merged into a pending one so far */
+    public long getCoalesceCount() {
+        return coalesced.get();
+    }
+
+    /** @return fraction of enqueued messages that were merged */
+    public double getCoalesceRate() {
+        long total = enqueued.get();
+        return total == 0 ? 0 : (double) coalesced.get() / total;
+    }
+
+}
@@ -1,11 +1,13 @@
 package com.todoroo.astrid.actfm.sync;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -13,6 +15,7 @@ import org.json.JSONObject;
 import android.content.Intent;
 import android.util.Log;
 
+import com.todoroo.andlib.data.AbstractModel;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.ContextManager;
@@ -23,6 +26,7 @@ import com.todoroo.andlib.utility.Preferences;
 import com.todoroo.astrid.actfm.sync.messages.BriefMe;
 import com.todoroo.astrid.actfm.sync.messages.ChangesHappened;
 import com.todoroo.astrid.actfm.sync.messages.ClientToServerMessage;
+import com.todoroo.astrid.actfm.sync.messages.MakeChanges;
 import com.todoroo.astrid.actfm.sync.messages.NameMaps;
 import com.todoroo.astrid.actfm.sync.messages.ReplayOutstandingEntries;
 import com.todoroo.astrid.actfm.sync.messages.ReplayTaskListMetadataOutstanding;
@@ -57,11 +61,14 @@ public class ActFmSyncThread {
 
     private static final String ERROR_TAG = "actfm-sync-thread"; //$NON-NLS-1$
 
-    private final List<ClientToServerMessage<?>> pendingMessages;
-    private final Map<ClientToServerMessage<?>, Runnable> pendingCallbacks;
+    private final ActFmSyncQueue pendingMessages;
     private final Object monitor;
+    private final ActFmSyncPipeline<ActFmSyncQueue.Entry> pipeline;
     private Thread thread;
 
+    /** number of sync batches that may wait for a server response at once */
+    private static final int MAX_IN_FLIGHT = 3;
+
     @Autowired
     private ActFmInvoker actFmInvoker;
 
@@ -92,7 +99,7 @@ public class ActFmSyncThread {
     @Autowired
     private TaskListMetadataOutstandingDao taskListMetadataOutstandingDao;
 
-    private String token;
+    private volatile String token;
 
     private boolean syncMigration = false;
 
@@ -124,7 +131,7 @@ public class ActFmSyncThread {
         if (instance == null) {
             synchronized(ActFmSyncThread.class) {
                 if (instance == null) {
-                    List<ClientToServerMessage<?>> syncQueue = Collections.synchronizedList(new LinkedList<ClientToServerMessage<?>>());
+                    ActFmSyncQueue syncQueue = new ActFmSyncQueue();
                     ActFmSyncMonitor monitor = ActFmSyncMonitor.getInstance();
                     ActFmSyncWaitingPool waitingPool = ActFmSyncWaitingPool.getInstance();
 
@@ -143,11 +150,16 @@ public class ActFmSyncThread {
         return instance;
     }
 
-    private ActFmSyncThread(List<ClientToServerMessage<?>> messageQueue, Object syncMonitor) {
+    private ActFmSyncThread(ActFmSyncQueue messageQueue, Object syncMonitor) {
         DependencyInjectionService.getInstance().inject(this);
         this.pendingMessages = messageQueue;
-        this.pendingCallbacks = Collections.synchronizedMap(new HashMap<ClientToServerMessage<?>, Runnable>());
         this.monitor = syncMonitor;
+        this.pipeline = new ActFmSyncPipeline<ActFmSyncQueue.Entry>(new ActFmSyncPipeline.Sender() {
+            @Override
+            public JSONObject send(JSONArray payload) throws IOException {
+                return actFmInvoker.postSync(payload, token);
+            }
+        }, MAX_IN_FLIGHT);
         this.syncMigration = Preferences.getBoolean(AstridNewSyncMigrator.PREF_SYNC_MIGRATION, false);
     }
 
@@ -164,17 +176,24 @@ public class ActFmSyncThread {
         }
     }
 
-    public synchronized void enqueueMessage(ClientToServerMessage<?> message, Runnable callback) {
-        if (!pendingMessages.contains(message)) {
-            pendingMessages.add(message);
-            if (callback != null)
-                pendingCallbacks.put(message, callback);
+    public void enqueueMessage(ClientToServerMessage<?> message, Runnable callback) {
+        if (pendingMessages.enqueue(message, callback)) {
             synchronized(monitor) {
                 monitor.notifyAll();
             }
         }
     }
 
+    /** @return number of messages waiting to be sent */
+    public int getQueueDepth() {
+        return pendingMessages.getDepth();
+    }
+
+    /** @return fraction of enqueued messages that were merged into a pending one */
+    public double getCoalesceRate() {
+        return pendingMessages.getCoalesceRate();
+    }
+
     public synchronized void setTimeForBackgroundSync(boolean isTimeForBackgroundSync) {
         this.isTimeForBackgroundSync = isTimeForBackgroundSync;
         if (isTimeForBackgroundSync)
@@ -195,10 +214,9 @@ public class ActFmSyncThread {
     private void sync() {
         try {
             int batchSize = 4;
-            List<ClientToServerMessage<?>> messageBatch = new LinkedList<ClientToServerMessage<?>>();
             while(true) {
                 synchronized(monitor) {
-                    while ((pendingMessages.isEmpty() && !timeForBackgroundSync()) || !actFmPreferenceService.isLoggedIn() || !syncMigration) {
+                    while (pipeline.isEmpty() && ((pendingMessages.isEmpty() && !timeForBackgroundSync()) || !actFmPreferenceService.isLoggedIn() || !syncMigration)) {
                         try {
                             monitor.wait();
                             AndroidUtilities.sleepDeep(500L); // Wait briefly for large database operations to finish (e.g. adding a task with several tags may trigger a message before all saves are done--fix this?)
@@ -220,72 +238,83 @@ public class ActFmSyncThread {
                     setTimeForBackgroundSync(false);
                 }
 
-                while (messageBatch.size() < batchSize && !pendingMessages.isEmpty()) {
-                    ClientToServerMessage<?> message = pendingMessages.remove(0);
-                    if (message != null)
-                        messageBatch.add(message);
-                }
+                // keep up to MAX_IN_FLIGHT batches posted while there is a backlog
+                while (pipeline.hasCapacity() && !pendingMessages.isEmpty() && syncMigration && checkForToken()) {
+                    List<ActFmSyncQueue.Entry> messageBatch = pendingMessages.drain(batchSize, pipeline);
+                    if (messageBatch.isEmpty())
+                        break; // everything left waits on an entity in flight
+
+                    List<ClientToServerMessage<?>> messages = new ArrayList<ClientToServerMessage<?>>(messageBatch.size());
+                    for (ActFmSyncQueue.Entry entry : messageBatch)
+                        messages.add(entry.message);
+                    ChangesHappened.populateChanges(messages);
 
-                if (!messageBatch.isEmpty() && checkForToken()) {
                     JSONArray payload = new JSONArray();
-                    for (ClientToServerMessage<?> message : messageBatch) {
-                        JSONObject serialized = message.serializeToJSON();
+                    for (ActFmSyncQueue.Entry entry : messageBatch) {
+                        JSONObject serialized = entry.message.serializeToJSON();
                         if (serialized != null) {
                             payload.put(serialized);
                             syncLog("Sending: " + serialized);
                         }
                     }
 
-                    if (payload.length() == 0)
+                    if (payload.length() == 0) {
+                        // nothing to send, but callers still wait for these
+                        runCallbacks(messageBatch);
                         continue;
+                    }
 
-                    try {
-                        JSONObject response = actFmInvoker.postSync(payload, token);
-                        // process responses
-                        JSONArray serverMessagesJson = response.optJSONArray("messages");
-                        if (serverMessagesJson != null) {
-                            for (int i = 0; i < serverMessagesJson.length(); i++) {
-                                JSONObject serverMessageJson = serverMessagesJson.optJSONObject(i);
-                                if (serverMessageJson != null) {
-                                    ServerToClientMessage serverMessage = ServerToClientMessage.instantiateMessage(serverMessageJson);
-                                    if (serverMessage != null) {
-                                        syncLog("Processing server message of type " + serverMessage.getClass().getSimpleName());
-                                        serverMessage.processMessage();
-                                    } else {
-                                        syncLog("Unable to instantiate message " + serverMessageJson.toString());
-                                    }
-                                }
-                            }
-                            JSONArray errors = response.optJSONArray("errors");
-                            boolean errorsExist = (errors != null && errors.length() > 0);
-                            replayOutstandingChanges(errorsExist);
-                        }
+                    syncLog("Queue depth " + pendingMessages.getDepth() + ", coalesced " +
+                            pendingMessages.getCoalesceCount() + " of " + pendingMessages.getEnqueueCount());
+                    pipeline.send(messageBatch, payload);
+                }
 
-                        batchSize = Math.min(batchSize, messageBatch.size()) * 2;
-                    } catch (IOException e) {
-                        Log.e(ERROR_TAG, "IOException", e);
-                        batchSize = Math.max(batchSize / 2, 1);
-                    }
+                // apply responses in the order their batches were sent
+                ActFmSyncPipeline.Batch<ActFmSyncQueue.Entry> finished = pipeline.awaitOldest();
+                if (finished == null)
+                    continue;
+
+                if (finished.getError() == null) {
+                    JSONObject response = finished.getResponse();
+                    // process responses
+                    JSONArray serverMessagesJson = response.optJSONArray("messages");
+                    if (serverMessagesJson != null) {
+                        // entities whose outstanding entries may need replaying: those sent and those the server changed
+                        Map<String, Set<Long>> replayIds = new HashMap<String, Set<Long>>();
+                        for (ActFmSyncQueue.Entry entry : finished.messages) {
+                            if (entry.message instanceof ChangesHappened)
+                                addReplayId(replayIds, entry.message.getTable(), entry.message.getId());
+                        }
 
-                    boolean didDefaultRefreshThisLoop = false;
-                    for (ClientToServerMessage<?> message : messageBatch) {
-                        try {
-                            Runnable r = pendingCallbacks.remove(message);
-                            if (r != null) {
-                                if (r == defaultRefreshRunnable) {
-                                    if (didDefaultRefreshThisLoop)
-                                        continue;
-                                    didDefaultRefreshThisLoop = true;
+                        for (int i = 0; i < serverMessagesJson.length(); i++) {
+                            JSONObject serverMessageJson = serverMessagesJson.optJSONObject(i);
+                            if (serverMessageJson != null) {
+                                ServerToClientMessage serverMessage = ServerToClientMessage.instantiateMessage(serverMessageJson);
+                                if (serverMessage != null) {
+                                    syncLog("Processing server message of type " + serverMessage.getClass().getSimpleName());
+                                    serverMessage.processMessage();
+                                    if (serverMessage instanceof MakeChanges) {
+                                        MakeChanges<?> makeChanges = (MakeChanges<?>) serverMessage;
+                                        if (isReplayed(makeChanges.getTable()))
+                                            addReplayId(replayIds, makeChanges.getTable(), makeChanges.getChangedId());
+                                    }
+                                } else {
+                                    syncLog("Unable to instantiate message " + serverMessageJson.toString());
                                 }
-                                r.run();
                             }
-                        } catch (Exception e) {
-                            Log.e(ERROR_TAG, "Unexpected exception executing sync callback", e);
                         }
+                        JSONArray errors = response.optJSONArray("errors");
+                        boolean errorsExist = (errors != null && errors.length() > 0);
+                        replayOutstandingChanges(errorsExist, replayIds);
                     }
 
-                    messageBatch = new LinkedList<ClientToServerMessage<?>>();
+                    batchSize = Math.min(batchSize, finished.messages.size()) * 2;
+                } else {
+                    Log.e(ERROR_TAG, "IOException", finished.getError());
+                    batchSize = Math.max(batchSize / 2, 1);
                 }
+
+                runCallbacks(finished.messages);
             }
         } catch (Exception e) {
             // In the worst case, restart thread if something goes wrong
@@ -296,13 +325,59 @@ public class ActFmSyncThread {
 
     }
 
-    // Reapplies changes still in the outstanding tables to the local database
+    // Runs the callbacks of a batch once it was handled, the default refresh only once
+    private void runCallbacks(List<ActFmSyncQueue.Entry> batch) {
+        boolean didDefaultRefreshThisLoop = false;
+        for (ActFmSyncQueue.Entry entry : batch) {
+            try {
+                Runnable r = entry.getCallback();
+                if (r != null) {
+                    if (r == defaultRefreshRunnable) {
+                        if (didDefaultRefreshThisLoop)
+                            continue;
+                        didDefaultRefreshThisLoop = true;
+                    }
+                    r.run();
+                }
+            } catch (Exception e) {
+                Log.e(ERROR_TAG, "Unexpected exception executing sync callback", e);
+            }
+        }
+    }
+
+    // Reapplies changes still in the outstanding tables to the given entities in the local database
     // Called after a batch has finished processing
-    private void replayOutstandingChanges(boolean afterErrors) {
+    private void replayOutstandingChanges(boolean afterErrors, Map<String, Set<Long>> entityIds) {
         syncLog("Replaying outstanding changes"); //$NON-NLS-1$
-        new ReplayOutstandingEntries<Task, TaskOutstanding>(Task.class, NameMaps.TABLE_ID_TASKS, taskDao, taskOutstandingDao, afterErrors).execute();
-        new ReplayOutstandingEntries<TagData, TagOutstanding>(TagData.class, NameMaps.TABLE_ID_TAGS, tagDataDao, tagOutstandingDao, afterErrors).execute();
-        new ReplayTaskListMetadataOutstanding(taskListMetadataDao, taskListMetadataOutstandingDao, afterErrors).execute();
+        new ReplayOutstandingEntries<Task, TaskOutstanding>(Task.class, NameMaps.TABLE_ID_TASKS, taskDao, taskOutstandingDao, afterErrors)
+            .execute(replayIdsFor(entityIds, NameMaps.TABLE_ID_TASKS));
+        new ReplayOutstandingEntries<TagData, TagOutstanding>(TagData.class, NameMaps.TABLE_ID_TAGS, tagDataDao, tagOutstandingDao, afterErrors)
+            .execute(replayIdsFor(entityIds, NameMaps.TABLE_ID_TAGS));
+        new ReplayTaskListMetadataOutstanding(taskListMetadataDao, taskListMetadataOutstandingDao, afterErrors)
+            .execute(replayIdsFor(entityIds, NameMaps.TABLE_ID_TASK_LIST_METADATA));
+    }
+
+    private static boolean isReplayed(String table) {
+        return NameMaps.TABLE_ID_TASKS.equals(table) || NameMaps.TABLE_ID_TAGS.equals(table) ||
+                NameMaps.TABLE_ID_TASK_LIST_METADATA.equals(table);
+    }
+
+    private static void addReplayId(Map<String, Set<Long>> entityIds, String table, long id) {
+        if (id == AbstractModel.NO_ID || !isReplayed(table))
+            return;
+        Set<Long> ids = entityIds.get(table);
+        if (ids == null) {
+            ids = new HashSet<Long>();
+            entityIds.put(table, ids);
+        }
+        ids.add(id);
+    }
+
+    private static Set<Long> replayIdsFor(Map<String, Set<Long>> entityIds, String table) {
+        Set<Long> ids = entityIds.get(table);
+        if (ids == null)
+            return Collections.emptySet();
+        return ids;
     }
 
     private boolean timeForBackgroundSync() {
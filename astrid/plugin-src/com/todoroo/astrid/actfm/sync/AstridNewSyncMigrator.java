@@ -1,5 +1,6 @@
 package com.todoroo.astrid.actfm.sync;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -486,14 +487,16 @@ public class AstridNewSyncMigrator {
     private <TYPE extends RemoteModel, OE extends OutstandingEntry<TYPE>> void createOutstandingEntries(long id, DatabaseDao<TYPE> dao, OutstandingEntryDao<OE> oeDao, OE oe, Property<?>[] propertiesForOutstanding) {
         TYPE instance = dao.fetch(id, propertiesForOutstanding);
         long now = DateUtilities.now();
+        ArrayList<OE> entries = new ArrayList<OE>(propertiesForOutstanding.length);
         for (Property<?> property : propertiesForOutstanding) {
             oe.clear();
             oe.setValue(OutstandingEntry.ENTITY_ID_PROPERTY, id);
             oe.setValue(OutstandingEntry.COLUMN_STRING_PROPERTY, property.name);
             oe.setValue(OutstandingEntry.VALUE_STRING_PROPERTY, instance.getValue(property).toString());
             oe.setValue(OutstandingEntry.CREATED_AT_PROPERTY, now);
-            oeDao.createNew(oe);
+            entries.add((OE) oe.clone());
         }
+        oeDao.persistAll(entries);
     }
 
     private void updateTaskUuid(Metadata m) {
@@ -2,6 +2,8 @@ package com.todoroo.astrid.actfm.sync.messages;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 
 import org.json.JSONArray;
@@ -44,6 +46,7 @@ public class ChangesHappened<TYPE extends RemoteModel, OE extends OutstandingEnt
     protected final Class<OE> outstandingClass;
     protected final List<OE> changes;
     protected final OutstandingEntryDao<OE> outstandingDao;
+    private boolean populated = false;
 
     public static final String CHANGES_KEY = "changes";
 
@@ -99,7 +102,7 @@ public class ChangesHappened<TYPE extends RemoteModel, OE extends OutstandingEnt
     }
 
     private JSONArray changesToJSON() {
-        if (!RemoteModel.NO_UUID.equals(uuid))
+        if (!populated && !RemoteModel.NO_UUID.equals(uuid))
             populateChanges();
 
         JSONArray array = new JSONArray();
@@ -160,20 +163,73 @@ public class ChangesHappened<TYPE extends RemoteModel, OE extends OutstandingEnt
         TodorooCursor<OE> cursor = outstandingDao.query(Query.select(DaoReflectionHelpers.getModelProperties(outstandingClass))
                .where(OutstandingEntry.ENTITY_ID_PROPERTY.eq(id)).orderBy(Order.asc(OutstandingEntry.CREATED_AT_PROPERTY)));
         try {
-            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                try {
-                    OE instance = outstandingClass.newInstance();
-                    instance.readPropertiesFromCursor(cursor);
-                    changes.add(instance);
-                } catch (IllegalAccessException e) {
-                    Log.e("ChangesHappened", "Error instantiating outstanding model class", e);
-                } catch (InstantiationException e2) {
-                    Log.e("ChangesHappened", "Error instantiating outstanding model class", e2);
-                }
-            }
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                addChange(cursor);
         } finally {
             cursor.close();
         }
+        changesPopulated();
+    }
+
+    /**
+     * Called once the changes of this message were read, whether by
+     * {@link #populateChanges()} or by {@link #populateChanges(Collection)}
+     */
+    protected void changesPopulated() {
+        populated = true;
+    }
+
+    private void addChange(TodorooCursor<?> cursor) {
+        try {
+            OE instance = outstandingClass.newInstance();
+            instance.readPropertiesFromCursor(cursor);
+            changes.add(instance);
+        } catch (IllegalAccessException e) {
+            Log.e("ChangesHappened", "Error instantiating outstanding model class", e);
+        } catch (InstantiationException e2) {
+            Log.e("ChangesHappened", "Error instantiating outstanding model class", e2);
+        }
+    }
+
+    /**
+     * Read the changes of many messages at once, with one query per
+     * outstanding table instead of one per message. Messages that aren't
+     * ChangesHappened are skipped
+     */
+    public static void populateChanges(Collection<? extends ClientToServerMessage<?>> messages) {
+        HashMap<String, HashMap<Long, ChangesHappened<?, ?>>> byTable = new HashMap<String, HashMap<Long, ChangesHappened<?, ?>>>();
+        for (ClientToServerMessage<?> message : messages) {
+            if (!(message instanceof ChangesHappened))
+                continue;
+            ChangesHappened<?, ?> changesHappened = (ChangesHappened<?, ?>) message;
+            if (changesHappened.populated || RemoteModel.NO_UUID.equals(changesHappened.uuid))
+                continue;
+            HashMap<Long, ChangesHappened<?, ?>> byId = byTable.get(changesHappened.table);
+            if (byId == null) {
+                byId = new HashMap<Long, ChangesHappened<?, ?>>();
+                byTable.put(changesHappened.table, byId);
+            }
+            if (!byId.containsKey(changesHappened.id))
+                byId.put(changesHappened.id, changesHappened);
+        }
+
+        for (HashMap<Long, ChangesHappened<?, ?>> byId : byTable.values()) {
+            ChangesHappened<?, ?> first = byId.values().iterator().next();
+            TodorooCursor<?> cursor = first.outstandingDao.query(Query.select(DaoReflectionHelpers.getModelProperties(first.outstandingClass))
+                    .where(OutstandingEntry.ENTITY_ID_PROPERTY.in(byId.keySet().toArray(new Long[byId.size()])))
+                    .orderBy(Order.asc(OutstandingEntry.ENTITY_ID_PROPERTY), Order.asc(OutstandingEntry.CREATED_AT_PROPERTY)));
+            try {
+                for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                    ChangesHappened<?, ?> message = byId.get(cursor.get(OutstandingEntry.ENTITY_ID_PROPERTY));
+                    if (message != null)
+                        message.addChange(cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+            for (ChangesHappened<?, ?> message : byId.values())
+                message.changesPopulated();
+        }
     }
 
     private JSONObject getFileJson(String value) {
@@ -57,10 +57,38 @@ public abstract class ClientToServerMessage<TYPE extends RemoteModel> {
         return uuid;
     }
 
+    /** @return local id of the entity, or {@link AbstractModel#NO_ID} if only the uuid is known */
+    public final long getId() {
+        return id;
+    }
+
+    public final String getTable() {
+        return table;
+    }
+
     public final long getPushedAt() {
         return pushedAt;
     }
 
+    /**
+     * @return key of the sync queue slot this message takes: messages of the
+     * same type for the same entity share one
+     */
+    public final String getQueueKey() {
+        String entity = id != AbstractModel.NO_ID ? "#" + id : uuid;
+        return getTypeString() + ":" + table + ":" + entity;
+    }
+
+    /**
+     * @return key of the entity the message is about. Messages built from
+     * the entity's local id share it with messages built from its uuid
+     */
+    public final String getEntityKey() {
+        if (id == AbstractModel.NO_ID || RemoteModel.isValidUuid(uuid))
+            return table + ":" + uuid;
+        return table + ":#" + id;
+    }
+
     public final JSONObject serializeToJSON() {
         JSONObject json = new JSONObject();
         try {
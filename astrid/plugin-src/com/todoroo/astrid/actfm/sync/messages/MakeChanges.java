@@ -44,6 +44,8 @@ public class MakeChanges<TYPE extends RemoteModel> extends ServerToClientMessage
 
     private final RemoteModelDao<TYPE> dao;
     private final String table;
+    private String changedUuid = null;
+    private long changedId = AbstractModel.NO_ID;
 
     public MakeChanges(JSONObject json, RemoteModelDao<TYPE> dao) {
         super(json);
@@ -107,6 +109,9 @@ public class MakeChanges<TYPE extends RemoteModel> extends ServerToClientMessage
 
                     saveOrUpdateModelAfterChanges(dao, model, oldUuid, uuid, getMatchCriterion(model));
                     afterSaveChanges(changes, model, uuid, oldUuid);
+                    changedUuid = uuid;
+                    if (model.isSaved())
+                        changedId = model.getId();
 
                 } catch (IllegalAccessException e) {
                     Log.e(ERROR_TAG, "Error instantiating model for MakeChanges", e);
@@ -117,6 +122,20 @@ public class MakeChanges<TYPE extends RemoteModel> extends ServerToClientMessage
         }
     }
 
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return local id of the entity this message changed, or
+     *         {@link AbstractModel#NO_ID} if it changed none
+     */
+    public long getChangedId() {
+        if (changedId == AbstractModel.NO_ID && changedUuid != null && dao != null)
+            changedId = dao.localIdFromUuid(changedUuid);
+        return changedId;
+    }
+
     private Criterion getMatchCriterion(TYPE model) {
         if (NameMaps.TABLE_ID_TASK_LIST_METADATA.equals(table) && model.getSetValues().containsKey(TaskListMetadata.FILTER.name)) {
             return TaskListMetadata.FILTER.eq(model.getSetValues().getAsString(TaskListMetadata.FILTER.name));
@@ -336,14 +355,16 @@ public class MakeChanges<TYPE extends RemoteModel> extends ServerToClientMessage
                 localId = getLocalId();
 
             if (membersAdded) {
+                ArrayList<String> toAdd = new ArrayList<String>(addMembers.length());
                 for (int i = 0; i < addMembers.length(); i++) {
                     try {
                         String memberId = addMembers.getString(i);
-                        tagMetadataDao.createMemberLink(localId, uuid, memberId, true);
+                        toAdd.add(memberId);
                     } catch (JSONException e) {
                         //
                     }
                 }
+                tagMetadataDao.createMemberLinks(localId, uuid, toAdd, true);
             }
 
             if (membersRemoved) {
@@ -1,5 +1,7 @@
 package com.todoroo.astrid.actfm.sync.messages;
 
+import java.util.Collection;
+
 import android.util.Log;
 
 import com.todoroo.andlib.data.Property;
@@ -36,8 +38,15 @@ public class ReplayOutstandingEntries<T extends RemoteModel, OE extends Outstand
         this.afterErrors = afterErrors;
     }
 
-    public void execute() {
+    /**
+     * Reapply the outstanding entries of the given entities, e.g. those the
+     * server just changed. Entities without outstanding entries are skipped
+     */
+    public void execute(Collection<Long> entityIds) {
+        if (entityIds.isEmpty())
+            return;
         TodorooCursor<OE> outstanding = outstandingDao.query(Query.select(DaoReflectionHelpers.getModelProperties(outstandingClass))
+                .where(OutstandingEntry.ENTITY_ID_PROPERTY.in(entityIds.toArray(new Long[entityIds.size()])))
                 .orderBy(Order.asc(OutstandingEntry.ENTITY_ID_PROPERTY), Order.asc(OutstandingEntry.CREATED_AT_PROPERTY)));
         try {
             OE instance = outstandingClass.newInstance();
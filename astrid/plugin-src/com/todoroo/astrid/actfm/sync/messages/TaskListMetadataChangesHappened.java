@@ -19,8 +19,8 @@ public class TaskListMetadataChangesHappened extends ChangesHappened<TaskListMet
     }
 
     @Override
-    protected void populateChanges() {
-        super.populateChanges();
+    protected void changesPopulated() {
+        super.changesPopulated();
 
         // Collapses/removes redundant task list orders from the list--only send the most recent ordering
         Set<Long> removedChanges = new HashSet<Long>();
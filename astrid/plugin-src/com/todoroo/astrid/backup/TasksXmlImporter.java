@@ -7,6 +7,7 @@ package com.todoroo.astrid.backup;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.StringTokenizer;
@@ -208,6 +209,9 @@ public class TasksXmlImporter {
         private final Task currentTask = new Task();
         private final Metadata metadata = new Metadata();
 
+        /** metadata of the current task, saved together once the task is done */
+        private final ArrayList<Metadata> pendingMetadata = new ArrayList<Metadata>();
+
         public Format2TaskImporter(XmlPullParser xpp) throws XmlPullParserException, IOException {
             this.xpp = xpp;
 
@@ -238,10 +242,26 @@ public class TasksXmlImporter {
                             xpp.getText(), e);
                 }
             }
+            saveMetadata();
+        }
+
+        private void saveMetadata() {
+            if(pendingMetadata.isEmpty())
+                return;
+            try {
+                metadataService.saveAll(pendingMetadata);
+            } catch (Exception e) {
+                errorCount++;
+                Log.e("astrid-importer", //$NON-NLS-1$
+                        "Caught exception while saving metadata", e); //$NON-NLS-1$
+            } finally {
+                pendingMetadata.clear();
+            }
         }
 
         @SuppressWarnings("nls")
         private void parseTask() {
+            saveMetadata();
             taskCount++;
             setProgressMessage(context.getString(R.string.import_progress_read,
                     taskCount));
@@ -325,7 +345,7 @@ public class TasksXmlImporter {
             deserializeModel(metadata, Metadata.PROPERTIES);
             metadata.setId(Metadata.NO_ID);
             metadata.setValue(Metadata.TASK, currentTask.getId());
-            metadataService.save(metadata);
+            pendingMetadata.add((Metadata) metadata.clone());
         }
 
         /**
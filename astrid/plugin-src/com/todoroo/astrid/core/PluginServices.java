@@ -15,6 +15,7 @@ import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.HistoryDao;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.dao.StoreObjectDao;
+import com.todoroo.astrid.dao.TagCountDao;
 import com.todoroo.astrid.dao.TagDataDao;
 import com.todoroo.astrid.dao.TagMetadataDao;
 import com.todoroo.astrid.dao.TagOutstandingDao;
@@ -23,6 +24,8 @@ import com.todoroo.astrid.dao.TaskAttachmentOutstandingDao;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.dao.TaskListMetadataDao;
 import com.todoroo.astrid.dao.TaskListMetadataOutstandingDao;
+import com.todoroo.astrid.dao.TaskListOperationDao;
+import com.todoroo.astrid.dao.TaskListOrderDao;
 import com.todoroo.astrid.dao.TaskOutstandingDao;
 import com.todoroo.astrid.dao.UserActivityDao;
 import com.todoroo.astrid.dao.UserActivityOutstandingDao;
@@ -102,6 +105,15 @@ public final class PluginServices {
     @Autowired
     TaskListMetadataOutstandingDao taskListMetadataOutstandingDao;
 
+    @Autowired
+    TaskListOrderDao taskListOrderDao;
+
+    @Autowired
+    TaskListOperationDao taskListOperationDao;
+
+    @Autowired
+    TagCountDao tagCountDao;
+
     @Autowired
     ActFmPreferenceService actFmPreferenceService;
 
@@ -208,6 +220,18 @@ public final class PluginServices {
         return getInstance().taskListMetadataOutstandingDao;
     }
 
+    public static TaskListOrderDao getTaskListOrderDao() {
+        return getInstance().taskListOrderDao;
+    }
+
+    public static TaskListOperationDao getTaskListOperationDao() {
+        return getInstance().taskListOperationDao;
+    }
+
+    public static TagCountDao getTagCountDao() {
+        return getInstance().tagCountDao;
+    }
+
     public static ActFmPreferenceService getActFmPreferenceService() {
         return getInstance().actFmPreferenceService;
     }
@@ -278,18 +278,11 @@ public class AstridOrderedListFragmentHelper<LIST> implements OrderedListFragmen
                                    Task.RECURRENCE.isNotNull(), Functions.length(Task.RECURRENCE).gt(0))));
             try {
                 Task t = new Task();
-                boolean madeChanges = false;
                 for (recurring.moveToFirst(); !recurring.isAfterLast(); recurring.moveToNext()) {
                     t.clear();
                     t.readFromCursor(recurring);
-                    if (!TextUtils.isEmpty(t.getValue(Task.RECURRENCE))) {
-                        updater.moveToParentOf(t.getUuid(), itemId);
-                        madeChanges = true;
-                    }
-                }
-
-                if (madeChanges) {
-                    updater.writeSerialization(list, updater.serializeTree(), true);
+                    if (!TextUtils.isEmpty(t.getValue(Task.RECURRENCE)))
+                        updater.moveToParentOf(list, t.getUuid(), itemId);
                 }
             } finally {
                 recurring.close();
@@ -322,5 +315,12 @@ public class AstridOrderedListFragmentHelper<LIST> implements OrderedListFragmen
         taskAdapter.notifyDataSetInvalidated();
     }
 
+    /**
+     * Write out logged changes to the list order when leaving the list
+     */
+    public void onPause() {
+        updater.compact(list);
+    }
+
 
 }
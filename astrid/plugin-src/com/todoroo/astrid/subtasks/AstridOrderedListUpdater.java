@@ -15,8 +15,11 @@ import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.DependencyInjectionService;
 import com.todoroo.astrid.api.Filter;
+import com.todoroo.astrid.dao.TaskListOperationDao;
+import com.todoroo.astrid.dao.TaskListOrderDao;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskListOperation;
 import com.todoroo.astrid.service.TaskService;
 
 public abstract class AstridOrderedListUpdater<LIST> {
@@ -24,6 +27,15 @@ public abstract class AstridOrderedListUpdater<LIST> {
     @Autowired
     private TaskService taskService;
 
+    @Autowired
+    private TaskListOrderDao taskListOrderDao;
+
+    @Autowired
+    private TaskListOperationDao taskListOperationDao;
+
+    /** logged changes after which the tree is written out and synced */
+    static final int COMPACT_THRESHOLD = 50;
+
     public AstridOrderedListUpdater() {
         DependencyInjectionService.getInstance().inject(this);
         idToNode = new HashMap<String, Node>();
@@ -50,7 +62,17 @@ public abstract class AstridOrderedListUpdater<LIST> {
 
     private final HashMap<String, Node> idToNode;
 
+    /** list whose ranks and change log this updater maintains, or null */
+    private String listId;
+
+    /** changes logged since the tree was last written */
+    private int pendingOperations;
+
+    /** id of the last logged change */
+    private long lastOperationId;
+
     protected abstract String getSerializedTree(LIST list, Filter filter);
+    protected abstract String listIdFor(LIST list);
     protected abstract void writeSerialization(LIST list, String serialized, boolean shouldQueueSync);
     protected abstract void applyToFilter(Filter filter);
 
@@ -66,16 +88,220 @@ public abstract class AstridOrderedListUpdater<LIST> {
     }
 
     public void initializeFromSerializedTree(LIST list, Filter filter, String serializedTree) {
+        idToNode.clear();
         treeRoot = buildTreeModel(serializedTree, new JSONTreeModelBuilder() {
             @Override
             public void afterAddNode(Node node) {
                 idToNode.put(node.uuid, node);
             }
         });
-        verifyTreeModel(list, filter);
+        listId = listIdFor(list);
+        pendingOperations = 0;
+        if (listId != null)
+            replayOperations();
+        if (!verifyTreeModel(list, filter)) {
+            // changes left over from last time are written out right away
+            if (pendingOperations > 0)
+                compact(list);
+            else
+                writeRanks();
+        }
+    }
+
+    private void replayOperations() {
+        TodorooCursor<TaskListOperation> cursor = taskListOperationDao.fetchOperations(listId);
+        try {
+            TaskListOperation operation = new TaskListOperation();
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                operation.readFromCursor(cursor);
+                applyOperation(operation);
+                lastOperationId = operation.getId();
+                pendingOperations++;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean applyOperation(TaskListOperation operation) {
+        String type = operation.getValue(TaskListOperation.TYPE);
+        String uuid = operation.getValue(TaskListOperation.TASK_UUID);
+        String other = operation.getValue(TaskListOperation.OTHER_UUID);
+        if (TaskListOperation.TYPE_CREATE.equals(type))
+            return addNode(uuid);
+        else if (TaskListOperation.TYPE_DELETE.equals(type))
+            return removeNode(uuid);
+        else if (TaskListOperation.TYPE_MOVE.equals(type))
+            return moveNode(uuid, other);
+        else if (TaskListOperation.TYPE_INDENT.equals(type))
+            return indentNode(idToNode.get(uuid), operation.getValue(TaskListOperation.DELTA));
+        else if (TaskListOperation.TYPE_PARENT.equals(type))
+            return moveNodeToParentOf(uuid, other);
+        return false;
+    }
+
+    /**
+     * Log a change that has been made to the tree. The tree itself is only
+     * written out and synced every {@link #COMPACT_THRESHOLD} changes, or
+     * when {@link #compact(Object)} is called
+     *
+     * @param node node of the changed task
+     */
+    private void recordOperation(LIST list, String type, Node node, String other, int delta) {
+        if (listId == null) {
+            saveTree(list, true);
+            return;
+        }
+        lastOperationId = taskListOperationDao.record(listId, type, node.uuid, other, delta);
+        pendingOperations++;
+        writeRanks(type, node);
+        if (pendingOperations >= COMPACT_THRESHOLD)
+            compact(list);
+    }
+
+    /**
+     * Write the tree with all logged changes applied, queue it for sync and
+     * drop the logged changes
+     */
+    public void compact(LIST list) {
+        if (pendingOperations == 0)
+            return;
+        saveTree(list, true);
+    }
+
+    /**
+     * @return id of the list whose ranks are stored in
+     *         {@link TaskListOrderDao}, or null if there is none
+     */
+    public String getListId() {
+        return listId;
+    }
+
+    private void saveTree(LIST list, boolean shouldQueueSync) {
+        // logged changes are only synced once they are in the tree
+        writeSerialization(list, serializeTree(), shouldQueueSync || pendingOperations > 0);
+        if (pendingOperations > 0) {
+            taskListOperationDao.deleteThrough(listId, lastOperationId);
+            pendingOperations = 0;
+        }
+        writeRanks();
+    }
+
+    private void writeRanks() {
+        if (listId != null)
+            writeRanks(taskListOrderDao, listId, treeRoot);
+    }
+
+    /**
+     * Store the new place of a changed task and its subtasks. Only their
+     * rows are written, with ranks between those of their new neighbours;
+     * the whole list is only rewritten when there is no room between them
+     */
+    private void writeRanks(String type, Node node) {
+        if (listId == null)
+            return;
+        ArrayList<Node> run = new ArrayList<Node>();
+        if (TaskListOperation.TYPE_DELETE.equals(type)) {
+            // the deleted task's subtasks took its place
+            taskListOrderDao.removeTask(listId, node.uuid);
+            run.addAll(node.children);
+        } else {
+            run.add(node);
+        }
+
+        ArrayList<String> uuids = new ArrayList<String>();
+        ArrayList<Integer> indents = new ArrayList<Integer>();
+        for (Node top : run) {
+            if (RemoteModel.isValidUuid(top.uuid)) {
+                uuids.add(top.uuid);
+                indents.add(top.indent);
+            }
+            flattenTree(top, uuids, indents);
+        }
+        if (uuids.isEmpty())
+            return;
+
+        String after = previousUuid(run.get(0));
+        String before = nextUuid(run.get(run.size() - 1));
+        if (!taskListOrderDao.placeTasks(listId, after, before,
+                uuids.toArray(new String[uuids.size()]), toArray(indents)))
+            writeRanks();
     }
 
-    private void verifyTreeModel(LIST list, Filter filter) {
+    /**
+     * @return uuid of the task listed right before the given node, or null
+     */
+    private String previousUuid(Node node) {
+        for (Node n = previousInList(node); n != null; n = previousInList(n)) {
+            if (RemoteModel.isValidUuid(n.uuid))
+                return n.uuid;
+        }
+        return null;
+    }
+
+    private Node previousInList(Node node) {
+        ArrayList<Node> siblings = node.parent.children;
+        int index = siblings.indexOf(node);
+        if (index <= 0)
+            return node.parent == treeRoot ? null : node.parent;
+        Node previous = siblings.get(index - 1);
+        while (!previous.children.isEmpty())
+            previous = previous.children.get(previous.children.size() - 1);
+        return previous;
+    }
+
+    /**
+     * @return uuid of the task listed right after the given node and its
+     *         subtasks, or null
+     */
+    private String nextUuid(Node node) {
+        Node n = nextAfterSubtree(node);
+        while (n != null && !RemoteModel.isValidUuid(n.uuid))
+            n = n.children.isEmpty() ? nextAfterSubtree(n) : n.children.get(0);
+        return n == null ? null : n.uuid;
+    }
+
+    private Node nextAfterSubtree(Node node) {
+        for (Node n = node; n != treeRoot; n = n.parent) {
+            ArrayList<Node> siblings = n.parent.children;
+            int index = siblings.indexOf(n);
+            if (index + 1 < siblings.size())
+                return siblings.get(index + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Store the order of the given tree as the ranks of a list
+     */
+    public static void writeRanks(TaskListOrderDao dao, String listId, Node root) {
+        ArrayList<String> uuids = new ArrayList<String>();
+        ArrayList<Integer> indents = new ArrayList<Integer>();
+        flattenTree(root, uuids, indents);
+        dao.updateOrder(listId, uuids.toArray(new String[uuids.size()]), toArray(indents));
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = values.get(i);
+        return array;
+    }
+
+    private static void flattenTree(Node node, List<String> uuids, List<Integer> indents) {
+        for (Node child : node.children) {
+            if (RemoteModel.isValidUuid(child.uuid)) {
+                uuids.add(child.uuid);
+                indents.add(child.indent);
+            }
+            flattenTree(child, uuids, indents);
+        }
+    }
+
+    /**
+     * @return true if the tree had to be changed and was saved
+     */
+    private boolean verifyTreeModel(LIST list, Filter filter) {
         boolean changedThings = false;
         Set<String> keySet = idToNode.keySet();
         Set<String> currentIds = new HashSet<String>();
@@ -108,7 +334,8 @@ public abstract class AstridOrderedListUpdater<LIST> {
             tasks.close();
         }
         if (changedThings)
-            writeSerialization(list, serializeTree(), false);
+            saveTree(list, false);
+        return changedThings;
     }
 
     private void removeNodes(Set<String> idsToRemove) {
@@ -185,23 +412,26 @@ public abstract class AstridOrderedListUpdater<LIST> {
 
     public void indent(LIST list, Filter filter, String targetTaskId, int delta) {
         Node node = idToNode.get(targetTaskId);
-        indentHelper(list, filter, node, delta);
+        if (indentNode(node, delta)) {
+            recordOperation(list, TaskListOperation.TYPE_INDENT, node, null, delta);
+            applyToFilter(filter);
+        }
     }
 
-    private void indentHelper(LIST list, Filter filter, Node node, int delta) {
+    private boolean indentNode(Node node, int delta) {
         if (node == null)
-            return;
+            return false;
         if (delta == 0)
-            return;
+            return false;
         Node parent = node.parent;
         if (parent == null)
-            return;
+            return false;
 
         if (delta > 0) {
             ArrayList<Node> siblings = parent.children;
             int index = siblings.indexOf(node);
             if (index <= 0) // Can't indent first child
-                return;
+                return false;
             Node newParent = siblings.get(index - 1);
             siblings.remove(index);
             node.parent = newParent;
@@ -209,12 +439,12 @@ public abstract class AstridOrderedListUpdater<LIST> {
             setNodeIndent(node, newParent.indent + 1);
         } else if (delta < 0) {
             if (parent == treeRoot) // Can't deindent a top level item
-                return;
+                return false;
 
             ArrayList<Node> siblings = parent.children;
             int index = siblings.indexOf(node);
             if (index < 0)
-                return;
+                return false;
 
             Node newParent = parent.parent;
             ArrayList<Node> newSiblings = newParent.children;
@@ -224,9 +454,7 @@ public abstract class AstridOrderedListUpdater<LIST> {
             setNodeIndent(node, newParent.indent + 1);
             newSiblings.add(insertAfter + 1, node);
         }
-
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        return true;
     }
 
     private void setNodeIndent(Node node, int indent) {
@@ -242,34 +470,46 @@ public abstract class AstridOrderedListUpdater<LIST> {
     }
 
     public void moveTo(LIST list, Filter filter, String targetTaskId, String beforeTaskId) {
+        if (moveNode(targetTaskId, beforeTaskId)) {
+            recordOperation(list, TaskListOperation.TYPE_MOVE, idToNode.get(targetTaskId), beforeTaskId, 0);
+            applyToFilter(filter);
+        }
+    }
+
+    private boolean moveNode(String targetTaskId, String beforeTaskId) {
         Node target = idToNode.get(targetTaskId);
         if (target == null)
-            return;
+            return false;
 
         if ("-1".equals(beforeTaskId)) { //$NON-NLS-1$
-            moveToEndOfList(list, filter, target);
-            return;
+            moveToEndOfList(target);
+            return true;
         }
 
         Node before = idToNode.get(beforeTaskId);
 
         if (before == null)
-            return;
+            return false;
 
         if (isDescendantOf(before, target))
-            return;
+            return false;
 
-        moveHelper(list, filter, target, before);
+        return moveHelper(target, before);
     }
 
-    public void moveToParentOf(String moveThis, String toParentOfThis) {
+    public void moveToParentOf(LIST list, String moveThis, String toParentOfThis) {
+        if (moveNodeToParentOf(moveThis, toParentOfThis))
+            recordOperation(list, TaskListOperation.TYPE_PARENT, idToNode.get(moveThis), toParentOfThis, 0);
+    }
+
+    private boolean moveNodeToParentOf(String moveThis, String toParentOfThis) {
         Node target = idToNode.get(toParentOfThis);
         if (target == null)
-            return;
+            return false;
 
         Node toMove = idToNode.get(moveThis);
         if (toMove == null)
-            return;
+            return false;
 
         Node newParent = target.parent;
         Node oldParent = toMove.parent;
@@ -278,9 +518,10 @@ public abstract class AstridOrderedListUpdater<LIST> {
         toMove.parent = newParent;
         newParent.children.add(toMove);
         setNodeIndent(toMove, toMove.parent.indent + 1);
+        return true;
     }
 
-    private void moveHelper(LIST list, Filter filter, Node moveThis, Node beforeThis) {
+    private boolean moveHelper(Node moveThis, Node beforeThis) {
         Node oldParent = moveThis.parent;
         ArrayList<Node> oldSiblings = oldParent.children;
 
@@ -289,11 +530,11 @@ public abstract class AstridOrderedListUpdater<LIST> {
 
         int beforeIndex = newSiblings.indexOf(beforeThis);
         if (beforeIndex < 0)
-            return;
+            return false;
 
         int nodeIndex = oldSiblings.indexOf(moveThis);
         if (nodeIndex < 0)
-            return;
+            return false;
 
         moveThis.parent = newParent;
         setNodeIndent(moveThis, newParent.indent + 1);
@@ -303,8 +544,7 @@ public abstract class AstridOrderedListUpdater<LIST> {
             beforeIndex--;
         }
         newSiblings.add(beforeIndex, moveThis);
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        return true;
     }
 
     // Returns true if desc is a descendant of parent
@@ -318,31 +558,43 @@ public abstract class AstridOrderedListUpdater<LIST> {
         return false;
     }
 
-    private void moveToEndOfList(LIST list, Filter filter, Node moveThis) {
+    private void moveToEndOfList(Node moveThis) {
         Node parent = moveThis.parent;
         parent.children.remove(moveThis);
         treeRoot.children.add(moveThis);
         moveThis.parent = treeRoot;
         setNodeIndent(moveThis, 0);
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
     }
 
     public void onCreateTask(LIST list, Filter filter, String uuid) {
+        if (addNode(uuid)) {
+            recordOperation(list, TaskListOperation.TYPE_CREATE, idToNode.get(uuid), null, 0);
+            applyToFilter(filter);
+        }
+    }
+
+    private boolean addNode(String uuid) {
         if (idToNode.containsKey(uuid) || !RemoteModel.isValidUuid(uuid))
-            return;
+            return false;
 
         Node newNode = new Node(uuid, treeRoot, 0);
         treeRoot.children.add(0, newNode);
         idToNode.put(uuid, newNode);
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        return true;
     }
 
     public void onDeleteTask(LIST list, Filter filter, String taskId) {
+        Node node = idToNode.get(taskId);
+        if (removeNode(taskId)) {
+            recordOperation(list, TaskListOperation.TYPE_DELETE, node, null, 0);
+            applyToFilter(filter);
+        }
+    }
+
+    private boolean removeNode(String taskId) {
         Node task = idToNode.get(taskId);
         if (task == null)
-            return;
+            return false;
 
         Node parent = task.parent;
         ArrayList<Node> siblings = parent.children;
@@ -357,9 +609,7 @@ public abstract class AstridOrderedListUpdater<LIST> {
             index++;
         }
         idToNode.remove(taskId);
-
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        return true;
     }
 
     private interface JSONTreeModelBuilder {
@@ -5,6 +5,7 @@ import android.text.TextUtils;
 import com.todoroo.andlib.utility.Preferences;
 import com.todoroo.astrid.actfm.sync.AstridNewSyncMigrator;
 import com.todoroo.astrid.api.Filter;
+import com.todoroo.astrid.dao.TaskListOrderDao;
 import com.todoroo.astrid.data.SyncFlags;
 import com.todoroo.astrid.data.TaskListMetadata;
 
@@ -27,6 +28,11 @@ public class SubtasksFilterUpdater extends SubtasksUpdater<TaskListMetadata> {
         return order;
     }
 
+    @Override
+    protected String listIdFor(TaskListMetadata list) {
+        return TaskListOrderDao.listIdFor(list);
+    }
+
     @Override
     protected void writeSerialization(TaskListMetadata list, String serialized, boolean shouldQueueSync) {
         if (list != null && syncMigrationOccurred()) {
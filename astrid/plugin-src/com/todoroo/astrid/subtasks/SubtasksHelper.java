@@ -21,10 +21,12 @@ import com.todoroo.astrid.core.PluginServices;
 import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.dao.TaskListMetadataDao;
+import com.todoroo.astrid.dao.TaskListOrderDao;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.TaskListMetadata;
+import com.todoroo.astrid.data.TaskListOrder;
 import com.todoroo.astrid.subtasks.AstridOrderedListUpdater.Node;
 import com.todoroo.astrid.utility.AstridPreferences;
 
@@ -63,18 +65,37 @@ public class SubtasksHelper {
             TagData tagData = PluginServices.getTagDataService().getTag(tagName, TagData.UUID, TagData.TAG_ORDERING);
             TaskListMetadataDao tlmd = PluginServices.getTaskListMetadataDao();
             TaskListMetadata tlm = null;
+            String listId = null;
             if (tagData != null) {
-                tlm = tlmd.fetchByTagId(tagData.getUuid(), TaskListMetadata.TASK_IDS);
+                listId = tagData.getUuid();
+                tlm = tlmd.fetchByTagId(listId, TaskListMetadata.TASK_IDS);
             } else if (CoreFilterExposer.isInbox(filter)) {
-                tlm = tlmd.fetchByTagId(TaskListMetadata.FILTER_ID_ALL, TaskListMetadata.TASK_IDS);
+                listId = TaskListMetadata.FILTER_ID_ALL;
+                tlm = tlmd.fetchByTagId(listId, TaskListMetadata.TASK_IDS);
             } else if (CustomFilterExposer.isTodayFilter(filter)) {
-                tlm = tlmd.fetchByTagId(TaskListMetadata.FILTER_ID_TODAY, TaskListMetadata.TASK_IDS);
+                listId = TaskListMetadata.FILTER_ID_TODAY;
+                tlm = tlmd.fetchByTagId(listId, TaskListMetadata.TASK_IDS);
             }
 
             query = query.replaceAll("ORDER BY .*", "");
+            String order;
+            if (tlm != null && !RemoteModel.isUuidEmpty(listId)) {
+                // the widget may run before the list was ever opened, so
+                // bring the ranks up to date with the stored tree first.
+                // With changes still logged the ranks are newer than the tree
+                if (!PluginServices.getTaskListOperationDao().hasOperations(listId)) {
+                    TaskListOrderDao dao = PluginServices.getTaskListOrderDao();
+                    AstridOrderedListUpdater.writeRanks(dao, listId,
+                            AstridOrderedListUpdater.buildTreeModel(tlm.getValue(TaskListMetadata.TASK_IDS), null));
+                }
+                query = TaskListOrderDao.joinRanks(listId) + " " + query;
+                order = TaskListOrder.RANK.toString();
+            } else {
+                order = getOrderString(tagData, tlm);
+            }
             query = query + String.format(" ORDER BY %s, %s, %s, %s",
                     Task.DELETION_DATE, Task.COMPLETION_DATE,
-                    getOrderString(tagData, tlm), Task.CREATION_DATE);
+                    order, Task.CREATION_DATE);
             if (limit > 0)
                 query = query + " LIMIT " + limit;
             query = query.replace(TaskCriteria.isVisible().toString(),
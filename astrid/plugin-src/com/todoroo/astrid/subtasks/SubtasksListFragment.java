@@ -62,6 +62,13 @@ public class SubtasksListFragment extends TaskListFragment {
         unregisterForContextMenu(getListView());
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        if (helper instanceof AstridOrderedListFragmentHelper)
+            ((AstridOrderedListFragmentHelper<?>) helper).onPause();
+    }
+
     @Override
     protected boolean isDraggable() {
         return true;
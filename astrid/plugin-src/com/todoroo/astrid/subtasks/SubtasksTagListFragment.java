@@ -58,6 +58,12 @@ public class SubtasksTagListFragment extends TagViewFragment {
         unregisterForContextMenu(getListView());
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        helper.onPause();
+    }
+
     @Override
     protected boolean isDraggable() {
         return true;
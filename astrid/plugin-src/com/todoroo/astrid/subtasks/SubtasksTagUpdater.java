@@ -20,6 +20,13 @@ public class SubtasksTagUpdater extends SubtasksFilterUpdater {
         return super.getSerializedTree(list, filter);
     }
 
+    @Override
+    protected String listIdFor(TaskListMetadata list) {
+        if (isBeingFiltered.get())
+            return null;
+        return super.listIdFor(list);
+    }
+
     @Override
     protected void writeSerialization(TaskListMetadata list, String serialized, boolean shouldQueueSync) {
         if (!isBeingFiltered.get()) {
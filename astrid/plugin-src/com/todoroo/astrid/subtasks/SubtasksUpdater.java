@@ -11,7 +11,9 @@ import com.todoroo.astrid.actfm.sync.ActFmSyncService;
 import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.dao.TaskListMetadataDao;
+import com.todoroo.astrid.dao.TaskListOrderDao;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskListOrder;
 import com.todoroo.astrid.service.TaskService;
 
 public abstract class SubtasksUpdater<T> extends AstridOrderedListUpdater<T> {
@@ -33,11 +35,16 @@ public abstract class SubtasksUpdater<T> extends AstridOrderedListUpdater<T> {
     @SuppressWarnings("nls")
     public void applyToFilter(Filter filter) {
         String query = filter.getSqlQuery();
+        String listId = getListId();
 
         query = query.replaceAll("ORDER BY .*", "");
+        if (listId != null) {
+            String join = TaskListOrderDao.joinRanks(listId) + " ";
+            query = join + query.replace(join, "");
+        }
         query = query + String.format(" ORDER BY %s, %s, %s, %s",
                 Task.DELETION_DATE, Task.COMPLETION_DATE,
-                getOrderString(), Task.CREATION_DATE);
+                listId != null ? TaskListOrder.RANK : getOrderString(), Task.CREATION_DATE);
         query = query.replace(TaskCriteria.isVisible().toString(),
                 Criterion.all.toString());
 
@@ -36,6 +36,7 @@ import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.core.PluginServices;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
+import com.todoroo.astrid.dao.TagCountDao;
 import com.todoroo.astrid.dao.TagDataDao;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.data.Metadata;
@@ -88,6 +89,8 @@ public final class TagService {
 
     @Autowired TagDataDao tagDataDao;
 
+    @Autowired TagCountDao tagCountDao;
+
     public TagService() {
         DependencyInjectionService.getInstance().inject(this);
     }
@@ -400,12 +403,14 @@ public final class TagService {
      */
     public ArrayList<Tag> getTagList() {
         ArrayList<Tag> tagList = new ArrayList<Tag>();
+        HashMap<String, Integer> counts = tagCountDao.getActiveCounts();
         TodorooCursor<TagData> cursor = tagDataService.query(Query.select(TagData.PROPERTIES).orderBy(Order.asc(Functions.upper(TagData.NAME))));
         try {
             TagData tagData = new TagData();
             for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
                 tagData.readFromCursor(cursor);
                 Tag tag = new Tag(tagData);
+                tag.count = activeCount(counts, tag.uuid);
                 if(tagData.getValue(TagData.DELETION_DATE) > 0 || tagData.getFlag(TagData.FLAGS, TagData.FLAG_FEATURED)) {
                     continue;
                 }
@@ -421,6 +426,7 @@ public final class TagService {
 
     public ArrayList<Tag> getFeaturedLists() {
         HashMap<String, Tag> tags = new HashMap<String, Tag>();
+        HashMap<String, Integer> counts = tagCountDao.getActiveCounts();
 
         TodorooCursor<TagData> cursor = tagDataService.query(Query.select(TagData.PROPERTIES)
                 .where(Functions.bitwiseAnd(TagData.FLAGS, TagData.FLAG_FEATURED).gt(0)));
@@ -432,6 +438,7 @@ public final class TagService {
                     continue;
                 String tagName = tagData.getValue(TagData.NAME).trim();
                 Tag tag = new Tag(tagData);
+                tag.count = activeCount(counts, tag.uuid);
                 if(TextUtils.isEmpty(tag.tag))
                     continue;
                 tags.put(tagName, tag);
@@ -450,6 +457,15 @@ public final class TagService {
         return tagList;
     }
 
+    /**
+     * @return number of active tasks in the tag, from the counts kept by
+     *         {@link TagCountDao}
+     */
+    private static int activeCount(HashMap<String, Integer> counts, String uuid) {
+        Integer count = counts.get(uuid);
+        return count == null ? 0 : count;
+    }
+
     /**
      * Save the given array of tags into the database
      * @param taskId
@@ -24,6 +24,7 @@ import android.content.res.Resources;
 import android.net.Uri;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
+import android.preference.EditTextPreference;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.Preference.OnPreferenceClickListener;
@@ -31,7 +32,9 @@ import android.preference.PreferenceCategory;
 import android.preference.PreferenceGroup;
 import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
+import android.text.InputType;
 import android.text.TextUtils;
+import android.util.Log;
 import android.widget.Toast;
 
 import com.crittercism.app.Crittercism;
@@ -472,6 +475,66 @@ public class EditPreferences extends TodorooPreferenceActivity {
         });
         group.addPreference(preference);
 
+        CheckBoxPreference profiling = new CheckBoxPreference(this);
+        profiling.setTitle("Time database queries");
+        profiling.setChecked(database.isProfiling());
+        profiling.setPersistent(false);
+        profiling.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+            public boolean onPreferenceChange(Preference p, Object newValue) {
+                database.setProfiling((Boolean) newValue);
+                return true;
+            }
+        });
+        group.addPreference(profiling);
+
+        preference = new Preference(this);
+        preference.setTitle("Dump database statistics");
+        preference.setSummary("Query latencies, slow queries and query plans go to the log");
+        preference.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+            public boolean onPreferenceClick(Preference p) {
+                logLines("astrid-db-stats", database.getStatistics().getReport());
+                logLines("astrid-db-stats", database.getQueryPlans().getReport());
+                Log.i("astrid-db-stats", "reader wait: " + database.getReaderWait() +
+                        ", writer wait: " + database.getWriterWait());
+                Toast.makeText(EditPreferences.this, "Written to log", Toast.LENGTH_SHORT).show();
+                return false;
+            }
+        });
+        group.addPreference(preference);
+
+        preference = new Preference(this);
+        preference.setTitle("Reset database statistics");
+        preference.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+            public boolean onPreferenceClick(Preference p) {
+                database.getStatistics().clear();
+                database.getQueryPlans().clear();
+                database.getReaderWait().reset();
+                database.getWriterWait().reset();
+                return false;
+            }
+        });
+        group.addPreference(preference);
+
+        EditTextPreference threshold = new EditTextPreference(this);
+        threshold.setTitle("Slow query threshold (ms)");
+        threshold.setSummary(Long.toString(database.getStatistics().getSlowThresholdMillis()));
+        threshold.setText(Long.toString(database.getStatistics().getSlowThresholdMillis()));
+        threshold.setPersistent(false);
+        threshold.getEditText().setInputType(InputType.TYPE_CLASS_NUMBER);
+        threshold.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+            public boolean onPreferenceChange(Preference p, Object newValue) {
+                try {
+                    long millis = Long.parseLong((String) newValue);
+                    database.getStatistics().setSlowThresholdMillis(millis);
+                    p.setSummary(Long.toString(millis));
+                    return true;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        });
+        group.addPreference(threshold);
+
         preference = new Preference(this);
         preference.setTitle("Make lots of contacts");
         preference.setOnPreferenceClickListener(new OnPreferenceClickListener() {
@@ -484,6 +547,12 @@ public class EditPreferences extends TodorooPreferenceActivity {
         group.addPreference(preference);
     }
 
+    /** log a report line by line, so long reports aren't truncated */
+    private static void logLines(String tag, String report) {
+        for(String line : report.split("\n")) //$NON-NLS-1$
+            Log.i(tag, line);
+    }
+
     @Override
     public void updatePreferences(final Preference preference, Object value) {
         final Resources r = getResources();
@@ -38,6 +38,7 @@ import android.widget.TextView;
 import com.timsu.astrid.R;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.QueryTemplate;
 import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.andlib.utility.DialogUtilities;
@@ -52,6 +53,7 @@ import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.api.FilterListItem;
 import com.todoroo.astrid.core.CustomFilterExposer;
 import com.todoroo.astrid.dao.TagMetadataDao;
+import com.todoroo.astrid.dao.TaskSearchIndex;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
@@ -212,11 +214,11 @@ public class TaskListActivity extends AstridActivity implements MainMenuListener
         if (Intent.ACTION_SEARCH.equals(getIntent().getAction())) {
             String query = getIntent().getStringExtra(SearchManager.QUERY).trim();
             String title = getString(R.string.FLA_search_filter, query);
+            Criterion search = TaskSearchIndex.matches(query);
+            if (search == null)
+                search = Task.TITLE.like("%" + query + "%"); //$NON-NLS-1$ //$NON-NLS-2$
             savedFilter = new Filter(title, title,
-                    new QueryTemplate().where(Task.TITLE.like(
-                            "%" + //$NON-NLS-1$
-                                    query + "%")), //$NON-NLS-1$
-                    null);
+                    new QueryTemplate().where(search), null);
         }
 
         if (savedFilter == null) {
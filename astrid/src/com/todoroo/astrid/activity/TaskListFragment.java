@@ -5,7 +5,11 @@
  */
 package com.todoroo.astrid.activity;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicReference;
@@ -54,6 +58,8 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.timsu.astrid.R;
+import com.todoroo.andlib.data.ChangeLog;
+import com.todoroo.andlib.data.PagedCursor;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
@@ -63,6 +69,7 @@ import com.todoroo.andlib.service.ExceptionService;
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Field;
 import com.todoroo.andlib.sql.Join;
+import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.andlib.utility.Preferences;
 import com.todoroo.astrid.actfm.ActFmLoginActivity;
@@ -83,14 +90,16 @@ import com.todoroo.astrid.core.CustomFilterActivity;
 import com.todoroo.astrid.core.CustomFilterExposer;
 import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.dao.MetadataDao;
+import com.todoroo.astrid.dao.TaskAttachmentDao;
+import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.dao.TaskListMetadataDao;
-import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.dao.UserDao;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
-import com.todoroo.astrid.data.TaskAttachment;
 import com.todoroo.astrid.data.TaskListMetadata;
-import com.todoroo.astrid.data.User;
+import com.todoroo.astrid.data.TaskListRow;
 import com.todoroo.astrid.helper.SyncActionHelper;
 import com.todoroo.astrid.helper.TaskListContextMenuExtensionLoader;
 import com.todoroo.astrid.helper.TaskListContextMenuExtensionLoader.ContextMenuItem;
@@ -108,8 +117,6 @@ import com.todoroo.astrid.subtasks.SubtasksHelper;
 import com.todoroo.astrid.subtasks.SubtasksListFragment;
 import com.todoroo.astrid.subtasks.SubtasksUpdater;
 import com.todoroo.astrid.sync.SyncProviderPreferences;
-import com.todoroo.astrid.tags.TaskToTagMetadata;
-import com.todoroo.astrid.taskrabbit.TaskRabbitMetadata;
 import com.todoroo.astrid.timers.TimerPlugin;
 import com.todoroo.astrid.ui.QuickAddBar;
 import com.todoroo.astrid.utility.AstridPreferences;
@@ -135,6 +142,12 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
 
     private static final long BACKGROUND_REFRESH_INTERVAL = 120000L;
     private static final long WAIT_BEFORE_AUTOSYNC = 2000L;
+
+    /** more changed tasks than this re-query the list instead of re-reading them */
+    private static final int MAX_INCREMENTAL_CHANGES = 100;
+
+    /** change logs before this index publish task ids, see changeLogs() */
+    private static final int INCREMENTAL_CHANGE_LOGS = 2;
     public static final int ACTIVITY_EDIT_TASK = 0;
     public static final int ACTIVITY_SETTINGS = 1;
     public static final int ACTIVITY_SORT = 2;
@@ -187,6 +200,14 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
 
     @Autowired TaskListMetadataDao taskListMetadataDao;
 
+    @Autowired TaskDao taskDao;
+
+    @Autowired MetadataDao metadataDao;
+
+    @Autowired UserDao userDao;
+
+    @Autowired TaskAttachmentDao taskAttachmentDao;
+
     @Autowired ActFmPreferenceService actFmPreferenceService;
 
     private final TaskContextActionExposer[] contextItemExposers = new TaskContextActionExposer[] {
@@ -206,6 +227,7 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
     protected QuickAddBar quickAddBar;
 
     private Timer backgroundTimer;
+    private long[] queriedGenerations = null;
     protected Bundle extras;
     protected boolean isInbox;
     protected boolean isTodayFilter;
@@ -805,12 +827,126 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
      * broadcast. Subclasses should override this.
      */
     protected void refresh() {
+        taskService.cleanup();
+        if (refreshChangedTasks()) {
+            loadTaskListContent(false);
+            return;
+        }
         if (taskAdapter != null)
             taskAdapter.flushCaches();
-        taskService.cleanup();
         loadTaskListContent(true);
     }
 
+    /**
+     * Re-read only the tasks that changed since the list was queried, and
+     * show them in place. This is what most refresh broadcasts (saves,
+     * sync messages) need, and costs a lookup per changed task instead of
+     * re-running the list query.
+     *
+     * @return false if the list has to be re-queried instead, e.g. because
+     *         tasks entered or left the list or moved within it
+     */
+    protected boolean refreshChangedTasks() {
+        if (taskAdapter == null || queriedGenerations == null)
+            return false;
+
+        // only paged cursors know the positions and sort keys of the rows on
+        // screen without reading them all, other lists are re-queried
+        PagedCursor pagedCursor = taskAdapter.getPagedCursor();
+        if (pagedCursor == null)
+            return false;
+
+        ChangeLog[] changeLogs = changeLogs();
+        long[] generations = new long[changeLogs.length];
+        HashSet<Long> changed = new HashSet<Long>();
+        for (int i = 0; i < changeLogs.length; i++) {
+            generations[i] = changeLogs[i].getGeneration();
+            if (i >= INCREMENTAL_CHANGE_LOGS) {
+                if (generations[i] != queriedGenerations[i])
+                    return false;
+                continue;
+            }
+            Set<Long> ids = changeLogs[i].changesSince(queriedGenerations[i]);
+            if (ids == null)
+                return false;
+            changed.addAll(ids);
+        }
+        if (changed.size() > MAX_INCREMENTAL_CHANGES)
+            return false;
+
+        if (!changed.isEmpty()) {
+            ArrayList<Task> rows = new ArrayList<Task>(changed.size());
+            ArrayList<Long> rowIds = new ArrayList<Long>(changed.size());
+            TodorooCursor<Task> cursor = taskService.fetchFiltered(
+                    restrictToTasks(sqlQueryTemplate.get(), changed), null, taskProperties());
+            try {
+                for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                    Task row = new Task(cursor);
+                    rows.add(row);
+                    rowIds.add(row.getId());
+                    changed.remove(row.getId());
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // remaining tasks no longer match the filter. Positions are only
+            // known for open pages, so if they aren't on one, the count tells
+            // whether they were part of the list
+            for (Long id : changed) {
+                if (pagedCursor.getPosition(id) >= 0)
+                    return false;
+            }
+            if (!pagedCursor.isInPlace(rowIds))
+                return false;
+            if (!changed.isEmpty() && !pagedCursor.isCountCurrent())
+                return false;
+            taskAdapter.replaceRows(rows);
+        }
+
+        queriedGenerations = generations;
+        return true;
+    }
+
+    /**
+     * @return the given query template, limited to the given tasks
+     */
+    @SuppressWarnings("nls")
+    private static String restrictToTasks(String sql, Collection<Long> taskIds) {
+        Field changedId = Field.field(CHANGED_TASKS_JOIN + "." + Task.ID.name);
+        return Join.inner(Task.TABLE.as(CHANGED_TASKS_JOIN),
+                Criterion.and(Task.ID.eq(changedId),
+                        changedId.in(taskIds.toArray(new Long[taskIds.size()])))).toString()
+                + sql;
+    }
+
+    /**
+     * @return change logs of tables the list is built from. Tasks and
+     *         metadata publish the ids of changed tasks, the others can
+     *         only tell that something changed
+     */
+    private ChangeLog[] changeLogs() {
+        return new ChangeLog[] {
+                taskDao.getChangeLog(),
+                metadataDao.getChangeLog(),
+                userDao.getChangeLog(),
+                taskAttachmentDao.getChangeLog(),
+                taskListMetadataDao.getChangeLog()
+        };
+    }
+
+    /**
+     * Remember which changes the list is about to see. Called right before
+     * the list is queried, so that changes made while the query runs are
+     * re-read again later
+     */
+    private void markQueried() {
+        ChangeLog[] changeLogs = changeLogs();
+        queriedGenerations = new long[changeLogs.length];
+        for (int i = 0; i < changeLogs.length; i++)
+            queriedGenerations[i] = changeLogs[i].getGeneration();
+    }
+
     /**
      * Receiver which receives detail or decoration intents
      *
@@ -878,7 +1014,8 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
 
     public void onScroll(AbsListView view, int firstVisibleItem,
             int visibleItemCount, int totalItemCount) {
-        // do nothing
+        if (taskAdapter != null)
+            taskAdapter.setViewport(firstVisibleItem, visibleItemCount);
     }
 
     /**
@@ -923,6 +1060,7 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
         Cursor taskCursor = taskAdapter.getCursor();
 
         if (requery) {
+            markQueried();
             taskCursor.requery();
             taskAdapter.flushCaches();
             taskAdapter.notifyDataSetChanged();
@@ -965,13 +1103,7 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
                 });
     }
 
-    public static final String TR_METADATA_JOIN = "for_taskrab"; //$NON-NLS-1$
-
-    public static final String TAGS_METADATA_JOIN = "for_tags"; //$NON-NLS-1$
-
-    public static final String USER_IMAGE_JOIN = "for_images"; // //$NON-NLS-1$
-
-    public  static final String FILE_METADATA_JOIN = "for_actions"; //$NON-NLS-1$
+    private static final String CHANGED_TASKS_JOIN = "for_changes"; //$NON-NLS-1$
 
 
     /**
@@ -984,6 +1116,7 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
         if (filter == null)
             return;
 
+        markQueried();
         TodorooCursor<Task> currentCursor = constructCursor();
         if (currentCursor == null)
             return;
@@ -1010,44 +1143,38 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
 
     @SuppressWarnings("nls")
     private TodorooCursor<Task> constructCursor() {
-        String tagName = null;
-        if (getActiveTagData() != null)
-            tagName = getActiveTagData().getValue(TagData.NAME);
-
-        Criterion tagsJoinCriterion = Criterion.and(
-                Field.field(TAGS_METADATA_JOIN + "." + Metadata.KEY.name).eq(TaskToTagMetadata.KEY), //$NON-NLS-1$
-                Field.field(TAGS_METADATA_JOIN + "." + Metadata.DELETION_DATE.name).eq(0),
-                Task.ID.eq(Field.field(TAGS_METADATA_JOIN + "." + Metadata.TASK.name)));
-        if (tagName != null)
-            tagsJoinCriterion = Criterion.and(tagsJoinCriterion, Field.field(TAGS_METADATA_JOIN + "." + TaskToTagMetadata.TAG_NAME.name).neq(tagName));
-
-        // TODO: For now, we'll modify the query to join and include the task rabbit and tag data here.
-        // Eventually, we might consider restructuring things so that this query is constructed elsewhere.
-        String joinedQuery =
-                Join.left(Metadata.TABLE.as(TR_METADATA_JOIN),
-                        Criterion.and(Field.field(TR_METADATA_JOIN + "." + Metadata.KEY.name).eq(TaskRabbitMetadata.METADATA_KEY),
-                                Task.ID.eq(Field.field(TR_METADATA_JOIN + "." + Metadata.TASK.name)))).toString()
-                + Join.left(Metadata.TABLE.as(TAGS_METADATA_JOIN),
-                        tagsJoinCriterion).toString() //$NON-NLS-1$
-                + Join.left(User.TABLE.as(USER_IMAGE_JOIN),
-                        Task.USER_ID.eq(Field.field(USER_IMAGE_JOIN + "." + User.UUID.name))).toString()
-                + Join.left(TaskAttachment.TABLE.as(FILE_METADATA_JOIN), Task.UUID.eq(Field.field(FILE_METADATA_JOIN + "." + TaskAttachment.TASK_UUID.name)))
-                + filter.getSqlQuery();
+        // tags, pictures and attachments are read from the task's list row
+        // instead of joining their tables, see TaskListRowDao
+        Join[] joins = new Join[] { Join.left(TaskListRow.TABLE, Task.ID.eq(TaskListRow.TASK)) };
+        String joinedQuery = joins[0].toString() + filter.getSqlQuery();
 
         sqlQueryTemplate.set(SortHelper.adjustQueryForFlagsAndSort(
                 joinedQuery, sortFlags, sortSort));
 
-        String groupedQuery;
-        if (sqlQueryTemplate.get().contains("GROUP BY"))
-            groupedQuery = sqlQueryTemplate.get();
-        else if (sqlQueryTemplate.get().contains("ORDER BY")) //$NON-NLS-1$
-            groupedQuery = sqlQueryTemplate.get().replace("ORDER BY", "GROUP BY " + Task.ID + " ORDER BY"); //$NON-NLS-1$
-        else
-            groupedQuery = sqlQueryTemplate.get() + " GROUP BY " + Task.ID;
+        // filters that join other tables may return a task more than once
+        String groupedQuery = sqlQueryTemplate.get();
+        boolean groupById = filter.getSqlQuery().contains("JOIN") && !groupedQuery.contains("GROUP BY");
+        if (groupById) {
+            if (groupedQuery.contains("ORDER BY"))
+                groupedQuery = groupedQuery.replace("ORDER BY", "GROUP BY " + Task.ID + " ORDER BY");
+            else
+                groupedQuery += " GROUP BY " + Task.ID;
+        }
         sqlQueryTemplate.set(groupedQuery);
 
+        // lists sorted by us are read a page at a time, so that first paint
+        // doesn't depend on how many tasks the filter has
+        Order order = SortHelper.orderForFlagsAndSort(joinedQuery, sortFlags, sortSort);
+        boolean paged = order != null && !filter.getSqlQuery().contains("GROUP BY")
+                && !filter.getSqlQuery().contains("LIMIT");
+
         // Peform query
         try {
+            if (paged)
+                return taskService.fetchPaged(joins,
+                        SortHelper.adjustQueryForFlags(filter.getSqlQuery(), sortFlags),
+                        groupById ? new Field[] { Task.ID } : new Field[0],
+                        order, taskProperties());
             return taskService.fetchFiltered(
                 sqlQueryTemplate.get(), null, taskProperties());
         } catch (SQLiteException e) {
@@ -1060,6 +1187,7 @@ public class TaskListFragment extends ListFragment implements OnScrollListener,
     }
 
     public void reconstructCursor() {
+        markQueried();
         TodorooCursor<Task> cursor = constructCursor();
         if (cursor == null)
             return;
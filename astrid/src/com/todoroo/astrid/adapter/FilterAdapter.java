@@ -5,6 +5,7 @@
  */
 package com.todoroo.astrid.adapter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -58,8 +59,8 @@ import com.todoroo.astrid.api.FilterWithCustomIntent;
 import com.todoroo.astrid.api.FilterWithUpdate;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.helper.AsyncImageView;
+import com.todoroo.astrid.service.FilterCounter;
 import com.todoroo.astrid.service.MarketStrategy.NookMarketStrategy;
-import com.todoroo.astrid.service.TaskService;
 import com.todoroo.astrid.tags.TagService;
 import com.todoroo.astrid.utility.Constants;
 import com.todoroo.astrid.utility.ResourceDrawableCache;
@@ -78,7 +79,7 @@ public class FilterAdapter extends ArrayAdapter<Filter> {
     // --- instance variables
 
     @Autowired
-    private TaskService taskService;
+    private FilterCounter filterCounter;
 
     /** parent activity */
     protected final Activity activity;
@@ -125,6 +126,12 @@ public class FilterAdapter extends ArrayAdapter<Filter> {
     // be added).
     private final ThreadPoolExecutor filterExecutor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 
+    /** filters waiting to be counted together */
+    private final ArrayList<Filter> pendingCounts = new ArrayList<Filter>();
+
+    /** whether filters are being added in bulk, so counting waits until the end */
+    private boolean deferCounts = false;
+
     public FilterAdapter(Activity activity, ListView listView,
             int rowLayout, boolean skipIntentFilters) {
         this(activity, listView, rowLayout, skipIntentFilters, false);
@@ -158,29 +165,57 @@ public class FilterAdapter extends ArrayAdapter<Filter> {
     private void offerFilter(final Filter filter) {
         if(selectable && selection == null)
             setSelection(filter);
+        synchronized(pendingCounts) {
+            pendingCounts.add(filter);
+        }
+        if (!deferCounts)
+            countPendingFilters();
+    }
+
+    /**
+     * Count all filters offered so far in one go on the executor
+     */
+    private void countPendingFilters() {
+        synchronized(pendingCounts) {
+            if (pendingCounts.isEmpty())
+                return;
+        }
         filterExecutor.submit(new Runnable() {
             @Override
             public void run() {
                 try {
-                    int size = -1;
-                    Matcher m = countPattern.matcher(filter.listingTitle);
-                    if(m.find()) {
-                        String countString = m.group(1);
-                        try {
-                            size = Integer.parseInt(countString);
-                        } catch (NumberFormatException e) {
-                            // Count manually
-                            e.printStackTrace();
+                    ArrayList<Filter> toCount = new ArrayList<Filter>();
+                    synchronized(pendingCounts) {
+                        for (Filter filter : pendingCounts) {
+                            int size = -1;
+                            Matcher m = countPattern.matcher(filter.listingTitle);
+                            if(m.find()) {
+                                String countString = m.group(1);
+                                try {
+                                    size = Integer.parseInt(countString);
+                                } catch (NumberFormatException e) {
+                                    // Count manually
+                                    e.printStackTrace();
+                                }
+                            }
+                            if (size < 0)
+                                toCount.add(filter);
+                            else
+                                filterCounts.put(filter, size);
                         }
+                        pendingCounts.clear();
                     }
 
-                    if (size < 0) {
-                        size = taskService.countTasks(filter);
-                        filter.listingTitle = filter.listingTitle + (" (" + //$NON-NLS-1$
-                                size + ")"); //$NON-NLS-1$
+                    if (!toCount.isEmpty()) {
+                        int[] sizes = filterCounter.count(toCount);
+                        for (int i = 0; i < sizes.length; i++) {
+                            Filter filter = toCount.get(i);
+                            filter.listingTitle = filter.listingTitle + (" (" + //$NON-NLS-1$
+                                    sizes[i] + ")"); //$NON-NLS-1$
+                            filterCounts.put(filter, sizes[i]);
+                        }
                     }
 
-                    filterCounts.put(filter, size);
                     activity.runOnUiThread(new Runnable() {
                         public void run() {
                             notifyDataSetChanged();
@@ -249,7 +284,8 @@ public class FilterAdapter extends ArrayAdapter<Filter> {
         filterExecutor.submit(new Runnable() {
             @Override
             public void run() {
-                int size = taskService.countTasks(filter);
+                filterCounter.invalidate(filter);
+                int size = filterCounter.count(filter);
                 filterCounts.put(filter, size);
                 activity.runOnUiThread(new Runnable() {
 
@@ -418,23 +454,29 @@ public class FilterAdapter extends ArrayAdapter<Filter> {
             if (filters == null)
                 return;
 
-            for (Parcelable item : filters) {
-                FilterListItem filter = (FilterListItem) item;
-                if(skipIntentFilters && !(filter instanceof Filter ||
-                            filter instanceof FilterListHeader ||
-                            filter instanceof FilterCategory))
-                    continue;
-                onReceiveFilter((FilterListItem)item);
-
-                if (filter instanceof FilterCategory) {
-                    Filter[] children = ((FilterCategory) filter).children;
-                    for (Filter f : children) {
-                        addOrLookup(f);
+            deferCounts = true;
+            try {
+                for (Parcelable item : filters) {
+                    FilterListItem filter = (FilterListItem) item;
+                    if(skipIntentFilters && !(filter instanceof Filter ||
+                                filter instanceof FilterListHeader ||
+                                filter instanceof FilterCategory))
+                        continue;
+                    onReceiveFilter((FilterListItem)item);
+
+                    if (filter instanceof FilterCategory) {
+                        Filter[] children = ((FilterCategory) filter).children;
+                        for (Filter f : children) {
+                            addOrLookup(f);
+                        }
+                    } else if (filter instanceof Filter){
+                        addOrLookup((Filter) filter);
                     }
-                } else if (filter instanceof Filter){
-                    addOrLookup((Filter) filter);
                 }
+            } finally {
+                deferCounts = false;
             }
+            countPendingFilters();
 
             notifyDataSetChanged();
         }
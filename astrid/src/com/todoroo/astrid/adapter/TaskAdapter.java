@@ -5,13 +5,17 @@
  */
 package com.todoroo.astrid.adapter;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -27,6 +31,7 @@ import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
 import android.text.Html;
 import android.text.Html.ImageGetter;
 import android.text.Html.TagHandler;
@@ -56,6 +61,7 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.timsu.astrid.R;
+import com.todoroo.andlib.data.PagedCursor;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.Property.IntegerProperty;
 import com.todoroo.andlib.data.Property.LongProperty;
@@ -74,11 +80,11 @@ import com.todoroo.astrid.api.TaskAction;
 import com.todoroo.astrid.api.TaskDecoration;
 import com.todoroo.astrid.api.TaskDecorationExposer;
 import com.todoroo.astrid.core.LinkActionExposer;
-import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.dao.TaskListRowDao;
 import com.todoroo.astrid.data.RemoteModel;
+import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
-import com.todoroo.astrid.data.TaskAttachment;
-import com.todoroo.astrid.data.User;
+import com.todoroo.astrid.data.TaskListRow;
 import com.todoroo.astrid.files.FilesAction;
 import com.todoroo.astrid.files.FilesControlSet;
 import com.todoroo.astrid.helper.AsyncImageView;
@@ -87,7 +93,6 @@ import com.todoroo.astrid.notes.NotesAction;
 import com.todoroo.astrid.notes.NotesDecorationExposer;
 import com.todoroo.astrid.service.TaskService;
 import com.todoroo.astrid.service.ThemeService;
-import com.todoroo.astrid.tags.TaskToTagMetadata;
 import com.todoroo.astrid.timers.TimerDecorationExposer;
 import com.todoroo.astrid.ui.CheckableImageView;
 import com.todoroo.astrid.utility.Constants;
@@ -109,16 +114,15 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
 
     public static final String BROADCAST_EXTRA_TASK = "model"; //$NON-NLS-1$
 
-    @SuppressWarnings("nls")
-    private static final LongProperty TASK_RABBIT_ID = Metadata.ID.cloneAs(TaskListFragment.TR_METADATA_JOIN, "taskRabId");
-    @SuppressWarnings("nls")
-    private static final StringProperty TAGS = new StringProperty(null, "group_concat(" + TaskListFragment.TAGS_METADATA_JOIN + "." + TaskToTagMetadata.TAG_NAME.name + ", '  |  ')").as("tags");
-    @SuppressWarnings("nls")
-    private static final LongProperty FILE_ID_PROPERTY = TaskAttachment.ID.cloneAs(TaskListFragment.FILE_METADATA_JOIN, "fileId");
-    @SuppressWarnings("nls")
-    private static final IntegerProperty HAS_NOTES_PROPERTY = new IntegerProperty(null, "length(" + Task.NOTES + ") > 0").as("hasNotes");
+    private static final LongProperty TASK_RABBIT_ID = TaskListRow.TASK_RABBIT_ID;
+
+    private static final StringProperty TAGS = TaskListRow.TAGS;
+
+    private static final LongProperty FILE_ID_PROPERTY = TaskListRow.FILE_ID;
+
+    private static final IntegerProperty HAS_NOTES_PROPERTY = TaskListRow.HAS_NOTES;
 
-    private static final StringProperty PICTURE = User.PICTURE.cloneAs(TaskListFragment.USER_IMAGE_JOIN, null);
+    private static final StringProperty PICTURE = TaskListRow.PICTURE;
 
     // --- other constants
 
@@ -143,6 +147,9 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         Task.USER,
         Task.REMINDER_LAST,
         Task.SOCIAL_REMINDER,
+        Task.SORT_AUTO,
+        Task.SORT_DUE,
+        Task.SORT_IMPORTANCE,
         PICTURE,
         HAS_NOTES_PROPERTY, // Whether or not the task has notes
         TASK_RABBIT_ID, // Task rabbit metadata id (non-zero means it exists)
@@ -160,7 +167,10 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         Task.RECURRENCE,
         Task.COMPLETION_DATE,
         Task.HIDE_UNTIL,
-        Task.DELETION_DATE
+        Task.DELETION_DATE,
+        Task.SORT_AUTO,
+        Task.SORT_DUE,
+        Task.SORT_IMPORTANCE
     };
 
     public static final int[] IMPORTANCE_RESOURCES = new int[] {
@@ -221,7 +231,6 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
     public boolean isFling = false;
     protected final int resource;
     protected final LayoutInflater inflater;
-    private DetailLoaderThread detailLoader;
     private int fontSize;
     protected int applyListeners = APPLY_LISTENERS_PARENT;
     private long mostRecentlyMade = -1;
@@ -281,7 +290,8 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         this.simpleLayout = (resource == R.layout.task_adapter_row_simple);
         this.minRowHeight = computeMinRowHeight();
 
-        startDetailThread();
+        detailLoader = new TaskDetailLoader(taskService, detailExecutor);
+        requestDetails();
 
         decorationManager = new DecorationManager();
 
@@ -325,10 +335,15 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         }
     }
 
-    private void startDetailThread() {
-        if (Preferences.getBoolean(R.string.p_showNotes, false) && !simpleLayout && !titleOnlyLayout) {
-            detailLoader = new DetailLoaderThread();
-            detailLoader.start();
+    /**
+     * Load the details of the rows around the viewport once scrolling has
+     * settled, if details are shown
+     */
+    private void requestDetails() {
+        showDetails = Preferences.getBoolean(R.string.p_showNotes, false) && !simpleLayout && !titleOnlyLayout;
+        if (showDetails) {
+            detailHandler.removeCallbacks(detailRequest);
+            detailHandler.postDelayed(detailRequest, DETAIL_SETTLE_DELAY);
         }
     }
 
@@ -414,22 +429,96 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         TodorooCursor<Task> cursor = (TodorooCursor<Task>)c;
         ViewHolder viewHolder = ((ViewHolder)view.getTag());
 
-        if (!titleOnlyLayout) {
-            viewHolder.isTaskRabbit = (cursor.get(TASK_RABBIT_ID) > 0);
-            viewHolder.tagsString = cursor.get(TAGS);
-            viewHolder.imageUrl = RemoteModel.PictureHelper.getPictureUrlFromCursor(cursor, PICTURE, RemoteModel.PICTURE_THUMB);
-            viewHolder.hasFiles = cursor.get(FILE_ID_PROPERTY) > 0;
-            viewHolder.hasNotes = cursor.get(HAS_NOTES_PROPERTY) > 0;
-        }
-
         Task task = viewHolder.task;
         task.clear();
         task.readFromCursor(cursor);
 
+        Task changed = changedRows.isEmpty() ? null : changedRows.get(task.getId());
+        if (changed != null) {
+            task.clear();
+            task.mergeWith(changed.getMergedValues());
+        }
+
+        if (!titleOnlyLayout) {
+            if (changed == null) {
+                viewHolder.isTaskRabbit = (cursor.get(TASK_RABBIT_ID) > 0);
+                viewHolder.tagsString = withoutActiveTag(cursor.get(TAGS));
+                viewHolder.imageUrl = RemoteModel.PictureHelper.getPictureUrlFromCursor(cursor, PICTURE, RemoteModel.PICTURE_THUMB);
+                viewHolder.hasFiles = cursor.get(FILE_ID_PROPERTY) > 0;
+                viewHolder.hasNotes = cursor.get(HAS_NOTES_PROPERTY) > 0;
+            } else {
+                viewHolder.isTaskRabbit = (changed.getValue(TASK_RABBIT_ID) > 0);
+                viewHolder.tagsString = withoutActiveTag(changed.getValue(TAGS));
+                viewHolder.imageUrl = RemoteModel.PictureHelper.getPictureUrl(changed.getValue(PICTURE), RemoteModel.PICTURE_THUMB);
+                viewHolder.hasFiles = changed.getValue(FILE_ID_PROPERTY) > 0;
+                viewHolder.hasNotes = changed.getValue(HAS_NOTES_PROPERTY) > 0;
+            }
+        }
+
         setFieldContentsAndVisibility(view);
         setTaskAppearance(viewHolder, task);
     }
 
+    /**
+     * @return tags to show for a task, which leaves out the tag of the
+     *         list being viewed
+     */
+    private String withoutActiveTag(String tags) {
+        TagData activeTag = fragment.getActiveTagData();
+        if (tags == null || activeTag == null)
+            return tags;
+        String activeName = activeTag.getValue(TagData.NAME);
+        if (!tags.contains(activeName))
+            return tags;
+        StringBuilder result = new StringBuilder(tags.length());
+        for (String tag : tags.split(Pattern.quote(TaskListRowDao.TAG_SEPARATOR))) {
+            if (tag.equals(activeName))
+                continue;
+            if (result.length() > 0)
+                result.append(TaskListRowDao.TAG_SEPARATOR);
+            result.append(tag);
+        }
+        return result.length() == 0 ? null : result.toString();
+    }
+
+    /**
+     * Let a paged cursor know which rows are on screen, so it can load the
+     * rows the user is scrolling towards
+     */
+    public void setViewport(int first, int visible) {
+        viewportFirst = first;
+        viewportVisible = visible;
+        if (showDetails) {
+            detailHandler.removeCallbacks(detailRequest);
+            detailHandler.postDelayed(detailRequest, DETAIL_SETTLE_DELAY);
+        }
+
+        PagedCursor cursor = getPagedCursor();
+        if (cursor != null)
+            cursor.setViewport(first, visible);
+    }
+
+    /**
+     * @return the adapter's cursor if it reads its rows a page at a time,
+     *         otherwise null
+     */
+    public PagedCursor getPagedCursor() {
+        Cursor cursor = getCursor();
+        if (cursor instanceof TodorooCursor<?>)
+            cursor = ((TodorooCursor<?>) cursor).getCursor();
+        if (cursor instanceof PagedCursor)
+            return (PagedCursor) cursor;
+        return null;
+    }
+
+    /**
+     * A paged cursor reports rows deleted since it was queried this way
+     */
+    @Override
+    protected void onContentChanged() {
+        fragment.loadTaskListContent(true);
+    }
+
     public String getItemUuid(int position) {
         TodorooCursor<Task> c = (TodorooCursor<Task>) getCursor();
         if (c != null) {
@@ -509,9 +598,8 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
 
         String details;
         if(viewHolder.details1 != null) {
-            if(taskDetailLoader.containsKey(task.getId()))
-                details = taskDetailLoader.get(task.getId()).toString();
-            else
+            details = detailLoader.getDetails(task.getId(), task.getValue(Task.MODIFICATION_DATE));
+            if(details == null)
                 details = task.getValue(Task.DETAILS);
             if(TextUtils.isEmpty(details) || DETAIL_SEPARATOR.equals(details) || task.isCompleted()) {
                 viewHolder.details1.setVisibility(View.GONE);
@@ -735,88 +823,77 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         return string;
     }
 
-    // implementation note: this map is really costly if users have
-    // a large number of tasks to load, since it all goes into memory.
-    // it's best to do this, though, in order to append details to each other
-    private final Map<Long, StringBuilder> taskDetailLoader = Collections.synchronizedMap(new HashMap<Long, StringBuilder>(0));
+    /* ======================================================================
+     * ============================================================== details
+     * ====================================================================== */
 
-    public class DetailLoaderThread extends Thread {
-        @Override
-        public void run() {
-            // for all of the tasks returned by our cursor, verify details
-            AndroidUtilities.sleepDeep(500L);
-            TodorooCursor<Task> fetchCursor = taskService.fetchFiltered(
-                    query.get(), null, Task.ID, Task.TITLE, Task.DETAILS, Task.DETAILS_DATE,
-                    Task.MODIFICATION_DATE, Task.COMPLETION_DATE);
-            try {
-                Random random = new Random();
-
-                Task task = new Task();
-
-                for(fetchCursor.moveToFirst(); !fetchCursor.isAfterLast(); fetchCursor.moveToNext()) {
-                    task.clear();
-                    task.readFromCursor(fetchCursor);
-                    if(task.isCompleted())
-                        continue;
-
-                    if(detailsAreRecentAndUpToDate(task)) {
-                        // even if we are up to date, randomly load a fraction
-                        if(random.nextFloat() < 0.1) {
-                            taskDetailLoader.put(task.getId(),
-                                    new StringBuilder(task.getValue(Task.DETAILS)));
-                            requestNewDetails(task);
-                            if(Constants.DEBUG)
-                                System.err.println("Refreshing details: " + task.getId()); //$NON-NLS-1$
-                        }
-                        continue;
-                    } else if(Constants.DEBUG) {
-                        System.err.println("Forced loading of details: " + task.getId() + //$NON-NLS-1$
-                                "\n  details: " + new Date(task.getValue(Task.DETAILS_DATE)) + //$NON-NLS-1$
-                                "\n  modified: " + new Date(task.getValue(Task.MODIFICATION_DATE))); //$NON-NLS-1$
-                    }
-                    addTaskToLoadingArray(task);
+    /** rows above and below the viewport whose details are loaded too */
+    private static final int DETAIL_PREFETCH = 10;
 
-                    task.setValue(Task.DETAILS, DETAIL_SEPARATOR);
-                    task.setValue(Task.DETAILS_DATE, DateUtilities.now());
-                    taskService.save(task);
+    /** how long scrolling has to stop before details are loaded */
+    private static final long DETAIL_SETTLE_DELAY = 300L;
 
-                    requestNewDetails(task);
-                }
-                if(taskDetailLoader.size() > 0) {
-                    Activity activity = fragment.getActivity();
-                    if (activity != null) {
-                        activity.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                notifyDataSetChanged();
-                            }
-                        });
-                    }
-                }
-            } catch (Exception e) {
-                // suppress silently
-            } finally {
-                fetchCursor.close();
-            }
-        }
+    /** loads details for all task adapters, one request at a time */
+    private static final ExecutorService detailExecutor = Executors.newSingleThreadExecutor();
 
-        private boolean detailsAreRecentAndUpToDate(Task task) {
-            return task.getValue(Task.DETAILS_DATE) >= task.getValue(Task.MODIFICATION_DATE) &&
-            !TextUtils.isEmpty(task.getValue(Task.DETAILS));
+    private boolean showDetails = false;
+    private int viewportFirst = 0;
+    private int viewportVisible = 0;
+
+    private final Handler detailHandler = new Handler();
+
+    private final TaskDetailLoader detailLoader;
+
+    private final Runnable detailRequest = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<Long> ids = viewportTaskIds();
+            if (ids.isEmpty())
+                return;
+            detailLoader.request(ids, new TaskDetailLoader.Callback() {
+                @Override
+                public void detailsLoaded(List<Long> requests) {
+                    requestAddOnDetails(requests);
+                }
+            });
         }
+    };
 
-        private void addTaskToLoadingArray(Task task) {
-            StringBuilder detailStringBuilder = new StringBuilder();
-            taskDetailLoader.put(task.getId(), detailStringBuilder);
+    /**
+     * @return ids of the tasks on screen and of a few rows around them
+     */
+    private ArrayList<Long> viewportTaskIds() {
+        ArrayList<Long> ids = new ArrayList<Long>();
+        TodorooCursor<Task> cursor = (TodorooCursor<Task>) getCursor();
+        if (cursor == null || cursor.isClosed())
+            return ids;
+        int first = Math.max(0, viewportFirst - DETAIL_PREFETCH);
+        int last = Math.min(cursor.getCount(), viewportFirst + viewportVisible + DETAIL_PREFETCH);
+        for (int i = first; i < last; i++) {
+            if (cursor.moveToPosition(i))
+                ids.add(cursor.get(Task.ID));
         }
+        return ids;
+    }
 
-        private void requestNewDetails(Task task) {
+    /**
+     * Ask add-ons for the details of the given tasks
+     */
+    private void requestAddOnDetails(List<Long> requests) {
+        Activity activity = fragment.getActivity();
+        if (activity == null || requests.isEmpty())
+            return;
+        for (long id : requests) {
             Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_REQUEST_DETAILS);
-            broadcastIntent.putExtra(AstridApiConstants.EXTRAS_TASK_ID, task.getId());
-            Activity activity = fragment.getActivity();
-            if (activity != null)
-                activity.sendOrderedBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
+            broadcastIntent.putExtra(AstridApiConstants.EXTRAS_TASK_ID, id);
+            activity.sendOrderedBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
         }
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                notifyDataSetChanged();
+            }
+        });
     }
 
     /**
@@ -826,21 +903,8 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
      * @param detail
      */
     public void addDetails(long id, String detail) {
-        final StringBuilder details = taskDetailLoader.get(id);
-        if(details == null)
+        if (!detailLoader.addDetails(id, detail))
             return;
-        synchronized(details) {
-            if(details.toString().contains(detail))
-                return;
-            if(details.length() > 0)
-                details.append(DETAIL_SEPARATOR);
-            details.append(detail);
-            Task task = new Task();
-            task.setId(id);
-            task.setValue(Task.DETAILS, details.toString());
-            task.setValue(Task.DETAILS_DATE, DateUtilities.now());
-            taskService.save(task);
-        }
 
         Activity activity = fragment.getActivity();
         if (activity != null) {
@@ -893,8 +957,55 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
     public void flushCaches() {
         completedItems.clear();
         decorationManager.clearCache();
-        taskDetailLoader.clear();
-        startDetailThread();
+        clearChangedRows();
+        requestDetails();
+    }
+
+    /* ======================================================================
+     * ====================================================== changed rows
+     * ====================================================================== */
+
+    /** rows re-read since the cursor was queried, by task id */
+    private final HashMap<Long, Task> changedRows = new HashMap<Long, Task>();
+
+    /**
+     * @return position of the given task in the cursor, or -1 if it is not
+     *         on one of the cursor's open pages or the cursor isn't paged.
+     *         Doesn't read any rows
+     */
+    public int getTaskPosition(long taskId) {
+        PagedCursor cursor = getPagedCursor();
+        if (cursor == null)
+            return -1;
+        return cursor.getPosition(taskId);
+    }
+
+    /**
+     * Display re-read rows in place of what the cursor holds for them. The
+     * rows must still be part of the list at the same position
+     *
+     * @param rows tasks read with the same query and properties as the cursor
+     */
+    public void replaceRows(List<Task> rows) {
+        for (Task row : rows) {
+            long id = row.getId();
+            changedRows.put(id, row);
+            completedItems.remove(id);
+            completedItems.remove(row.getUuid());
+            decorationManager.clearCache(id);
+            detailLoader.remove(id);
+        }
+        notifyDataSetChanged();
+    }
+
+    private void clearChangedRows() {
+        changedRows.clear();
+    }
+
+    @Override
+    public void changeCursor(Cursor cursor) {
+        clearChangedRows();
+        super.changeCursor(cursor);
     }
 
     public HashMap<Object, Boolean> getCompletedItems() {
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.adapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.text.TextUtils;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.service.TaskService;
+
+/**
+ * Loads and caches the details shown below task titles. Details are read
+ * for a batch of tasks in one query, and kept as of the modification date
+ * they were read at, so entries of tasks that did not change stay valid
+ * when the list is refreshed.
+ */
+public class TaskDetailLoader {
+
+    /** details kept in memory at most */
+    public static final int CACHE_SIZE = 200;
+
+    /** called on the executor after a request was loaded */
+    public interface Callback {
+        /**
+         * @param requests tasks whose details add-ons should be asked for
+         */
+        public void detailsLoaded(List<Long> requests);
+    }
+
+    /** details of a task as of a modification date */
+    private static class DetailEntry {
+        final long modificationDate;
+        final StringBuilder details;
+
+        DetailEntry(long modificationDate, String details) {
+            this.modificationDate = modificationDate;
+            this.details = new StringBuilder(details);
+        }
+    }
+
+    private final TaskService taskService;
+    private final Executor executor;
+
+    /** details by task id, least recently used first */
+    @SuppressWarnings("serial")
+    private final Map<Long, DetailEntry> cache = Collections.synchronizedMap(
+            new LinkedHashMap<Long, DetailEntry>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Entry<Long, DetailEntry> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /** number of the latest request. Older ones are skipped */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * @param taskService service to read and write details with
+     * @param executor runs the requests, one at a time
+     */
+    public TaskDetailLoader(TaskService taskService, Executor executor) {
+        this.taskService = taskService;
+        this.executor = executor;
+    }
+
+    /**
+     * @return cached details of the given task, or null if there are none
+     *         as of the given modification date
+     */
+    public String getDetails(long id, long modificationDate) {
+        DetailEntry entry = cache.get(id);
+        if(entry == null || entry.modificationDate != modificationDate)
+            return null;
+        synchronized(entry.details) {
+            return entry.details.toString();
+        }
+    }
+
+    /**
+     * Forget the cached details of the given task
+     */
+    public void remove(long id) {
+        cache.remove(id);
+    }
+
+    /**
+     * Load the details of the given tasks on the executor. The request is
+     * skipped if another one is made before it starts
+     *
+     * @param callback called after the details were loaded
+     */
+    public void request(final List<Long> ids, final Callback callback) {
+        final int queued = generation.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(queued == generation.get())
+                    callback.detailsLoaded(load(ids));
+            }
+        });
+    }
+
+    /**
+     * Read the details of the given tasks in one query, and mark the tasks
+     * whose details are missing or outdated as requested, in one write
+     *
+     * @return tasks whose details add-ons should be asked for
+     */
+    private List<Long> load(List<Long> ids) {
+        ArrayList<Long> requests = new ArrayList<Long>();
+        ArrayList<Long> placeholders = new ArrayList<Long>();
+        Random random = new Random();
+        TodorooCursor<Task> fetchCursor = taskService.query(Query.select(Task.ID, Task.DETAILS,
+                Task.DETAILS_DATE, Task.MODIFICATION_DATE, Task.COMPLETION_DATE).where(
+                        Task.ID.in(ids.toArray(new Long[ids.size()]))));
+        try {
+            Task task = new Task();
+            for(fetchCursor.moveToFirst(); !fetchCursor.isAfterLast(); fetchCursor.moveToNext()) {
+                task.clear();
+                task.readFromCursor(fetchCursor);
+                if(task.isCompleted())
+                    continue;
+
+                long modificationDate = task.getValue(Task.MODIFICATION_DATE);
+                DetailEntry entry = cache.get(task.getId());
+                if(entry != null && entry.modificationDate == modificationDate)
+                    continue;
+
+                if(detailsAreRecentAndUpToDate(task)) {
+                    cache.put(task.getId(), new DetailEntry(modificationDate,
+                            task.getValue(Task.DETAILS)));
+                    // even if we are up to date, randomly load a fraction
+                    if(random.nextFloat() < 0.1)
+                        requests.add(task.getId());
+                    continue;
+                }
+
+                cache.put(task.getId(), new DetailEntry(modificationDate, "")); //$NON-NLS-1$
+                placeholders.add(task.getId());
+                requests.add(task.getId());
+            }
+        } catch (Exception e) {
+            // suppress silently
+        } finally {
+            fetchCursor.close();
+        }
+
+        // mark the requested tasks so add-ons aren't asked again, in one write
+        if(!placeholders.isEmpty()) {
+            Task template = new Task();
+            template.setValue(Task.DETAILS, TaskAdapter.DETAIL_SEPARATOR);
+            template.setValue(Task.DETAILS_DATE, DateUtilities.now());
+            taskService.update(Task.ID.in(placeholders.toArray(new Long[placeholders.size()])),
+                    template);
+        }
+        return requests;
+    }
+
+    private static boolean detailsAreRecentAndUpToDate(Task task) {
+        return task.getValue(Task.DETAILS_DATE) >= task.getValue(Task.MODIFICATION_DATE) &&
+        !TextUtils.isEmpty(task.getValue(Task.DETAILS));
+    }
+
+    /**
+     * Add detail to a task, and save the task's details
+     *
+     * @return false if the task has no cached details or already has
+     *         the given detail
+     */
+    public boolean addDetails(long id, String detail) {
+        DetailEntry entry = cache.get(id);
+        if(entry == null)
+            return false;
+        final StringBuilder details = entry.details;
+        synchronized(details) {
+            if(details.toString().contains(detail))
+                return false;
+            if(details.length() > 0)
+                details.append(TaskAdapter.DETAIL_SEPARATOR);
+            details.append(detail);
+            Task task = new Task();
+            task.setId(id);
+            task.setValue(Task.DETAILS, details.toString());
+            task.setValue(Task.DETAILS_DATE, DateUtilities.now());
+            taskService.save(task);
+        }
+        return true;
+    }
+
+}
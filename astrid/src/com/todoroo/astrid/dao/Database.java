@@ -11,13 +11,18 @@ import android.util.Log;
 
 import com.todoroo.andlib.data.AbstractDatabase;
 import com.todoroo.andlib.data.AbstractModel;
+import com.todoroo.andlib.data.AbstractModel.ModelFactory;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.Table;
 import com.todoroo.andlib.service.ContextManager;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.data.ABTestEvent;
 import com.todoroo.astrid.data.History;
 import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.OutstandingEntry;
 import com.todoroo.astrid.data.StoreObject;
+import com.todoroo.astrid.data.TagCount;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.TagMetadata;
 import com.todoroo.astrid.data.TagOutstanding;
@@ -26,6 +31,9 @@ import com.todoroo.astrid.data.TaskAttachment;
 import com.todoroo.astrid.data.TaskAttachmentOutstanding;
 import com.todoroo.astrid.data.TaskListMetadata;
 import com.todoroo.astrid.data.TaskListMetadataOutstanding;
+import com.todoroo.astrid.data.TaskListOperation;
+import com.todoroo.astrid.data.TaskListOrder;
+import com.todoroo.astrid.data.TaskListRow;
 import com.todoroo.astrid.data.TaskOutstanding;
 import com.todoroo.astrid.data.Update;
 import com.todoroo.astrid.data.User;
@@ -33,6 +41,7 @@ import com.todoroo.astrid.data.UserActivity;
 import com.todoroo.astrid.data.UserActivityOutstanding;
 import com.todoroo.astrid.provider.Astrid2TaskProvider;
 import com.todoroo.astrid.provider.Astrid3ContentProvider;
+import com.todoroo.astrid.tags.TaskToTagMetadata;
 import com.todoroo.astrid.widget.TasksWidget;
 
 /**
@@ -50,7 +59,7 @@ public class Database extends AbstractDatabase {
      * Database version number. This variable must be updated when database
      * tables are updated, as it determines whether a database needs updating.
      */
-    public static final int VERSION = 29;
+    public static final int VERSION = 37;
 
     /**
      * Database name (must be unique)
@@ -74,6 +83,10 @@ public class Database extends AbstractDatabase {
         History.TABLE,
         TaskAttachment.TABLE,
         TaskListMetadata.TABLE,
+        TaskListRow.TABLE,
+        TaskListOrder.TABLE,
+        TaskListOperation.TABLE,
+        TagCount.TABLE,
 
         TaskOutstanding.TABLE,
         TagOutstanding.TABLE,
@@ -82,6 +95,136 @@ public class Database extends AbstractDatabase {
         TaskListMetadataOutstanding.TABLE
     };
 
+    /** factories of the models in {@link #TABLES} */
+    static {
+        AbstractModel.registerFactory(Task.class, new ModelFactory<Task>() {
+            @Override
+            public Task newInstance() {
+                return new Task();
+            }
+        });
+        AbstractModel.registerFactory(Metadata.class, new ModelFactory<Metadata>() {
+            @Override
+            public Metadata newInstance() {
+                return new Metadata();
+            }
+        });
+        AbstractModel.registerFactory(StoreObject.class, new ModelFactory<StoreObject>() {
+            @Override
+            public StoreObject newInstance() {
+                return new StoreObject();
+            }
+        });
+        AbstractModel.registerFactory(TagData.class, new ModelFactory<TagData>() {
+            @Override
+            public TagData newInstance() {
+                return new TagData();
+            }
+        });
+        AbstractModel.registerFactory(Update.class, new ModelFactory<Update>() {
+            @Override
+            public Update newInstance() {
+                return new Update();
+            }
+        });
+        AbstractModel.registerFactory(User.class, new ModelFactory<User>() {
+            @Override
+            public User newInstance() {
+                return new User();
+            }
+        });
+        AbstractModel.registerFactory(UserActivity.class, new ModelFactory<UserActivity>() {
+            @Override
+            public UserActivity newInstance() {
+                return new UserActivity();
+            }
+        });
+        AbstractModel.registerFactory(ABTestEvent.class, new ModelFactory<ABTestEvent>() {
+            @Override
+            public ABTestEvent newInstance() {
+                return new ABTestEvent();
+            }
+        });
+        AbstractModel.registerFactory(TagMetadata.class, new ModelFactory<TagMetadata>() {
+            @Override
+            public TagMetadata newInstance() {
+                return new TagMetadata();
+            }
+        });
+        AbstractModel.registerFactory(History.class, new ModelFactory<History>() {
+            @Override
+            public History newInstance() {
+                return new History();
+            }
+        });
+        AbstractModel.registerFactory(TaskAttachment.class, new ModelFactory<TaskAttachment>() {
+            @Override
+            public TaskAttachment newInstance() {
+                return new TaskAttachment();
+            }
+        });
+        AbstractModel.registerFactory(TaskListMetadata.class, new ModelFactory<TaskListMetadata>() {
+            @Override
+            public TaskListMetadata newInstance() {
+                return new TaskListMetadata();
+            }
+        });
+        AbstractModel.registerFactory(TaskListRow.class, new ModelFactory<TaskListRow>() {
+            @Override
+            public TaskListRow newInstance() {
+                return new TaskListRow();
+            }
+        });
+        AbstractModel.registerFactory(TaskListOrder.class, new ModelFactory<TaskListOrder>() {
+            @Override
+            public TaskListOrder newInstance() {
+                return new TaskListOrder();
+            }
+        });
+        AbstractModel.registerFactory(TaskListOperation.class, new ModelFactory<TaskListOperation>() {
+            @Override
+            public TaskListOperation newInstance() {
+                return new TaskListOperation();
+            }
+        });
+        AbstractModel.registerFactory(TagCount.class, new ModelFactory<TagCount>() {
+            @Override
+            public TagCount newInstance() {
+                return new TagCount();
+            }
+        });
+        AbstractModel.registerFactory(TaskOutstanding.class, new ModelFactory<TaskOutstanding>() {
+            @Override
+            public TaskOutstanding newInstance() {
+                return new TaskOutstanding();
+            }
+        });
+        AbstractModel.registerFactory(TagOutstanding.class, new ModelFactory<TagOutstanding>() {
+            @Override
+            public TagOutstanding newInstance() {
+                return new TagOutstanding();
+            }
+        });
+        AbstractModel.registerFactory(UserActivityOutstanding.class, new ModelFactory<UserActivityOutstanding>() {
+            @Override
+            public UserActivityOutstanding newInstance() {
+                return new UserActivityOutstanding();
+            }
+        });
+        AbstractModel.registerFactory(TaskAttachmentOutstanding.class, new ModelFactory<TaskAttachmentOutstanding>() {
+            @Override
+            public TaskAttachmentOutstanding newInstance() {
+                return new TaskAttachmentOutstanding();
+            }
+        });
+        AbstractModel.registerFactory(TaskListMetadataOutstanding.class, new ModelFactory<TaskListMetadataOutstanding>() {
+            @Override
+            public TaskListMetadataOutstanding newInstance() {
+                return new TaskListMetadataOutstanding();
+            }
+        });
+    }
+
     // --- listeners
 
     public Database() {
@@ -148,6 +291,63 @@ public class Database extends AbstractDatabase {
         append(')');
         database.execSQL(sql.toString());
         sql.setLength(0);
+
+        tryCreateIndex("td_uuid", TagData.TABLE, TagData.UUID);
+        tryCreateIndex("ua_tid", UserActivity.TABLE, UserActivity.TARGET_ID);
+        tryCreateIndex("ta_tuuid", TaskAttachment.TABLE, TaskAttachment.TASK_UUID);
+        tryCreateIndex("tlm_tuuid", TaskListMetadata.TABLE, TaskListMetadata.TAG_UUID);
+        tryCreateIndex("hist_tid", History.TABLE, History.TARGET_ID, History.TABLE_ID);
+        tryCreateIndex("u_uuid", User.TABLE, User.UUID);
+        tryCreateIndex("tlr_task", true, TaskListRow.TABLE, TaskListRow.TASK);
+        tryCreateIndex("t_sort_auto", Task.TABLE, Task.SORT_AUTO, Task.TITLE);
+        tryCreateIndex("t_sort_due", Task.TABLE, Task.SORT_DUE, Task.TITLE);
+        tryCreateIndex("t_sort_imp", Task.TABLE, Task.SORT_IMPORTANCE, Task.TITLE);
+        tryCreateIndex("tlo_list_task", true, TaskListOrder.TABLE, TaskListOrder.LIST_ID, TaskListOrder.TASK_UUID);
+        tryCreateIndex("tlop_list", TaskListOperation.TABLE, TaskListOperation.LIST_ID);
+        tryCreateIndex("md_ktag", Metadata.TABLE, Metadata.KEY, TaskToTagMetadata.TAG_UUID);
+        tryCreateIndex("tc_tag", true, TagCount.TABLE, TagCount.TAG_UUID);
+        for(Table outstanding : OUTSTANDING_TABLES)
+            tryCreateIndex(outstanding.name + "_eid_col", outstanding, OutstandingEntry.ENTITY_ID_PROPERTY,
+                    OutstandingEntry.COLUMN_STRING_PROPERTY);
+
+        try {
+            database.execSQL(TaskSearchIndex.createTableSql());
+        } catch (SQLiteException e) {
+            Log.w("astrid", "Error creating search index", e);
+        }
+    }
+
+    private static final Table[] OUTSTANDING_TABLES = new Table[] {
+        TaskOutstanding.TABLE,
+        TagOutstanding.TABLE,
+        UserActivityOutstanding.TABLE,
+        TaskAttachmentOutstanding.TABLE,
+        TaskListMetadataOutstanding.TABLE
+    };
+
+    /**
+     * Create an index. Errors are logged and ignored, because older
+     * migrations call {@link #onCreateTables()} before all tables exist
+     */
+    private void tryCreateIndex(String name, Table table, Property<?>... columns) {
+        tryCreateIndex(name, false, table, columns);
+    }
+
+    private void tryCreateIndex(String name, boolean unique, Table table, Property<?>... columns) {
+        StringBuilder sql = new StringBuilder(unique ? "CREATE UNIQUE INDEX IF NOT EXISTS " :
+            "CREATE INDEX IF NOT EXISTS ").
+        append(name).append(" ON ").append(table.name).append('(');
+        for(int i = 0; i < columns.length; i++) {
+            if(i > 0)
+                sql.append(',');
+            sql.append(columns[i].name);
+        }
+        sql.append(')');
+        try {
+            database.execSQL(sql.toString());
+        } catch (SQLiteException e) {
+            Log.w("astrid", "Error creating index " + name, e);
+        }
     }
 
     @Override
@@ -374,6 +574,63 @@ public class Database extends AbstractDatabase {
         } catch (SQLiteException e) {
             Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
         }
+        case 29: try {
+            onCreateTables();
+        } catch (SQLiteException e) {
+            Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
+        }
+        case 30: try {
+            database.execSQL(createTableSql(visitor, TaskListRow.TABLE.name, TaskListRow.PROPERTIES));
+            onCreateTables();
+            database.execSQL(TaskListRowDao.refreshSql(Criterion.all));
+        } catch (SQLiteException e) {
+            Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
+        }
+        case 31: try {
+            database.execSQL(addColumnSql(Task.TABLE, Task.SORT_AUTO, visitor, "0"));
+            database.execSQL(addColumnSql(Task.TABLE, Task.SORT_DUE, visitor, "0"));
+            database.execSQL(addColumnSql(Task.TABLE, Task.SORT_IMPORTANCE, visitor, "0"));
+            onCreateTables();
+            database.execSQL(SortHelper.updateSortKeysSql(Criterion.all, SortHelper.getSortKeyBase()));
+        } catch (SQLiteException e) {
+            Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
+        }
+        case 32: try {
+            database.execSQL(createTableSql(visitor, TaskListOrder.TABLE.name, TaskListOrder.PROPERTIES));
+            onCreateTables();
+        } catch (SQLiteException e) {
+            Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
+        }
+        case 33: try {
+            database.execSQL(createTableSql(visitor, TaskListOperation.TABLE.name, TaskListOperation.PROPERTIES));
+            onCreateTables();
+        } catch (SQLiteException e) {
+            Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
+        }
+        case 34: try {
+            onCreateTables();
+            for(String sql : TaskSearchIndex.refreshSql(Criterion.all))
+                database.execSQL(sql);
+        } catch (SQLiteException e) {
+            Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
+        }
+        case 35: try {
+            database.execSQL(createTableSql(visitor, TagCount.TABLE.name, TagCount.PROPERTIES));
+            onCreateTables();
+            for(String sql : TagCountDao.refreshSql(null, null, null))
+                database.execSQL(sql);
+        } catch (SQLiteException e) {
+            Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
+        }
+        case 36: try {
+            for(Table outstanding : OUTSTANDING_TABLES) {
+                database.execSQL("DROP INDEX IF EXISTS " + outstanding.name + "_eid");
+                database.execSQL(OutstandingEntryDao.compactSql(outstanding));
+            }
+            onCreateTables();
+        } catch (SQLiteException e) {
+            Log.e("astrid", "db-upgrade-" + oldVersion + "-" + newVersion, e);
+        }
 
 
         return true;
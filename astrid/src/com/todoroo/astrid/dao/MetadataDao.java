@@ -5,6 +5,12 @@
  */
 package com.todoroo.astrid.dao;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
 import android.content.ContentValues;
 import android.database.Cursor;
 
@@ -45,6 +51,12 @@ public class MetadataDao extends DatabaseDao<Metadata> {
     @Autowired
     private Database database;
 
+    @Autowired
+    private TaskListRowDao taskListRowDao;
+
+    @Autowired
+    private TagCountDao tagCountDao;
+
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="UR_UNINIT_READ")
 	public MetadataDao() {
         super(Metadata.class);
@@ -87,6 +99,23 @@ public class MetadataDao extends DatabaseDao<Metadata> {
                 RemoteModelDao.getOutstandingEntryFlag();
     }
 
+    /**
+     * Metadata changes are published by task id, since that is what task
+     * lists need to re-read. Metadata deleted by id is of an unknown task
+     */
+    @Override
+    protected void publishChange(long id) {
+        getChangeLog().invalidate();
+    }
+
+    @Override
+    protected void publishChange(Metadata item) {
+        if(item.containsNonNullValue(Metadata.TASK))
+            getChangeLog().changed(item.getValue(Metadata.TASK));
+        else
+            getChangeLog().invalidate();
+    }
+
     @Override
     protected int createOutstandingEntries(long modelId, ContentValues modelSetValues) {
         Long taskId = modelSetValues.getAsLong(Metadata.TASK.name);
@@ -128,6 +157,50 @@ public class MetadataDao extends DatabaseDao<Metadata> {
         return state;
     }
 
+    // --- task list rows and tag counts
+
+    @Override
+    protected boolean hasDerivedTables(ContentValues setValues) {
+        return true;
+    }
+
+    @Override
+    protected void updateDerivedTables(Collection<Long> ids, ContentValues setValues) {
+        ArrayList<Long> listed = new ArrayList<Long>();
+        ArrayList<Long> tagged = new ArrayList<Long>();
+        for(long id : ids) {
+            Metadata item = fetch(id, Metadata.TASK, Metadata.KEY);
+            if(item == null)
+                continue;
+            if(Arrays.asList(TaskListRowDao.METADATA_KEYS).contains(item.getValue(Metadata.KEY)))
+                listed.add(item.getValue(Metadata.TASK));
+            if(TaskToTagMetadata.KEY.equals(item.getValue(Metadata.KEY)))
+                tagged.add(item.getValue(Metadata.TASK));
+        }
+        taskListRowDao.refreshTasks(listed);
+        tagCountDao.refreshTasks(tagged);
+    }
+
+    @Override
+    protected Property<?>[] getDerivedTableProperties() {
+        return new Property<?>[] { Metadata.TASK, Metadata.KEY, TaskToTagMetadata.TAG_UUID };
+    }
+
+    @Override
+    protected void updateDerivedTables(List<Metadata> previous) {
+        HashSet<Long> listed = new HashSet<Long>();
+        HashSet<String> tags = new HashSet<String>();
+        for(Metadata item : previous) {
+            if(Arrays.asList(TaskListRowDao.METADATA_KEYS).contains(item.getValue(Metadata.KEY)))
+                listed.add(item.getValue(Metadata.TASK));
+            if(TaskToTagMetadata.KEY.equals(item.getValue(Metadata.KEY)) &&
+                    item.getValue(TaskToTagMetadata.TAG_UUID) != null)
+                tags.add(item.getValue(TaskToTagMetadata.TAG_UUID));
+        }
+        taskListRowDao.refreshTasks(listed);
+        tagCountDao.refreshTags(tags);
+    }
+
     /**
      * Fetch all metadata that are unattached to the task
      * @param database
@@ -1,12 +1,22 @@
 package com.todoroo.astrid.dao;
 
+import com.todoroo.andlib.data.AbstractModel;
 import com.todoroo.andlib.data.DatabaseDao;
+import com.todoroo.andlib.data.Table;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.astrid.actfm.sync.messages.NameMaps;
 import com.todoroo.astrid.data.OutstandingEntry;
 
 public class OutstandingEntryDao<TYPE extends OutstandingEntry<?>> extends DatabaseDao<TYPE> {
 
+    /** columns whose entries are each sent, rather than just the latest one */
+    private static final String[] APPEND_COLUMNS = new String[] {
+        NameMaps.TAG_ADDED_COLUMN, NameMaps.TAG_REMOVED_COLUMN,
+        NameMaps.MEMBER_ADDED_COLUMN, NameMaps.MEMBER_REMOVED_COLUMN,
+        NameMaps.ATTACHMENT_ADDED_COLUMN
+    };
+
     @Autowired
     private Database database;
 
@@ -16,4 +26,27 @@ public class OutstandingEntryDao<TYPE extends OutstandingEntry<?>> extends Datab
         setDatabase(database);
     }
 
+    /**
+     * New entries replace pending ones for the same column as they are
+     * written (see {@link DatabaseDao#createOutstandingEntries}). This
+     * compacts tables filled before that, keeping only the latest entry for
+     * each entity and column except for append-style columns
+     *
+     * @return statement compacting the given outstanding table
+     */
+    @SuppressWarnings("nls")
+    public static String compactSql(Table table) {
+        StringBuilder appendColumns = new StringBuilder();
+        for (String column : APPEND_COLUMNS) {
+            if (appendColumns.length() > 0)
+                appendColumns.append(", ");
+            appendColumns.append('\'').append(column).append('\'');
+        }
+        String replaceable = OutstandingEntry.COLUMN_STRING_PROPERTY_NAME + " NOT IN (" + appendColumns + ")";
+        return "DELETE FROM " + table.name + " WHERE " + replaceable + " AND " +
+            AbstractModel.ID_PROPERTY.name + " NOT IN (SELECT MAX(" + AbstractModel.ID_PROPERTY.name +
+            ") FROM " + table.name + " WHERE " + replaceable + " GROUP BY " +
+            OutstandingEntry.ENTITY_ID_PROPERTY_NAME + ", " + OutstandingEntry.COLUMN_STRING_PROPERTY_NAME + ")";
+    }
+
 }
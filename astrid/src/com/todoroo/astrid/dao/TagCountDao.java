@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import com.todoroo.andlib.data.DatabaseDao;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Field;
+import com.todoroo.andlib.sql.Join;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.TagCount;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.tags.TaskToTagMetadata;
+
+/**
+ * Data Access layer for {@link TagCount}s. Like {@link TaskListRowDao},
+ * counts are never written directly: the daos of metadata and tasks
+ * recount the tags whose links or tasks they change. Tags without any
+ * linked tasks have no row.
+ */
+@SuppressWarnings("nls")
+public class TagCountDao extends DatabaseDao<TagCount> {
+
+    @Autowired Database database;
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="UR_UNINIT_READ")
+    public TagCountDao() {
+        super(TagCount.class);
+        DependencyInjectionService.getInstance().inject(this);
+        setDatabase(database);
+    }
+
+    /**
+     * Recount the tags linked to the given tasks, including links that
+     * were removed
+     */
+    public void refreshTasks(Collection<Long> taskIds) {
+        if(taskIds.isEmpty())
+            return;
+        refreshTags(tagsOf(Metadata.TASK.in(taskIds.toArray(new Long[taskIds.size()]))));
+    }
+
+    /**
+     * Recount the given tags
+     */
+    public void refreshTags(Collection<String> tagUuids) {
+        if(tagUuids.isEmpty())
+            return;
+        ArrayList<Object> deleteArgs = new ArrayList<Object>();
+        ArrayList<Object> insertArgs = new ArrayList<Object>();
+        String[] sql = refreshSql(tagUuids.toArray(new String[tagUuids.size()]), deleteArgs, insertArgs);
+        database.execSQL(TagCount.TABLE.name, sql[0], deleteArgs.toArray());
+        database.execSQL(TagCount.TABLE.name, sql[1], insertArgs.toArray());
+    }
+
+    /**
+     * @param where criterion on the metadata table
+     * @return uuids of tags linked by matching tag metadata, deleted or not
+     */
+    public ArrayList<String> tagsOf(Criterion where) {
+        ArrayList<String> tags = new ArrayList<String>();
+        Query query = Query.selectDistinct(TaskToTagMetadata.TAG_UUID).from(Metadata.TABLE).where(
+                Criterion.and(Metadata.KEY.eq(TaskToTagMetadata.KEY), where));
+        Cursor cursor = database.rawQuery(query.toString(), null);
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                if(!cursor.isNull(0))
+                    tags.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tags;
+    }
+
+    /**
+     * @return number of active tasks by tag uuid. Tags without tasks are
+     *         not in the map
+     */
+    public HashMap<String, Integer> getActiveCounts() {
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        TodorooCursor<TagCount> cursor = query(Query.select(TagCount.TAG_UUID, TagCount.ACTIVE));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                counts.put(cursor.get(TagCount.TAG_UUID), cursor.get(TagCount.ACTIVE));
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Compare all stored counts with a recount from the metadata table and
+     * recount the tags that differ, e.g. after a crash between a change and
+     * its recount, or links written without going through the daos
+     *
+     * @return number of tags that were repaired
+     */
+    public int verifyAndRepair() {
+        HashMap<String, int[]> expected = new HashMap<String, int[]>();
+        Cursor cursor = database.rawQuery(countQuery(Criterion.all).toString(), null);
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                expected.put(cursor.getString(0), new int[] {
+                    cursor.getInt(1), cursor.getInt(2), cursor.getInt(3)
+                });
+        } finally {
+            cursor.close();
+        }
+
+        HashSet<String> repair = new HashSet<String>();
+        TodorooCursor<TagCount> stored = query(Query.select(TagCount.PROPERTIES));
+        try {
+            TagCount count = new TagCount();
+            for(stored.moveToFirst(); !stored.isAfterLast(); stored.moveToNext()) {
+                count.readFromCursor(stored);
+                String uuid = count.getValue(TagCount.TAG_UUID);
+                int[] counts = expected.remove(uuid);
+                if(counts == null || counts[0] != count.getValue(TagCount.ACTIVE) ||
+                        counts[1] != count.getValue(TagCount.COMPLETED) ||
+                        counts[2] != count.getValue(TagCount.DELETED))
+                    repair.add(uuid);
+            }
+        } finally {
+            stored.close();
+        }
+        repair.addAll(expected.keySet());
+
+        if(!repair.isEmpty()) {
+            Log.w("tag-counts", "Repairing counts of " + repair.size() + " tags");
+            refreshTags(repair);
+        }
+        return repair.size();
+    }
+
+    /**
+     * @param tagUuids tags to recount, or null to recount all tags
+     * @param deleteArgs receives the values to bind to the first
+     *        statement, or null to render them inline
+     * @param insertArgs receives the values to bind to the second
+     *        statement, or null to render them inline
+     * @return statements that recount the given tags
+     */
+    public static String[] refreshSql(String[] tagUuids, List<Object> deleteArgs,
+            List<Object> insertArgs) {
+        Criterion counted = tagUuids == null ? Criterion.all : TagCount.TAG_UUID.in(tagUuids);
+        Criterion linked = tagUuids == null ? Criterion.all : TaskToTagMetadata.TAG_UUID.in(tagUuids);
+        StringBuilder delete = new StringBuilder("DELETE FROM ").append(TagCount.TABLE.name).append(" WHERE ");
+        counted.appendTo(delete, deleteArgs);
+        Query count = countQuery(linked);
+        return new String[] {
+            delete.toString(),
+            "INSERT INTO " + TagCount.TABLE.name + " (" + TagCount.TAG_UUID.name + ", " +
+                TagCount.ACTIVE.name + ", " + TagCount.COMPLETED.name + ", " +
+                TagCount.DELETED.name + ") " +
+                (insertArgs == null ? count.toString() : count.toParameterizedString(insertArgs))
+        };
+    }
+
+    /**
+     * @param linked criterion on tag metadata
+     * @return query selecting tag uuid and active, completed and deleted
+     *         task counts of the tags of matching metadata
+     */
+    private static Query countQuery(Criterion linked) {
+        return Query.select(TaskToTagMetadata.TAG_UUID,
+                sumWhen(Criterion.and(Task.DELETION_DATE.eq(0), Task.COMPLETION_DATE.eq(0))),
+                sumWhen(Criterion.and(Task.DELETION_DATE.eq(0), Task.COMPLETION_DATE.gt(0))),
+                sumWhen(Task.DELETION_DATE.gt(0))).
+            from(Metadata.TABLE).
+            join(Join.inner(Task.TABLE, Metadata.TASK.eq(Task.ID))).
+            where(Criterion.and(Metadata.KEY.eq(TaskToTagMetadata.KEY),
+                    Metadata.DELETION_DATE.eq(0), linked)).
+            groupBy(TaskToTagMetadata.TAG_UUID);
+    }
+
+    private static Field sumWhen(Criterion criterion) {
+        return Field.field("SUM(CASE WHEN " + criterion + " THEN 1 ELSE 0 END)");
+    }
+
+}
@@ -5,7 +5,10 @@
  */
 package com.todoroo.astrid.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import org.json.JSONArray;
@@ -117,6 +120,42 @@ public class TagMetadataDao extends DatabaseDao<TagMetadata> {
         }
     }
 
+    /**
+     * Create member links for several members at once. Members that already
+     * have a link get it updated, the rest are created in a single batch
+     */
+    public void createMemberLinks(long tagId, String tagUuid, Collection<String> memberIds, boolean suppressOutstanding) {
+        LinkedHashSet<String> toCreate = new LinkedHashSet<String>(memberIds);
+        if (toCreate.isEmpty())
+            return;
+
+        TodorooCursor<TagMetadata> existing = query(Query.select(TagMemberMetadata.USER_UUID).where(Criterion.and(
+                TagMetadataCriteria.byTagAndWithKey(tagUuid, TagMemberMetadata.KEY),
+                TagMemberMetadata.USER_UUID.in(toCreate.toArray(new String[toCreate.size()])))));
+        try {
+            for (existing.moveToFirst(); !existing.isAfterLast(); existing.moveToNext()) {
+                String memberId = existing.get(TagMemberMetadata.USER_UUID);
+                if (toCreate.remove(memberId))
+                    createMemberLink(tagId, tagUuid, memberId, suppressOutstanding);
+            }
+        } finally {
+            existing.close();
+        }
+
+        persistAll(newMemberLinks(tagId, tagUuid, toCreate, suppressOutstanding));
+    }
+
+    private ArrayList<TagMetadata> newMemberLinks(long tagId, String tagUuid, Collection<String> memberIds, boolean suppressOutstanding) {
+        ArrayList<TagMetadata> links = new ArrayList<TagMetadata>(memberIds.size());
+        for (String memberId : memberIds) {
+            TagMetadata link = TagMemberMetadata.newMemberMetadata(tagId, tagUuid, memberId);
+            if (suppressOutstanding)
+                link.putTransitory(SyncFlags.ACTFM_SUPPRESS_OUTSTANDING_ENTRIES, true);
+            links.add(link);
+        }
+        return links;
+    }
+
     public void removeMemberLink(long tagId, String tagUuid, String memberId, boolean suppressOutstanding) {
         TagMetadata deleteTemplate = new TagMetadata();
         deleteTemplate.setValue(TagMetadata.TAG_ID, tagId); // Need this for recording changes in outstanding table
@@ -180,13 +219,10 @@ public class TagMetadataDao extends DatabaseDao<TagMetadata> {
             currentMembers.close();
         }
 
-        for (String email : emails) {
-            createMemberLink(tagId, tagUuid, email, false);
-        }
-
-        for (String id : ids) {
-            createMemberLink(tagId, tagUuid, id, false);
-        }
+        // anything left doesn't have a link yet
+        LinkedHashSet<String> toCreate = new LinkedHashSet<String>(emails);
+        toCreate.addAll(ids);
+        persistAll(newMemberLinks(tagId, tagUuid, toCreate, false));
     }
 
     public boolean memberOfTagData(String email, String tagId, String memberId) {
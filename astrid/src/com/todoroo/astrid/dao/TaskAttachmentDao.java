@@ -5,12 +5,16 @@
  */
 package com.todoroo.astrid.dao;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.content.ContentValues;
 import android.text.TextUtils;
 
+import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.DependencyInjectionService;
@@ -20,6 +24,7 @@ import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.actfm.sync.messages.NameMaps;
 import com.todoroo.astrid.data.OutstandingEntry;
 import com.todoroo.astrid.data.TagData;
+import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.TaskAttachment;
 import com.todoroo.astrid.data.TaskAttachmentOutstanding;
 
@@ -33,6 +38,8 @@ public class TaskAttachmentDao extends RemoteModelDao<TaskAttachment> {
 
     @Autowired Database database;
 
+    @Autowired TaskListRowDao taskListRowDao;
+
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="UR_UNINIT_READ")
 	public TaskAttachmentDao() {
         super(TaskAttachment.class);
@@ -85,5 +92,53 @@ public class TaskAttachmentDao extends RemoteModelDao<TaskAttachment> {
         }
     }
 
+    // --- task list rows
+
+    @Override
+    protected boolean hasDerivedTables(ContentValues setValues) {
+        return true;
+    }
+
+    @Override
+    protected void updateDerivedTables(Collection<Long> ids, ContentValues setValues) {
+        refreshTaskListRows(tasksOf(TaskAttachment.ID.in(ids.toArray(new Long[ids.size()]))));
+    }
+
+    @Override
+    protected Property<?>[] getDerivedTableProperties() {
+        return new Property<?>[] { TaskAttachment.TASK_UUID };
+    }
+
+    @Override
+    protected void updateDerivedTables(List<TaskAttachment> previous) {
+        String[] tasks = new String[previous.size()];
+        for(int i = 0; i < tasks.length; i++)
+            tasks[i] = previous.get(i).getValue(TaskAttachment.TASK_UUID);
+        refreshTaskListRows(tasks);
+    }
+
+    /**
+     * Update the task list rows of the given tasks
+     */
+    private void refreshTaskListRows(String[] tasks) {
+        if(tasks.length > 0)
+            taskListRowDao.refreshTasks(Task.UUID.in(tasks));
+    }
+
+    /**
+     * @return uuids of tasks of attachments matching the given criterion
+     */
+    private String[] tasksOf(Criterion where) {
+        TodorooCursor<TaskAttachment> cursor = query(Query.selectDistinct(TaskAttachment.TASK_UUID).where(where));
+        try {
+            String[] tasks = new String[cursor.getCount()];
+            for(int i = 0; cursor.moveToNext(); i++)
+                tasks[i] = cursor.get(TaskAttachment.TASK_UUID);
+            return tasks;
+        } finally {
+            cursor.close();
+        }
+    }
+
 }
 
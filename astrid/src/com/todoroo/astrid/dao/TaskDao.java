@@ -5,10 +5,13 @@
  */
 package com.todoroo.astrid.dao;
 
+import java.util.Collection;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
 
 import com.timsu.astrid.R;
 import com.todoroo.andlib.data.Property;
@@ -23,9 +26,11 @@ import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.andlib.utility.Preferences;
 import com.todoroo.astrid.actfm.sync.messages.NameMaps;
 import com.todoroo.astrid.api.AstridApiConstants;
+import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.TaskApiDao;
+import com.todoroo.astrid.data.TaskListRow;
 import com.todoroo.astrid.reminders.Notifications;
 import com.todoroo.astrid.reminders.ReminderService;
 
@@ -43,6 +48,15 @@ public class TaskDao extends RemoteModelDao<Task> {
     @Autowired
     private Database database;
 
+    @Autowired
+    private TaskListRowDao taskListRowDao;
+
+    @Autowired
+    private TaskSearchIndex taskSearchIndex;
+
+    @Autowired
+    private TagCountDao tagCountDao;
+
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="UR_UNINIT_READ")
 	public TaskDao() {
         super(Task.class);
@@ -162,6 +176,8 @@ public class TaskDao extends RemoteModelDao<Task> {
 
         // delete all metadata
         metadataDao.deleteWhere(MetadataCriteria.byTask(id));
+        taskListRowDao.deleteTask(id);
+        taskSearchIndex.deleteTask(id);
 
         broadcastTaskChanged();
 
@@ -221,12 +237,12 @@ public class TaskDao extends RemoteModelDao<Task> {
         createDefaultHideUntil(item);
 
         setDefaultReminders(item);
+        SortHelper.setSortKeys(item, SortHelper.getSortKeyBase());
 
         ContentValues values = item.getSetValues();
         boolean result = super.createNew(item);
-        if(result) {
+        if(result)
             afterSave(item, values);
-        }
 
         return result;
     }
@@ -267,12 +283,112 @@ public class TaskDao extends RemoteModelDao<Task> {
             if(!values.containsKey(Task.MODIFICATION_DATE.name))
                 item.setValue(Task.MODIFICATION_DATE, DateUtilities.now());
         }
+
+        // sort keys are computed here if the model has what they depend on,
+        // and by the database in updateDerivedTables otherwise
+        if(changesSortKeys(values) && item.containsNonNullValue(Task.DUE_DATE) &&
+                item.containsNonNullValue(Task.IMPORTANCE) && item.containsNonNullValue(Task.COMPLETION_DATE))
+            SortHelper.setSortKeys(item, SortHelper.getSortKeyBase());
+
         boolean result = super.saveExisting(item);
         if(result)
             afterSave(item, values);
         return result;
     }
 
+    @Override
+    protected boolean hasDerivedTables(ContentValues values) {
+        return changesTaskListRow(values) || changesSortKeys(values) || changesSearchIndex(values) ||
+            changesTagCounts(values);
+    }
+
+    /**
+     * Recompute sort keys the model didn't have the values for, and the
+     * task list rows, search index and tag counts of the written tasks
+     */
+    @Override
+    protected void updateDerivedTables(Collection<Long> ids, ContentValues values) {
+        if(changesSortKeys(values) && !values.containsKey(Task.SORT_AUTO.name))
+            refreshSortKeys(Task.ID.in(ids.toArray(new Long[ids.size()])));
+        if(changesTaskListRow(values))
+            taskListRowDao.refreshTasks(ids);
+        if(changesSearchIndex(values))
+            taskSearchIndex.refreshTasks(ids);
+        if(changesTagCounts(values))
+            tagCountDao.refreshTasks(ids);
+    }
+
+    /**
+     * @return true if the given values affect the task's sort keys
+     */
+    private static boolean changesSortKeys(ContentValues values) {
+        return values != null && (values.containsKey(Task.DUE_DATE.name) ||
+                values.containsKey(Task.IMPORTANCE.name) ||
+                values.containsKey(Task.COMPLETION_DATE.name));
+    }
+
+    /**
+     * Recompute the sort keys of the matching tasks in the database
+     */
+    public void refreshSortKeys(Criterion tasks) {
+        database.execSQL(Task.TABLE.name, SortHelper.updateSortKeysSql(tasks,
+                SortHelper.getSortKeyBase()), null);
+    }
+
+    /**
+     * Move the sort key base to the current time and recompute all keys.
+     * Keys of tasks without due date are relative to the base. The new
+     * base is only stored once the keys have been rewritten
+     */
+    public void rebaseSortKeys() {
+        long base = DateUtilities.now();
+        database.lockForWriting();
+        try {
+            SQLiteDatabase db = database.getDatabase();
+            db.beginTransaction();
+            try {
+                database.execSQL(Task.TABLE.name, SortHelper.updateSortKeysSql(Criterion.all,
+                        base), null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            SortHelper.setSortKeyBase(base);
+        } finally {
+            database.unlockForWriting();
+        }
+
+        // every task moved, so lists can't be refreshed row by row
+        getChangeLog().invalidate();
+    }
+
+    /**
+     * @return true if the given values affect the task's {@link TaskListRow}
+     */
+    private static boolean changesTaskListRow(ContentValues values) {
+        return values != null && (values.containsKey(Task.NOTES.name) ||
+                values.containsKey(Task.USER_ID.name) ||
+                values.containsKey(Task.UUID.name));
+    }
+
+    /**
+     * @return true if the given values affect the task's {@link TaskSearchIndex} row
+     */
+    private static boolean changesSearchIndex(ContentValues values) {
+        return values != null && (values.containsKey(Task.TITLE.name) ||
+                values.containsKey(Task.NOTES.name) ||
+                values.containsKey(Task.UUID.name));
+    }
+
+    /**
+     * @return true if the given values move the task between the
+     *         {@link com.todoroo.astrid.data.TagCount} columns of its tags
+     */
+    private static boolean changesTagCounts(ContentValues values) {
+        return values != null && (values.containsKey(Task.COMPLETION_DATE.name) ||
+                values.containsKey(Task.DELETION_DATE.name));
+    }
+
     private static final Property<?>[] SQL_CONSTRAINT_MERGE_PROPERTIES = new Property<?>[] {
         Task.ID,
         Task.UUID,
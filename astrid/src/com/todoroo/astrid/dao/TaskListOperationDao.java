@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import com.todoroo.andlib.data.DatabaseDao;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.data.RemoteModel;
+import com.todoroo.astrid.data.TaskListOperation;
+
+/**
+ * Data Access layer for {@link TaskListOperation}s, the log of changes to
+ * manually ordered lists that haven't been written to the list's tree yet
+ */
+public class TaskListOperationDao extends DatabaseDao<TaskListOperation> {
+
+    @Autowired Database database;
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="UR_UNINIT_READ")
+    public TaskListOperationDao() {
+        super(TaskListOperation.class);
+        DependencyInjectionService.getInstance().inject(this);
+        setDatabase(database);
+    }
+
+    /**
+     * Append a change to the log of a list
+     * @return id of the logged change
+     */
+    public long record(String listId, String type, String taskUuid, String otherUuid, int delta) {
+        TaskListOperation operation = new TaskListOperation();
+        operation.setValue(TaskListOperation.LIST_ID, listId);
+        operation.setValue(TaskListOperation.TYPE, type);
+        operation.setValue(TaskListOperation.TASK_UUID, taskUuid);
+        if(otherUuid != null)
+            operation.setValue(TaskListOperation.OTHER_UUID, otherUuid);
+        operation.setValue(TaskListOperation.DELTA, delta);
+        operation.setValue(TaskListOperation.CREATION_DATE, DateUtilities.now());
+        createNew(operation);
+        return operation.getId();
+    }
+
+    /**
+     * @return logged changes of a list, oldest first
+     */
+    public TodorooCursor<TaskListOperation> fetchOperations(String listId) {
+        return query(Query.select(TaskListOperation.PROPERTIES).where(
+                TaskListOperation.LIST_ID.eq(listId)).orderBy(Order.asc(TaskListOperation.ID)));
+    }
+
+    /**
+     * @return true if the list has changes that aren't in its tree yet
+     */
+    public boolean hasOperations(String listId) {
+        if(RemoteModel.isUuidEmpty(listId))
+            return false;
+        TodorooCursor<TaskListOperation> cursor = query(Query.select(TaskListOperation.ID).where(
+                TaskListOperation.LIST_ID.eq(listId)).limit(1));
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drop changes up to and including the given one, once they have been
+     * written to the list's tree
+     */
+    public int deleteThrough(String listId, long lastId) {
+        return deleteWhere(Criterion.and(TaskListOperation.LIST_ID.eq(listId),
+                TaskListOperation.ID.lte(lastId)));
+    }
+
+}
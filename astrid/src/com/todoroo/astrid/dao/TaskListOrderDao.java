@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.todoroo.andlib.data.DatabaseDao;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Join;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.RemoteModel;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskListMetadata;
+import com.todoroo.astrid.data.TaskListOrder;
+
+/**
+ * Data Access layer for {@link TaskListOrder}s, the ranks of tasks in
+ * manually ordered lists. Lists join their ranks and order by them instead
+ * of comparing each task's uuid to every uuid in the list.
+ */
+public class TaskListOrderDao extends DatabaseDao<TaskListOrder> {
+
+    /** distance between ranks of neighbouring tasks when ranks are spread out */
+    static final double RANK_GAP = 1024;
+
+    @Autowired Database database;
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="UR_UNINIT_READ")
+    public TaskListOrderDao() {
+        super(TaskListOrder.class);
+        DependencyInjectionService.getInstance().inject(this);
+        setDatabase(database);
+    }
+
+    /**
+     * @return id of the list the given metadata orders, or null if unknown
+     */
+    public static String listIdFor(TaskListMetadata list) {
+        if(list == null)
+            return null;
+        if(list.containsNonNullValue(TaskListMetadata.TAG_UUID) &&
+                !RemoteModel.isUuidEmpty(list.getValue(TaskListMetadata.TAG_UUID)))
+            return list.getValue(TaskListMetadata.TAG_UUID);
+        if(list.containsNonNullValue(TaskListMetadata.FILTER) &&
+                !RemoteModel.isUuidEmpty(list.getValue(TaskListMetadata.FILTER)))
+            return list.getValue(TaskListMetadata.FILTER);
+        return null;
+    }
+
+    /**
+     * @return join that adds the ranks of the given list to a task query.
+     *         Tasks that aren't part of the list have a null rank
+     */
+    public static Join joinRanks(String listId) {
+        return Join.left(TaskListOrder.TABLE, Criterion.and(
+                TaskListOrder.LIST_ID.eq(listId), TaskListOrder.TASK_UUID.eq(Task.UUID)));
+    }
+
+    /**
+     * Bring the stored ranks of a list in line with the given order. Tasks
+     * that kept their place relative to each other keep their rank, so
+     * moving one task only writes that task's row.
+     *
+     * @param listId list to update
+     * @param uuids task uuids in list order
+     * @param indents subtask level of each task
+     */
+    public void updateOrder(String listId, String[] uuids, int[] indents) {
+        HashMap<String, TaskListOrder> existing = new HashMap<String, TaskListOrder>();
+        TodorooCursor<TaskListOrder> cursor = query(Query.select(TaskListOrder.PROPERTIES).where(
+                TaskListOrder.LIST_ID.eq(listId)));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                TaskListOrder row = new TaskListOrder(cursor);
+                existing.put(row.getValue(TaskListOrder.TASK_UUID), row);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // a task can only have one place in the list
+        HashSet<String> seen = new HashSet<String>();
+        ArrayList<Integer> unique = new ArrayList<Integer>(uuids.length);
+        for(int i = 0; i < uuids.length; i++) {
+            if(seen.add(uuids[i]))
+                unique.add(i);
+        }
+        if(unique.size() < uuids.length) {
+            String[] uniqueUuids = new String[unique.size()];
+            int[] uniqueIndents = new int[unique.size()];
+            for(int i = 0; i < uniqueUuids.length; i++) {
+                uniqueUuids[i] = uuids[unique.get(i)];
+                uniqueIndents[i] = indents[unique.get(i)];
+            }
+            uuids = uniqueUuids;
+            indents = uniqueIndents;
+        }
+
+        TaskListOrder[] rows = new TaskListOrder[uuids.length];
+        double[] ranks = new double[uuids.length];
+        for(int i = 0; i < uuids.length; i++) {
+            rows[i] = existing.remove(uuids[i]);
+            ranks[i] = rows[i] == null ? Double.NaN : rows[i].getValue(TaskListOrder.RANK);
+        }
+
+        boolean[] keep = longestIncreasingRun(ranks);
+        if(!assignRanks(ranks, keep)) {
+            // ran out of precision between two ranks, spread the list out
+            for(int i = 0; i < ranks.length; i++) {
+                ranks[i] = (i + 1) * RANK_GAP;
+                keep[i] = false;
+            }
+        }
+
+        ArrayList<TaskListOrder> changed = new ArrayList<TaskListOrder>();
+        for(int i = 0; i < uuids.length; i++) {
+            TaskListOrder row = rows[i];
+            if(row == null) {
+                row = new TaskListOrder();
+                row.setValue(TaskListOrder.LIST_ID, listId);
+                row.setValue(TaskListOrder.TASK_UUID, uuids[i]);
+            }
+            if(!keep[i])
+                row.setValue(TaskListOrder.RANK, ranks[i]);
+            if(row.getValue(TaskListOrder.INDENT) != indents[i])
+                row.setValue(TaskListOrder.INDENT, indents[i]);
+            if(row.getSetValues() != null && row.getSetValues().size() > 0)
+                changed.add(row);
+        }
+        if(!changed.isEmpty())
+            persistAll(changed);
+
+        if(!existing.isEmpty())
+            deleteWhere(Criterion.and(TaskListOrder.LIST_ID.eq(listId),
+                    TaskListOrder.TASK_UUID.in(existing.keySet().toArray(new String[existing.size()]))));
+    }
+
+    /**
+     * Give a run of tasks ranks between those of their new neighbours,
+     * writing only the rows of the run. Used when a task and its subtasks
+     * are moved, indented or added
+     *
+     * @param listId list to update
+     * @param after task the run follows, or null if it starts the list
+     * @param before task that follows the run, or null if it ends the list
+     * @param uuids tasks of the run in list order
+     * @param indents subtask level of each task
+     * @return false if a neighbour has no rank or there is no room between
+     *         their ranks. Rewrite the list with
+     *         {@link #updateOrder(String, String[], int[])} then
+     */
+    public boolean placeTasks(String listId, String after, String before, String[] uuids, int[] indents) {
+        ArrayList<String> read = new ArrayList<String>(Arrays.asList(uuids));
+        if(after != null)
+            read.add(after);
+        if(before != null)
+            read.add(before);
+        HashMap<String, TaskListOrder> rows = new HashMap<String, TaskListOrder>();
+        TodorooCursor<TaskListOrder> cursor = query(Query.select(TaskListOrder.PROPERTIES).where(
+                Criterion.and(TaskListOrder.LIST_ID.eq(listId),
+                        TaskListOrder.TASK_UUID.in(read.toArray(new String[read.size()])))));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                TaskListOrder row = new TaskListOrder(cursor);
+                rows.put(row.getValue(TaskListOrder.TASK_UUID), row);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int offset = after == null ? 0 : 1;
+        double[] ranks = new double[uuids.length + offset + (before == null ? 0 : 1)];
+        boolean[] keep = new boolean[ranks.length];
+        if(after != null) {
+            if(!rows.containsKey(after))
+                return false;
+            ranks[0] = rows.get(after).getValue(TaskListOrder.RANK);
+            keep[0] = true;
+        }
+        if(before != null) {
+            if(!rows.containsKey(before))
+                return false;
+            ranks[ranks.length - 1] = rows.get(before).getValue(TaskListOrder.RANK);
+            keep[ranks.length - 1] = true;
+        }
+        if(after != null && before != null && ranks[0] >= ranks[ranks.length - 1])
+            return false;
+        if(!assignRanks(ranks, keep))
+            return false;
+
+        ArrayList<TaskListOrder> changed = new ArrayList<TaskListOrder>(uuids.length);
+        for(int i = 0; i < uuids.length; i++) {
+            TaskListOrder row = rows.get(uuids[i]);
+            if(row == null) {
+                row = new TaskListOrder();
+                row.setValue(TaskListOrder.LIST_ID, listId);
+                row.setValue(TaskListOrder.TASK_UUID, uuids[i]);
+            }
+            row.setValue(TaskListOrder.RANK, ranks[offset + i]);
+            if(row.getValue(TaskListOrder.INDENT) != indents[i])
+                row.setValue(TaskListOrder.INDENT, indents[i]);
+            changed.add(row);
+        }
+        persistAll(changed);
+        return true;
+    }
+
+    /**
+     * Remove a task from the ranks of a list
+     */
+    public void removeTask(String listId, String uuid) {
+        deleteWhere(Criterion.and(TaskListOrder.LIST_ID.eq(listId), TaskListOrder.TASK_UUID.eq(uuid)));
+    }
+
+    /**
+     * @param ranks ranks, NaN for tasks without one
+     * @return the longest subsequence of ranks that is already in order
+     */
+    static boolean[] longestIncreasingRun(double[] ranks) {
+        int n = ranks.length;
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for(int i = 0; i < n; i++) {
+            if(Double.isNaN(ranks[i]))
+                continue;
+            int low = 0, high = length;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(ranks[tails[middle]] < ranks[i])
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if(low == length)
+                length++;
+        }
+
+        boolean[] keep = new boolean[n];
+        for(int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i])
+            keep[i] = true;
+        return keep;
+    }
+
+    /**
+     * Give every task that isn't kept a rank between its kept neighbours
+     * @return false if there is no room between two neighbours
+     */
+    static boolean assignRanks(double[] ranks, boolean[] keep) {
+        int start = 0;
+        while(start < ranks.length) {
+            if(keep[start]) {
+                start++;
+                continue;
+            }
+            int end = start;
+            while(end < ranks.length && !keep[end])
+                end++;
+
+            int count = end - start;
+            double low, high;
+            if(start > 0 && end < ranks.length) {
+                low = ranks[start - 1];
+                high = ranks[end];
+            } else if(start > 0) {
+                low = ranks[start - 1];
+                high = low + (count + 1) * RANK_GAP;
+            } else if(end < ranks.length) {
+                high = ranks[end];
+                low = high - (count + 1) * RANK_GAP;
+            } else {
+                low = 0;
+                high = (count + 1) * RANK_GAP;
+            }
+
+            double previous = low;
+            for(int i = 0; i < count; i++) {
+                double rank = low + (high - low) * (i + 1) / (count + 1);
+                if(rank <= previous || rank >= high)
+                    return false;
+                ranks[start + i] = rank;
+                previous = rank;
+            }
+            start = end;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.Collection;
+
+import com.todoroo.andlib.data.DatabaseDao;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Field;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskAttachment;
+import com.todoroo.astrid.data.TaskListRow;
+import com.todoroo.astrid.data.User;
+import com.todoroo.astrid.tags.TaskToTagMetadata;
+import com.todoroo.astrid.taskrabbit.TaskRabbitMetadata;
+
+/**
+ * Data Access layer for {@link TaskListRow}s. Rows are never written
+ * directly, they are recomputed from tasks, metadata, attachments and users
+ * whenever the daos of those tables change something a row depends on.
+ */
+public class TaskListRowDao extends DatabaseDao<TaskListRow> {
+
+    /** separator between tag names in {@link TaskListRow#TAGS} */
+    public static final String TAG_SEPARATOR = "  |  "; //$NON-NLS-1$
+
+    /** metadata keys that rows depend on */
+    public static final String[] METADATA_KEYS = new String[] {
+        TaskToTagMetadata.KEY, TaskRabbitMetadata.METADATA_KEY
+    };
+
+    @Autowired Database database;
+
+    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="UR_UNINIT_READ")
+    public TaskListRowDao() {
+        super(TaskListRow.class);
+        DependencyInjectionService.getInstance().inject(this);
+        setDatabase(database);
+    }
+
+    /**
+     * Recompute the row of the given task
+     */
+    public void refreshTask(long taskId) {
+        refreshTasks(Task.ID.eq(taskId));
+    }
+
+    /**
+     * Recompute the rows of the given tasks
+     */
+    public void refreshTasks(Collection<Long> taskIds) {
+        if(taskIds.isEmpty())
+            return;
+        refreshTasks(Task.ID.in(taskIds.toArray(new Long[taskIds.size()])));
+    }
+
+    /**
+     * Recompute the rows of all tasks matching the given criterion
+     */
+    public void refreshTasks(Criterion tasks) {
+        database.execSQL(TaskListRow.TABLE.name, refreshSql(tasks), null);
+    }
+
+    /**
+     * Remove the row of a deleted task
+     */
+    public void deleteTask(long taskId) {
+        deleteWhere(TaskListRow.TASK.eq(taskId));
+    }
+
+    /**
+     * @param tasks criterion on the tasks table
+     * @return statement that (re-)creates the rows of the matching tasks
+     */
+    @SuppressWarnings("nls")
+    public static String refreshSql(Criterion tasks) {
+        Query tags = Query.select(Field.field("group_concat(" + TaskToTagMetadata.TAG_NAME +
+                ", '" + TAG_SEPARATOR + "')")).from(Metadata.TABLE).where(Criterion.and(
+                        Metadata.TASK.eq(Task.ID),
+                        Metadata.KEY.eq(TaskToTagMetadata.KEY),
+                        Metadata.DELETION_DATE.eq(0)));
+        Query picture = Query.select(User.PICTURE).from(User.TABLE).where(
+                User.UUID.eq(Task.USER_ID)).limit(1);
+        Query fileId = Query.select(TaskAttachment.ID).from(TaskAttachment.TABLE).where(
+                TaskAttachment.TASK_UUID.eq(Task.UUID)).limit(1);
+        Query taskRabbitId = Query.select(Metadata.ID).from(Metadata.TABLE).where(Criterion.and(
+                Metadata.TASK.eq(Task.ID),
+                Metadata.KEY.eq(TaskRabbitMetadata.METADATA_KEY))).limit(1);
+
+        return new StringBuilder("INSERT OR REPLACE INTO ").append(TaskListRow.TABLE.name).append(" (").
+            append(TaskListRow.TASK.name).append(", ").
+            append(TaskListRow.TAGS.name).append(", ").
+            append(TaskListRow.PICTURE.name).append(", ").
+            append(TaskListRow.FILE_ID.name).append(", ").
+            append(TaskListRow.TASK_RABBIT_ID.name).append(", ").
+            append(TaskListRow.HAS_NOTES.name).append(") SELECT ").
+            append(Task.ID).append(", (").
+            append(tags).append("), (").
+            append(picture).append("), ifnull((").
+            append(fileId).append("), 0), ifnull((").
+            append(taskRabbitId).append("), 0), ifnull(length(").
+            append(Task.NOTES).append(") > 0, 0) FROM ").append(Task.TABLE.name).
+            append(" WHERE ").append(tasks).toString();
+    }
+
+}
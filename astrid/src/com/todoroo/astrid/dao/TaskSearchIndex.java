@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.Collection;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Operator;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.UserActivity;
+
+/**
+ * Full-text index over task titles, notes and comments, kept in an SQLite
+ * FTS3 table whose docids are task ids. Like {@link TaskListRowDao}, the
+ * index is never written directly: the daos of tasks and comments refresh
+ * the rows of the tasks they change.
+ */
+@SuppressWarnings("nls")
+public class TaskSearchIndex {
+
+    /** name of the virtual table */
+    public static final String TABLE_NAME = "task_search";
+
+    @Autowired Database database;
+
+    public TaskSearchIndex() {
+        DependencyInjectionService.getInstance().inject(this);
+    }
+
+    /**
+     * @return statement that creates the index table
+     */
+    public static String createTableSql() {
+        return "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME +
+            " USING fts3(title, notes, comments)";
+    }
+
+    /**
+     * Re-index the given task
+     */
+    public void refreshTask(long taskId) {
+        refreshTasks(Task.ID.eq(taskId));
+    }
+
+    /**
+     * Re-index the given tasks
+     */
+    public void refreshTasks(Collection<Long> taskIds) {
+        if(taskIds.isEmpty())
+            return;
+        refreshTasks(Task.ID.in(taskIds.toArray(new Long[taskIds.size()])));
+    }
+
+    /**
+     * Re-index all tasks matching the given criterion
+     */
+    public void refreshTasks(Criterion tasks) {
+        for(String sql : refreshSql(tasks))
+            database.execSQL(TABLE_NAME, sql, null);
+    }
+
+    /**
+     * Remove a deleted task from the index
+     */
+    public void deleteTask(long taskId) {
+        database.execSQL(TABLE_NAME, "DELETE FROM " + TABLE_NAME + " WHERE docid = ?",
+                new Object[] { taskId });
+    }
+
+    /**
+     * @param tasks criterion on the tasks table
+     * @return statements that (re-)index the matching tasks
+     */
+    public static String[] refreshSql(Criterion tasks) {
+        String comments = "SELECT group_concat(" + UserActivity.MESSAGE + ", ' ') FROM " +
+            UserActivity.TABLE.name + " WHERE " + Criterion.and(
+                    UserActivity.TARGET_ID.eq(Task.UUID),
+                    UserActivity.ACTION.eq(UserActivity.ACTION_TASK_COMMENT),
+                    UserActivity.DELETED_AT.eq(0));
+        return new String[] {
+            "DELETE FROM " + TABLE_NAME + " WHERE docid IN (SELECT " + Task.ID + " FROM " +
+                Task.TABLE.name + " WHERE " + tasks + ")",
+            "INSERT INTO " + TABLE_NAME + " (docid, title, notes, comments) SELECT " +
+                Task.ID + ", " + Task.TITLE + ", " + Task.NOTES + ", (" + comments + ") FROM " +
+                Task.TABLE.name + " WHERE " + tasks
+        };
+    }
+
+    /**
+     * Build a criterion on the tasks table matching tasks whose title,
+     * notes or comments contain words starting with each word of the text
+     *
+     * @return criterion, or null if the text has no words to search for
+     */
+    public static Criterion matches(CharSequence text) {
+        final String expression = matchExpression(text);
+        if(expression == null)
+            return null;
+        return new Criterion(Operator.in) {
+            @Override
+            protected void populate(StringBuilder sb) {
+                sb.append(Task.ID).append(" IN (SELECT docid FROM ").append(TABLE_NAME).
+                    append(" WHERE ").append(TABLE_NAME).append(" MATCH '").
+                    append(expression.replace("'", "''")).append("')");
+            }
+        };
+    }
+
+    /**
+     * @return FTS query with a prefix term for each word, or null if there
+     *         are none. Words are lower-cased so they can't be read as
+     *         operators
+     */
+    static String matchExpression(CharSequence text) {
+        if(text == null)
+            return null;
+        StringBuilder expression = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if(Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if(word.length() > 0) {
+                if(expression.length() > 0)
+                    expression.append(' ');
+                expression.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+}
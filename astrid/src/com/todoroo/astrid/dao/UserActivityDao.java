@@ -6,6 +6,7 @@ import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.DependencyInjectionService;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.actfm.sync.messages.NameMaps;
+import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.UserActivity;
 
 public class UserActivityDao extends RemoteModelDao<UserActivity> {
@@ -13,6 +14,9 @@ public class UserActivityDao extends RemoteModelDao<UserActivity> {
     @Autowired
     private Database database;
 
+    @Autowired
+    private TaskSearchIndex taskSearchIndex;
+
     public UserActivityDao() {
         super(UserActivity.class);
         DependencyInjectionService.getInstance().inject(this);
@@ -23,7 +27,10 @@ public class UserActivityDao extends RemoteModelDao<UserActivity> {
     public boolean createNew(UserActivity item) {
         if (!item.containsValue(UserActivity.CREATED_AT))
             item.setValue(UserActivity.CREATED_AT, DateUtilities.now());
-        return super.createNew(item);
+        boolean result = super.createNew(item);
+        if (result)
+            refreshSearchIndex(item);
+        return result;
     }
 
     @Override
@@ -31,7 +38,24 @@ public class UserActivityDao extends RemoteModelDao<UserActivity> {
         ContentValues values = item.getSetValues();
         if(values == null || values.size() == 0)
             return false;
-        return super.saveExisting(item);
+        boolean result = super.saveExisting(item);
+        if (result && (values.containsKey(UserActivity.MESSAGE.name) ||
+                values.containsKey(UserActivity.DELETED_AT.name) ||
+                values.containsKey(UserActivity.TARGET_ID.name)))
+            refreshSearchIndex(item);
+        return result;
+    }
+
+    /**
+     * Re-index the task a comment belongs to
+     */
+    private void refreshSearchIndex(UserActivity item) {
+        UserActivity comment = item;
+        if (!item.containsNonNullValue(UserActivity.ACTION) || !item.containsNonNullValue(UserActivity.TARGET_ID))
+            comment = fetch(item.getId(), UserActivity.ACTION, UserActivity.TARGET_ID);
+        if (comment == null || !UserActivity.ACTION_TASK_COMMENT.equals(comment.getValue(UserActivity.ACTION)))
+            return;
+        taskSearchIndex.refreshTasks(Task.UUID.eq(comment.getValue(UserActivity.TARGET_ID)));
     }
 
     @Override
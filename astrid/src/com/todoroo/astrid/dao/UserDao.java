@@ -5,14 +5,26 @@
  */
 package com.todoroo.astrid.dao;
 
+import java.util.Collection;
+import java.util.List;
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Query;
 import com.todoroo.astrid.actfm.sync.messages.NameMaps;
+import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.User;
 
 public class UserDao extends RemoteModelDao<User> {
     @Autowired Database database;
 
+    @Autowired TaskListRowDao taskListRowDao;
+
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="UR_UNINIT_READ")
     public UserDao() {
         super(User.class);
@@ -24,4 +36,53 @@ public class UserDao extends RemoteModelDao<User> {
     protected boolean shouldRecordOutstandingEntry(String columnName, Object value) {
         return NameMaps.shouldRecordOutstandingColumnForTable(NameMaps.TABLE_ID_USERS, columnName);
     }
+
+    // --- task list rows
+
+    @Override
+    protected boolean hasDerivedTables(ContentValues setValues) {
+        return setValues != null && (setValues.containsKey(User.PICTURE.name) ||
+                setValues.containsKey(User.UUID.name));
+    }
+
+    @Override
+    protected void updateDerivedTables(Collection<Long> ids, ContentValues setValues) {
+        refreshTaskListRows(usersOf(User.ID.in(ids.toArray(new Long[ids.size()]))));
+    }
+
+    @Override
+    protected Property<?>[] getDerivedTableProperties() {
+        return new Property<?>[] { User.UUID };
+    }
+
+    @Override
+    protected void updateDerivedTables(List<User> previous) {
+        String[] users = new String[previous.size()];
+        for(int i = 0; i < users.length; i++)
+            users[i] = previous.get(i).getValue(User.UUID);
+        refreshTaskListRows(users);
+    }
+
+    /**
+     * Update the task list rows of tasks assigned to the given users
+     */
+    private void refreshTaskListRows(String[] users) {
+        if(users.length > 0)
+            taskListRowDao.refreshTasks(Task.USER_ID.in(users));
+    }
+
+    /**
+     * @return uuids of users matching the given criterion
+     */
+    private String[] usersOf(Criterion where) {
+        TodorooCursor<User> cursor = query(Query.select(User.UUID).where(where));
+        try {
+            String[] users = new String[cursor.getCount()];
+            for(int i = 0; cursor.moveToNext(); i++)
+                users[i] = cursor.get(User.UUID);
+            return users;
+        } finally {
+            cursor.close();
+        }
+    }
 }
@@ -18,6 +18,7 @@ import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.HistoryDao;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.dao.StoreObjectDao;
+import com.todoroo.astrid.dao.TagCountDao;
 import com.todoroo.astrid.dao.TagDataDao;
 import com.todoroo.astrid.dao.TagMetadataDao;
 import com.todoroo.astrid.dao.TagOutstandingDao;
@@ -26,6 +27,10 @@ import com.todoroo.astrid.dao.TaskAttachmentOutstandingDao;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.dao.TaskListMetadataDao;
 import com.todoroo.astrid.dao.TaskListMetadataOutstandingDao;
+import com.todoroo.astrid.dao.TaskListOperationDao;
+import com.todoroo.astrid.dao.TaskListOrderDao;
+import com.todoroo.astrid.dao.TaskListRowDao;
+import com.todoroo.astrid.dao.TaskSearchIndex;
 import com.todoroo.astrid.dao.TaskOutstandingDao;
 import com.todoroo.astrid.dao.UpdateDao;
 import com.todoroo.astrid.dao.UserActivityDao;
@@ -91,9 +96,15 @@ public class AstridDependencyInjector extends AbstractDependencyInjector {
         injectables.put("taskAttachmentOutstandingDao", TaskAttachmentOutstandingDao.class);
         injectables.put("taskListMetadataDao", TaskListMetadataDao.class);
         injectables.put("taskListMetadataOutstandingDao", TaskListMetadataOutstandingDao.class);
+        injectables.put("taskListRowDao", TaskListRowDao.class);
+        injectables.put("taskListOrderDao", TaskListOrderDao.class);
+        injectables.put("taskListOperationDao", TaskListOperationDao.class);
+        injectables.put("taskSearchIndex", TaskSearchIndex.class);
+        injectables.put("tagCountDao", TagCountDao.class);
 
         // com.todoroo.astrid.service
         injectables.put("taskService", TaskService.class);
+        injectables.put("filterCounter", FilterCounter.class);
         injectables.put("metadataService", MetadataService.class);
         injectables.put("tagDataService", TagDataService.class);
         injectables.put("upgradeService", UpgradeService.class);
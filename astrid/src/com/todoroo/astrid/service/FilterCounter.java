@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.database.Cursor;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Functions;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.api.Filter;
+import com.todoroo.astrid.api.PermaSql;
+import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.dao.MetadataDao;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+
+/**
+ * Counts the tasks in many filters at once. Filters whose query is a plain
+ * where clause on the tasks table are counted together in a single scan,
+ * with one <code>SUM(CASE WHEN ...)</code> column per filter. Other filters
+ * are counted one by one.
+ * <p>
+ * Counts are cached along with the generations of the task and metadata
+ * {@link com.todoroo.andlib.data.ChangeLog}s they were computed at. A count
+ * stays valid until a table its filter reads from changes, so e.g. tag
+ * changes only invalidate filters that look at metadata. Counts of filters
+ * that depend on the current time expire after a minute.
+ */
+@SuppressWarnings("nls")
+public class FilterCounter {
+
+    /** how long counts of filters that depend on the current time are kept */
+    static final long TIME_SENSITIVE_EXPIRY = DateUtilities.ONE_MINUTE;
+
+    private static final Pattern TABLE_PATTERN = Pattern.compile("(?i)\\b(?:FROM|JOIN)\\s+(\\w+)");
+
+    @Autowired private Database database;
+    @Autowired private TaskDao taskDao;
+    @Autowired private MetadataDao metadataDao;
+    @Autowired private TaskService taskService;
+
+    /** cached counts by filter query */
+    private final HashMap<String, CachedCount> cache = new HashMap<String, CachedCount>();
+
+    private static class CachedCount {
+        int count;
+        long taskGeneration;
+        long metadataGeneration;
+        long computedAt;
+    }
+
+    /** what a filter's query reads from, parsed once per query */
+    private static class Shape {
+        /** where clause if the filter can be counted in the shared scan, else null */
+        PermaSql.Template predicate;
+        boolean readsMetadata;
+        boolean readsOtherTables;
+        boolean timeSensitive;
+    }
+
+    private final HashMap<String, Shape> shapes = new HashMap<String, Shape>();
+
+    public FilterCounter() {
+        DependencyInjectionService.getInstance().inject(this);
+    }
+
+    /**
+     * @return number of tasks in the filter
+     */
+    public int count(Filter filter) {
+        ArrayList<Filter> filters = new ArrayList<Filter>(1);
+        filters.add(filter);
+        return count(filters)[0];
+    }
+
+    /**
+     * @return number of tasks in each of the filters, in the same order
+     */
+    public int[] count(List<Filter> filters) {
+        long taskGeneration = taskDao.getChangeLog().getGeneration();
+        long metadataGeneration = metadataDao.getChangeLog().getGeneration();
+        long now = DateUtilities.now();
+
+        int[] counts = new int[filters.size()];
+        ArrayList<Integer> scan = new ArrayList<Integer>();
+        for(int i = 0; i < filters.size(); i++) {
+            String sql = filters.get(i).getSqlQuery();
+            Shape shape = shapeOf(sql);
+            CachedCount cached = cachedCount(sql, shape, taskGeneration, metadataGeneration, now);
+            if(cached != null)
+                counts[i] = cached.count;
+            else if(shape.predicate != null)
+                scan.add(i);
+            else
+                counts[i] = remember(sql, taskService.countTasks(filters.get(i)),
+                        taskGeneration, metadataGeneration, now);
+        }
+
+        if(!scan.isEmpty()) {
+            int[] scanned = countInOneScan(filters, scan);
+            for(int j = 0; j < scan.size(); j++) {
+                int i = scan.get(j);
+                counts[i] = remember(filters.get(i).getSqlQuery(), scanned[j],
+                        taskGeneration, metadataGeneration, now);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Forget the cached count of a filter, e.g. when it has to be refreshed
+     */
+    public synchronized void invalidate(Filter filter) {
+        cache.remove(filter.getSqlQuery());
+    }
+
+    private synchronized CachedCount cachedCount(String sql, Shape shape, long taskGeneration,
+            long metadataGeneration, long now) {
+        CachedCount cached = cache.get(sql);
+        if(cached == null || shape.readsOtherTables)
+            return null;
+        if(cached.taskGeneration != taskGeneration)
+            return null;
+        if(shape.readsMetadata && cached.metadataGeneration != metadataGeneration)
+            return null;
+        if(shape.timeSensitive && now - cached.computedAt > TIME_SENSITIVE_EXPIRY)
+            return null;
+        return cached;
+    }
+
+    private synchronized int remember(String sql, int count, long taskGeneration,
+            long metadataGeneration, long now) {
+        CachedCount cached = new CachedCount();
+        cached.count = count;
+        cached.taskGeneration = taskGeneration;
+        cached.metadataGeneration = metadataGeneration;
+        cached.computedAt = now;
+        cache.put(sql, cached);
+        return count;
+    }
+
+    private int[] countInOneScan(List<Filter> filters, List<Integer> indices) {
+        ArrayList<Object> bindArgs = new ArrayList<Object>();
+        String sql = scanSql(filters, indices, bindArgs);
+        int[] result = new int[indices.size()];
+        Cursor cursor = database.rawQuery(sql, bindArgs.toArray());
+        try {
+            if(cursor.moveToFirst()) {
+                for(int j = 0; j < result.length; j++)
+                    result[j] = cursor.getInt(j);
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * @param bindArgs list to add the values of the query's parameters to
+     * @return query counting the tasks matched by each of the given filters
+     */
+    String scanSql(List<Filter> filters, List<Integer> indices, List<Object> bindArgs) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for(int j = 0; j < indices.size(); j++) {
+            if(j > 0)
+                sql.append(", ");
+            PermaSql.Template predicate = shapeOf(filters.get(indices.get(j)).getSqlQuery()).predicate;
+            sql.append("ifnull(SUM(CASE WHEN (").append(predicate.getSql()).
+                append(") THEN 1 ELSE 0 END), 0)");
+            bindArgs.addAll(Arrays.asList(predicate.bindArgs()));
+        }
+        return sql.append(" FROM ").append(Task.TABLE.name).toString();
+    }
+
+    private synchronized Shape shapeOf(String sql) {
+        Shape shape = shapes.get(sql);
+        if(shape == null) {
+            shape = parseShape(sql);
+            shapes.put(sql, shape);
+        }
+        return shape;
+    }
+
+    static Shape parseShape(String sql) {
+        Shape shape = new Shape();
+        String template = sql == null ? "" : sql.replaceAll("ORDER BY .*", "").trim();
+
+        shape.timeSensitive = PermaSql.compile(template).hasSlots() ||
+            template.contains(Functions.now().toString());
+
+        Matcher matcher = TABLE_PATTERN.matcher(template);
+        while(matcher.find()) {
+            String table = matcher.group(1);
+            if(Metadata.TABLE.name.equalsIgnoreCase(table))
+                shape.readsMetadata = true;
+            else if(!Task.TABLE.name.equalsIgnoreCase(table))
+                shape.readsOtherTables = true;
+        }
+
+        String upper = template.toUpperCase();
+        if(upper.startsWith("WHERE ") && !upper.contains("GROUP BY") &&
+                !upper.contains(" LIMIT ") && !upper.contains(" HAVING "))
+            shape.predicate = PermaSql.compile(template.substring("WHERE ".length()));
+        else if(template.length() == 0)
+            shape.predicate = PermaSql.compile("1");
+        return shape;
+    }
+
+}
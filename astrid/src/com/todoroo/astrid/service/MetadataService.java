@@ -6,6 +6,7 @@
 package com.todoroo.astrid.service;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map.Entry;
 
@@ -98,6 +99,19 @@ public class MetadataService {
         return metadataDao.persist(metadata);
     }
 
+    /**
+     * Save several pieces of metadata in one transaction
+     * @param metadata
+     */
+    public boolean saveAll(Collection<Metadata> metadata) {
+        for(Metadata item : metadata) {
+            if(!item.containsNonNullValue(Metadata.TASK))
+                throw new IllegalArgumentException("metadata needs to be attached to a task: " + item.getMergedValues()); //$NON-NLS-1$
+        }
+
+        return metadataDao.persistAll(metadata);
+    }
+
     /**
      * Synchronize metadata for given task id
      * @param id
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.PowerManager.WakeLock;
+
+import com.todoroo.andlib.service.ContextManager;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.core.PluginServices;
+
+/**
+ * Periodically moves the base time of the stored task sort keys forward
+ * and recomputes them, see {@link com.todoroo.astrid.core.SortHelper}.
+ * Like the backup service, the work is done when the alarm starts the
+ * service. A wake lock keeps the device awake until it is finished
+ */
+public class SortKeyService extends Service {
+
+    /** when after startup to rebase the first time */
+    private static final long REBASE_OFFSET = 15 * DateUtilities.ONE_MINUTE;
+
+    /** how often to rebase */
+    private static final long REBASE_INTERVAL = AlarmManager.INTERVAL_DAY;
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onStart(Intent intent, int startId) {
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        WakeLock wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "sort-key-rebase"); //$NON-NLS-1$
+        wakeLock.acquire();
+        try {
+            ContextManager.setContext(this);
+            PluginServices.getTaskDao().rebaseSortKeys();
+        } catch (Exception e) {
+            PluginServices.getExceptionService().reportError("sort-key-rebase", e); //$NON-NLS-1$
+        } finally {
+            wakeLock.release();
+            stopSelf(startId);
+        }
+    }
+
+    public static void scheduleService(Context context) {
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0,
+                new Intent(context, SortKeyService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        am.cancel(pendingIntent);
+        am.setInexactRepeating(AlarmManager.RTC, DateUtilities.now() + REBASE_OFFSET,
+                REBASE_INTERVAL, pendingIntent);
+    }
+
+}
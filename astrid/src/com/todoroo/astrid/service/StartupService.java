@@ -51,6 +51,7 @@ import com.todoroo.astrid.backup.TasksXmlImporter;
 import com.todoroo.astrid.core.PluginServices;
 import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
+import com.todoroo.astrid.dao.TagCountDao;
 import com.todoroo.astrid.dao.TagDataDao;
 import com.todoroo.astrid.dao.TaskAttachmentDao;
 import com.todoroo.astrid.dao.TaskDao;
@@ -106,6 +107,8 @@ public class StartupService {
 
     @Autowired TagDataDao tagDataDao;
 
+    @Autowired TagCountDao tagCountDao;
+
     @Autowired UserActivityDao userActivityDao;
 
     @Autowired TaskAttachmentDao taskAttachmentDao;
@@ -242,6 +245,7 @@ public class StartupService {
 
                 ReengagementService.scheduleReengagementAlarm(context);
                 taskService.cleanup();
+                tagCountDao.verifyAndRepair();
 
                 // if sync ongoing flag was set, clear it
                 ProducteevUtilities.INSTANCE.stopOngoing();
@@ -253,6 +257,7 @@ public class StartupService {
                 // perform initialization
                 ReminderStartupReceiver.startReminderSchedulingService(context);
                 BackupService.scheduleService(context);
+                SortKeyService.scheduleService(context);
 
                 gtasksSyncService.initialize();
 
@@ -132,9 +132,9 @@ public class TagDataService {
         } else
             sql = queryTemplate;
 
-        sql = PermaSql.replacePlaceholders(sql);
-
-        return tagDataDao.query(Query.select(properties).withQueryTemplate(sql));
+        PermaSql.Template template = PermaSql.compile(sql);
+        return tagDataDao.query(Query.select(properties).withQueryTemplate(template.getSql(),
+                template.bindArgs()));
     }
 
     private static Query queryForTagData(TagData tagData, Criterion extraCriterion, String userTableAlias, Property<?>[] activityProperties, Property<?>[] userProperties) {
@@ -14,6 +14,7 @@ import org.weloveastrid.rmilk.data.MilkTaskFields;
 import android.content.ContentValues;
 import android.text.TextUtils;
 
+import com.todoroo.andlib.data.PagedCursor;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
@@ -37,6 +38,7 @@ import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
+import com.todoroo.astrid.dao.TaskSearchIndex;
 import com.todoroo.astrid.dao.UserActivityDao;
 import com.todoroo.astrid.data.History;
 import com.todoroo.astrid.data.Metadata;
@@ -301,9 +303,12 @@ public class TaskService {
     public TodorooCursor<Task> fetchFiltered(String queryTemplate, CharSequence constraint,
             Property<?>... properties) {
         Criterion whereConstraint = null;
-        if(constraint != null)
-            whereConstraint = Functions.upper(Task.TITLE).like("%" +
-                    constraint.toString().toUpperCase() + "%");
+        if(constraint != null) {
+            whereConstraint = TaskSearchIndex.matches(constraint);
+            if(whereConstraint == null)
+                whereConstraint = Functions.upper(Task.TITLE).like("%" +
+                        constraint.toString().toUpperCase() + "%");
+        }
 
         if(queryTemplate == null) {
             if(whereConstraint == null)
@@ -321,9 +326,26 @@ public class TaskService {
         } else
             sql = queryTemplate;
 
-        sql = PermaSql.replacePlaceholders(sql);
+        PermaSql.Template template = PermaSql.getCompiled(sql);
+        return taskDao.query(Query.select(properties).withQueryTemplate(template.getSql(),
+                template.bindArgs()));
+    }
 
-        return taskDao.query(Query.select(properties).withQueryTemplate(sql));
+    /**
+     * Like {@link #fetchFiltered(String, CharSequence, Property...)}, but
+     * reads the result a page at a time so that the size of the filter
+     * doesn't matter. Used for task lists
+     *
+     * @param joins tables to join
+     * @param filter filter query without grouping, order or limit
+     * @param groupBy fields to group by
+     * @param order order of the tasks
+     */
+    public TodorooCursor<Task> fetchPaged(Join[] joins, String filter, Field[] groupBy,
+            Order order, Property<?>... properties) {
+        PermaSql.Template template = PermaSql.getCompiled(filter);
+        return taskDao.queryPaged(properties, joins, template.getSql(), template.bindArgs(),
+                groupBy, order, PagedCursor.DEFAULT_PAGE_SIZE);
     }
 
     public boolean getUserActivationStatus() {
@@ -430,9 +452,9 @@ public class TaskService {
 
     /** count tasks in a given filter */
     public int countTasks(Filter filter) {
-        String queryTemplate = PermaSql.replacePlaceholders(filter.getSqlQuery());
+        PermaSql.Template template = filter.getCompiledSql();
         TodorooCursor<Task> cursor = query(Query.select(Task.ID).withQueryTemplate(
-                queryTemplate));
+                template.getSql(), template.bindArgs()));
         try {
             return cursor.getCount();
         } finally {
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import java.util.Set;
+
+import android.test.AndroidTestCase;
+
+public class ChangeLogTest extends AndroidTestCase {
+
+    public void testChangesSince() {
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.changed(1);
+        long generation = changeLog.getGeneration();
+        changeLog.changed(2);
+        changeLog.changed(3);
+        changeLog.changed(2);
+
+        Set<Long> changed = changeLog.changesSince(generation);
+        assertEquals(2, changed.size());
+        assertTrue(changed.contains(2L));
+        assertTrue(changed.contains(3L));
+        assertTrue(changeLog.changesSince(changeLog.getGeneration()).isEmpty());
+    }
+
+    public void testInvalidate() {
+        ChangeLog changeLog = new ChangeLog();
+        long generation = changeLog.getGeneration();
+        changeLog.changed(1);
+        changeLog.invalidate();
+        assertNull(changeLog.changesSince(generation));
+
+        generation = changeLog.getGeneration();
+        changeLog.changed(2);
+        assertEquals(1, changeLog.changesSince(generation).size());
+    }
+
+    public void testOverflow() {
+        ChangeLog changeLog = new ChangeLog();
+        long generation = changeLog.getGeneration();
+        for(int i = 0; i < ChangeLog.CAPACITY; i++)
+            changeLog.changed(i);
+        assertEquals(ChangeLog.CAPACITY, changeLog.changesSince(generation).size());
+        changeLog.changed(-5);
+        assertNull(changeLog.changesSince(generation));
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import android.test.AndroidTestCase;
+
+import com.todoroo.andlib.data.QueryStatistics.Histogram;
+
+@SuppressWarnings("nls")
+public class QueryStatisticsTest extends AndroidTestCase {
+
+    public void testNormalizeStripsLiterals() {
+        assertEquals("SELECT * FROM tasks WHERE _id = ? AND title = ?",
+                QueryStatistics.normalize("SELECT * FROM tasks WHERE _id = 42 AND title = 'it''s'"));
+        assertEquals(QueryStatistics.normalize("SELECT * FROM tasks WHERE _id IN (1,2,3)"),
+                QueryStatistics.normalize("SELECT * FROM tasks WHERE _id IN (?, ?)"));
+        assertEquals("SELECT value1 FROM metadata WHERE key = ?",
+                QueryStatistics.normalize("SELECT value1 FROM metadata WHERE key = 'tags-tag'"));
+    }
+
+    public void testTableOf() {
+        assertEquals("tasks", QueryStatistics.tableOf("SELECT _id FROM tasks WHERE _id=?"));
+        assertEquals("metadata", QueryStatistics.tableOf("select * from metadata"));
+        assertEquals("?", QueryStatistics.tableOf("PRAGMA user_version"));
+    }
+
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for(int i = 0; i < 99; i++)
+            histogram.record(1000000L); // 1ms
+        histogram.record(500000000L); // 500ms
+        assertEquals(100, histogram.getCount());
+        assertTrue(histogram.getPercentileMillis(0.5) <= 2);
+        assertTrue(histogram.getPercentileMillis(0.95) <= 2);
+        assertEquals(500.0, histogram.getPercentileMillis(1), 0.01);
+    }
+
+    public void testSlowQueryLog() {
+        QueryStatistics statistics = new QueryStatistics();
+        statistics.setSlowThresholdMillis(10);
+        statistics.record("tasks", "SELECT 1", 1000000L);
+        for(int i = 0; i < QueryStatistics.SLOW_QUERY_LOG_SIZE + 5; i++)
+            statistics.record("tasks", "SELECT " + i, 20000000L);
+        assertEquals(QueryStatistics.SLOW_QUERY_LOG_SIZE, statistics.getSlowQueries().size());
+        assertEquals("SELECT " + (QueryStatistics.SLOW_QUERY_LOG_SIZE + 4),
+                statistics.getSlowQueries().get(0).sql);
+        assertEquals(1, statistics.getHistograms().size());
+    }
+
+}
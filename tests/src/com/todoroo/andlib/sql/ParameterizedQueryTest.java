@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.sql;
+
+import java.util.ArrayList;
+
+import android.test.AndroidTestCase;
+
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+
+public class ParameterizedQueryTest extends AndroidTestCase {
+
+    public void testLiteralsBecomePlaceholders() {
+        ArrayList<Object> args = new ArrayList<Object>();
+        String sql = Query.select(Task.ID).from(Task.TABLE).where(Criterion.and(
+                Task.ID.eq(4L), Task.TITLE.eq("it's"))).toParameterizedString(args);
+
+        assertFalse(sql.contains("it's"));
+        assertEquals(2, args.size());
+        assertEquals(4L, args.get(0));
+        assertEquals("it's", args.get(1));
+    }
+
+    public void testSameTextForDifferentValues() {
+        ArrayList<Object> args = new ArrayList<Object>();
+        String first = Query.select(Task.ID).from(Task.TABLE).where(
+                Task.UUID.eq("abc")).toParameterizedString(args);
+        String second = Query.select(Task.ID).from(Task.TABLE).where(
+                Task.UUID.eq("def")).toParameterizedString(args);
+        assertEquals(first, second);
+    }
+
+    public void testFieldValuesAreNotBound() {
+        ArrayList<Object> args = new ArrayList<Object>();
+        String sql = Query.select(Task.ID).from(Task.TABLE).join(Join.left(Metadata.TABLE,
+                Task.ID.eq(Metadata.TASK))).where(Metadata.KEY.eq("tags-tag")).
+                toParameterizedString(args);
+
+        assertTrue(sql.contains(Metadata.TASK.toString()));
+        assertEquals(1, args.size());
+        assertEquals("tags-tag", args.get(0));
+    }
+
+    public void testUnparameterizedStringUnchanged() {
+        Query query = Query.select(Task.ID).from(Task.TABLE).where(Criterion.or(
+                Task.ID.eq(4L), Criterion.not(Task.TITLE.like("a%"))));
+        assertFalse(query.toString().contains("?"));
+        assertTrue(query.toString().contains("'a%'"));
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.actfm.sync;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.todoroo.andlib.utility.AndroidUtilities;
+
+@SuppressWarnings("nls")
+public class ActFmSyncPipelineTest extends AndroidTestCase {
+
+    private static final int BATCH_SIZE = 4;
+
+    /** stub server that answers after a delay, recording what it was sent */
+    private static class StubServer implements ActFmSyncPipeline.Sender {
+        private final long latency;
+        final List<String> received = Collections.synchronizedList(new LinkedList<String>());
+
+        StubServer(long latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public JSONObject send(JSONArray payload) throws IOException {
+            try {
+                String first = payload.getString(0);
+                AndroidUtilities.sleepDeep(first.startsWith("slow") ? latency * 3 : latency);
+                for (int i = 0; i < payload.length(); i++)
+                    received.add(payload.getString(i));
+                return new JSONObject().put("messages", new JSONArray()).put("first", first);
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+    }
+
+    private static List<String> queue(String... messages) {
+        List<String> queue = Collections.synchronizedList(new LinkedList<String>());
+        for (String message : messages)
+            queue.add(message);
+        return queue;
+    }
+
+    private static JSONArray payload(List<String> batch) {
+        JSONArray payload = new JSONArray();
+        for (String message : batch)
+            payload.put(message);
+        return payload;
+    }
+
+    /** take up to max messages whose entity isn't in flight */
+    private static List<String> drain(ActFmSyncPipeline<String> pipeline, List<String> queue, int max) {
+        List<String> batch = new LinkedList<String>();
+        for (int i = 0; i < queue.size() && batch.size() < max;) {
+            if (pipeline.canSend(queue.get(i)))
+                batch.add(queue.remove(i));
+            else
+                i++;
+        }
+        return batch;
+    }
+
+    /** send everything in the queue the way the sync thread does */
+    private static int syncAll(ActFmSyncPipeline<String> pipeline, List<String> queue,
+            List<String> applied) throws Exception {
+        int messages = 0;
+        while (!queue.isEmpty() || !pipeline.isEmpty()) {
+            while (pipeline.hasCapacity() && !queue.isEmpty()) {
+                List<String> batch = drain(pipeline, queue, BATCH_SIZE);
+                if (batch.isEmpty())
+                    break;
+                pipeline.send(batch, payload(batch));
+            }
+            ActFmSyncPipeline.Batch<String> finished = pipeline.awaitOldest();
+            assertNull(finished.getError());
+            applied.add(finished.getResponse().getString("first"));
+            messages += finished.messages.size();
+        }
+        return messages;
+    }
+
+    public void testResponsesHandedBackInSendOrder() throws Exception {
+        StubServer server = new StubServer(20);
+        ActFmSyncPipeline<String> pipeline = new ActFmSyncPipeline<String>(server, 3);
+        List<String> applied = new LinkedList<String>();
+
+        syncAll(pipeline, queue("slow-a", "b", "c", "d", "e", "f", "g", "h", "i"), applied);
+        assertEquals(3, applied.size());
+        assertEquals("slow-a", applied.get(0));
+        assertEquals("e", applied.get(1));
+        assertEquals("i", applied.get(2));
+    }
+
+    public void testEntityInFlightIsHeldBack() throws Exception {
+        ActFmSyncPipeline<String> pipeline = new ActFmSyncPipeline<String>(new StubServer(20), 3);
+        List<String> queue = queue("a", "b");
+
+        List<String> batch = drain(pipeline, queue, 1);
+        pipeline.send(batch, payload(batch));
+        queue.add(0, "a");
+        assertFalse(pipeline.canSend("a"));
+
+        // the second change to a waits, but b goes ahead of it
+        batch = drain(pipeline, queue, BATCH_SIZE);
+        assertEquals(1, batch.size());
+        assertEquals("b", batch.get(0));
+        assertEquals(1, queue.size());
+        pipeline.send(batch, payload(batch));
+
+        pipeline.awaitOldest();
+        assertTrue(pipeline.canSend("a"));
+        assertEquals("a", drain(pipeline, queue, BATCH_SIZE).get(0));
+    }
+
+    /** messages/sec against a stub server, sequential vs. pipelined */
+    public void testThroughputUnderLatency() throws Exception {
+        int backlog = 48;
+        String[] messages = new String[backlog];
+        for (int i = 0; i < backlog; i++)
+            messages[i] = "task-" + i;
+
+        double sequential = 0;
+        for (long latency : new long[] { 25, 100 }) {
+            for (int inFlight : new int[] { 1, 3, 6 }) {
+                ActFmSyncPipeline<String> pipeline = new ActFmSyncPipeline<String>(
+                        new StubServer(latency), inFlight);
+                long start = System.currentTimeMillis();
+                int sent = syncAll(pipeline, queue(messages), new LinkedList<String>());
+                long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+                double rate = sent * 1000.0 / elapsed;
+                Log.i("sync-benchmark", "latency " + latency + "ms, " + inFlight +
+                        " in flight: " + Math.round(rate) + " messages/sec");
+
+                assertEquals(backlog, sent);
+                if (inFlight == 1)
+                    sequential = rate;
+                else
+                    assertTrue(rate > sequential);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.actfm.sync;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import android.test.AndroidTestCase;
+
+import com.todoroo.astrid.actfm.sync.messages.BriefMe;
+import com.todoroo.astrid.actfm.sync.messages.ClientToServerMessage;
+import com.todoroo.astrid.data.TagData;
+import com.todoroo.astrid.data.Task;
+
+@SuppressWarnings("nls")
+public class ActFmSyncQueueTest extends AndroidTestCase {
+
+    private final ActFmSyncPipeline<ActFmSyncQueue.Entry> pipeline = new ActFmSyncPipeline<ActFmSyncQueue.Entry>(
+            new ActFmSyncPipeline.Sender() {
+                @Override
+                public JSONObject send(JSONArray payload) throws IOException {
+                    return new JSONObject();
+                }
+            }, 2);
+
+    private int runs;
+
+    private final Runnable counter = new Runnable() {
+        @Override
+        public void run() {
+            runs++;
+        }
+    };
+
+    public void testRepeatedMessagesCoalesce() {
+        ActFmSyncQueue queue = new ActFmSyncQueue();
+        assertTrue(queue.enqueue(new BriefMe<Task>(Task.class, "1", 0), counter));
+        assertTrue(queue.enqueue(new BriefMe<Task>(Task.class, "2", 0), null));
+        assertFalse(queue.enqueue(new BriefMe<Task>(Task.class, "1", 0), counter));
+        assertFalse(queue.enqueue(new BriefMe<Task>(Task.class, "1", 0), new Runnable() {
+            @Override
+            public void run() {
+                runs += 10;
+            }
+        }));
+        assertTrue(queue.enqueue(new BriefMe<TagData>(TagData.class, "1", 0), null));
+
+        assertEquals(3, queue.getDepth());
+        assertEquals(5, queue.getEnqueueCount());
+        assertEquals(2, queue.getCoalesceCount());
+        assertEquals(0.4, queue.getCoalesceRate(), 0.001);
+
+        List<ActFmSyncQueue.Entry> batch = queue.drain(10, pipeline);
+        assertEquals(3, batch.size());
+        assertEquals("1", batch.get(0).message.getUUID());
+        assertEquals("2", batch.get(1).message.getUUID());
+        assertTrue(queue.isEmpty());
+
+        batch.get(0).getCallback().run();
+        assertEquals(11, runs);
+    }
+
+    public void testEntityInFlightKeepsItsPlace() throws Exception {
+        ActFmSyncQueue queue = new ActFmSyncQueue();
+        queue.enqueue(new BriefMe<Task>(Task.class, "1", 0), null);
+        List<ActFmSyncQueue.Entry> batch = queue.drain(10, pipeline);
+        pipeline.send(batch, new JSONArray());
+
+        queue.enqueue(new BriefMe<Task>(Task.class, "1", 0), null);
+        queue.enqueue(new BriefMe<Task>(Task.class, "2", 0), null);
+        batch = queue.drain(10, pipeline);
+        assertEquals(1, batch.size());
+        assertEquals("2", batch.get(0).message.getUUID());
+        assertEquals(1, queue.getDepth());
+
+        pipeline.awaitOldest();
+        batch = queue.drain(10, pipeline);
+        assertEquals(1, batch.size());
+        assertEquals("1", batch.get(0).message.getUUID());
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testOtherMessageTypesForEntityInFlightAreHeldBack() throws Exception {
+        ActFmSyncQueue queue = new ActFmSyncQueue();
+        queue.enqueue(new BriefMe<Task>(Task.class, "1", 0), null);
+        List<ActFmSyncQueue.Entry> batch = queue.drain(10, pipeline);
+        pipeline.send(batch, new JSONArray());
+
+        // a different message type doesn't coalesce, but waits all the same
+        assertTrue(queue.enqueue(new ClientToServerMessage<Task>(Task.class, "1", 0) {
+            @Override
+            protected boolean serializeExtrasToJSON(JSONObject serializeTo) {
+                return true;
+            }
+
+            @Override
+            protected String getTypeString() {
+                return "Other";
+            }
+        }, null));
+        assertTrue(queue.drain(10, pipeline).isEmpty());
+
+        pipeline.awaitOldest();
+        batch = queue.drain(10, pipeline);
+        assertEquals(1, batch.size());
+        assertEquals("1", batch.get(0).message.getUUID());
+    }
+
+}
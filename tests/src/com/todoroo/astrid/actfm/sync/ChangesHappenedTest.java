@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.actfm.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.astrid.actfm.sync.messages.ChangesHappened;
+import com.todoroo.astrid.actfm.sync.messages.ClientToServerMessage;
+import com.todoroo.astrid.dao.RemoteModelDao;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.dao.TaskOutstandingDao;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskOutstanding;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class ChangesHappenedTest extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    TaskOutstandingDao taskOutstandingDao;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RemoteModelDao.outstandingEntryFlag = 1;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RemoteModelDao.outstandingEntryFlag = -1;
+        super.tearDown();
+    }
+
+    private ChangesHappened<Task, TaskOutstanding> changesFor(Task task) {
+        return new ChangesHappened<Task, TaskOutstanding>(task.getId(), Task.class, taskDao, taskOutstandingDao);
+    }
+
+    public void testBatchMatchesSingleMessages() {
+        List<Task> tasks = new ArrayList<Task>();
+        for (int i = 0; i < 5; i++) {
+            Task task = new Task();
+            task.setValue(Task.TITLE, "task " + i);
+            taskDao.save(task);
+            task.setValue(Task.IMPORTANCE, i % Task.IMPORTANCE_LEAST);
+            taskDao.save(task);
+            tasks.add(task);
+        }
+
+        List<ClientToServerMessage<?>> batch = new ArrayList<ClientToServerMessage<?>>();
+        for (Task task : tasks)
+            batch.add(changesFor(task));
+        ChangesHappened.populateChanges(batch);
+
+        for (int i = 0; i < tasks.size(); i++) {
+            ChangesHappened<Task, TaskOutstanding> single = changesFor(tasks.get(i));
+            assertNotNull(single.serializeToJSON());
+            List<TaskOutstanding> expected = single.getChanges();
+            List<?> actual = ((ChangesHappened<?, ?>) batch.get(i)).getChanges();
+            assertFalse(expected.isEmpty());
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++)
+                assertEquals(expected.get(j).getId(), ((TaskOutstanding) actual.get(j)).getId());
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.actfm.sync;
+
+import java.util.Collections;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.astrid.actfm.sync.messages.NameMaps;
+import com.todoroo.astrid.actfm.sync.messages.ReplayOutstandingEntries;
+import com.todoroo.astrid.dao.RemoteModelDao;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.dao.TaskOutstandingDao;
+import com.todoroo.astrid.data.SyncFlags;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskOutstanding;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class ReplayOutstandingEntriesTest extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    TaskOutstandingDao taskOutstandingDao;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RemoteModelDao.outstandingEntryFlag = 1;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RemoteModelDao.outstandingEntryFlag = -1;
+        super.tearDown();
+    }
+
+    private Task createTask(String title) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, title);
+        taskDao.save(task);
+        return task;
+    }
+
+    /** change the title the way incoming server changes do */
+    private void serverChange(Task task, String title) {
+        Task changed = new Task();
+        changed.setId(task.getId());
+        changed.setValue(Task.TITLE, title);
+        changed.putTransitory(SyncFlags.ACTFM_SUPPRESS_OUTSTANDING_ENTRIES, true);
+        taskDao.saveExisting(changed);
+    }
+
+    private String title(Task task) {
+        return taskDao.fetch(task.getId(), Task.TITLE).getValue(Task.TITLE);
+    }
+
+    public void testOnlyGivenEntitiesReplayed() {
+        Task first = createTask("local 1");
+        Task second = createTask("local 2");
+        serverChange(first, "server 1");
+        serverChange(second, "server 2");
+
+        new ReplayOutstandingEntries<Task, TaskOutstanding>(Task.class, NameMaps.TABLE_ID_TASKS,
+                taskDao, taskOutstandingDao, true).execute(Collections.singleton(first.getId()));
+
+        assertEquals("local 1", title(first));
+        assertEquals("server 2", title(second));
+    }
+
+}
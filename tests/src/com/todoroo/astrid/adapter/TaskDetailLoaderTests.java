@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.adapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.service.TaskService;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class TaskDetailLoaderTests extends DatabaseTestCase {
+
+    /** counts the detail queries */
+    private static class CountingTaskService extends TaskService {
+        int queries = 0;
+
+        @Override
+        public TodorooCursor<Task> query(Query query) {
+            queries++;
+            return super.query(query);
+        }
+    }
+
+    /** runs requests only when told to */
+    private static class QueuedExecutor implements Executor {
+        final ArrayList<Runnable> queue = new ArrayList<Runnable>();
+
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            for (Runnable command : queue)
+                command.run();
+            queue.clear();
+        }
+    }
+
+    /** remembers what add-ons would be asked for */
+    private static class RecordingCallback implements TaskDetailLoader.Callback {
+        List<Long> requests = null;
+
+        public void detailsLoaded(List<Long> loaded) {
+            requests = loaded;
+        }
+    }
+
+    private CountingTaskService taskService;
+    private QueuedExecutor executor;
+    private TaskDetailLoader loader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        taskService = new CountingTaskService();
+        executor = new QueuedExecutor();
+        loader = new TaskDetailLoader(taskService, executor);
+    }
+
+    private Task createTask(String title) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, title);
+        taskService.save(task);
+        return task;
+    }
+
+    private long modificationDate(long id) {
+        return taskService.fetchById(id, Task.MODIFICATION_DATE).getValue(Task.MODIFICATION_DATE);
+    }
+
+    public void testCachedDetailsReusedUntilSaved() {
+        Task task = createTask("details");
+        long id = task.getId();
+
+        RecordingCallback callback = new RecordingCallback();
+        loader.request(Arrays.asList(id), callback);
+        executor.runAll();
+        assertEquals(Arrays.asList(id), callback.requests);
+        assertEquals("", loader.getDetails(id, modificationDate(id)));
+        long detailsDate = taskService.fetchById(id, Task.DETAILS_DATE).getValue(Task.DETAILS_DATE);
+
+        // unchanged task: the entry is kept, add-ons are not asked again
+        // and the placeholder is not written again
+        callback = new RecordingCallback();
+        loader.request(Arrays.asList(id), callback);
+        executor.runAll();
+        assertTrue(callback.requests.isEmpty());
+        assertEquals("", loader.getDetails(id, modificationDate(id)));
+        assertEquals(detailsDate, taskService.fetchById(id, Task.DETAILS_DATE).getValue(
+                Task.DETAILS_DATE).longValue());
+
+        // a save moves the modification date past the cached entry
+        long saved = modificationDate(id) + 60000;
+        task = new Task();
+        task.setId(id);
+        task.setValue(Task.TITLE, "renamed");
+        task.setValue(Task.MODIFICATION_DATE, saved);
+        taskService.save(task);
+        assertNull(loader.getDetails(id, saved));
+
+        callback = new RecordingCallback();
+        loader.request(Arrays.asList(id), callback);
+        executor.runAll();
+        assertEquals(Arrays.asList(id), callback.requests);
+        assertEquals("", loader.getDetails(id, saved));
+    }
+
+    public void testSupersededRequestReadsNothing() {
+        long first = createTask("first").getId();
+        long second = createTask("second").getId();
+
+        RecordingCallback superseded = new RecordingCallback();
+        RecordingCallback latest = new RecordingCallback();
+        loader.request(Arrays.asList(first), superseded);
+        loader.request(Arrays.asList(second), latest);
+        taskService.queries = 0;
+        executor.runAll();
+
+        assertEquals(1, taskService.queries);
+        assertNull(superseded.requests);
+        assertEquals(Arrays.asList(second), latest.requests);
+        assertNull(loader.getDetails(first, modificationDate(first)));
+        assertNotNull(loader.getDetails(second, modificationDate(second)));
+    }
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.api;
+
+import java.util.ArrayList;
+
+import android.test.AndroidTestCase;
+
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.data.Task;
+
+@SuppressWarnings("nls")
+public class PermaSqlTest extends AndroidTestCase {
+
+    private static final String FILTER = "WHERE " + Task.DUE_DATE + " < " + PermaSql.VALUE_EOD_TOMORROW +
+        " AND " + Task.HIDE_UNTIL + " < " + PermaSql.VALUE_NOW + " AND " + Task.TITLE + " <> 'EOD()'";
+
+    public void testPlaceholdersBecomeParameters() {
+        PermaSql.Template template = PermaSql.compile(FILTER);
+        assertEquals("WHERE " + Task.DUE_DATE + " < ? AND " + Task.HIDE_UNTIL + " < ? AND " +
+                Task.TITLE + " <> 'EOD()'", template.getSql());
+
+        long before = DateUtilities.now();
+        Object[] args = template.bindArgs();
+        assertEquals(2, args.length);
+        assertEquals(PermaSql.replacePlaceholders(PermaSql.VALUE_EOD_TOMORROW), args[0].toString());
+        assertTrue((Long) args[1] >= before);
+    }
+
+    public void testSameTextOnEveryRun() {
+        Filter filter = new Filter("test", "test", FILTER, null);
+        ArrayList<Object> first = new ArrayList<Object>();
+        ArrayList<Object> second = new ArrayList<Object>();
+        PermaSql.Template template = filter.getCompiledSql();
+        String firstSql = Query.select(Task.ID).from(Task.TABLE).withQueryTemplate(
+                template.getSql(), template.bindArgs()).toParameterizedString(first);
+        template = filter.getCompiledSql();
+        String secondSql = Query.select(Task.ID).from(Task.TABLE).withQueryTemplate(
+                template.getSql(), template.bindArgs()).toParameterizedString(second);
+
+        assertEquals(firstSql, secondSql);
+        assertSame(template, filter.getCompiledSql());
+        assertEquals(2, second.size());
+    }
+
+    public void testCompiledTemplatesAreReused() {
+        PermaSql.Template template = PermaSql.getCompiled(FILTER);
+        assertSame(template, PermaSql.getCompiled(FILTER));
+        assertEquals(PermaSql.compile(FILTER).getSql(), template.getSql());
+        assertNotSame(template, PermaSql.getCompiled(FILTER + " AND 1"));
+    }
+
+    public void testInlinedForPlainText() {
+        PermaSql.Template template = PermaSql.compile(FILTER);
+        String sql = Query.select(Task.ID).from(Task.TABLE).withQueryTemplate(
+                template.getSql(), template.bindArgs()).toString();
+        assertFalse(sql.contains("?"));
+        assertTrue(sql.contains("'EOD()'"));
+    }
+
+}
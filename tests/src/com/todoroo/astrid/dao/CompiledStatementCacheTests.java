@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteStatement;
+
+import com.todoroo.andlib.data.AbstractDatabase;
+import com.todoroo.andlib.data.CompiledStatementCache;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class CompiledStatementCacheTests extends DatabaseTestCase {
+
+    private static final String[] TITLE = new String[] { Task.TITLE.name };
+
+    /** database whose upgrade can be run without changing its version */
+    private static class UpgradeTestDatabase extends TestDatabase {
+        @Override
+        public String getName() {
+            return "statementcachetest";
+        }
+
+        @Override
+        protected synchronized boolean onUpgrade(int oldVersion, int newVersion) {
+            return true;
+        }
+
+        public void upgrade() {
+            helper.onUpgrade(getDatabase(), getVersion(), getVersion() + 1);
+        }
+    }
+
+    private static ContentValues title(String title) {
+        ContentValues values = new ContentValues();
+        values.put(Task.TITLE.name, title);
+        return values;
+    }
+
+    private static SQLiteStatement compileInsert(AbstractDatabase db, CompiledStatementCache cache) {
+        db.lockForWriting();
+        try {
+            return cache.insert(db.getDatabase(), TITLE);
+        } finally {
+            db.unlockForWriting();
+        }
+    }
+
+    private static void assertClosed(SQLiteStatement statement) {
+        try {
+            statement.executeInsert();
+            fail("statement is still open");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testStatementReusedAcrossCalls() {
+        CompiledStatementCache cache = database.newStatementCache(Task.TABLE);
+        assertTrue(database.insert(cache, Task.TABLE.name, title("first")) > 0);
+        SQLiteStatement statement = compileInsert(database, cache);
+
+        assertTrue(database.insert(cache, Task.TABLE.name, title("second")) > 0);
+        assertSame(statement, compileInsert(database, cache));
+        assertEquals(1, cache.size());
+    }
+
+    public void testLeastRecentlyUsedStatementClosed() {
+        CompiledStatementCache cache = new CompiledStatementCache(Task.TABLE.name, 1);
+        SQLiteStatement insert = compileInsert(database, cache);
+        database.lockForWriting();
+        try {
+            cache.updateById(database.getDatabase(), TITLE);
+        } finally {
+            database.unlockForWriting();
+        }
+        assertEquals(1, cache.size());
+        assertClosed(insert);
+    }
+
+    public void testClearedWhenDatabaseCloses() {
+        CompiledStatementCache cache = database.newStatementCache(Task.TABLE);
+        SQLiteStatement statement = compileInsert(database, cache);
+
+        database.close();
+        assertEquals(0, cache.size());
+        assertClosed(statement);
+
+        database.openForWriting();
+        assertNotSame(statement, compileInsert(database, cache));
+        assertTrue(database.insert(cache, Task.TABLE.name, title("reopened")) > 0);
+    }
+
+    public void testClearedWhenDatabaseUpgrades() {
+        UpgradeTestDatabase upgraded = new UpgradeTestDatabase();
+        upgraded.clear();
+        upgraded.openForWriting();
+        try {
+            CompiledStatementCache cache = upgraded.newStatementCache(Task.TABLE);
+            SQLiteStatement statement = compileInsert(upgraded, cache);
+
+            upgraded.upgrade();
+            assertEquals(0, cache.size());
+            assertClosed(statement);
+            assertTrue(upgraded.insert(cache, Task.TABLE.name, title("upgraded")) > 0);
+        } finally {
+            upgraded.clear();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.actfm.sync.messages.NameMaps;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskOutstanding;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class OutstandingEntryDaoTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    TaskOutstandingDao taskOutstandingDao;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RemoteModelDao.outstandingEntryFlag = 1;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RemoteModelDao.outstandingEntryFlag = -1;
+        super.tearDown();
+    }
+
+    private String[] pendingValues(long taskId, String column) {
+        TodorooCursor<TaskOutstanding> cursor = taskOutstandingDao.query(Query.select(TaskOutstanding.VALUE_STRING).
+                where(Criterion.and(TaskOutstanding.TASK_ID.eq(taskId), TaskOutstanding.COLUMN_STRING.eq(column))).
+                orderBy(Order.asc(TaskOutstanding.ID)));
+        try {
+            String[] values = new String[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++)
+                values[i] = cursor.get(TaskOutstanding.VALUE_STRING);
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void addEntry(long taskId, String column, String value) {
+        TaskOutstanding entry = new TaskOutstanding();
+        entry.setValue(TaskOutstanding.TASK_ID, taskId);
+        entry.setValue(TaskOutstanding.COLUMN_STRING, column);
+        entry.setValue(TaskOutstanding.VALUE_STRING, value);
+        taskOutstandingDao.createNew(entry);
+    }
+
+    public void testLatestValueReplacesPending() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "first");
+        taskDao.save(task);
+        for (int i = 0; i < 20; i++) {
+            task.setValue(Task.TITLE, "edit " + i);
+            taskDao.save(task);
+        }
+
+        String[] titles = pendingValues(task.getId(), Task.TITLE.name);
+        assertEquals(1, titles.length);
+        assertEquals("edit 19", titles[0]);
+    }
+
+    public void testCompactionKeepsAppendColumns() {
+        addEntry(1, Task.TITLE.name, "a");
+        addEntry(1, Task.TITLE.name, "b");
+        addEntry(2, Task.TITLE.name, "c");
+        addEntry(1, NameMaps.TAG_ADDED_COLUMN, "tag1");
+        addEntry(1, NameMaps.TAG_ADDED_COLUMN, "tag2");
+        addEntry(1, NameMaps.TAG_REMOVED_COLUMN, "tag1");
+
+        database.getDatabase().execSQL(OutstandingEntryDao.compactSql(TaskOutstanding.TABLE));
+
+        String[] titles = pendingValues(1, Task.TITLE.name);
+        assertEquals(1, titles.length);
+        assertEquals("b", titles[0]);
+        assertEquals(1, pendingValues(2, Task.TITLE.name).length);
+        assertEquals(2, pendingValues(1, NameMaps.TAG_ADDED_COLUMN).length);
+        assertEquals(1, pendingValues(1, NameMaps.TAG_REMOVED_COLUMN).length);
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.todoroo.andlib.data.PagedCursor;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class PagedCursorTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    private static final Property<?>[] PROPERTIES = new Property<?>[] { Task.ID, Task.TITLE };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // duplicate titles and importances so ties are broken by id
+        for (int i = 0; i < 95; i++) {
+            Task task = new Task();
+            task.setValue(Task.TITLE, "task " + (i % 7));
+            task.setValue(Task.IMPORTANCE, i % 3);
+            taskDao.save(task);
+        }
+    }
+
+    public void testPagesMatchFullQuery() {
+        Order order = Order.asc(Task.IMPORTANCE);
+        order.addSecondaryExpression(Order.desc(Task.TITLE));
+        String template = "WHERE " + Task.IMPORTANCE.lt(3);
+
+        ArrayList<Long> expected = new ArrayList<Long>();
+        TodorooCursor<Task> full = taskDao.query(Query.select(Task.ID).withQueryTemplate(
+                template + " ORDER BY " + order + ", " + Task.ID + " ASC"));
+        try {
+            for (full.moveToFirst(); !full.isAfterLast(); full.moveToNext())
+                expected.add(full.get(Task.ID));
+        } finally {
+            full.close();
+        }
+
+        TodorooCursor<Task> paged = taskDao.queryPaged(PROPERTIES, template, order, 10);
+        try {
+            assertEquals(expected.size(), paged.getCount());
+            for (int i = 0; i < expected.size(); i++) {
+                assertTrue(paged.moveToPosition(i));
+                assertEquals(expected.get(i), paged.get(Task.ID));
+            }
+
+            // earlier pages have been closed by now, and are read again
+            for (int i = expected.size() - 1; i >= 0; i--) {
+                assertTrue(paged.moveToPosition(i));
+                assertEquals(expected.get(i), paged.get(Task.ID));
+            }
+
+            // jumping ahead of the pages read so far
+            paged.requery();
+            assertTrue(paged.moveToPosition(72));
+            assertEquals(expected.get(72), paged.get(Task.ID));
+        } finally {
+            paged.close();
+        }
+    }
+
+    public void testPagesContinueAfterPreviousPage() {
+        Order order = Order.asc(Task.TITLE);
+        TodorooCursor<Task> paged = taskDao.queryPaged(PROPERTIES, "WHERE " + Task.ID.gt(0), order, 10);
+        try {
+            long[] ids = new long[12];
+            for (int i = 0; i < 10; i++) {
+                assertTrue(paged.moveToPosition(i));
+                ids[i] = paged.get(Task.ID);
+            }
+            taskDao.delete(ids[3]);
+
+            // the next page starts after the last row read, not at an offset
+            // that now skips a row
+            assertTrue(paged.moveToPosition(9));
+            assertEquals(ids[9], paged.get(Task.ID).longValue());
+            assertTrue(paged.moveToPosition(10));
+            ids[10] = paged.get(Task.ID);
+            assertTrue(paged.moveToPosition(11));
+            ids[11] = paged.get(Task.ID);
+
+            // the count is kept until requery, the row past the end is empty
+            assertEquals(95, paged.getCount());
+            assertTrue(paged.moveToPosition(94));
+            assertNull(paged.get(Task.TITLE));
+
+            paged.requery();
+            assertEquals(94, paged.getCount());
+            assertTrue(paged.moveToPosition(10));
+            assertEquals(ids[11], paged.get(Task.ID).longValue());
+        } finally {
+            paged.close();
+        }
+    }
+
+    public void testPositionAndSortKeyLookup() {
+        Order order = Order.asc(Task.IMPORTANCE);
+        TodorooCursor<Task> cursor = taskDao.queryPaged(PROPERTIES, "WHERE " + Task.ID.gt(0), order, 10);
+        try {
+            PagedCursor paged = (PagedCursor) cursor.getCursor();
+            assertTrue(cursor.moveToPosition(60));
+            long id = cursor.get(Task.ID);
+            assertEquals(60, paged.getPosition(id));
+            assertEquals(-1, paged.getPosition(-5));
+
+            // positions are only known for the open pages
+            assertTrue(cursor.moveToPosition(25));
+            long closed = cursor.get(Task.ID);
+            for (int i = 90; i >= 30; i -= 10)
+                assertTrue(cursor.moveToPosition(i));
+            assertEquals(-1, paged.getPosition(closed));
+
+            // changing a column the list isn't sorted by keeps the row in place
+            Task task = taskDao.fetch(id, Task.ID, Task.TITLE, Task.IMPORTANCE);
+            task.setValue(Task.TITLE, "renamed");
+            taskDao.save(task);
+            assertTrue(paged.isInPlace(Arrays.asList(id)));
+
+            task.setValue(Task.IMPORTANCE, task.getValue(Task.IMPORTANCE) + 1);
+            taskDao.save(task);
+            assertFalse(paged.isInPlace(Arrays.asList(id)));
+
+            assertTrue(paged.isCountCurrent());
+            taskDao.delete(closed);
+            assertFalse(paged.isCountCurrent());
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.ArrayList;
+
+import com.todoroo.andlib.data.QueryPlanRecorder;
+import com.todoroo.andlib.data.QueryPlanRecorder.Plan;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.History;
+import com.todoroo.astrid.data.TagData;
+import com.todoroo.astrid.data.TaskAttachment;
+import com.todoroo.astrid.data.TaskListMetadata;
+import com.todoroo.astrid.data.TaskOutstanding;
+import com.todoroo.astrid.data.UserActivity;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+public class QueryPlanTests extends DatabaseTestCase {
+
+    public void testFullScanDetection() {
+        assertTrue(QueryPlanRecorder.isFullScan("SCAN TABLE tasks (~100000 rows)"));
+        assertTrue(QueryPlanRecorder.isFullScan("TABLE tasks"));
+        assertFalse(QueryPlanRecorder.isFullScan("SCAN TABLE tasks USING INDEX t_rid"));
+        assertFalse(QueryPlanRecorder.isFullScan("SEARCH TABLE tasks USING INTEGER PRIMARY KEY (rowid=?)"));
+        assertFalse(QueryPlanRecorder.isFullScan("TABLE metadata WITH INDEX md_tid"));
+        assertFalse(QueryPlanRecorder.isFullScan(null));
+    }
+
+    public void testLookupsUseIndexes() {
+        assertIndexed(Query.select(TaskOutstanding.ID).from(TaskOutstanding.TABLE).
+                where(TaskOutstanding.TASK_ID.eq(1)));
+        assertIndexed(Query.select(TaskOutstanding.ID).from(TaskOutstanding.TABLE).
+                where(Criterion.and(TaskOutstanding.TASK_ID.eq(1), TaskOutstanding.COLUMN_STRING.eq("title")))); //$NON-NLS-1$
+        assertIndexed(Query.select(TagData.ID).from(TagData.TABLE).
+                where(TagData.UUID.eq("1"))); //$NON-NLS-1$
+        assertIndexed(Query.select(UserActivity.ID).from(UserActivity.TABLE).
+                where(UserActivity.TARGET_ID.eq("1"))); //$NON-NLS-1$
+        assertIndexed(Query.select(TaskAttachment.ID).from(TaskAttachment.TABLE).
+                where(TaskAttachment.TASK_UUID.eq("1"))); //$NON-NLS-1$
+        assertIndexed(Query.select(TaskListMetadata.ID).from(TaskListMetadata.TABLE).
+                where(TaskListMetadata.TAG_UUID.eq("1"))); //$NON-NLS-1$
+        assertIndexed(Query.select(History.ID).from(History.TABLE).
+                where(Criterion.and(History.TABLE_ID.eq("tasks"), History.TARGET_ID.eq("1")))); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    public void testRecorderCountsShapes() {
+        QueryPlanRecorder recorder = new QueryPlanRecorder();
+        for(int i = 0; i < 3; i++) {
+            ArrayList<Object> args = new ArrayList<Object>();
+            String sql = Query.select(TagData.ID).from(TagData.TABLE).
+                where(TagData.UUID.eq(Integer.toString(i))).toParameterizedString(args);
+            recorder.record(database, sql, args.toArray());
+        }
+        ArrayList<Plan> plans = recorder.getPlans();
+        assertEquals(1, plans.size());
+        assertEquals(3, plans.get(0).getCount());
+        assertFalse(plans.get(0).fullScan);
+    }
+
+    private void assertIndexed(Query query) {
+        ArrayList<Object> args = new ArrayList<Object>();
+        String sql = query.toParameterizedString(args);
+        Plan plan = QueryPlanRecorder.explain(database, sql, args.toArray());
+        assertFalse(sql, plan.fullScan);
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+/**
+ * Measures how long list queries wait while another thread is writing
+ * batches of tasks. Results are written to the log.
+ */
+@LargeTest
+public class ReaderWaitTests extends DatabaseTestCase {
+
+    private static final int BATCHES = 20;
+    private static final int BATCH_SIZE = 50;
+
+    @Autowired
+    TaskDao taskDao;
+
+    public void testReadersDuringWriteBursts() throws Exception {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for(int i = 0; i < BATCHES; i++) {
+                        ArrayList<Task> tasks = new ArrayList<Task>(BATCH_SIZE);
+                        for(int j = 0; j < BATCH_SIZE; j++) {
+                            Task task = new Task();
+                            task.setValue(Task.TITLE, "task " + i + "/" + j); //$NON-NLS-1$ //$NON-NLS-2$
+                            tasks.add(task);
+                        }
+                        taskDao.persistAll(tasks);
+                    }
+                } finally {
+                    writing.set(false);
+                }
+            }
+        };
+
+        database.setProfiling(true);
+        database.getReaderWait().reset();
+        database.getWriterWait().reset();
+        writer.start();
+        int reads = 0;
+        while(writing.get() || reads == 0) {
+            TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.ID, Task.TITLE));
+            try {
+                assertTrue(cursor.getCount() <= BATCHES * BATCH_SIZE);
+            } finally {
+                cursor.close();
+            }
+            reads++;
+        }
+        writer.join();
+
+        Log.i("reader-wait", "readers: " + database.getReaderWait() + //$NON-NLS-1$
+                ", writers: " + database.getWriterWait()); //$NON-NLS-1$
+        assertTrue(database.getReaderWait().getCount() >= reads);
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.ID));
+        try {
+            assertEquals(BATCHES * BATCH_SIZE, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
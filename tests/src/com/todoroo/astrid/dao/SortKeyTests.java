@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.utility.AndroidUtilities;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.core.SortHelper;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+public class SortKeyTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    /**
+     * Keys computed on save must match the keys the database computes
+     */
+    public void testSavedKeysMatchDatabase() {
+        long now = DateUtilities.now();
+        long[] dueDates = new long[] { 0, now / 60000 * 60000, now + 1000 * 17 };
+        long[] completionDates = new long[] { 0, now - DateUtilities.ONE_DAY };
+
+        for (long dueDate : dueDates) {
+            for (int importance = Task.IMPORTANCE_DO_OR_DIE; importance <= Task.IMPORTANCE_NONE; importance++) {
+                for (long completionDate : completionDates) {
+                    Task task = new Task();
+                    task.setValue(Task.TITLE, "sort key"); //$NON-NLS-1$
+                    task.setValue(Task.DUE_DATE, dueDate);
+                    task.setValue(Task.IMPORTANCE, importance);
+                    task.setValue(Task.COMPLETION_DATE, completionDate);
+                    taskDao.save(task);
+
+                    Task saved = taskDao.fetch(task.getId(), Task.SORT_AUTO, Task.SORT_DUE, Task.SORT_IMPORTANCE);
+                    taskDao.refreshSortKeys(Task.ID.eq(task.getId()));
+                    Task refreshed = taskDao.fetch(task.getId(), Task.SORT_AUTO, Task.SORT_DUE, Task.SORT_IMPORTANCE);
+
+                    assertEquals(saved.getValue(Task.SORT_AUTO), refreshed.getValue(Task.SORT_AUTO));
+                    assertEquals(saved.getValue(Task.SORT_DUE), refreshed.getValue(Task.SORT_DUE));
+                    assertEquals(saved.getValue(Task.SORT_IMPORTANCE), refreshed.getValue(Task.SORT_IMPORTANCE));
+                }
+            }
+        }
+    }
+
+    /**
+     * Partial saves recompute the keys from what's stored
+     */
+    public void testPartialSave() {
+        Task task = new Task();
+        task.setValue(Task.DUE_DATE, 0L);
+        task.setValue(Task.IMPORTANCE, Task.IMPORTANCE_NONE);
+        taskDao.save(task);
+        long before = taskDao.fetch(task.getId(), Task.SORT_AUTO).getValue(Task.SORT_AUTO);
+
+        Task update = new Task();
+        update.setId(task.getId());
+        update.setValue(Task.IMPORTANCE, Task.IMPORTANCE_DO_OR_DIE);
+        taskDao.save(update);
+        long after = taskDao.fetch(task.getId(), Task.SORT_AUTO).getValue(Task.SORT_AUTO);
+
+        assertTrue(after < before);
+        assertEquals(2 * SortHelper.getSortKeyBase(), after);
+    }
+
+    /**
+     * Rebasing rewrites the keys against the base it stores
+     */
+    public void testRebase() {
+        Task task = new Task();
+        task.setValue(Task.DUE_DATE, 0L);
+        task.setValue(Task.IMPORTANCE, Task.IMPORTANCE_NONE);
+        task.setValue(Task.COMPLETION_DATE, 0L);
+        taskDao.save(task);
+
+        AndroidUtilities.sleepDeep(10);
+        long oldBase = SortHelper.getSortKeyBase();
+        taskDao.rebaseSortKeys();
+        long base = SortHelper.getSortKeyBase();
+        assertTrue(base > oldBase);
+
+        SortHelper.setSortKeys(task, base);
+        Task rebased = taskDao.fetch(task.getId(), Task.SORT_AUTO, Task.SORT_DUE, Task.SORT_IMPORTANCE);
+        assertEquals(task.getValue(Task.SORT_AUTO), rebased.getValue(Task.SORT_AUTO));
+        assertEquals(task.getValue(Task.SORT_DUE), rebased.getValue(Task.SORT_DUE));
+        assertEquals(task.getValue(Task.SORT_IMPORTANCE), rebased.getValue(Task.SORT_IMPORTANCE));
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.HashSet;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.data.TagCount;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.tags.TagService;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class TagCountDaoTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    TagCountDao tagCountDao;
+
+    private static final String TAG_UUID = "1234";
+
+    private Task createTask(String title) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, title);
+        taskDao.save(task);
+        TagService.getInstance().createLink(task, "tag", TAG_UUID);
+        return task;
+    }
+
+    private void assertCounts(int active, int completed, int deleted) {
+        TodorooCursor<TagCount> cursor = tagCountDao.query(Query.select(TagCount.PROPERTIES).where(
+                TagCount.TAG_UUID.eq(TAG_UUID)));
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            TagCount count = new TagCount(cursor);
+            assertEquals(active, (int) count.getValue(TagCount.ACTIVE));
+            assertEquals(completed, (int) count.getValue(TagCount.COMPLETED));
+            assertEquals(deleted, (int) count.getValue(TagCount.DELETED));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testCountsFollowLinksAndTasks() {
+        Task a = createTask("a");
+        Task b = createTask("b");
+        Task c = createTask("c");
+        assertCounts(3, 0, 0);
+
+        b.setValue(Task.COMPLETION_DATE, DateUtilities.now());
+        taskDao.save(b);
+        c.setValue(Task.DELETION_DATE, DateUtilities.now());
+        taskDao.save(c);
+        assertCounts(1, 1, 1);
+
+        TagService.getInstance().deleteLink(a.getId(), a.getUuid(), TAG_UUID, false);
+        assertCounts(0, 1, 1);
+
+        HashSet<String> tags = new HashSet<String>();
+        tags.add("tag");
+        TagService.getInstance().synchronizeTags(a.getId(), a.getUuid(), tags);
+        assertCounts(1, 1, 1);
+
+        taskDao.delete(c.getId());
+        assertCounts(1, 1, 0);
+        assertEquals(Integer.valueOf(1), tagCountDao.getActiveCounts().get(TAG_UUID));
+    }
+
+    public void testVerifyAndRepair() {
+        createTask("a");
+        createTask("b");
+        assertEquals(0, tagCountDao.verifyAndRepair());
+
+        tagCountDao.deleteWhere(TagCount.TAG_UUID.eq(TAG_UUID));
+        assertEquals(1, tagCountDao.verifyAndRepair());
+        assertCounts(2, 0, 0);
+    }
+
+}
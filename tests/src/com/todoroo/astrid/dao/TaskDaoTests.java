@@ -5,6 +5,11 @@
  */
 package com.todoroo.astrid.dao;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.todoroo.andlib.data.DatabaseDao.ModelBatchUpdateListener;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
@@ -226,6 +231,84 @@ public class TaskDaoTests extends DatabaseTestCase {
         cursor.close();
     }
 
+    /**
+     * Listener that counts the batches and single models it is told about
+     */
+    private static class CountingListener implements ModelBatchUpdateListener<Task> {
+        int batches = 0;
+        int models = 0;
+        int singles = 0;
+
+        public void onModelsUpdated(List<Task> updated, boolean[] outstandingEntries) {
+            batches++;
+            models += updated.size();
+        }
+
+        public void onModelUpdated(Task model, boolean outstandingEntries) {
+            singles++;
+        }
+    }
+
+    /**
+     * Test that a batch with one failing save writes nothing and tells
+     * listeners nothing
+     */
+    public void testPersistAllRollsBackOnFailure() throws Exception {
+        Task existing = new Task();
+        existing.setValue(Task.TITLE, "existing");
+        assertTrue(taskDao.save(existing));
+
+        // a dao of our own, so the listener doesn't outlive the test
+        TaskDao dao = new TaskDao();
+        CountingListener listener = new CountingListener();
+        dao.addListener(listener);
+
+        Task first = new Task();
+        first.setValue(Task.TITLE, "first");
+        Task renamed = new Task();
+        renamed.setId(existing.getId());
+        renamed.setValue(Task.TITLE, "renamed");
+        Task missing = new Task();
+        missing.setId(existing.getId() + 1000);
+        missing.setValue(Task.TITLE, "missing");
+        Task last = new Task();
+        last.setValue(Task.TITLE, "last");
+
+        assertFalse(dao.persistAll(Arrays.asList(first, renamed, missing, last)));
+
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(IDS));
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        assertEquals("existing", taskDao.fetch(existing.getId(), TITLES).getValue(Task.TITLE));
+        assertEquals(Task.NO_ID, first.getId());
+        assertEquals(0, listener.batches);
+        assertEquals(0, listener.singles);
+    }
+
+    /**
+     * Test that listeners are told about a batch once it is committed
+     */
+    public void testPersistAllNotifiesOncePerBatch() throws Exception {
+        TaskDao dao = new TaskDao();
+        CountingListener listener = new CountingListener();
+        dao.addListener(listener);
+
+        ArrayList<Task> tasks = new ArrayList<Task>();
+        for (int i = 0; i < 3; i++) {
+            Task task = new Task();
+            task.setValue(Task.TITLE, "task " + i);
+            tasks.add(task);
+        }
+        assertTrue(dao.persistAll(tasks));
+
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(IDS));
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+        assertEquals(1, listener.batches);
+        assertEquals(3, listener.models);
+        assertEquals(0, listener.singles);
+    }
+
     // TODO check eventing
 }
 
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.HashMap;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.TaskListOrder;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class TaskListOrderTests extends DatabaseTestCase {
+
+    private static final String LIST = "list";
+
+    @Autowired
+    TaskListOrderDao taskListOrderDao;
+
+    private HashMap<String, Double> readRanks() {
+        HashMap<String, Double> ranks = new HashMap<String, Double>();
+        TodorooCursor<TaskListOrder> cursor = taskListOrderDao.query(Query.select(TaskListOrder.PROPERTIES).where(
+                TaskListOrder.LIST_ID.eq(LIST)));
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                ranks.put(cursor.get(TaskListOrder.TASK_UUID), cursor.get(TaskListOrder.RANK));
+        } finally {
+            cursor.close();
+        }
+        return ranks;
+    }
+
+    private void assertOrder(String... uuids) {
+        HashMap<String, Double> ranks = readRanks();
+        assertEquals(uuids.length, ranks.size());
+        for (int i = 1; i < uuids.length; i++)
+            assertTrue(ranks.get(uuids[i - 1]) < ranks.get(uuids[i]));
+    }
+
+    public void testMoveOnlyRanksMovedTask() {
+        taskListOrderDao.updateOrder(LIST, new String[] { "1", "2", "3", "4" }, new int[4]);
+        assertOrder("1", "2", "3", "4");
+        HashMap<String, Double> before = readRanks();
+
+        taskListOrderDao.updateOrder(LIST, new String[] { "1", "4", "2", "3" }, new int[4]);
+        assertOrder("1", "4", "2", "3");
+        HashMap<String, Double> after = readRanks();
+        assertEquals(before.get("1"), after.get("1"));
+        assertEquals(before.get("2"), after.get("2"));
+        assertEquals(before.get("3"), after.get("3"));
+    }
+
+    public void testPlaceTasksOnlyWritesTheirRows() {
+        taskListOrderDao.updateOrder(LIST, new String[] { "1", "2", "3", "4" }, new int[4]);
+        HashMap<String, Double> before = readRanks();
+
+        // move 4 and a new subtask of it between 1 and 2
+        assertTrue(taskListOrderDao.placeTasks(LIST, "1", "2", new String[] { "4", "5" }, new int[] { 0, 1 }));
+        assertOrder("1", "4", "5", "2", "3");
+        HashMap<String, Double> after = readRanks();
+        assertEquals(before.get("1"), after.get("1"));
+        assertEquals(before.get("2"), after.get("2"));
+        assertEquals(before.get("3"), after.get("3"));
+
+        // to the start and the end of the list
+        assertTrue(taskListOrderDao.placeTasks(LIST, null, "1", new String[] { "3" }, new int[1]));
+        assertOrder("3", "1", "4", "5", "2");
+        assertTrue(taskListOrderDao.placeTasks(LIST, "2", null, new String[] { "1" }, new int[1]));
+        assertOrder("3", "4", "5", "2", "1");
+
+        taskListOrderDao.removeTask(LIST, "5");
+        assertOrder("3", "4", "2", "1");
+    }
+
+    public void testPlaceTasksFailsWithoutRoom() {
+        taskListOrderDao.updateOrder(LIST, new String[] { "a", "b" }, new int[2]);
+        assertFalse(taskListOrderDao.placeTasks(LIST, "a", "unknown", new String[] { "c" }, new int[1]));
+        assertFalse(taskListOrderDao.placeTasks(LIST, "b", "a", new String[] { "c" }, new int[1]));
+
+        boolean placed = true;
+        for (int i = 0; i < 80 && placed; i++)
+            placed = taskListOrderDao.placeTasks(LIST, "a", i == 0 ? "b" : "n" + (i - 1),
+                    new String[] { "n" + i }, new int[1]);
+        assertFalse(placed);
+    }
+
+    public void testAddAndRemove() {
+        taskListOrderDao.updateOrder(LIST, new String[] { "1", "2", "3" }, new int[3]);
+        taskListOrderDao.updateOrder(LIST, new String[] { "0", "1", "3", "5" }, new int[4]);
+        assertOrder("0", "1", "3", "5");
+    }
+
+    public void testRespreadsWhenOutOfRoom() {
+        taskListOrderDao.updateOrder(LIST, new String[] { "a", "b" }, new int[2]);
+        String[] order = new String[] { "a", "b" };
+        // keep inserting between the first two tasks
+        for (int i = 0; i < 80; i++) {
+            String[] next = new String[order.length + 1];
+            next[0] = order[0];
+            next[1] = "n" + i;
+            System.arraycopy(order, 1, next, 2, order.length - 1);
+            order = next;
+            taskListOrderDao.updateOrder(LIST, order, new int[order.length]);
+        }
+        assertOrder(order);
+    }
+
+}
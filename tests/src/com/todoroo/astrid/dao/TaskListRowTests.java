@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskListRow;
+import com.todoroo.astrid.tags.TaskToTagMetadata;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class TaskListRowTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    MetadataDao metadataDao;
+
+    @Autowired
+    TaskListRowDao taskListRowDao;
+
+    public void testTagsFollowMetadata() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "tagged");
+        taskDao.save(task);
+
+        Metadata tag = TaskToTagMetadata.newTagMetadata(task.getId(), task.getUuid(), "home", "1");
+        metadataDao.persist(tag);
+        assertEquals("home", fetchRow(task.getId()).getValue(TaskListRow.TAGS));
+
+        tag.setValue(Metadata.DELETION_DATE, 1L);
+        metadataDao.persist(tag);
+        assertNull(fetchRow(task.getId()).getValue(TaskListRow.TAGS));
+    }
+
+    public void testNotesAndDeletion() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "noted");
+        taskDao.save(task);
+        assertEquals(0, (int) fetchRow(task.getId()).getValue(TaskListRow.HAS_NOTES));
+
+        task.setValue(Task.NOTES, "some notes");
+        taskDao.save(task);
+        assertEquals(1, (int) fetchRow(task.getId()).getValue(TaskListRow.HAS_NOTES));
+
+        taskDao.delete(task.getId());
+        assertNull(fetchRow(task.getId()));
+    }
+
+    private TaskListRow fetchRow(long taskId) {
+        TodorooCursor<TaskListRow> cursor = taskListRowDao.query(Query.select(
+                TaskListRow.PROPERTIES).where(TaskListRow.TASK.eq(taskId)));
+        try {
+            if(cursor.getCount() == 0)
+                return null;
+            cursor.moveToFirst();
+            return new TaskListRow(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.UserActivity;
+import com.todoroo.astrid.service.TaskService;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class TaskSearchIndexTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    UserActivityDao userActivityDao;
+
+    @Autowired
+    TaskService taskService;
+
+    private int countMatches(String constraint) {
+        TodorooCursor<Task> cursor = taskService.fetchFiltered(null, constraint, Task.ID);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testTitleNotesAndComments() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "Buy groceries");
+        task.setValue(Task.NOTES, "remember the artichokes");
+        taskDao.save(task);
+
+        assertEquals(1, countMatches("groc"));
+        assertEquals(1, countMatches("BUY arti"));
+        assertEquals(0, countMatches("buy lemons"));
+
+        UserActivity comment = new UserActivity();
+        comment.setValue(UserActivity.ACTION, UserActivity.ACTION_TASK_COMMENT);
+        comment.setValue(UserActivity.TARGET_ID, taskDao.fetch(task.getId(), Task.UUID).getUuid());
+        comment.setValue(UserActivity.MESSAGE, "and lemons");
+        userActivityDao.createNew(comment);
+        assertEquals(1, countMatches("buy lemons"));
+
+        task.setValue(Task.TITLE, "Sell groceries");
+        taskDao.save(task);
+        assertEquals(0, countMatches("buy"));
+        assertEquals(1, countMatches("sell"));
+
+        taskDao.delete(task.getId());
+        assertEquals(0, countMatches("sell"));
+    }
+
+    public void testMatchExpression() {
+        assertNull(TaskSearchIndex.matchExpression("  -- "));
+        assertEquals("or* and*", TaskSearchIndex.matchExpression("OR 'and'"));
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.model;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.todoroo.andlib.test.TodorooTestCase;
+import com.todoroo.astrid.data.Task;
+
+/**
+ * Microbenchmark for model reads and writes from several threads at once.
+ * Each thread works on its own models, so throughput should grow with the
+ * thread count up to the number of cores. Results are written to the log.
+ */
+@LargeTest
+public class ModelThroughputTests extends TodorooTestCase {
+
+    private static final int ITERATIONS = 20000;
+
+    public void testThroughputScaling() throws Exception {
+        runThreads(1); // warm up
+        for(int threads = 1; threads <= 8; threads *= 2) {
+            long start = System.nanoTime();
+            long operations = runThreads(threads);
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            Log.i("model-throughput", String.format("%d threads: %d ops/sec", //$NON-NLS-1$
+                    threads, operations * 1000000000L / elapsed));
+        }
+    }
+
+    private long runThreads(int threadCount) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final AtomicLong operations = new AtomicLong();
+        for(int i = 0; i < threadCount; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        operations.addAndGet(exercise());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        return operations.get();
+    }
+
+    /** set, save and read back values on a private model */
+    private long exercise() {
+        long checksum = 0;
+        for(int i = 0; i < ITERATIONS; i++) {
+            Task task = new Task();
+            task.setValue(Task.TITLE, "task"); //$NON-NLS-1$
+            task.setValue(Task.DUE_DATE, (long) i);
+            task.setValue(Task.IMPORTANCE, i & 3);
+            task.markSaved();
+            checksum += task.getValue(Task.DUE_DATE) + task.getValue(Task.IMPORTANCE) +
+                task.getValue(Task.TITLE).length();
+        }
+        assertTrue(checksum > 0);
+        return ITERATIONS * 6L;
+    }
+
+}
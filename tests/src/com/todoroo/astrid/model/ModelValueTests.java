@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.model;
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.test.TodorooTestCase;
+import com.todoroo.astrid.data.Task;
+
+public class ModelValueTests extends TodorooTestCase {
+
+    /** Saved values are readable and no longer pending */
+    public void testMarkSaved() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "title");
+        task.setValue(Task.IMPORTANCE, Task.IMPORTANCE_MUST_DO);
+        task.setValue(Task.DUE_DATE, 1234L);
+        task.markSaved();
+
+        assertNull(task.getSetValues());
+        assertEquals("title", task.getValue(Task.TITLE));
+        assertEquals(Task.IMPORTANCE_MUST_DO, (int) task.getValue(Task.IMPORTANCE));
+        assertEquals(1234L, (long) task.getValue(Task.DUE_DATE));
+
+        ContentValues values = task.getDatabaseValues();
+        assertEquals("title", values.getAsString(Task.TITLE.name));
+        assertEquals(Long.valueOf(1234L), values.getAsLong(Task.DUE_DATE.name));
+    }
+
+    /** Setting a value equal to the saved one is not a change */
+    public void testUnchangedValueNotSaved() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "title");
+        task.markSaved();
+        task.setValue(Task.TITLE, "title");
+        assertFalse(task.getSetValues().containsKey(Task.TITLE.name));
+        task.setValue(Task.TITLE, "other");
+        assertTrue(task.getSetValues().containsKey(Task.TITLE.name));
+    }
+
+    /** Values of an unexpected type are converted on read */
+    public void testMismatchedTypes() {
+        Task task = new Task();
+        ContentValues values = new ContentValues();
+        values.put(Task.DUE_DATE.name, "42");
+        values.put(Task.HIDE_UNTIL.name, 7);
+        task.mergeWith(values);
+        task.markSaved();
+        assertEquals(42L, (long) task.getValue(Task.DUE_DATE));
+        assertEquals(7L, (long) task.getValue(Task.HIDE_UNTIL));
+    }
+
+    /** Clones don't share storage */
+    public void testClone() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "title");
+        task.markSaved();
+        Task clone = (Task) task.clone();
+        task.setValue(Task.TITLE, "changed");
+        task.markSaved();
+        assertEquals("title", clone.getValue(Task.TITLE));
+        task.clearValue(Task.TITLE);
+        assertFalse(task.containsValue(Task.TITLE));
+        assertTrue(clone.containsValue(Task.TITLE));
+    }
+
+}
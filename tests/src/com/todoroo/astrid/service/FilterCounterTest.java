@@ -0,0 +1,62 @@
+package com.todoroo.astrid.service;
+
+import java.util.ArrayList;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.Join;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.QueryTemplate;
+import com.todoroo.astrid.api.Filter;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class FilterCounterTest extends DatabaseTestCase {
+
+    @Autowired TaskDao taskDao;
+    @Autowired TaskService taskService;
+    @Autowired FilterCounter filterCounter;
+
+    private Filter filter(QueryTemplate template) {
+        return new Filter("test", "test", template, null);
+    }
+
+    private void createTask(int importance, boolean completed) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "task");
+        task.setValue(Task.IMPORTANCE, importance);
+        if (completed)
+            task.setValue(Task.COMPLETION_DATE, 1L);
+        taskDao.save(task);
+    }
+
+    public void testCountsMatchSeparateQueries() {
+        for (int i = 0; i < 12; i++)
+            createTask(i % 4, i % 3 == 0);
+
+        ArrayList<Filter> filters = new ArrayList<Filter>();
+        filters.add(filter(new QueryTemplate().where(TaskCriteria.isActive())));
+        filters.add(filter(new QueryTemplate().where(Task.IMPORTANCE.eq(Task.IMPORTANCE_DO_OR_DIE))));
+        filters.add(filter(new QueryTemplate().where(TaskCriteria.activeAndVisible()).orderBy(
+                Order.asc(Task.TITLE))));
+        filters.add(filter(new QueryTemplate().join(Join.left(Metadata.TABLE,
+                Metadata.TASK.eq(Task.ID))).where(Task.IMPORTANCE.gt(1))));
+
+        int[] counts = filterCounter.count(filters);
+        for (int i = 0; i < filters.size(); i++)
+            assertEquals(taskService.countTasks(filters.get(i)), counts[i]);
+    }
+
+    public void testCacheFollowsChanges() {
+        createTask(Task.IMPORTANCE_DO_OR_DIE, false);
+        Filter important = filter(new QueryTemplate().where(Task.IMPORTANCE.eq(Task.IMPORTANCE_DO_OR_DIE)));
+        assertEquals(1, filterCounter.count(important));
+
+        createTask(Task.IMPORTANCE_DO_OR_DIE, false);
+        assertEquals(2, filterCounter.count(important));
+    }
+
+}
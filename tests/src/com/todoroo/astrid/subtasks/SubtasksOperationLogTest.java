@@ -0,0 +1,118 @@
+package com.todoroo.astrid.subtasks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.core.PluginServices;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskListMetadata;
+import com.todoroo.astrid.data.TaskListOrder;
+import com.todoroo.astrid.subtasks.AstridOrderedListUpdater.Node;
+import com.todoroo.astrid.subtasks.AstridOrderedListUpdater.OrderedListNodeVisitor;
+
+public class SubtasksOperationLogTest extends SubtasksTestCase {
+
+    private Task A, B, C, D, E, F;
+    private TaskListMetadata list;
+    private String serializedTree;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        A = createTask("A");
+        B = createTask("B");
+        C = createTask("C");
+        D = createTask("D");
+        E = createTask("E");
+        F = createTask("F");
+
+        list = new TaskListMetadata();
+        list.setValue(TaskListMetadata.FILTER, TaskListMetadata.FILTER_ID_ALL);
+        PluginServices.getTaskListMetadataDao().createNew(list);
+        serializedTree = SubtasksHelper.convertTreeToRemoteIds(DEFAULT_SERIALIZED_TREE);
+        updater.initializeFromSerializedTree(list, filter, serializedTree);
+    }
+
+    private Task createTask(String title) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, title);
+        PluginServices.getTaskService().save(task);
+        return task;
+    }
+
+    private HashMap<String, Double> readRanks() {
+        HashMap<String, Double> ranks = new HashMap<String, Double>();
+        TodorooCursor<TaskListOrder> cursor = PluginServices.getTaskListOrderDao().query(
+                Query.select(TaskListOrder.TASK_UUID, TaskListOrder.RANK).where(
+                        TaskListOrder.LIST_ID.eq(updater.getListId())));
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                ranks.put(cursor.get(TaskListOrder.TASK_UUID), cursor.get(TaskListOrder.RANK));
+        } finally {
+            cursor.close();
+        }
+        return ranks;
+    }
+
+    private void assertRanksFollowTree() {
+        final ArrayList<String> order = new ArrayList<String>();
+        updater.iterateOverList(new OrderedListNodeVisitor() {
+            @Override
+            public void visitNode(Node node) {
+                order.add(node.uuid);
+            }
+        });
+        HashMap<String, Double> ranks = readRanks();
+        assertEquals(order.size(), ranks.size());
+        for (int i = 1; i < order.size(); i++)
+            assertTrue(ranks.get(order.get(i - 1)) < ranks.get(order.get(i)));
+    }
+
+    public void testMoveOnlyRanksMovedTasks() {
+        HashMap<String, Double> before = readRanks();
+
+        // E becomes a subtask of A, before B
+        updater.moveTo(list, filter, E.getUuid(), B.getUuid());
+        assertRanksFollowTree();
+        HashMap<String, Double> after = readRanks();
+        for (Task task : new Task[] { A, B, C, D })
+            assertEquals(before.get(task.getUuid()), after.get(task.getUuid()));
+
+        updater.indent(list, filter, C.getUuid(), -1);
+        assertRanksFollowTree();
+        updater.onDeleteTask(list, filter, A.getUuid());
+        assertRanksFollowTree();
+    }
+
+    public void testChangesReplayedOnStaleTree() {
+        updater.moveTo(list, filter, A.getUuid(), "-1");
+        updater.indent(list, filter, F.getUuid(), 1);
+        assertTrue(PluginServices.getTaskListOperationDao().hasOperations(TaskListMetadata.FILTER_ID_ALL));
+
+        // load the tree as it was before the changes
+        updater = new SubtasksFilterUpdater();
+        updater.initializeFromSerializedTree(list, filter, serializedTree);
+
+        expectParentAndPosition(E, null, 0);
+        expectParentAndPosition(F, E, 0);
+        expectParentAndPosition(A, null, 1);
+        expectParentAndPosition(B, A, 0);
+        expectParentAndPosition(C, A, 1);
+        expectParentAndPosition(D, C, 0);
+
+        // and left over changes were folded into the tree
+        assertFalse(PluginServices.getTaskListOperationDao().hasOperations(TaskListMetadata.FILTER_ID_ALL));
+    }
+
+    public void testCompactsAfterThreshold() {
+        for (int i = 0; i < AstridOrderedListUpdater.COMPACT_THRESHOLD - 1; i++)
+            updater.moveTo(list, filter, (i % 2 == 0 ? E : F).getUuid(), A.getUuid());
+        assertTrue(PluginServices.getTaskListOperationDao().hasOperations(TaskListMetadata.FILTER_ID_ALL));
+
+        updater.moveTo(list, filter, F.getUuid(), "-1");
+        assertFalse(PluginServices.getTaskListOperationDao().hasOperations(TaskListMetadata.FILTER_ID_ALL));
+    }
+
+}